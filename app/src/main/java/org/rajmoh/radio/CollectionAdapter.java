@@ -46,6 +46,7 @@ import org.rajmoh.radio.helpers.TransistorKeys;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 
 
 /**
@@ -314,6 +315,7 @@ public final class CollectionAdapter extends RecyclerView.Adapter<CollectionAdap
             intent.setAction(ACTION_PLAY);
             intent.putExtra(EXTRA_STATION, mStationList.get(position));
             intent.putExtra(EXTRA_STATION_ID, position);
+            intent.putExtra(EXTRA_NEIGHBOR_STREAM_URIS, getNeighborStreamUris(position));
             mActivity.startService(intent);
             LogHelper.v(LOG_TAG, "Starting player service.");
 
@@ -389,12 +391,26 @@ public final class CollectionAdapter extends RecyclerView.Adapter<CollectionAdap
             intent.setAction(ACTION_PLAY);
             intent.putExtra(EXTRA_STATION, mStationList.get(stationIDSelected));
             intent.putExtra(EXTRA_STATION_ID, stationIDSelected);
+            intent.putExtra(EXTRA_NEIGHBOR_STREAM_URIS, getNeighborStreamUris(stationIDSelected));
             mActivity.startService(intent);
             LogHelper.v(LOG_TAG, "Starting player service.");
         }
     }
 
 
+    /* Returns the stream URIs of the stations before and after the given station - PlayerService pre-buffers them */
+    private String[] getNeighborStreamUris(int position) {
+        ArrayList<String> streamUris = new ArrayList<>(2);
+        if (position > 0) {
+            streamUris.add(mStationList.get(position - 1).getStreamUri().toString());
+        }
+        if (position + 1 < mStationList.size()) {
+            streamUris.add(mStationList.get(position + 1).getStreamUri().toString());
+        }
+        return streamUris.toArray(new String[streamUris.size()]);
+    }
+
+
     /* Setter for two pane flag */
     public void setTwoPane(boolean twoPane) {
         mTwoPane = twoPane;
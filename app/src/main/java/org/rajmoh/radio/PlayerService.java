@@ -27,9 +27,11 @@ import android.net.Uri;
 import android.net.wifi.WifiManager;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -43,43 +45,47 @@ import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.widget.Toast;
 
+import com.google.android.exoplayer2.AudioLoadControl;
 import com.google.android.exoplayer2.C;
-import com.google.android.exoplayer2.DefaultLoadControl;
 import com.google.android.exoplayer2.DefaultRenderersFactory;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.ExoPlayerFactory;
 import com.google.android.exoplayer2.Format;
-import com.google.android.exoplayer2.LoadControl;
 import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.Timeline;
-import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
-import com.google.android.exoplayer2.extractor.ExtractorsFactory;
+import com.google.android.exoplayer2.audio.AudioProcessor;
+import com.google.android.exoplayer2.audio.CrossFadeAudioProcessor;
+import com.google.android.exoplayer2.audio.LoudnessAudioProcessor;
+import com.google.android.exoplayer2.audio.PolyphaseResamplingAudioProcessor;
 import com.google.android.exoplayer2.metadata.Metadata;
 import com.google.android.exoplayer2.metadata.MetadataRenderer;
-import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.TrackGroupArray;
-import com.google.android.exoplayer2.source.hls.HlsMediaSource;
+import com.google.android.exoplayer2.trackselection.BufferBasedTrackSelection;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.trackselection.TrackSelector;
-import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DefaultAllocator;
 import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.upstream.EwmaBandwidthEstimator;
+import com.google.android.exoplayer2.upstream.HttpConnectionPool;
+import com.google.android.exoplayer2.util.StartupTracer;
 import com.google.android.exoplayer2.util.Util;
 import com.spoledge.aacdecoder.PlayerCallback;
 
 import org.rajmoh.radio.core.Station;
-import org.rajmoh.radio.helpers.CustomDefaultHttpDataSourceFactory;
+import org.rajmoh.radio.helpers.BandwidthHelper;
 import org.rajmoh.radio.helpers.LogHelper;
+import org.rajmoh.radio.helpers.LoudnessHelper;
 import org.rajmoh.radio.helpers.NotificationHelper;
+import org.rajmoh.radio.helpers.PlayerPool;
+import org.rajmoh.radio.helpers.StartupStatistics;
+import org.rajmoh.radio.helpers.StationMediaSourceFactory;
 import org.rajmoh.radio.helpers.TransistorKeys;
 
-import java.io.IOException;
-import java.net.URL;
-import java.net.URLConnection;
+import java.util.ArrayList;
 import java.util.List;
 
 import static com.google.android.exoplayer2.ExoPlaybackException.TYPE_RENDERER;
@@ -100,6 +106,13 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
     private static final String LOG_TAG = PlayerService.class.getSimpleName();
 
 
+    /* Keys */
+    private static final long TIME_SHIFT_STEP_MS = 30000;
+    private static final int CROSS_FADE_DURATION_MS = CrossFadeAudioProcessor.DEFAULT_CROSS_FADE_DURATION_MS;
+    /* The mix starts with the first audio of the new player - check every so often whether it is done */
+    private static final int CROSS_FADE_POLL_MS = 100;
+
+
     /* Main class variables */
     private static Station mStation;
     private AudioManager mAudioManager;
@@ -110,6 +123,9 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
     private int mStationIDLast;
     private String mStationMetadata;
     private String mStreamUri;
+    private String mStreamUriLast;
+    private String[] mStreamUrisNeighbor;
+    private String mStreamUriPlaying;
     private boolean mPlayback;
     private boolean mStationLoading;
     private boolean mStationMetadataReceived;
@@ -117,6 +133,14 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
     private WifiManager.WifiLock mWifiLock;
     private PowerManager.WakeLock mWakeLock;
     private SimpleExoPlayer mExoPlayer;
+    private PlayerPool.PooledPlayer mActivePlayer;
+    private PlayerPool mPlayerPool;
+    private PlayerPool.PooledPlayer mFadingOutPlayer;
+    private long mCrossFadeStartTime;
+    private float mVolume = 1.0f;
+    private Handler mHandler;
+    private HttpConnectionPool mConnectionPool;
+    private StartupStatistics mStartupStatistics;
     private String mUserAgent;
 
 
@@ -136,8 +160,10 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
 
         mStationMetadataReceived = false;
         mSession = createMediaSession(this);
+        mStartupStatistics = new StartupStatistics();
 
         mUserAgent = Util.getUserAgent(this, APPLICATION_NAME);
+        mHandler = new Handler();
 
         // create Wifi and wake locks
         mWifiLock = ((WifiManager) this.getSystemService(Context.WIFI_SERVICE)).createWifiLock(WifiManager.WIFI_MODE_FULL, "Transistor_wifi_lock");
@@ -152,7 +178,8 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
             e.printStackTrace();
         }
 
-        // get instance of mExoPlayer
+        // get instance of mExoPlayer - and a pool for the stand-by players that pre-buffer the likely next stations
+        mPlayerPool = new PlayerPool(playerFactory);
         createExoPlayer();
     }
 
@@ -175,7 +202,14 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
             if (intent.hasExtra(EXTRA_STATION)) {
                 mStation = intent.getParcelableExtra(EXTRA_STATION);
                 mStationID = intent.getIntExtra(EXTRA_STATION_ID, 0);
-                mStreamUri = mStation.getStreamUri().toString();
+                String streamUri = mStation.getStreamUri().toString();
+                if (mStreamUri != null && !mStreamUri.equals(streamUri)) {
+                    // remember the last station - it is kept warm in a stand-by player
+                    mStreamUriLast = mStreamUri;
+                }
+                mStreamUri = streamUri;
+                // the stations around this one in the collection - they are kept warm as well
+                mStreamUrisNeighbor = intent.getStringArrayExtra(EXTRA_NEIGHBOR_STREAM_URIS);
             }
 
             // update controller - start playback
@@ -285,6 +319,12 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
                     intent.putExtra(EXTRA_STATION, mStation);
                     intent.putExtra(EXTRA_STATION_ID, mStationID);
                     LocalBroadcastManager.getInstance(this.getApplication()).sendBroadcast(intent);
+
+                    // station is playing - pre-buffer the likely next stations without competing with the start-up
+                    // after a cross-fade the faded out player is reused for that when the fade is finished
+                    if (mFadingOutPlayer == null) {
+                        prepareStandbyPlayers();
+                    }
                 }
 
                 // check for race between onPlayerStateChanged and MetadataHelper
@@ -405,7 +445,7 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
                     } else if (mExoPlayer.getPlayWhenReady()) {
                         mExoPlayer.setPlayWhenReady(true);
                     }
-                    mExoPlayer.setVolume(1.0f);
+                    setVolume(1.0f);
                 }
                 break;
             // loss of audio focus of unknown duration
@@ -426,7 +466,7 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
             // temporary external request of audio focus
             case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
                 if (mExoPlayer != null && mExoPlayer.getPlayWhenReady()){
-                    mExoPlayer.setVolume(0.1f);
+                    setVolume(0.1f);
                 }
                 break;
         }
@@ -454,10 +494,20 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
             mSession.release();
         }
 
-        // release ExoPlayer
+        // release ExoPlayer and stand-by players
+        saveLoudnessGain();
+        finishCrossFade();
         if (mExoPlayer != null) {
             releaseExoPlayer();
         }
+        mPlayerPool.release();
+
+        // close kept-alive connections
+        if (mConnectionPool != null) {
+            LogHelper.v(LOG_TAG, "HTTP connections reused: " + mConnectionPool.getReuseCount() + " of " + mConnectionPool.getRequestCount() + " requests");
+            mConnectionPool.release();
+            mConnectionPool = null;
+        }
 
         // cancel notification
         stopForeground(true);
@@ -492,16 +542,31 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
             mWakeLock.acquire(); // needs android.permission.WAKE_LOCK
         }
 
-        // stop running mExoPlayer - request focus and initialize media mExoPlayer
-        if (mExoPlayer.getPlayWhenReady()) {
+        // remember the loudness of the previous station
+        saveLoudnessGain();
+        mStreamUriPlaying = mStreamUri;
+
+        // finish a running cross-fade - take over a stand-by player that already buffers the station
+        finishCrossFade();
+        PlayerPool.PooledPlayer standbyPlayer = mStreamUri != null ? mPlayerPool.acquire(mStreamUri) : null;
+
+        // stop running mExoPlayer - unless it cross-fades into the stand-by player
+        if (mExoPlayer.getPlayWhenReady() && standbyPlayer == null) {
             mExoPlayer.setPlayWhenReady(false);
             mExoPlayer.stop();
             NotificationHelper.stop();
         }
 
+        // request focus and initialize media mExoPlayer
         if (mStreamUri != null && requestFocus()) {
-            // initialize player and start playback
-            initializeExoPlayer();
+            if (standbyPlayer != null) {
+                // switch outputs - the stand-by player has already buffered the station
+                activateStandbyPlayer(standbyPlayer);
+            } else {
+                // initialize player - trace the start-up from opening the stream to the first audio
+                mExoPlayer.getStartupTracer().start();
+                initializeExoPlayer();
+            }
             mExoPlayer.setPlayWhenReady(true);
 
             // update MediaSession
@@ -511,6 +576,11 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
 
             // put up notification
             NotificationHelper.show(this, mSession, mStation, mStationID, this.getString(R.string.descr_station_stream_loading));
+        } else if (standbyPlayer != null) {
+            // no audio focus - stop the running player, the stand-by player is not needed
+            mExoPlayer.setPlayWhenReady(false);
+            mExoPlayer.stop();
+            mPlayerPool.recycle(standbyPlayer);
         }
 
         // send local broadcast: buffering
@@ -556,7 +626,10 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
             mWakeLock.release();
         }
 
-        // stop playback
+        // stop playback - remember the loudness of the station
+        saveLoudnessGain();
+        mStreamUriPlaying = null;
+        finishCrossFade();
         mExoPlayer.setPlayWhenReady(false); // todo empty buffer
         mExoPlayer.stop();
 
@@ -588,59 +661,190 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
     }
 
 
-    /* Creates an instance of SimpleExoPlayer */
+    /* Creates the active instance of SimpleExoPlayer */
     private void createExoPlayer() {
 
         if (mExoPlayer != null) {
             releaseExoPlayer();
         }
 
-        // create default TrackSelector
-        TrackSelector trackSelector = new DefaultTrackSelector();
+        mActivePlayer = createPooledPlayer();
+        mExoPlayer = mActivePlayer.player;
+        mExoPlayer.setStartupListener(startupListener);
+    }
+
+
+    /* Creates an instance of SimpleExoPlayer together with its BandwidthMeter and LoadControl */
+    private PlayerPool.PooledPlayer createPooledPlayer() {
 
-        // create default LoadControl - double the buffer
-        LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE * 2));
+        // create BandwidthMeter - a radio stream never ends, so it is sampled every second
+        // starts with the last estimate for this type of network
+        DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(null, null, new EwmaBandwidthEstimator(),
+                DefaultBandwidthMeter.DEFAULT_SLICE_DURATION_MS, new BandwidthHelper(this).loadBitrateEstimate());
+
+        // create TrackSelector - picks the bitrate of HLS streams from the buffer level, capped by the bandwidth estimate
+        TrackSelector trackSelector = new DefaultTrackSelector(new BufferBasedTrackSelection.Factory(bandwidthMeter));
+
+        // create LoadControl for audio - buffers by bytes and bitrate, starts quickly and waits longer after each rebuffer
+        AudioLoadControl loadControl = new AudioLoadControl(new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE * 2), new Handler(), loadControlListener);
+
+        // create RenderersFactory - streams are converted to the native output rate of the device instead of
+        // leaving that to the platform resampler, every station is normalized to the same loudness and a station
+        // switch cross-fades between the audio of two players
+        final int nativeSampleRate = AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+        final LoudnessAudioProcessor loudnessAudioProcessor = new LoudnessAudioProcessor();
+        final CrossFadeAudioProcessor crossFadeAudioProcessor = new CrossFadeAudioProcessor();
+        DefaultRenderersFactory renderersFactory = new DefaultRenderersFactory(getApplicationContext()) {
+            @Override
+            protected AudioProcessor[] buildAudioProcessors() {
+                return new AudioProcessor[] {new PolyphaseResamplingAudioProcessor(nativeSampleRate), loudnessAudioProcessor,
+                        crossFadeAudioProcessor};
+            }
+        };
 
         // create the player
-        mExoPlayer = ExoPlayerFactory.newSimpleInstance(new DefaultRenderersFactory(getApplicationContext()), trackSelector, loadControl);
+        SimpleExoPlayer player = ExoPlayerFactory.newSimpleInstance(renderersFactory, trackSelector, loadControl);
+        // a radio station is audio only - no need to wake up the playback thread every 10ms
+        player.setAudioOnlyScheduling(true);
+        // resampling, loudness and cross-fade run on their own thread - the playback thread only moves buffers
+        player.setAudioProcessingPipelined(true);
+        return new PlayerPool.PooledPlayer(player, loadControl, bandwidthMeter, crossFadeAudioProcessor,
+                loudnessAudioProcessor);
     }
 
 
     /* Add a media source to the ExoPlayer */
-    private void prepareExoPLayer(boolean sourceIsHLS) {
-        // create BandwidthMeter for DataSource.Factory
-        DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter();
-        // produce DataSource instances through which media data is loaded
-        DataSource.Factory dataSourceFactory = new CustomDefaultHttpDataSourceFactory(mUserAgent, bandwidthMeter, true, playerCallback);
-        // create MediaSource
-        MediaSource mediaSource;
-        if (sourceIsHLS) {
-            mediaSource = new HlsMediaSource(Uri.parse(mStreamUri),
-                    dataSourceFactory, 32, null, null);
-        } else {
-            ExtractorsFactory extractorsFactory = new DefaultExtractorsFactory();
-            mediaSource = new ExtractorMediaSource(Uri.parse(mStreamUri),
-                    dataSourceFactory, extractorsFactory, 32, null, null, null); // todo attach listener here
-        }
+    private void prepareExoPLayer(PlayerPool.PooledPlayer pooledPlayer, MediaSource mediaSource) {
         // prepare player with source.
-        mExoPlayer.prepare(mediaSource);
+        pooledPlayer.player.prepare(mediaSource);
+        pooledPlayer.setPrepared();
     }
 
 
     /* Releases the ExoPlayer */
     private void releaseExoPlayer() {
-        mExoPlayer.release();
+        releasePooledPlayer(mActivePlayer);
         mExoPlayer = null;
+        mActivePlayer = null;
+    }
+
+
+    /* Releases an instance of SimpleExoPlayer */
+    private void releasePooledPlayer(PlayerPool.PooledPlayer pooledPlayer) {
+        // remember the estimate for the next start on this type of network
+        new BandwidthHelper(this).saveBitrateEstimate(pooledPlayer.bandwidthMeter.getBitrateEstimate());
+        pooledPlayer.player.release();
     }
 
 
     /* Set up the media mExoPlayer */
     private void initializeExoPlayer() {
-        InitializeExoPlayerHelper initializeExoPlayerHelper = new InitializeExoPlayerHelper();
+        initializePooledPlayer(mActivePlayer, mStreamUri);
+    }
+
+
+    /* Opens the given stream on a player in the background */
+    private void initializePooledPlayer(PlayerPool.PooledPlayer pooledPlayer, String streamUri) {
+        if (mConnectionPool == null) {
+            mConnectionPool = new HttpConnectionPool();
+        }
+        // start at the loudness gain the station converged to last time
+        pooledPlayer.loudnessAudioProcessor.setInitialGainDb(new LoudnessHelper(this).loadGain(streamUri));
+        // produce MediaSource instances - the stream type is detected on the connection that plays the stream
+        StationMediaSourceFactory mediaSourceFactory = new StationMediaSourceFactory(mUserAgent, pooledPlayer.bandwidthMeter,
+                new PooledPlayerCallback(pooledPlayer), mConnectionPool, pooledPlayer.player.getStartupTracer());
+        InitializeExoPlayerHelper initializeExoPlayerHelper = new InitializeExoPlayerHelper(mediaSourceFactory, Uri.parse(streamUri), pooledPlayer);
         initializeExoPlayerHelper.execute();
     }
 
 
+    /* Pre-buffers the last station and the neighbors of the current station in stand-by players */
+    private void prepareStandbyPlayers() {
+        ArrayList<String> streamUris = new ArrayList<>();
+        addStandbyStreamUri(streamUris, mStreamUriLast);
+        if (mStreamUrisNeighbor != null) {
+            for (String streamUri : mStreamUrisNeighbor) {
+                addStandbyStreamUri(streamUris, streamUri);
+            }
+        }
+        // the last station is the most likely switch - prepare it last, so the pool evicts it last
+        for (int i = Math.min(streamUris.size(), mPlayerPool.getMaxStandbyPlayers()) - 1; i >= 0; i--) {
+            String streamUri = streamUris.get(i);
+            PlayerPool.PooledPlayer standbyPlayer = mPlayerPool.obtainStandby(streamUri);
+            if (standbyPlayer != null) {
+                initializePooledPlayer(standbyPlayer, streamUri);
+            }
+        }
+    }
+
+
+    /* Adds a stream to the list of streams to pre-buffer - unless it is playing or already in the list */
+    private void addStandbyStreamUri(ArrayList<String> streamUris, String streamUri) {
+        if (streamUri != null && !streamUri.equals(mStreamUri) && !streamUris.contains(streamUri)) {
+            streamUris.add(streamUri);
+        }
+    }
+
+
+    /* Makes a stand-by player the active player - the previously active player goes back into the pool */
+    private void activateStandbyPlayer(PlayerPool.PooledPlayer standbyPlayer) {
+        mExoPlayer.removeListener(this);
+        mExoPlayer.clearStartupListener(startupListener);
+        if (mExoPlayer.getPlayWhenReady()) {
+            // cross-fade - the running player hands its audio to the stand-by player, which mixes it into its own
+            // output, so one audio track plays both. The audio already queued in the running player's track is muted
+            standbyPlayer.crossFadeAudioProcessor.startCrossFade(mActivePlayer.crossFadeAudioProcessor,
+                    CROSS_FADE_DURATION_MS);
+            mExoPlayer.setVolume(0f);
+            mFadingOutPlayer = mActivePlayer;
+            mCrossFadeStartTime = SystemClock.elapsedRealtime();
+            mHandler.postDelayed(finishCrossFadeRunnable, CROSS_FADE_DURATION_MS);
+        } else {
+            mPlayerPool.recycle(mActivePlayer);
+        }
+
+        mActivePlayer = standbyPlayer;
+        mExoPlayer = standbyPlayer.player;
+        // the active player gets the full buffer again
+        mActivePlayer.loadControl.setMaxBufferBytes(AudioLoadControl.DEFAULT_MAX_BUFFER_BYTES);
+        mActivePlayer.crossFadeAudioProcessor.setOutputHeld(false);
+        mExoPlayer.setVolume(mVolume);
+        mExoPlayer.setStartupListener(startupListener);
+        mExoPlayer.addListener(this, ExoPlayer.EVENT_PLAYER_STATE_CHANGED
+                | ExoPlayer.EVENT_PLAYER_ERROR | ExoPlayer.EVENT_TRACKS_CHANGED);
+
+        // the stand-by player may be ready already - it does not report that again
+        onPlayerStateChanged(mExoPlayer.getPlayWhenReady(), mExoPlayer.getPlaybackState());
+    }
+
+
+    /* Stops the player that has been faded out and hands it back to the pool */
+    private void finishCrossFade() {
+        mHandler.removeCallbacks(finishCrossFadeRunnable);
+        if (mFadingOutPlayer != null) {
+            mPlayerPool.recycle(mFadingOutPlayer);
+            mFadingOutPlayer = null;
+        }
+    }
+
+
+    /* Sets the volume of the active player - it is carried over to the next player on a station switch */
+    private void setVolume(float volume) {
+        mVolume = volume;
+        mExoPlayer.setVolume(volume);
+    }
+
+
+    /* Stores the loudness gain of the playing station - once it has been measured long enough */
+    private void saveLoudnessGain() {
+        if (mStreamUriPlaying == null || mActivePlayer == null
+                || !mActivePlayer.loudnessAudioProcessor.hasConverged()) {
+            return;
+        }
+        new LoudnessHelper(this).saveGain(mStreamUriPlaying, mActivePlayer.loudnessAudioProcessor.getGainDb());
+    }
+
+
     /* Request audio manager focus */
     private boolean requestFocus() {
         int result = mAudioManager.requestAudioFocus(this,
@@ -673,6 +877,21 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
     }
 
 
+    /* Moves the playback position within the seekable window of the live stream */
+    private void timeShift(long offsetMs) {
+        if (!mPlayback || mExoPlayer == null || !mExoPlayer.isCurrentWindowSeekable()) {
+            return;
+        }
+        long durationMs = mExoPlayer.getDuration();
+        long positionMs = mExoPlayer.getCurrentPosition() + offsetMs;
+        if (durationMs != C.TIME_UNSET) {
+            positionMs = Math.min(positionMs, durationMs);
+        }
+        mExoPlayer.seekTo(Math.max(positionMs, 0));
+        LogHelper.v(LOG_TAG, "Time-shifting playback by " + offsetMs + "ms.");
+    }
+
+
     /* Creates playback state depending on mPlayback */
     private PlaybackStateCompat getPlaybackState() {
 
@@ -680,7 +899,8 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
             // define action for playback state to be used in media session callback
             return new PlaybackStateCompat.Builder()
                     .setState(PlaybackStateCompat.STATE_PLAYING, 0, 0)
-                    .setActions(PlaybackStateCompat.ACTION_STOP | PlaybackStateCompat.ACTION_PAUSE)
+                    .setActions(PlaybackStateCompat.ACTION_STOP | PlaybackStateCompat.ACTION_PAUSE
+                            | PlaybackStateCompat.ACTION_REWIND | PlaybackStateCompat.ACTION_FAST_FORWARD)
                     .build();
         } else {
             // define action for playback state to be used in media session callback
@@ -792,6 +1012,18 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
             stopPlayback();
         }
 
+        @Override
+        public void onRewind() {
+            // jump back within the played audio that the player keeps
+            timeShift(-TIME_SHIFT_STEP_MS);
+        }
+
+        @Override
+        public void onFastForward() {
+            // jump forward - at most up to the live stream
+            timeShift(TIME_SHIFT_STEP_MS);
+        }
+
     }
     /**
      * End of inner class
@@ -799,38 +1031,109 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
 
 
     /**
-     * Inner class: Checks for HTTP Live Streaming (HLS) before playing
+     * Inner class: Opens the stream and creates a matching MediaSource before playing
      */
-    private class InitializeExoPlayerHelper extends AsyncTask<Void, Void, Boolean> {
+    private class InitializeExoPlayerHelper extends AsyncTask<Void, Void, MediaSource> {
+
+        private final StationMediaSourceFactory mediaSourceFactory;
+        private final Uri streamUri;
+        private final PlayerPool.PooledPlayer pooledPlayer;
+
+        private InitializeExoPlayerHelper(StationMediaSourceFactory mediaSourceFactory, Uri streamUri, PlayerPool.PooledPlayer pooledPlayer) {
+            this.mediaSourceFactory = mediaSourceFactory;
+            this.streamUri = streamUri;
+            this.pooledPlayer = pooledPlayer;
+        }
 
         @Override
-        protected Boolean doInBackground(Void... voids) {
-            String contentType = "";
-            URLConnection connection = null;
-            try {
-                connection = new URL(mStreamUri).openConnection();
-                connection.connect();
-                contentType = connection.getContentType();
-                LogHelper.v(LOG_TAG, "MIME type of stream: " + contentType);
-                if (contentType != null && (contentType.contains("application/vnd.apple.mpegurl") || contentType.contains("application/x-mpegurl"))) {
-                    LogHelper.v(LOG_TAG, "HTTP Live Streaming detected.");
-                    return true;
-                } else {
-                    return false;
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-                return false;
-            }
+        protected MediaSource doInBackground(Void... voids) {
+            // checks for HTTP Live Streaming (HLS) on the connection that is handed over to the player
+            return mediaSourceFactory.createMediaSource(streamUri);
         }
 
         @Override
-        protected void onPostExecute(Boolean sourceIsHLS) {
+        protected void onPostExecute(MediaSource mediaSource) {
+            if (pooledPlayer != mActivePlayer && !mPlayerPool.isStandby(pooledPlayer, streamUri.toString())) {
+                // stand-by player has been reused for another station in the meantime - the MediaSource is
+                // dropped, so close the connection it would have taken over
+                mediaSourceFactory.release();
+                return;
+            }
+
             // prepare player
-            prepareExoPLayer(sourceIsHLS);
+            prepareExoPLayer(pooledPlayer, mediaSource);
+
+            // add listener to the active player - only for the events the service reacts to
+            if (pooledPlayer != mActivePlayer) {
+                return;
+            }
+            mExoPlayer.addListener(PlayerService.this, ExoPlayer.EVENT_PLAYER_STATE_CHANGED
+                    | ExoPlayer.EVENT_PLAYER_ERROR | ExoPlayer.EVENT_TRACKS_CHANGED);
+        }
+
+    }
+    /**
+     * End of inner class
+     */
+
+
+    /**
+     * Inner class: Forwards the callbacks of a player's stream - only while the player is active,
+     * stand-by and fading out players stay silent
+     */
+    private final class PooledPlayerCallback implements PlayerCallback {
+
+        private final PlayerPool.PooledPlayer pooledPlayer;
+
+        private PooledPlayerCallback(PlayerPool.PooledPlayer pooledPlayer) {
+            this.pooledPlayer = pooledPlayer;
+        }
+
+        @Override
+        public void playerStarted() {
+            if (isActive()) {
+                playerCallback.playerStarted();
+            }
+        }
 
-            // add listener
-            mExoPlayer.addListener(PlayerService.this);
+        @Override
+        public void playerPCMFeedBuffer(boolean isPlaying, int audioBufferSizeMs, int audioBufferCapacityMs) {
+            if (isActive()) {
+                playerCallback.playerPCMFeedBuffer(isPlaying, audioBufferSizeMs, audioBufferCapacityMs);
+            }
+        }
+
+        @Override
+        public void playerStopped(int perf) {
+            if (isActive()) {
+                playerCallback.playerStopped(perf);
+            }
+        }
+
+        @Override
+        public void playerException(Throwable t) {
+            if (isActive()) {
+                playerCallback.playerException(t);
+            }
+        }
+
+        @Override
+        public void playerMetadata(String key, String value) {
+            if (isActive()) {
+                playerCallback.playerMetadata(key, value);
+            }
+        }
+
+        @Override
+        public void playerAudioTrackCreated(AudioTrack audioTrack) {
+            if (isActive()) {
+                playerCallback.playerAudioTrackCreated(audioTrack);
+            }
+        }
+
+        /* Checks if the player of this stream is the one the user hears */
+        private boolean isActive() {
+            return pooledPlayer == mActivePlayer;
         }
 
     }
@@ -839,6 +1142,88 @@ public final class PlayerService extends MediaBrowserServiceCompat implements Tr
      */
 
 
+    /**
+     * Runnable: Ends the cross-fade after a station switch - once the mix has used up the audio of the faded out player
+     */
+    private final Runnable finishCrossFadeRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            if (mFadingOutPlayer != null && !mFadingOutPlayer.crossFadeAudioProcessor.isFadeOutEnded()
+                    && SystemClock.elapsedRealtime() - mCrossFadeStartTime < 2 * CROSS_FADE_DURATION_MS) {
+                mHandler.postDelayed(this, CROSS_FADE_POLL_MS);
+                return;
+            }
+            finishCrossFade();
+            // the faded out player can pre-buffer a station now
+            if (mPlayback && !mStationLoading) {
+                prepareStandbyPlayers();
+            }
+        }
+
+    };
+
+
+    /**
+     * Callback: Creates and releases the players of the PlayerPool
+     */
+    PlayerPool.PlayerFactory playerFactory = new PlayerPool.PlayerFactory() {
+
+        @Override
+        public PlayerPool.PooledPlayer createPlayer() {
+            return createPooledPlayer();
+        }
+
+        @Override
+        public void releasePlayer(PlayerPool.PooledPlayer pooledPlayer) {
+            releasePooledPlayer(pooledPlayer);
+        }
+
+    };
+
+
+    /**
+     * Callback: Receives the loading state of the LoadControl
+     */
+    AudioLoadControl.EventListener loadControlListener = new AudioLoadControl.EventListener() {
+
+        @Override
+        public void onLoadingChanged(boolean loading, long bufferedDurationUs, int bufferedBytes) {
+            LogHelper.v(LOG_TAG, (loading ? "Loading resumed" : "Loading paused") + " with " + bufferedDurationUs / 1000 + "ms (" + bufferedBytes / 1024 + "KB) buffered.");
+        }
+
+        @Override
+        public void onRebuffer(int rebufferCount, long bufferForPlaybackUs) {
+            LogHelper.v(LOG_TAG, "Rebuffer #" + rebufferCount + " - waiting for " + bufferForPlaybackUs / 1000 + "ms of audio before resuming.");
+        }
+
+    };
+
+
+    /**
+     * Callback: Callback from the player's StartupTracer reacting to the first audio output
+     */
+    StartupTracer.Listener startupListener = new StartupTracer.Listener() {
+
+        @Override
+        public void onStartupTraced(StartupTracer tracer) {
+            if (mStreamUri == null) {
+                return;
+            }
+            long timeToFirstAudio = mStartupStatistics.addTrace(mStreamUri, tracer);
+            LogHelper.v(LOG_TAG, "Time to first audio: " + timeToFirstAudio + "ms");
+
+            // send local broadcast: time to first audio
+            Intent intent = new Intent();
+            intent.setAction(ACTION_TIME_TO_FIRST_AUDIO);
+            intent.putExtra(EXTRA_TIME_TO_FIRST_AUDIO, timeToFirstAudio);
+            intent.putExtra(EXTRA_STATION_ID, mStationID);
+            LocalBroadcastManager.getInstance(getApplication()).sendBroadcast(intent);
+        }
+
+    };
+
+
     /**
      * Callback: Callback from IcyInputStream reacting to new metadata
      */
@@ -0,0 +1,82 @@
+/**
+ * BandwidthHelper.java
+ * Implements the BandwidthHelper class
+ * A BandwidthHelper remembers the last bandwidth estimate for each type of network
+ *
+ * This file is part of
+ * TRANSISTOR - Radio App for Android
+ *
+ * Copyright (c) 2015-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ */
+
+
+package org.rajmoh.radio.helpers;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.preference.PreferenceManager;
+
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+
+
+/**
+ * BandwidthHelper class
+ * The stored estimate is the starting point for track selection on the next start - a station
+ * played over Wi-Fi yesterday says little about the bandwidth of a mobile connection today
+ */
+public final class BandwidthHelper implements TransistorKeys {
+
+    /* Define log tag */
+    private static final String LOG_TAG = BandwidthHelper.class.getSimpleName();
+
+
+    /* Main class variables */
+    private final Context mContext;
+
+
+    /* Constructor */
+    public BandwidthHelper(Context context) {
+        mContext = context;
+    }
+
+
+    /* Returns the last estimate for the current network type - or BandwidthMeter.NO_ESTIMATE */
+    public long loadBitrateEstimate() {
+        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(mContext);
+        long bitrateEstimate = settings.getLong(getPreferenceKey(), BandwidthMeter.NO_ESTIMATE);
+        LogHelper.v(LOG_TAG, "Loading bitrate estimate for " + getPreferenceKey() + ": " + bitrateEstimate);
+        return bitrateEstimate;
+    }
+
+
+    /* Stores the estimate for the current network type */
+    public void saveBitrateEstimate(long bitrateEstimate) {
+        if (bitrateEstimate == BandwidthMeter.NO_ESTIMATE) {
+            return;
+        }
+        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(mContext);
+        SharedPreferences.Editor editor = settings.edit();
+        editor.putLong(getPreferenceKey(), bitrateEstimate);
+        editor.apply();
+        LogHelper.v(LOG_TAG, "Saving bitrate estimate for " + getPreferenceKey() + ": " + bitrateEstimate);
+    }
+
+
+    /* Builds the preference key from the type of the active network - mobile networks are told apart by their subtype */
+    private String getPreferenceKey() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null) {
+            return PREF_BITRATE_ESTIMATE;
+        } else if (networkInfo.getType() == ConnectivityManager.TYPE_MOBILE) {
+            return PREF_BITRATE_ESTIMATE + "_" + networkInfo.getType() + "_" + networkInfo.getSubtype();
+        } else {
+            return PREF_BITRATE_ESTIMATE + "_" + networkInfo.getType();
+        }
+    }
+
+}
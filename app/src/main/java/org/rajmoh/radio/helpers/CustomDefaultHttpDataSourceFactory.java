@@ -1,7 +1,7 @@
 /**
  * CustomDefaultHttpDataSourceFactory.java
  * Implements a factory for a custom DefaultHttpDataSource
- * A CustomDefaultHttpDataSourceFactory produces a DefaultHttpDataSource that can extract Shoutcast metadata - IcyDataSource
+ * A CustomDefaultHttpDataSourceFactory produces a DefaultHttpDataSource that can extract Shoutcast metadata - IcyDemuxDataSource
  *
  * This file is part of
  * TRANSISTOR - Radio App for Android
@@ -19,6 +19,8 @@ package org.rajmoh.radio.helpers;
 
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer2.upstream.HttpConnectionPool;
+import com.google.android.exoplayer2.upstream.PooledHttpDataSource;
 import com.google.android.exoplayer2.upstream.TransferListener;
 import com.spoledge.aacdecoder.PlayerCallback;
 
@@ -34,6 +36,7 @@ public class CustomDefaultHttpDataSourceFactory implements DataSource.Factory {
     private final int connectTimeoutMillis;
     private final int readTimeoutMillis;
     private final boolean allowCrossProtocolRedirects;
+    private final HttpConnectionPool connectionPool;
     private boolean enableShoutcast = false;
     private PlayerCallback playerCallback;
 
@@ -43,13 +46,24 @@ public class CustomDefaultHttpDataSourceFactory implements DataSource.Factory {
                                               TransferListener<? super DataSource> listener,
                                               boolean enableShoutcast,
                                               PlayerCallback playerCallback) {
+        this(userAgent, listener, enableShoutcast, playerCallback, null);
+    }
+
+
+    /* Constructor - connections of non-Shoutcast sources are kept alive in the given pool */
+    public CustomDefaultHttpDataSourceFactory(String userAgent,
+                                              TransferListener<? super DataSource> listener,
+                                              boolean enableShoutcast,
+                                              PlayerCallback playerCallback,
+                                              HttpConnectionPool connectionPool) {
         this(userAgent,
              listener,
              DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS,
              DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS,
              false,
              enableShoutcast,
-             playerCallback);
+             playerCallback,
+             connectionPool);
     }
 
 
@@ -60,7 +74,8 @@ public class CustomDefaultHttpDataSourceFactory implements DataSource.Factory {
                                               int readTimeoutMillis,
                                               boolean allowCrossProtocolRedirects,
                                               boolean enableShoutcast,
-                                              PlayerCallback playerCallback) {
+                                              PlayerCallback playerCallback,
+                                              HttpConnectionPool connectionPool) {
         this.userAgent = userAgent;
         this.listener = listener;
         this.connectTimeoutMillis = connectTimeoutMillis;
@@ -68,14 +83,19 @@ public class CustomDefaultHttpDataSourceFactory implements DataSource.Factory {
         this.allowCrossProtocolRedirects = allowCrossProtocolRedirects;
         this.enableShoutcast = enableShoutcast;
         this.playerCallback = playerCallback;
+        this.connectionPool = connectionPool;
     }
 
 
     @Override
-    public DefaultHttpDataSource createDataSource() {
+    public DataSource createDataSource() {
         // toggle Shoutcast extraction
         if (enableShoutcast) {
-            return new IcyDataSource(userAgent, null, playerCallback);
+            return new IcyDemuxDataSource(new IcyDataSource(userAgent, null), playerCallback);
+        } else if (connectionPool != null) {
+            // reuse keep-alive connections - e.g. for consecutive HLS segments
+            return new PooledHttpDataSource(connectionPool, userAgent, null, listener,
+                    connectTimeoutMillis, readTimeoutMillis, allowCrossProtocolRedirects, null);
         } else {
             return new DefaultHttpDataSource(userAgent, null, listener, connectTimeoutMillis,
                     readTimeoutMillis, allowCrossProtocolRedirects, null);
@@ -1,7 +1,8 @@
 /**
  * IcyDataSource.java
  * Implements a IcyDataSource
- * An IcyDataSource creates a DefaultHttpDataSource that can extract Shoutcast metadata
+ * An IcyDataSource creates a DefaultHttpDataSource that requests Shoutcast metadata
+ * The metadata blocks are split from the audio by IcyDemuxDataSource
  *
  * This file is part of
  * TRANSISTOR - Radio App for Android
@@ -21,8 +22,6 @@ package org.rajmoh.radio.helpers;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
 import com.google.android.exoplayer2.util.Predicate;
-import com.spoledge.aacdecoder.IcyInputStream;
-import com.spoledge.aacdecoder.PlayerCallback;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -41,21 +40,27 @@ public class IcyDataSource extends DefaultHttpDataSource implements TransistorKe
 
     /* Main class variables */
     private boolean metadataEnabled = true;
-    private PlayerCallback playerCallback;
+    private int metadataInterval;
 
     
     /* Constructor */
-    public IcyDataSource(String userAgent, Predicate<String> contentTypePredicate, PlayerCallback playerCallback) {
+    public IcyDataSource(String userAgent, Predicate<String> contentTypePredicate) {
         super(userAgent, contentTypePredicate);
-        this.playerCallback = playerCallback;
     }
 
 
     @Override
     public long open(DataSpec dataSpec) throws HttpDataSourceException {
+        metadataInterval = 0;
         return super.open(dataSpec);
     }
 
+
+    /* Returns the period of the metadata blocks in bytes - or 0 if the stream has no dynamic metainfo */
+    public int getMetadataInterval() {
+        return metadataInterval;
+    }
+
     @Override
     protected HttpURLConnection makeConnection(DataSpec dataSpec) throws IOException {
         // open a http connection for Icy-Metadata (Shoutcast)
@@ -70,7 +75,7 @@ public class IcyDataSource extends DefaultHttpDataSource implements TransistorKe
 
     @Override
     protected InputStream getInputStream(HttpURLConnection conn) throws Exception {
-        // Get the input stream from the connection. Actually returns the underlying stream or IcyInputStream
+        // Get the input stream from the connection. Metadata blocks are left in the stream for IcyDemuxDataSource
         String smetaint = conn.getHeaderField( "icy-metaint");
         InputStream ret = conn.getInputStream();
 
@@ -87,9 +92,7 @@ public class IcyDataSource extends DefaultHttpDataSource implements TransistorKe
             }
 
             if (period > 0) {
-                LogHelper.v(LOG_TAG, "The dynamic metainfo is sent every " + period + " bytes");
-
-                ret = new IcyInputStream(ret, period, playerCallback, null);
+                metadataInterval = period;
             }
         }
         else LogHelper.v(LOG_TAG, "This stream does not provide dynamic metainfo");
@@ -0,0 +1,264 @@
+/**
+ * IcyDemuxDataSource.java
+ * Implements a IcyDemuxDataSource
+ * An IcyDemuxDataSource wraps an IcyDataSource and splits the Shoutcast metadata blocks from the audio bytes
+ *
+ * This file is part of
+ * TRANSISTOR - Radio App for Android
+ *
+ * Copyright (c) 2015-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ */
+
+
+package org.rajmoh.radio.helpers;
+
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.spoledge.aacdecoder.PlayerCallback;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * IcyDemuxDataSource class
+ * Audio bytes are read straight into the caller's buffer - metadata blocks are copied into a
+ * preallocated buffer and only decoded when their content differs from the previous block
+ */
+public final class IcyDemuxDataSource implements DataSource, TransistorKeys {
+
+    /* Define log tag */
+    private static final String LOG_TAG = IcyDemuxDataSource.class.getSimpleName();
+
+
+    /* Keys */
+    private static final String SHOUTCAST_STREAM_URL_HEADER = "StreamUrl";
+
+    /* The length byte counts in blocks of 16 bytes - a metadata block is at most 255 * 16 bytes */
+    private static final int MAX_METADATA_LENGTH = 255 * 16;
+    private static final Charset METADATA_CHARSET = Charset.forName("UTF-8");
+    private static final int SKIP_BUFFER_SIZE = 4096;
+
+
+    /* Main class variables */
+    private final IcyDataSource upstream;
+    private final PlayerCallback playerCallback;
+    private final byte[] metadataBuffer;
+    private final byte[] lastMetadata;
+    private byte[] skipBuffer;
+    private int lastMetadataLength;
+    private int metadataInterval;
+    private int bytesUntilMetadata;
+    private String streamTitle;
+    private String streamUrl;
+
+
+    /* Constructor */
+    public IcyDemuxDataSource(IcyDataSource upstream, PlayerCallback playerCallback) {
+        this.upstream = upstream;
+        this.playerCallback = playerCallback;
+        metadataBuffer = new byte[MAX_METADATA_LENGTH];
+        lastMetadata = new byte[MAX_METADATA_LENGTH];
+    }
+
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        // metadata is always requested, and the upstream would skip raw bytes - metadata blocks included -
+        // and put the metadata boundaries out of step. Open the stream at its start instead and skip the
+        // audio bytes here, with the same bookkeeping as reads
+        DataSpec upstreamDataSpec = dataSpec;
+        if (dataSpec.position != 0) {
+            long upstreamLength = dataSpec.length == C.LENGTH_UNSET ? C.LENGTH_UNSET : dataSpec.position + dataSpec.length;
+            upstreamDataSpec = new DataSpec(dataSpec.uri, dataSpec.postBody,
+                    dataSpec.absoluteStreamPosition - dataSpec.position, 0, upstreamLength, dataSpec.key, dataSpec.flags);
+        }
+        long length = upstream.open(upstreamDataSpec);
+        metadataInterval = upstream.getMetadataInterval();
+        bytesUntilMetadata = metadataInterval;
+        if (dataSpec.position != 0) {
+            skipFully(dataSpec.position);
+            if (length != C.LENGTH_UNSET) {
+                length -= dataSpec.position;
+            }
+        }
+        if (metadataInterval > 0) {
+            LogHelper.v(LOG_TAG, "The dynamic metainfo is sent every " + metadataInterval + " bytes");
+            // the length reported by the server includes the interleaved metadata blocks
+            return C.LENGTH_UNSET;
+        }
+        return length;
+    }
+
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (metadataInterval <= 0 || readLength == 0) {
+            return upstream.read(buffer, offset, readLength);
+        }
+
+        int bytesRead = 0;
+        while (bytesRead < readLength) {
+            if (bytesUntilMetadata == 0) {
+                // metadata boundary reached - consume the block and continue with the audio behind it
+                if (!readMetadata()) {
+                    break;
+                }
+                bytesUntilMetadata = metadataInterval;
+            }
+            int bytesToRead = Math.min(readLength - bytesRead, bytesUntilMetadata);
+            int result = upstream.read(buffer, offset + bytesRead, bytesToRead);
+            if (result == C.RESULT_END_OF_INPUT) {
+                break;
+            }
+            bytesRead += result;
+            bytesUntilMetadata -= result;
+            if (result < bytesToRead) {
+                // short read - hand over what is available instead of blocking for more
+                break;
+            }
+        }
+        return bytesRead == 0 ? C.RESULT_END_OF_INPUT : bytesRead;
+    }
+
+
+    @Override
+    public Uri getUri() {
+        return upstream.getUri();
+    }
+
+
+    /* Returns the response headers of the open connection - or null */
+    public Map<String, List<String>> getResponseHeaders() {
+        return upstream.getResponseHeaders();
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        metadataInterval = 0;
+        bytesUntilMetadata = 0;
+        upstream.close();
+    }
+
+
+    /* Reads a metadata block - returns false if the end of input was reached */
+    private boolean readMetadata() throws IOException {
+        if (!readFully(metadataBuffer, 0, 1)) {
+            return false;
+        }
+        int length = (metadataBuffer[0] & 0xFF) << 4;
+        if (length == 0) {
+            // empty block - metadata has not changed
+            return true;
+        }
+        if (!readFully(metadataBuffer, 0, length)) {
+            return false;
+        }
+
+        // the block is padded with zeros
+        int end = 0;
+        while (end < length && metadataBuffer[end] != 0) {
+            end++;
+        }
+
+        // most servers repeat the same block over and over - only decode it on change
+        if (end == lastMetadataLength && regionEquals(metadataBuffer, lastMetadata, end)) {
+            return true;
+        }
+        System.arraycopy(metadataBuffer, 0, lastMetadata, 0, end);
+        lastMetadataLength = end;
+        parseMetadata(new String(metadataBuffer, 0, end, METADATA_CHARSET));
+        return true;
+    }
+
+
+    /* Parses a metadata string like StreamTitle='...';StreamUrl='...'; and notifies changed values */
+    private void parseMetadata(String metadata) {
+        String title = extractValue(metadata, SHOUTCAST_STREAM_TITLE_HEADER);
+        if (title != null && !title.equals(streamTitle)) {
+            streamTitle = title;
+            LogHelper.v(LOG_TAG, "Metadata string: " + metadata);
+            if (playerCallback != null) {
+                playerCallback.playerMetadata(SHOUTCAST_STREAM_TITLE_HEADER, title);
+            }
+        }
+        String url = extractValue(metadata, SHOUTCAST_STREAM_URL_HEADER);
+        if (url != null && !url.equals(streamUrl)) {
+            streamUrl = url;
+            if (playerCallback != null) {
+                playerCallback.playerMetadata(SHOUTCAST_STREAM_URL_HEADER, url);
+            }
+        }
+    }
+
+
+    /* Returns the value of the given key or null - values may contain semicolons and quotes */
+    private static String extractValue(String metadata, String key) {
+        int keyIndex = metadata.indexOf(key + "=");
+        if (keyIndex == -1) {
+            return null;
+        }
+        int start = keyIndex + key.length() + 1;
+        if (start < metadata.length() && metadata.charAt(start) == '\'') {
+            start++;
+            int end = metadata.indexOf("';", start);
+            if (end == -1) {
+                end = metadata.endsWith("'") ? metadata.length() - 1 : metadata.length();
+            }
+            return metadata.substring(start, Math.max(start, end));
+        }
+        int end = metadata.indexOf(';', start);
+        return metadata.substring(start, end == -1 ? metadata.length() : end);
+    }
+
+
+    /* Skips the given number of audio bytes - metadata blocks on the way are consumed as by read */
+    private void skipFully(long length) throws IOException {
+        if (skipBuffer == null) {
+            skipBuffer = new byte[SKIP_BUFFER_SIZE];
+        }
+        while (length > 0) {
+            int result = read(skipBuffer, 0, (int) Math.min(length, SKIP_BUFFER_SIZE));
+            if (result == C.RESULT_END_OF_INPUT) {
+                throw new EOFException();
+            }
+            length -= result;
+        }
+    }
+
+
+    /* Reads exactly length bytes into the buffer - returns false if the end of input was reached */
+    private boolean readFully(byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int result = upstream.read(buffer, offset, length);
+            if (result == C.RESULT_END_OF_INPUT) {
+                return false;
+            }
+            offset += result;
+            length -= result;
+        }
+        return true;
+    }
+
+
+    /* Compares the first length bytes of two arrays */
+    private static boolean regionEquals(byte[] a, byte[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
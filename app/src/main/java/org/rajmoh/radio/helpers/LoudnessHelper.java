@@ -0,0 +1,67 @@
+/**
+ * LoudnessHelper.java
+ * Implements the LoudnessHelper class
+ * A LoudnessHelper remembers the loudness normalization gain of each station
+ *
+ * This file is part of
+ * TRANSISTOR - Radio App for Android
+ *
+ * Copyright (c) 2015-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ */
+
+
+package org.rajmoh.radio.helpers;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+
+/**
+ * LoudnessHelper class
+ * The stored gain is the starting gain for the next playback of the station - without it every
+ * station would start at its raw level and drift to the target over the first seconds
+ */
+public final class LoudnessHelper implements TransistorKeys {
+
+    /* Define log tag */
+    private static final String LOG_TAG = LoudnessHelper.class.getSimpleName();
+
+
+    /* Main class variables */
+    private final Context mContext;
+
+
+    /* Constructor */
+    public LoudnessHelper(Context context) {
+        mContext = context;
+    }
+
+
+    /* Returns the last converged gain for the given stream in dB - or 0 if the station has not been measured yet */
+    public float loadGain(String streamUri) {
+        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(mContext);
+        float gainDb = settings.getFloat(getPreferenceKey(streamUri), 0f);
+        LogHelper.v(LOG_TAG, "Loading loudness gain for " + streamUri + ": " + gainDb + " dB");
+        return gainDb;
+    }
+
+
+    /* Stores the converged gain for the given stream in dB */
+    public void saveGain(String streamUri, float gainDb) {
+        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(mContext);
+        SharedPreferences.Editor editor = settings.edit();
+        editor.putFloat(getPreferenceKey(streamUri), gainDb);
+        editor.apply();
+        LogHelper.v(LOG_TAG, "Saving loudness gain for " + streamUri + ": " + gainDb + " dB");
+    }
+
+
+    /* Builds the preference key from the stream address of the station */
+    private String getPreferenceKey(String streamUri) {
+        return PREF_LOUDNESS_GAIN + "_" + streamUri;
+    }
+
+}
@@ -0,0 +1,224 @@
+/**
+ * PlayerPool.java
+ * Implements the PlayerPool class
+ * A PlayerPool keeps stand-by players that pre-buffer the stations the user is likely to switch to next
+ *
+ * This file is part of
+ * TRANSISTOR - Radio App for Android
+ *
+ * Copyright (c) 2015-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ */
+
+
+package org.rajmoh.radio.helpers;
+
+
+import com.google.android.exoplayer2.AudioLoadControl;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.audio.CrossFadeAudioProcessor;
+import com.google.android.exoplayer2.audio.LoudnessAudioProcessor;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+
+/**
+ * PlayerPool class
+ * A stand-by player is prepared but never started - it opens its stream, buffers up to its share of the
+ * memory budget and then waits. Every stand-by player also costs a fixed amount of memory for its codec, audio
+ * track and audio processing, which is counted against the budget before the buffers are shared out. Switching to its station only swaps the outputs: the stand-by player starts
+ * from its buffer and the previously active player goes back into the pool to be reused for the next stand-by
+ */
+public final class PlayerPool {
+
+    /* Define log tag */
+    private static final String LOG_TAG = PlayerPool.class.getSimpleName();
+
+
+    /* Keys */
+    /* The last station and the neighbors of the current station */
+    public static final int DEFAULT_MAX_STANDBY_PLAYERS = 3;
+    /* Three stand-by players with about 10 seconds of a 128 kbit/s stream each */
+    public static final int DEFAULT_MEMORY_BUDGET = 2 * 1024 * 1024;
+    /* Estimated memory of a player apart from its buffer - codec buffers, audio track, pipeline slots,
+       the one second fade-out buffer of the cross-fade and the start of the time-shift store */
+    private static final int STANDBY_PLAYER_FIXED_BYTES = 512 * 1024;
+    /* Smallest buffer for which a stand-by player is worth keeping - about 4 seconds of a 128 kbit/s stream */
+    private static final int MIN_STANDBY_BUFFER_BYTES = 64 * 1024;
+
+
+    /* Main class variables */
+    private final PlayerFactory mPlayerFactory;
+    private final int mMaxStandbyPlayers;
+    private final int mStandbyBufferBytes;
+    /* Most recently used stand-by player first */
+    private final LinkedList<PooledPlayer> mStandbyPlayers;
+
+
+    /* Constructor */
+    public PlayerPool(PlayerFactory playerFactory) {
+        this(playerFactory, DEFAULT_MAX_STANDBY_PLAYERS, DEFAULT_MEMORY_BUDGET);
+    }
+
+
+    /* Constructor */
+    public PlayerPool(PlayerFactory playerFactory, int maxStandbyPlayers, int memoryBudget) {
+        mPlayerFactory = playerFactory;
+        // only keep as many stand-by players as the budget can pay for, fixed costs included
+        mMaxStandbyPlayers = Math.min(maxStandbyPlayers,
+                memoryBudget / (STANDBY_PLAYER_FIXED_BYTES + MIN_STANDBY_BUFFER_BYTES));
+        mStandbyBufferBytes = mMaxStandbyPlayers > 0 ? memoryBudget / mMaxStandbyPlayers - STANDBY_PLAYER_FIXED_BYTES : 0;
+        mStandbyPlayers = new LinkedList<>();
+    }
+
+
+    /* Takes the stand-by player for the given stream out of the pool - returns null if the stream is not warm */
+    public PooledPlayer acquire(String streamUri) {
+        Iterator<PooledPlayer> iterator = mStandbyPlayers.iterator();
+        while (iterator.hasNext()) {
+            PooledPlayer pooledPlayer = iterator.next();
+            if (!streamUri.equals(pooledPlayer.mStreamUri)) {
+                continue;
+            }
+            int playbackState = pooledPlayer.player.getPlaybackState();
+            if (pooledPlayer.mPreparing || playbackState == ExoPlayer.STATE_BUFFERING
+                    || playbackState == ExoPlayer.STATE_READY) {
+                iterator.remove();
+                pooledPlayer.mStreamUri = null;
+                LogHelper.v(LOG_TAG, "Switching to stand-by player for " + streamUri);
+                return pooledPlayer;
+            }
+            // stream failed while waiting - e.g. the server closed the idle connection
+            LogHelper.v(LOG_TAG, "Stand-by player for " + streamUri + " is not ready anymore.");
+            pooledPlayer.player.stop();
+            pooledPlayer.mStreamUri = null;
+            return null;
+        }
+        return null;
+    }
+
+
+    /* Returns the number of stand-by players the memory budget allows */
+    public int getMaxStandbyPlayers() {
+        return mMaxStandbyPlayers;
+    }
+
+
+    /* Returns a player that has to be prepared for the given stream - returns null if the stream is already warm
+       or the memory budget does not allow any stand-by player */
+    public PooledPlayer obtainStandby(String streamUri) {
+        if (mMaxStandbyPlayers == 0) {
+            return null;
+        }
+        PooledPlayer pooledPlayer = null;
+        for (PooledPlayer standbyPlayer : mStandbyPlayers) {
+            if (streamUri.equals(standbyPlayer.mStreamUri)) {
+                mStandbyPlayers.remove(standbyPlayer);
+                mStandbyPlayers.addFirst(standbyPlayer);
+                return null;
+            } else if (standbyPlayer.mStreamUri == null) {
+                pooledPlayer = standbyPlayer;
+            }
+        }
+
+        if (pooledPlayer != null) {
+            // reuse a stopped player
+            mStandbyPlayers.remove(pooledPlayer);
+        } else if (mStandbyPlayers.size() < mMaxStandbyPlayers) {
+            pooledPlayer = mPlayerFactory.createPlayer();
+        } else {
+            // reuse the least recently used stand-by player
+            pooledPlayer = mStandbyPlayers.removeLast();
+            pooledPlayer.player.stop();
+        }
+
+        // a stand-by player only buffers its share of the memory budget
+        pooledPlayer.loadControl.setMaxBufferBytes(mStandbyBufferBytes);
+        pooledPlayer.player.setPlayWhenReady(false);
+        // keep the audio track empty - a cross-fade into this player starts with the first audio it outputs
+        pooledPlayer.crossFadeAudioProcessor.setOutputHeld(true);
+        pooledPlayer.mStreamUri = streamUri;
+        pooledPlayer.mPreparing = true;
+        mStandbyPlayers.addFirst(pooledPlayer);
+        LogHelper.v(LOG_TAG, "Preparing stand-by player for " + streamUri);
+        return pooledPlayer;
+    }
+
+
+    /* Hands back a player that is not needed anymore - it is stopped and kept for the next stand-by if there is room */
+    public void recycle(PooledPlayer pooledPlayer) {
+        pooledPlayer.player.stop();
+        pooledPlayer.mStreamUri = null;
+        pooledPlayer.mPreparing = false;
+        if (mStandbyPlayers.size() < mMaxStandbyPlayers) {
+            mStandbyPlayers.addLast(pooledPlayer);
+        } else {
+            mPlayerFactory.releasePlayer(pooledPlayer);
+        }
+    }
+
+
+    /* Checks if the given player is still waiting in the pool for the given stream */
+    public boolean isStandby(PooledPlayer pooledPlayer, String streamUri) {
+        return mStandbyPlayers.contains(pooledPlayer) && streamUri.equals(pooledPlayer.mStreamUri);
+    }
+
+
+    /* Releases all stand-by players */
+    public void release() {
+        for (PooledPlayer pooledPlayer : mStandbyPlayers) {
+            mPlayerFactory.releasePlayer(pooledPlayer);
+        }
+        mStandbyPlayers.clear();
+    }
+
+
+    /**
+     * Inner class: A player together with the components that a switch of outputs has to take along
+     */
+    public static final class PooledPlayer {
+
+        public final SimpleExoPlayer player;
+        public final AudioLoadControl loadControl;
+        public final DefaultBandwidthMeter bandwidthMeter;
+        public final CrossFadeAudioProcessor crossFadeAudioProcessor;
+        public final LoudnessAudioProcessor loudnessAudioProcessor;
+        private String mStreamUri;
+        private boolean mPreparing;
+
+        public PooledPlayer(SimpleExoPlayer player, AudioLoadControl loadControl, DefaultBandwidthMeter bandwidthMeter,
+                            CrossFadeAudioProcessor crossFadeAudioProcessor, LoudnessAudioProcessor loudnessAudioProcessor) {
+            this.player = player;
+            this.loadControl = loadControl;
+            this.bandwidthMeter = bandwidthMeter;
+            this.crossFadeAudioProcessor = crossFadeAudioProcessor;
+            this.loudnessAudioProcessor = loudnessAudioProcessor;
+        }
+
+        /* Marks the stand-by player as prepared - from now on its playback state tells if it is still warm */
+        public void setPrepared() {
+            mPreparing = false;
+        }
+
+    }
+    /**
+     * End of inner class
+     */
+
+
+    /**
+     * Interface: Creates and releases the players of the pool
+     */
+    public interface PlayerFactory {
+        PooledPlayer createPlayer();
+        void releasePlayer(PooledPlayer pooledPlayer);
+    }
+    /**
+     * End of interface
+     */
+
+}
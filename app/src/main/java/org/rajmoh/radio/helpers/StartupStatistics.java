@@ -0,0 +1,88 @@
+/**
+ * StartupStatistics.java
+ * Implements the StartupStatistics class
+ * A StartupStatistics aggregates the start-up traces of the player into percentiles per station
+ *
+ * This file is part of
+ * TRANSISTOR - Radio App for Android
+ *
+ * Copyright (c) 2015-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ */
+
+
+package org.rajmoh.radio.helpers;
+
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.util.SlidingPercentile;
+import com.google.android.exoplayer2.util.StartupTracer;
+
+import java.util.HashMap;
+
+
+/**
+ * StartupStatistics class
+ */
+public final class StartupStatistics {
+
+    /* Define log tag */
+    private static final String LOG_TAG = StartupStatistics.class.getSimpleName();
+
+
+    /* Keys */
+    /* Number of recent starts per station that the percentiles are computed from */
+    private static final int MAX_SAMPLES_PER_STATION = 20;
+
+
+    /* Main class variables */
+    private final HashMap<String, SlidingPercentile[]> mStagePercentiles;
+
+
+    /* Constructor */
+    public StartupStatistics() {
+        mStagePercentiles = new HashMap<>();
+    }
+
+
+    /* Adds a completed trace for the given station - returns the time to first audio in milliseconds */
+    public long addTrace(String station, StartupTracer tracer) {
+        SlidingPercentile[] percentiles = mStagePercentiles.get(station);
+        if (percentiles == null) {
+            percentiles = new SlidingPercentile[StartupTracer.STAGE_COUNT];
+            for (int i = 0; i < StartupTracer.STAGE_COUNT; i++) {
+                percentiles[i] = new SlidingPercentile(MAX_SAMPLES_PER_STATION);
+            }
+            mStagePercentiles.put(station, percentiles);
+        }
+
+        StringBuilder stages = new StringBuilder();
+        for (int i = 0; i < StartupTracer.STAGE_COUNT; i++) {
+            long elapsedNs = tracer.getElapsedNs(i);
+            if (elapsedNs == C.TIME_UNSET) {
+                // stage is not traced by this kind of stream - e.g. HLS
+                continue;
+            }
+            float elapsedMs = elapsedNs / 1000000f;
+            percentiles[i].addSample(1, elapsedMs);
+            stages.append(StartupTracer.getStageName(i)).append('=').append((long) elapsedMs)
+                    .append("ms (p50=").append((long) percentiles[i].getPercentile(0.5f))
+                    .append(" p90=").append((long) percentiles[i].getPercentile(0.9f)).append(") ");
+        }
+        LogHelper.v(LOG_TAG, "Start-up of " + station + ": " + stages);
+
+        return tracer.getElapsedNs(StartupTracer.STAGE_FIRST_AUDIO_WRITTEN) / 1000000;
+    }
+
+
+    /* Returns the given percentile of the time to first audio in milliseconds - or -1 if the station has no traces */
+    public long getTimeToFirstAudioPercentile(String station, float percentile) {
+        SlidingPercentile[] percentiles = mStagePercentiles.get(station);
+        if (percentiles == null) {
+            return -1;
+        }
+        return (long) percentiles[StartupTracer.STAGE_FIRST_AUDIO_WRITTEN].getPercentile(percentile);
+    }
+
+}
@@ -0,0 +1,379 @@
+/**
+ * StationMediaSourceFactory.java
+ * Implements a StationMediaSourceFactory
+ * A StationMediaSourceFactory opens a station's stream once, detects whether it is HTTP Live Streaming (HLS)
+ * and hands the open connection over to the matching MediaSource
+ *
+ * This file is part of
+ * TRANSISTOR - Radio App for Android
+ *
+ * Copyright (c) 2015-17 - Y20K.org
+ * Licensed under the MIT-License
+ * http://opensource.org/licenses/MIT
+ */
+
+
+package org.rajmoh.radio.helpers;
+
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
+import com.google.android.exoplayer2.source.ExtractorMediaSource;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.hls.DefaultHlsDataSourceFactory;
+import com.google.android.exoplayer2.source.hls.HlsMediaSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer2.upstream.HttpConnectionPool;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.util.StartupTracer;
+import com.spoledge.aacdecoder.PlayerCallback;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * StationMediaSourceFactory class
+ * The stream is opened through the Shoutcast capable data source - the response headers and the first bytes
+ * decide between HLS and a progressive stream. Either way the first request of the MediaSource is served
+ * from the connection that is already open, so starting a station costs a single round trip
+ */
+public final class StationMediaSourceFactory implements TransistorKeys {
+
+    /* Define log tag */
+    private static final String LOG_TAG = StationMediaSourceFactory.class.getSimpleName();
+
+
+    /* Keys */
+    private static final String CONTENT_TYPE_HEADER = "Content-Type";
+    private static final String HLS_PLAYLIST_HEADER = "#EXTM3U";
+    private static final String HLS_TAG_PREFIX = "#EXT-X-";
+    /* Long enough to find the first HLS tag - plain M3U station lists also start with #EXTM3U */
+    private static final int SNIFF_LENGTH = 1024;
+    private static final int MIN_LOADABLE_RETRY_COUNT = 32;
+    /* Played audio kept for rewinding - about 4 minutes of a 128 kbit/s stream. The store grows as audio is played,
+       so a stand-by player that has not played yet holds little of it */
+    private static final int TIME_SHIFT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+
+    /* Main class variables */
+    private final DataSource.Factory shoutcastDataSourceFactory;
+    private final DataSource.Factory hlsDataSourceFactory;
+    private final HttpConnectionPool connectionPool;
+    private final StartupTracer startupTracer;
+    private HandoverDataSource handover;
+
+
+    /* Constructor */
+    public StationMediaSourceFactory(String userAgent,
+                                     TransferListener<? super DataSource> listener,
+                                     PlayerCallback playerCallback,
+                                     HttpConnectionPool connectionPool,
+                                     StartupTracer startupTracer) {
+        shoutcastDataSourceFactory = new CustomDefaultHttpDataSourceFactory(userAgent, listener, true, playerCallback);
+        // HLS segments carry no Shoutcast metadata - keep connections alive between segments instead
+        hlsDataSourceFactory = new CustomDefaultHttpDataSourceFactory(userAgent, listener, false, playerCallback, connectionPool);
+        this.connectionPool = connectionPool;
+        this.startupTracer = startupTracer;
+    }
+
+
+    /* Opens the stream and creates a matching MediaSource - blocks on the network, do not call from the main thread */
+    public MediaSource createMediaSource(Uri uri) {
+        long startTime = SystemClock.elapsedRealtime();
+        DataSource dataSource = shoutcastDataSourceFactory.createDataSource();
+        byte[] sniffBuffer = new byte[SNIFF_LENGTH];
+        int sniffLength = 0;
+        long length;
+        String contentType;
+        boolean sourceIsHLS;
+        try {
+            // the probe is the connection that plays the stream - trace it as the start of loading
+            startupTracer.mark(StartupTracer.STAGE_OPEN_STARTED);
+            length = dataSource.open(new DataSpec(uri));
+            startupTracer.mark(StartupTracer.STAGE_OPENED);
+            contentType = getContentType(dataSource);
+            sourceIsHLS = isHlsContentType(contentType);
+            if (!sourceIsHLS && !isAudioContentType(contentType)) {
+                // missing or generic MIME type - look at the content
+                sniffLength = readFully(dataSource, sniffBuffer);
+                sourceIsHLS = isHlsPlaylist(sniffBuffer, sniffLength);
+            }
+        } catch (IOException e) {
+            // let the player run into the error and report it
+            LogHelper.e(LOG_TAG, "Unable to open stream: " + e.getMessage());
+            closeQuietly(dataSource);
+            return createProgressiveMediaSource(uri, shoutcastDataSourceFactory);
+        }
+
+        LogHelper.v(LOG_TAG, "MIME type of stream: " + contentType + " - HLS: " + sourceIsHLS
+                + " - detected in " + (SystemClock.elapsedRealtime() - startTime) + "ms");
+
+        if (sourceIsHLS) {
+            // the playlist arrived on the probe connection - the requests that follow go through the pool
+            preconnect(uri);
+        }
+
+        handover = new HandoverDataSource(uri, dataSource, length, sniffBuffer, sniffLength,
+                sourceIsHLS ? hlsDataSourceFactory : shoutcastDataSourceFactory);
+        if (sourceIsHLS) {
+            return new HlsMediaSource(uri, new DefaultHlsDataSourceFactory(new HandoverDataSourceFactory(handover)),
+                    MIN_LOADABLE_RETRY_COUNT, null, null, true);
+        } else {
+            return createProgressiveMediaSource(uri, new HandoverDataSourceFactory(handover));
+        }
+    }
+
+
+    /* Closes the probe connection of the last created MediaSource - if that MediaSource is dropped before it was prepared */
+    public void release() {
+        if (handover != null) {
+            handover.releaseOpenDataSource();
+            handover = null;
+        }
+    }
+
+
+    /* Creates a MediaSource for a progressive stream */
+    private MediaSource createProgressiveMediaSource(Uri uri, DataSource.Factory dataSourceFactory) {
+        // one loader thread feeds one playback thread - sample queues can skip locking
+        // played audio is kept, so that rewinding within the last minutes does not reconnect
+        return new ExtractorMediaSource(uri, dataSourceFactory, new DefaultExtractorsFactory(),
+                MIN_LOADABLE_RETRY_COUNT, null, null, null, true, startupTracer, TIME_SHIFT_BUFFER_SIZE);
+    }
+
+
+    /* Opens a pooled connection to the host of the stream in the background - the handshake overlaps with
+       reading and parsing the playlist, and the next playlist or segment request finds the connection warm */
+    private void preconnect(Uri uri) {
+        if (connectionPool == null) {
+            return;
+        }
+        try {
+            connectionPool.preconnect(new URL(uri.toString()), DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS);
+        } catch (MalformedURLException e) {
+            LogHelper.e(LOG_TAG, "Unable to preconnect: " + e.getMessage());
+        }
+    }
+
+
+    /* Returns the Content-Type response header of the data source - or null */
+    private static String getContentType(DataSource dataSource) {
+        Map<String, List<String>> headers = null;
+        if (dataSource instanceof IcyDemuxDataSource) {
+            headers = ((IcyDemuxDataSource) dataSource).getResponseHeaders();
+        } else if (dataSource instanceof HttpDataSource) {
+            headers = ((HttpDataSource) dataSource).getResponseHeaders();
+        }
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            // header names are case insensitive - HttpURLConnection also stores the status line under null
+            if (CONTENT_TYPE_HEADER.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+
+    /* Checks for the MIME types of HLS playlists */
+    private static boolean isHlsContentType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        contentType = contentType.toLowerCase(Locale.US);
+        return contentType.contains("application/vnd.apple.mpegurl") || contentType.contains("application/x-mpegurl");
+    }
+
+
+    /* Checks for audio MIME types - except audio/x-mpegurl, which may be a HLS playlist */
+    private static boolean isAudioContentType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        contentType = contentType.toLowerCase(Locale.US);
+        return contentType.startsWith("audio/") && !contentType.contains("mpegurl");
+    }
+
+
+    /* Checks if the sniffed bytes are a HLS playlist - servers often send playlists as text/plain */
+    private static boolean isHlsPlaylist(byte[] buffer, int length) {
+        int start = 0;
+        // skip UTF-8 byte order mark and whitespace
+        if (length >= 3 && (buffer[0] & 0xFF) == 0xEF && (buffer[1] & 0xFF) == 0xBB && (buffer[2] & 0xFF) == 0xBF) {
+            start = 3;
+        }
+        while (start < length && Character.isWhitespace(buffer[start])) {
+            start++;
+        }
+        if (length - start < HLS_PLAYLIST_HEADER.length()) {
+            return false;
+        }
+        String content = new String(buffer, start, length - start, Charset.forName("UTF-8"));
+        return content.startsWith(HLS_PLAYLIST_HEADER) && content.contains(HLS_TAG_PREFIX);
+    }
+
+
+    /* Reads until the buffer is full or the stream ends - returns the number of bytes read */
+    private static int readFully(DataSource dataSource, byte[] buffer) throws IOException {
+        int bytesRead = 0;
+        while (bytesRead < buffer.length) {
+            int result = dataSource.read(buffer, bytesRead, buffer.length - bytesRead);
+            if (result == C.RESULT_END_OF_INPUT) {
+                break;
+            }
+            bytesRead += result;
+        }
+        return bytesRead;
+    }
+
+
+    /* Closes a data source and ignores errors */
+    private static void closeQuietly(DataSource dataSource) {
+        try {
+            dataSource.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+
+    /**
+     * Inner class: Serves the first open of the stream from the probe connection
+     * The bytes consumed while sniffing are replayed before reading continues on the open connection.
+     * Any other DataSpec - e.g. a retry at a later position - gets a fresh data source
+     */
+    private static final class HandoverDataSource implements DataSource {
+
+        private final Uri uri;
+        private final long length;
+        private final byte[] sniffBuffer;
+        private final int sniffLength;
+        private final DataSource.Factory upstreamFactory;
+        private DataSource openDataSource;
+        private DataSource upstream;
+        private DataSource current;
+        private int replayPosition;
+
+        private HandoverDataSource(Uri uri, DataSource openDataSource, long length, byte[] sniffBuffer,
+                                   int sniffLength, DataSource.Factory upstreamFactory) {
+            this.uri = uri;
+            this.openDataSource = openDataSource;
+            this.length = length;
+            this.sniffBuffer = sniffBuffer;
+            this.sniffLength = sniffLength;
+            this.upstreamFactory = upstreamFactory;
+            replayPosition = sniffLength;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            DataSource openDataSource = takeOpenDataSource();
+            if (openDataSource != null && dataSpec.position == 0 && dataSpec.uri.equals(uri)) {
+                current = openDataSource;
+                replayPosition = 0;
+                return dataSpec.length != C.LENGTH_UNSET && length != C.LENGTH_UNSET
+                        ? Math.min(length, dataSpec.length) : length;
+            }
+            if (openDataSource != null) {
+                closeQuietly(openDataSource);
+            }
+            if (upstream == null) {
+                upstream = upstreamFactory.createDataSource();
+            }
+            current = upstream;
+            replayPosition = sniffLength;
+            return current.open(dataSpec);
+        }
+
+        /* Closes the probe connection if it has not been handed over yet */
+        private void releaseOpenDataSource() {
+            DataSource openDataSource = takeOpenDataSource();
+            if (openDataSource != null) {
+                closeQuietly(openDataSource);
+            }
+        }
+
+        /* Returns the probe connection once - the loader thread and the main thread may race for it */
+        private synchronized DataSource takeOpenDataSource() {
+            DataSource openDataSource = this.openDataSource;
+            this.openDataSource = null;
+            return openDataSource;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            if (replayPosition < sniffLength) {
+                int bytesToCopy = Math.min(readLength, sniffLength - replayPosition);
+                System.arraycopy(sniffBuffer, replayPosition, buffer, offset, bytesToCopy);
+                replayPosition += bytesToCopy;
+                return bytesToCopy;
+            }
+            return current.read(buffer, offset, readLength);
+        }
+
+        @Override
+        public Uri getUri() {
+            return current == null ? null : current.getUri();
+        }
+
+        @Override
+        public void close() throws IOException {
+            replayPosition = sniffLength;
+            if (current != null) {
+                try {
+                    current.close();
+                } finally {
+                    current = null;
+                }
+            }
+        }
+
+    }
+    /**
+     * End of inner class
+     */
+
+
+    /**
+     * Inner class: Returns the HandoverDataSource once - all further data sources come from its upstream factory
+     */
+    private static final class HandoverDataSourceFactory implements DataSource.Factory {
+
+        private final DataSource.Factory upstreamFactory;
+        private HandoverDataSource handover;
+
+        private HandoverDataSourceFactory(HandoverDataSource handover) {
+            this.handover = handover;
+            upstreamFactory = handover.upstreamFactory;
+        }
+
+        @Override
+        public DataSource createDataSource() {
+            if (handover != null) {
+                DataSource dataSource = handover;
+                handover = null;
+                return dataSource;
+            }
+            return upstreamFactory.createDataSource();
+        }
+
+    }
+    /**
+     * End of inner class
+     */
+
+}
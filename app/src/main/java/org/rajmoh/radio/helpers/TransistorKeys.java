@@ -36,12 +36,14 @@ public interface TransistorKeys {
     String ACTION_TIMER_RUNNING = "org.y20k.transistor.action.TIMER_RUNNING";
     String ACTION_TIMER_START = "org.y20k.transistor.action.TIMER_START";
     String ACTION_TIMER_STOP = "org.y20k.transistor.action.TIMER_STOP";
+    String ACTION_TIME_TO_FIRST_AUDIO = "org.y20k.transistor.action.TIME_TO_FIRST_AUDIO";
 
     /* EXTRAS */
     String EXTRA_COLLECTION_CHANGE = "COLLECTION_CHANGE";
     String EXTRA_INFOSHEET_TITLE = "INFOSHEET_TITLE";
     String EXTRA_INFOSHEET_CONTENT = "INFOSHEET_CONTENT";
     String EXTRA_METADATA = "METADATA";
+    String EXTRA_NEIGHBOR_STREAM_URIS = "NEIGHBOR_STREAM_URIS";
     String EXTRA_PLAYBACK_STATE_CHANGE = "PLAYBACK_STATE_CHANGE";
     String EXTRA_PLAYBACK_STATE = "PLAYBACK_STATE";
     String EXTRA_STATION = "STATION";
@@ -51,6 +53,7 @@ public interface TransistorKeys {
     String EXTRA_STREAM_URI = "STREAM_URI";
     String EXTRA_TIMER_DURATION = "TIMER_DURATION";
     String EXTRA_TIMER_REMAINING = "TIMER_REMAINING";
+    String EXTRA_TIME_TO_FIRST_AUDIO = "TIME_TO_FIRST_AUDIO";
 
     /* ARGS */
     String ARG_STATION = "ArgStation";
@@ -60,6 +63,8 @@ public interface TransistorKeys {
     String ARG_PLAYBACK = "ArgPlayback";
 
     /* PREFS */
+    String PREF_BITRATE_ESTIMATE = "prefBitrateEstimate";
+    String PREF_LOUDNESS_GAIN = "prefLoudnessGain";
     String PREF_PLAYBACK = "prefPlayback";
     String PREF_STATION_LOADING = "prefStationLoading";
     String PREF_STATION_ID_CURRENTLY_PLAYING = "prefStationIDCurrentlyPlaying";
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+import android.os.Handler;
+
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.upstream.TrimmableAllocator;
+
+/**
+ * A {@link LoadControl} for audio streams. The buffer is sized by bytes as well as by time, so
+ * low bitrate streams buffer far more media than the video oriented {@link DefaultLoadControl}
+ * without using more memory. Playback starts from a small initial buffer, and the buffer required
+ * to resume playback grows with each rebuffer.
+ * <p>
+ * The bitrate used to convert between bytes and time is taken from the selected formats if they
+ * declare one, and otherwise measured from the bytes allocated for the buffered media.
+ */
+public final class AudioLoadControl implements LoadControl {
+
+  /**
+   * Listener of {@link AudioLoadControl} events.
+   */
+  public interface EventListener {
+
+    /**
+     * Called when the load control starts or stops loading.
+     *
+     * @param loading Whether the load control is loading.
+     * @param bufferedDurationUs The duration of buffered media, in microseconds.
+     * @param bufferedBytes The number of bytes allocated for buffered media.
+     */
+    void onLoadingChanged(boolean loading, long bufferedDurationUs, int bufferedBytes);
+
+    /**
+     * Called when playback has run out of buffered media.
+     *
+     * @param rebufferCount The number of rebuffers since the load control was created or released.
+     * @param bufferForPlaybackUs The duration of media that will now be required for playback to
+     *     resume, in microseconds.
+     */
+    void onRebuffer(int rebufferCount, long bufferForPlaybackUs);
+
+  }
+
+  /**
+   * The default minimum duration of media that the player will attempt to ensure is buffered at all
+   * times, in milliseconds.
+   */
+  public static final int DEFAULT_MIN_BUFFER_MS = 30000;
+
+  /**
+   * The default maximum duration of media that the player will attempt to buffer, in milliseconds.
+   */
+  public static final int DEFAULT_MAX_BUFFER_MS = 120000;
+
+  /**
+   * The default maximum number of bytes that the player will attempt to buffer.
+   */
+  public static final int DEFAULT_MAX_BUFFER_BYTES = 4 * 1024 * 1024;
+
+  /**
+   * The default duration of media that must be buffered for playback to start, in milliseconds.
+   */
+  public static final int DEFAULT_BUFFER_FOR_PLAYBACK_MS = 500;
+
+  /**
+   * The default duration of media that must be buffered for playback to resume after the first
+   * rebuffer, in milliseconds. Doubles with each further rebuffer.
+   */
+  public static final int DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS = 2000;
+
+  /**
+   * The default upper limit for the duration of media that must be buffered for playback to resume
+   * after a rebuffer, in milliseconds.
+   */
+  public static final int DEFAULT_MAX_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS = 10000;
+
+  /**
+   * The bitrate assumed until the bitrate is known, in bits per second.
+   */
+  private static final int DEFAULT_BITRATE = 128000;
+
+  /**
+   * The minimum duration of buffered media for measuring the bitrate, in microseconds. Allocations
+   * are made in whole segments, so shorter durations overestimate the bitrate.
+   */
+  private static final long MIN_DURATION_FOR_BITRATE_MEASUREMENT_US = 10000000;
+
+  private final TrimmableAllocator allocator;
+  private final long minBufferUs;
+  private final long maxBufferUs;
+  private final long bufferForPlaybackUs;
+  private final long bufferForPlaybackAfterRebufferUs;
+  private final long maxBufferForPlaybackAfterRebufferUs;
+  private final Handler eventHandler;
+  private final EventListener eventListener;
+
+  private int formatBitrate;
+  private volatile int maxBufferBytes;
+  private boolean isBuffering;
+  private boolean isRebuffering;
+  private volatile int bitrate;
+  private volatile long currentBufferForPlaybackAfterRebufferUs;
+  private volatile int rebufferCount;
+
+  /**
+   * Constructs a new instance, using the {@code DEFAULT_*} constants defined in this class.
+   */
+  public AudioLoadControl() {
+    this(new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE), null, null);
+  }
+
+  /**
+   * Constructs a new instance, using the {@code DEFAULT_*} constants defined in this class.
+   *
+   * @param allocator The {@link TrimmableAllocator} used by the loader.
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   */
+  public AudioLoadControl(TrimmableAllocator allocator, Handler eventHandler,
+      EventListener eventListener) {
+    this(allocator, DEFAULT_MIN_BUFFER_MS, DEFAULT_MAX_BUFFER_MS, DEFAULT_MAX_BUFFER_BYTES,
+        DEFAULT_BUFFER_FOR_PLAYBACK_MS, DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS,
+        DEFAULT_MAX_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS, eventHandler, eventListener);
+  }
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param allocator The {@link TrimmableAllocator} used by the loader.
+   * @param minBufferMs The minimum duration of media that the player will attempt to ensure is
+   *     buffered at all times, in milliseconds.
+   * @param maxBufferMs The maximum duration of media that the player will attempt to buffer, in
+   *     milliseconds.
+   * @param maxBufferBytes The maximum number of bytes that the player will attempt to buffer. The
+   *     minimum buffer duration is lowered if it would exceed this at the current bitrate.
+   * @param bufferForPlaybackMs The duration of media that must be buffered for playback to start or
+   *     resume following a user action such as a seek, in milliseconds.
+   * @param bufferForPlaybackAfterRebufferMs The duration of media that must be buffered for
+   *     playback to resume after the first rebuffer, in milliseconds. Doubles with each further
+   *     rebuffer.
+   * @param maxBufferForPlaybackAfterRebufferMs The upper limit for the duration of media that must
+   *     be buffered for playback to resume after a rebuffer, in milliseconds.
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   */
+  public AudioLoadControl(TrimmableAllocator allocator, int minBufferMs, int maxBufferMs,
+      int maxBufferBytes, long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs,
+      long maxBufferForPlaybackAfterRebufferMs, Handler eventHandler,
+      EventListener eventListener) {
+    this.allocator = allocator;
+    minBufferUs = minBufferMs * 1000L;
+    maxBufferUs = maxBufferMs * 1000L;
+    this.maxBufferBytes = maxBufferBytes;
+    bufferForPlaybackUs = bufferForPlaybackMs * 1000L;
+    bufferForPlaybackAfterRebufferUs = bufferForPlaybackAfterRebufferMs * 1000L;
+    maxBufferForPlaybackAfterRebufferUs = maxBufferForPlaybackAfterRebufferMs * 1000L;
+    this.eventHandler = eventHandler;
+    this.eventListener = eventListener;
+    bitrate = DEFAULT_BITRATE;
+    currentBufferForPlaybackAfterRebufferUs = bufferForPlaybackAfterRebufferUs;
+  }
+
+  /**
+   * Returns the duration of buffered media below which loading always continues, in microseconds.
+   * Depends on the bitrate, so may change as media is loaded.
+   */
+  public long getLowWatermarkUs() {
+    return Math.min(minBufferUs, getMaxBufferUs());
+  }
+
+  /**
+   * Returns the duration of buffered media above which loading stops, in microseconds. Depends on
+   * the bitrate, so may change as media is loaded.
+   */
+  public long getHighWatermarkUs() {
+    return getMaxBufferUs();
+  }
+
+  /**
+   * Returns the duration of media that must be buffered for playback to resume after the next
+   * rebuffer, in microseconds.
+   */
+  public long getBufferForPlaybackAfterRebufferUs() {
+    return currentBufferForPlaybackAfterRebufferUs;
+  }
+
+  /**
+   * Sets the maximum number of bytes that the player will attempt to buffer. Media that is already
+   * buffered is kept, but loading does not continue until the buffer has drained below the new
+   * limit. May be called from any thread.
+   *
+   * @param maxBufferBytes The maximum number of bytes that the player will attempt to buffer.
+   */
+  public void setMaxBufferBytes(int maxBufferBytes) {
+    this.maxBufferBytes = maxBufferBytes;
+    allocator.setTargetBufferSize(maxBufferBytes);
+  }
+
+  /**
+   * Returns the maximum number of bytes that the player will attempt to buffer.
+   */
+  public int getMaxBufferBytes() {
+    return maxBufferBytes;
+  }
+
+  /**
+   * Returns the number of rebuffers since the load control was created or released.
+   */
+  public int getRebufferCount() {
+    return rebufferCount;
+  }
+
+  /**
+   * Returns the bitrate used to convert between bytes and time, in bits per second.
+   */
+  public int getBitrate() {
+    return bitrate;
+  }
+
+  // LoadControl implementation.
+
+  @Override
+  public void onPrepared() {
+    reset(false);
+  }
+
+  @Override
+  public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
+      TrackSelectionArray trackSelections) {
+    formatBitrate = 0;
+    for (int i = 0; i < renderers.length; i++) {
+      TrackSelection trackSelection = trackSelections.get(i);
+      if (trackSelection != null) {
+        int selectedBitrate = trackSelection.getSelectedFormat().bitrate;
+        if (selectedBitrate == Format.NO_VALUE) {
+          // Measure the bitrate instead.
+          formatBitrate = 0;
+          break;
+        }
+        formatBitrate += selectedBitrate;
+      }
+    }
+    if (formatBitrate > 0) {
+      bitrate = formatBitrate;
+    }
+    allocator.setTargetBufferSize(maxBufferBytes);
+  }
+
+  @Override
+  public void onStopped() {
+    reset(true);
+  }
+
+  @Override
+  public void onReleased() {
+    reset(true);
+    rebufferCount = 0;
+    currentBufferForPlaybackAfterRebufferUs = bufferForPlaybackAfterRebufferUs;
+  }
+
+  @Override
+  public Allocator getAllocator() {
+    return allocator;
+  }
+
+  @Override
+  public boolean shouldStartPlayback(long bufferedDurationUs, boolean rebuffering) {
+    if (rebuffering && !isRebuffering) {
+      // A new rebuffer. The buffer was not enough to bridge the gap, so require more next time.
+      isRebuffering = true;
+      int count = ++rebufferCount;
+      long requiredUs = count == 1 ? currentBufferForPlaybackAfterRebufferUs
+          : Math.min(currentBufferForPlaybackAfterRebufferUs * 2,
+              maxBufferForPlaybackAfterRebufferUs);
+      currentBufferForPlaybackAfterRebufferUs = requiredUs;
+      notifyRebuffer(count, requiredUs);
+    } else if (!rebuffering) {
+      isRebuffering = false;
+    }
+    long minBufferDurationUs = rebuffering ? currentBufferForPlaybackAfterRebufferUs
+        : bufferForPlaybackUs;
+    // Never wait for more than the high watermark, as loading would stop before reaching it.
+    minBufferDurationUs = Math.min(minBufferDurationUs, getMaxBufferUs());
+    boolean startPlayback = minBufferDurationUs <= 0 || bufferedDurationUs >= minBufferDurationUs;
+    if (startPlayback) {
+      isRebuffering = false;
+    }
+    return startPlayback;
+  }
+
+  @Override
+  public boolean shouldContinueLoading(long bufferedDurationUs) {
+    int bufferedBytes = allocator.getTotalBytesAllocated();
+    if (formatBitrate == 0 && bufferedDurationUs >= MIN_DURATION_FOR_BITRATE_MEASUREMENT_US) {
+      bitrate = (int) ((bufferedBytes * 8L * C.MICROS_PER_SECOND) / bufferedDurationUs);
+    }
+    boolean wasBuffering = isBuffering;
+    if (bufferedDurationUs < getLowWatermarkUs()) {
+      isBuffering = true;
+    } else if (bufferedDurationUs > getHighWatermarkUs() || bufferedBytes >= maxBufferBytes) {
+      isBuffering = false;
+    }
+    // Between the watermarks loading continues if it was already loading.
+    if (isBuffering != wasBuffering) {
+      notifyLoadingChanged(isBuffering, bufferedDurationUs, bufferedBytes);
+    }
+    return isBuffering;
+  }
+
+  private long getMaxBufferUs() {
+    long maxBufferBytesUs = (maxBufferBytes * 8L * C.MICROS_PER_SECOND) / Math.max(bitrate, 1);
+    return Math.min(maxBufferUs, maxBufferBytesUs);
+  }
+
+  private void reset(boolean resetAllocator) {
+    isBuffering = false;
+    isRebuffering = false;
+    if (resetAllocator) {
+      allocator.reset();
+    }
+  }
+
+  private void notifyLoadingChanged(final boolean loading, final long bufferedDurationUs,
+      final int bufferedBytes) {
+    if (eventHandler != null && eventListener != null) {
+      eventHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          eventListener.onLoadingChanged(loading, bufferedDurationUs, bufferedBytes);
+        }
+      });
+    }
+  }
+
+  private void notifyRebuffer(final int rebufferCount, final long bufferForPlaybackUs) {
+    if (eventHandler != null && eventListener != null) {
+      eventHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          eventListener.onRebuffer(rebufferCount, bufferForPlaybackUs);
+        }
+      });
+    }
+  }
+
+}
@@ -66,6 +66,11 @@ public abstract class BaseRenderer implements Renderer, RendererCapabilities {
     return null;
   }
 
+  @Override
+  public long getMaxRenderDelayUs() {
+    return C.TIME_UNSET;
+  }
+
   @Override
   public final int getState() {
     return state;
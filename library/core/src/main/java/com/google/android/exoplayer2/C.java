@@ -521,6 +521,23 @@ public final class C {
    */
   public static final int MSG_SET_SCALING_MODE = 4;
 
+  /**
+   * A type of a message that can be passed to an audio {@link Renderer} via
+   * {@link ExoPlayer#sendMessages} or {@link ExoPlayer#blockingSendMessages}. The message object
+   * should be the {@link com.google.android.exoplayer2.util.StartupTracer} that the renderer marks
+   * start-up stages on, or null.
+   */
+  public static final int MSG_SET_STARTUP_TRACER = 5;
+
+  /**
+   * A type of a message that can be passed to an audio {@link Renderer} via
+   * {@link ExoPlayer#sendMessages} or {@link ExoPlayer#blockingSendMessages}. The message object
+   * should be a {@link Boolean} specifying whether the renderer's audio processors run on a
+   * dedicated thread, as described in
+   * {@link com.google.android.exoplayer2.audio.AudioTrack#setAudioProcessingPipelined(boolean)}.
+   */
+  public static final int MSG_SET_AUDIO_PROCESSING_PIPELINED = 6;
+
   /**
    * Applications or extensions may define custom {@code MSG_*} constants greater than or equal to
    * this value.
@@ -19,6 +19,7 @@ import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.upstream.Allocator;
 import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.upstream.TrimmableAllocator;
 import com.google.android.exoplayer2.util.PriorityTaskManager;
 import com.google.android.exoplayer2.util.Util;
 
@@ -55,7 +56,7 @@ public final class DefaultLoadControl implements LoadControl {
   private static final int BETWEEN_WATERMARKS = 1;
   private static final int BELOW_LOW_WATERMARK = 2;
 
-  private final DefaultAllocator allocator;
+  private final TrimmableAllocator allocator;
 
   private final long minBufferUs;
   private final long maxBufferUs;
@@ -76,9 +77,9 @@ public final class DefaultLoadControl implements LoadControl {
   /**
    * Constructs a new instance, using the {@code DEFAULT_*} constants defined in this class.
    *
-   * @param allocator The {@link DefaultAllocator} used by the loader.
+   * @param allocator The {@link TrimmableAllocator} used by the loader.
    */
-  public DefaultLoadControl(DefaultAllocator allocator) {
+  public DefaultLoadControl(TrimmableAllocator allocator) {
     this(allocator, DEFAULT_MIN_BUFFER_MS, DEFAULT_MAX_BUFFER_MS, DEFAULT_BUFFER_FOR_PLAYBACK_MS,
         DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS);
   }
@@ -86,7 +87,7 @@ public final class DefaultLoadControl implements LoadControl {
   /**
    * Constructs a new instance.
    *
-   * @param allocator The {@link DefaultAllocator} used by the loader.
+   * @param allocator The {@link TrimmableAllocator} used by the loader.
    * @param minBufferMs The minimum duration of media that the player will attempt to ensure is
    *     buffered at all times, in milliseconds.
    * @param maxBufferMs The maximum duration of media that the player will attempt buffer, in
@@ -97,7 +98,7 @@ public final class DefaultLoadControl implements LoadControl {
    *     playback to resume after a rebuffer, in milliseconds. A rebuffer is defined to be caused by
    *     buffer depletion rather than a user action.
    */
-  public DefaultLoadControl(DefaultAllocator allocator, int minBufferMs, int maxBufferMs,
+  public DefaultLoadControl(TrimmableAllocator allocator, int minBufferMs, int maxBufferMs,
       long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs) {
     this(allocator, minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs,
         null);
@@ -106,7 +107,7 @@ public final class DefaultLoadControl implements LoadControl {
   /**
    * Constructs a new instance.
    *
-   * @param allocator The {@link DefaultAllocator} used by the loader.
+   * @param allocator The {@link TrimmableAllocator} used by the loader.
    * @param minBufferMs The minimum duration of media that the player will attempt to ensure is
    *     buffered at all times, in milliseconds.
    * @param maxBufferMs The maximum duration of media that the player will attempt buffer, in
@@ -120,7 +121,7 @@ public final class DefaultLoadControl implements LoadControl {
    *     {@link C#PRIORITY_PLAYBACK} during loading periods, and unregisters itself during draining
    *     periods.
    */
-  public DefaultLoadControl(DefaultAllocator allocator, int minBufferMs, int maxBufferMs,
+  public DefaultLoadControl(TrimmableAllocator allocator, int minBufferMs, int maxBufferMs,
       long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs,
       PriorityTaskManager priorityTaskManager) {
     this.allocator = allocator;
@@ -16,6 +16,7 @@
 package com.google.android.exoplayer2;
 
 import android.os.Looper;
+import android.support.annotation.IntDef;
 import android.support.annotation.Nullable;
 
 import com.google.android.exoplayer2.audio.MediaCodecAudioRenderer;
@@ -33,6 +34,9 @@ import com.google.android.exoplayer2.trackselection.TrackSelector;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.video.MediaCodecVideoRenderer;
 
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
 /**
  * An extensible media player exposing traditional high-level media player functionality, such as
  * the ability to buffer media, play, pause and seek. Instances can be obtained from
@@ -255,6 +259,50 @@ public interface ExoPlayer {
    */
   int STATE_ENDED = 4;
 
+  /**
+   * Events that an {@link EventListener} can subscribe to. A combination of
+   * {@link #EVENT_TIMELINE_CHANGED}, {@link #EVENT_TRACKS_CHANGED}, {@link #EVENT_LOADING_CHANGED},
+   * {@link #EVENT_PLAYER_STATE_CHANGED}, {@link #EVENT_PLAYER_ERROR},
+   * {@link #EVENT_POSITION_DISCONTINUITY} and {@link #EVENT_PLAYBACK_PARAMETERS_CHANGED}.
+   */
+  @Retention(RetentionPolicy.SOURCE)
+  @IntDef(flag = true, value = {EVENT_TIMELINE_CHANGED, EVENT_TRACKS_CHANGED, EVENT_LOADING_CHANGED,
+      EVENT_PLAYER_STATE_CHANGED, EVENT_PLAYER_ERROR, EVENT_POSITION_DISCONTINUITY,
+      EVENT_PLAYBACK_PARAMETERS_CHANGED, EVENT_ALL})
+  @interface Event {}
+  /**
+   * {@link EventListener#onTimelineChanged(Timeline, Object)}.
+   */
+  int EVENT_TIMELINE_CHANGED = 1;
+  /**
+   * {@link EventListener#onTracksChanged(TrackGroupArray, TrackSelectionArray)}.
+   */
+  int EVENT_TRACKS_CHANGED = 1 << 1;
+  /**
+   * {@link EventListener#onLoadingChanged(boolean)}.
+   */
+  int EVENT_LOADING_CHANGED = 1 << 2;
+  /**
+   * {@link EventListener#onPlayerStateChanged(boolean, int)}.
+   */
+  int EVENT_PLAYER_STATE_CHANGED = 1 << 3;
+  /**
+   * {@link EventListener#onPlayerError(ExoPlaybackException)}.
+   */
+  int EVENT_PLAYER_ERROR = 1 << 4;
+  /**
+   * {@link EventListener#onPositionDiscontinuity()}.
+   */
+  int EVENT_POSITION_DISCONTINUITY = 1 << 5;
+  /**
+   * {@link EventListener#onPlaybackParametersChanged(PlaybackParameters)}.
+   */
+  int EVENT_PLAYBACK_PARAMETERS_CHANGED = 1 << 6;
+  /**
+   * All events.
+   */
+  int EVENT_ALL = (1 << 7) - 1;
+
   /**
    * Register a listener to receive events from the player. The listener's methods will be called on
    * the thread that was used to construct the player. However, if the thread used to construct the
@@ -264,6 +312,16 @@ public interface ExoPlayer {
    */
   void addListener(EventListener listener);
 
+  /**
+   * Register a listener to receive only the given events from the player. Events the listener did
+   * not subscribe to are not dispatched to it at all. Registering a listener again replaces the
+   * events it receives.
+   *
+   * @param listener The listener to register.
+   * @param events The events to receive. A combination of the {@code EVENT_*} constants.
+   */
+  void addListener(EventListener listener, @Event int events);
+
   /**
    * Unregister a listener. The listener will no longer receive events from the player.
    *
@@ -371,6 +429,16 @@ public interface ExoPlayer {
    */
   void setPlaybackParameters(@Nullable PlaybackParameters playbackParameters);
 
+  /**
+   * Sets whether the playback thread may render less often while playing when only audio (and
+   * metadata) renderers are enabled. The interval is then derived from the duration of audio
+   * buffered in the output, up to 250 ms instead of the regular 10 ms, which saves wakeups and CPU
+   * time during audio only playback. Disabled by default.
+   *
+   * @param audioOnlyScheduling Whether audio only scheduling is enabled.
+   */
+  void setAudioOnlyScheduling(boolean audioOnlyScheduling);
+
   /**
    * Returns the currently active playback parameters.
    *
@@ -47,7 +47,14 @@ import java.util.concurrent.CopyOnWriteArraySet;
   private final TrackSelectionArray emptyTrackSelections;
   private final Handler eventHandler;
   private final ExoPlayerImplInternal internalPlayer;
-  private final CopyOnWriteArraySet<EventListener> listeners;
+  // Listeners by the events they subscribed to.
+  private final CopyOnWriteArraySet<EventListener> timelineListeners;
+  private final CopyOnWriteArraySet<EventListener> tracksListeners;
+  private final CopyOnWriteArraySet<EventListener> loadingListeners;
+  private final CopyOnWriteArraySet<EventListener> stateListeners;
+  private final CopyOnWriteArraySet<EventListener> errorListeners;
+  private final CopyOnWriteArraySet<EventListener> discontinuityListeners;
+  private final CopyOnWriteArraySet<EventListener> playbackParametersListeners;
   private final Timeline.Window window;
   private final Timeline.Period period;
 
@@ -86,7 +93,13 @@ import java.util.concurrent.CopyOnWriteArraySet;
     this.trackSelector = Assertions.checkNotNull(trackSelector);
     this.playWhenReady = false;
     this.playbackState = STATE_IDLE;
-    this.listeners = new CopyOnWriteArraySet<>();
+    timelineListeners = new CopyOnWriteArraySet<>();
+    tracksListeners = new CopyOnWriteArraySet<>();
+    loadingListeners = new CopyOnWriteArraySet<>();
+    stateListeners = new CopyOnWriteArraySet<>();
+    errorListeners = new CopyOnWriteArraySet<>();
+    discontinuityListeners = new CopyOnWriteArraySet<>();
+    playbackParametersListeners = new CopyOnWriteArraySet<>();
     emptyTrackSelections = new TrackSelectionArray(new TrackSelection[renderers.length]);
     timeline = Timeline.EMPTY;
     window = new Timeline.Window();
@@ -108,12 +121,44 @@ import java.util.concurrent.CopyOnWriteArraySet;
 
   @Override
   public void addListener(EventListener listener) {
-    listeners.add(listener);
+    addListener(listener, EVENT_ALL);
+  }
+
+  @Override
+  public void addListener(EventListener listener, @Event int events) {
+    removeListener(listener);
+    if ((events & EVENT_TIMELINE_CHANGED) != 0) {
+      timelineListeners.add(listener);
+    }
+    if ((events & EVENT_TRACKS_CHANGED) != 0) {
+      tracksListeners.add(listener);
+    }
+    if ((events & EVENT_LOADING_CHANGED) != 0) {
+      loadingListeners.add(listener);
+    }
+    if ((events & EVENT_PLAYER_STATE_CHANGED) != 0) {
+      stateListeners.add(listener);
+    }
+    if ((events & EVENT_PLAYER_ERROR) != 0) {
+      errorListeners.add(listener);
+    }
+    if ((events & EVENT_POSITION_DISCONTINUITY) != 0) {
+      discontinuityListeners.add(listener);
+    }
+    if ((events & EVENT_PLAYBACK_PARAMETERS_CHANGED) != 0) {
+      playbackParametersListeners.add(listener);
+    }
   }
 
   @Override
   public void removeListener(EventListener listener) {
-    listeners.remove(listener);
+    timelineListeners.remove(listener);
+    tracksListeners.remove(listener);
+    loadingListeners.remove(listener);
+    stateListeners.remove(listener);
+    errorListeners.remove(listener);
+    discontinuityListeners.remove(listener);
+    playbackParametersListeners.remove(listener);
   }
 
   @Override
@@ -132,7 +177,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
       if (!timeline.isEmpty() || manifest != null) {
         timeline = Timeline.EMPTY;
         manifest = null;
-        for (EventListener listener : listeners) {
+        for (EventListener listener : timelineListeners) {
           listener.onTimelineChanged(timeline, manifest);
         }
       }
@@ -141,7 +186,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
         trackGroups = TrackGroupArray.EMPTY;
         trackSelections = emptyTrackSelections;
         trackSelector.onSelectionActivated(null);
-        for (EventListener listener : listeners) {
+        for (EventListener listener : tracksListeners) {
           listener.onTracksChanged(trackGroups, trackSelections);
         }
       }
@@ -155,7 +200,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
     if (this.playWhenReady != playWhenReady) {
       this.playWhenReady = playWhenReady;
       internalPlayer.setPlayWhenReady(playWhenReady);
-      for (EventListener listener : listeners) {
+      for (EventListener listener : stateListeners) {
         listener.onPlayerStateChanged(playWhenReady, playbackState);
       }
     }
@@ -215,7 +260,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
     } else {
       maskingWindowPositionMs = positionMs;
       internalPlayer.seekTo(timeline, windowIndex, C.msToUs(positionMs));
-      for (EventListener listener : listeners) {
+      for (EventListener listener : discontinuityListeners) {
         listener.onPositionDiscontinuity();
       }
     }
@@ -229,6 +274,11 @@ import java.util.concurrent.CopyOnWriteArraySet;
     internalPlayer.setPlaybackParameters(playbackParameters);
   }
 
+  @Override
+  public void setAudioOnlyScheduling(boolean audioOnlyScheduling) {
+    internalPlayer.setAudioOnlyScheduling(audioOnlyScheduling);
+  }
+
   @Override
   public PlaybackParameters getPlaybackParameters() {
     return playbackParameters;
@@ -362,15 +412,19 @@ import java.util.concurrent.CopyOnWriteArraySet;
       }
       case ExoPlayerImplInternal.MSG_STATE_CHANGED: {
         playbackState = msg.arg1;
-        for (EventListener listener : listeners) {
+        for (EventListener listener : stateListeners) {
           listener.onPlayerStateChanged(playWhenReady, playbackState);
         }
         break;
       }
       case ExoPlayerImplInternal.MSG_LOADING_CHANGED: {
-        isLoading = msg.arg1 != 0;
-        for (EventListener listener : listeners) {
-          listener.onLoadingChanged(isLoading);
+        // Toggles made since the message was sent are coalesced into it. Only report a change.
+        boolean isLoading = internalPlayer.consumePendingIsLoading();
+        if (this.isLoading != isLoading) {
+          this.isLoading = isLoading;
+          for (EventListener listener : loadingListeners) {
+            listener.onLoadingChanged(isLoading);
+          }
         }
         break;
       }
@@ -381,7 +435,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
           trackGroups = trackSelectorResult.groups;
           trackSelections = trackSelectorResult.selections;
           trackSelector.onSelectionActivated(trackSelectorResult.info);
-          for (EventListener listener : listeners) {
+          for (EventListener listener : tracksListeners) {
             listener.onTracksChanged(trackGroups, trackSelections);
           }
         }
@@ -391,7 +445,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
         if (--pendingSeekAcks == 0) {
           playbackInfo = (ExoPlayerImplInternal.PlaybackInfo) msg.obj;
           if (msg.arg1 != 0) {
-            for (EventListener listener : listeners) {
+            for (EventListener listener : discontinuityListeners) {
               listener.onPositionDiscontinuity();
             }
           }
@@ -401,7 +455,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
       case ExoPlayerImplInternal.MSG_POSITION_DISCONTINUITY: {
         if (pendingSeekAcks == 0) {
           playbackInfo = (ExoPlayerImplInternal.PlaybackInfo) msg.obj;
-          for (EventListener listener : listeners) {
+          for (EventListener listener : discontinuityListeners) {
             listener.onPositionDiscontinuity();
           }
         }
@@ -414,7 +468,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
           timeline = sourceInfo.timeline;
           manifest = sourceInfo.manifest;
           playbackInfo = sourceInfo.playbackInfo;
-          for (EventListener listener : listeners) {
+          for (EventListener listener : timelineListeners) {
             listener.onTimelineChanged(timeline, manifest);
           }
         }
@@ -424,7 +478,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
         PlaybackParameters playbackParameters = (PlaybackParameters) msg.obj;
         if (!this.playbackParameters.equals(playbackParameters)) {
           this.playbackParameters = playbackParameters;
-          for (EventListener listener : listeners) {
+          for (EventListener listener : playbackParametersListeners) {
             listener.onPlaybackParametersChanged(playbackParameters);
           }
         }
@@ -432,7 +486,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
       }
       case ExoPlayerImplInternal.MSG_ERROR: {
         ExoPlaybackException exception = (ExoPlaybackException) msg.obj;
-        for (EventListener listener : listeners) {
+        for (EventListener listener : errorListeners) {
           listener.onPlayerError(exception);
         }
         break;
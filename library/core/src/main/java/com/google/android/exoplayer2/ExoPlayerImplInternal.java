@@ -35,8 +35,10 @@ import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.MediaClock;
 import com.google.android.exoplayer2.util.StandaloneMediaClock;
 import com.google.android.exoplayer2.util.TraceUtil;
+import com.google.android.exoplayer2.util.Util;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implements the internal behavior of {@link ExoPlayerImpl}.
@@ -114,10 +116,17 @@ import java.io.IOException;
   private static final int MSG_SOURCE_CONTINUE_LOADING_REQUESTED = 9;
   private static final int MSG_TRACK_SELECTION_INVALIDATED = 10;
   private static final int MSG_CUSTOM = 11;
+  private static final int MSG_SET_AUDIO_ONLY_SCHEDULING = 12;
 
   private static final int PREPARING_SOURCE_INTERVAL_MS = 10;
   private static final int RENDERING_INTERVAL_MS = 10;
   private static final int IDLE_INTERVAL_MS = 1000;
+  private static final int MAX_AUDIO_ONLY_RENDERING_INTERVAL_MS = 250;
+
+  // Values of pendingIsLoading.
+  private static final int PENDING_NONE = -1;
+  private static final int PENDING_NOT_LOADING = 0;
+  private static final int PENDING_LOADING = 1;
 
   /**
    * Limits the maximum number of periods to buffer ahead of the current playing period. The
@@ -145,6 +154,7 @@ import java.io.IOException;
   private final ExoPlayer player;
   private final Timeline.Window window;
   private final Timeline.Period period;
+  private final AtomicInteger pendingIsLoading;
 
   private PlaybackInfo playbackInfo;
   private PlaybackParameters playbackParameters;
@@ -155,6 +165,7 @@ import java.io.IOException;
   private boolean released;
   private boolean playWhenReady;
   private boolean rebuffering;
+  private boolean audioOnlyScheduling;
   private boolean isLoading;
   private int state;
   private int customMessagesSent;
@@ -192,6 +203,7 @@ import java.io.IOException;
     enabledRenderers = new Renderer[0];
     window = new Timeline.Window();
     period = new Timeline.Period();
+    pendingIsLoading = new AtomicInteger(PENDING_NONE);
     trackSelector.init(this);
     playbackParameters = PlaybackParameters.DEFAULT;
 
@@ -221,6 +233,19 @@ import java.io.IOException;
     handler.obtainMessage(MSG_SET_PLAYBACK_PARAMETERS, playbackParameters).sendToTarget();
   }
 
+  public void setAudioOnlyScheduling(boolean audioOnlyScheduling) {
+    handler.obtainMessage(MSG_SET_AUDIO_ONLY_SCHEDULING, audioOnlyScheduling ? 1 : 0, 0)
+        .sendToTarget();
+  }
+
+  /**
+   * Returns the loading state delivered by a pending {@link #MSG_LOADING_CHANGED}, allowing the
+   * next change to send a new message. Called on the event thread when handling the message.
+   */
+  public boolean consumePendingIsLoading() {
+    return pendingIsLoading.getAndSet(PENDING_NONE) == PENDING_LOADING;
+  }
+
   public void stop() {
     handler.sendEmptyMessage(MSG_STOP);
   }
@@ -346,6 +371,10 @@ import java.io.IOException;
           sendMessagesInternal((ExoPlayerMessage[]) msg.obj);
           return true;
         }
+        case MSG_SET_AUDIO_ONLY_SCHEDULING: {
+          audioOnlyScheduling = msg.arg1 != 0;
+          return true;
+        }
         default:
           return false;
       }
@@ -380,7 +409,11 @@ import java.io.IOException;
   private void setIsLoading(boolean isLoading) {
     if (this.isLoading != isLoading) {
       this.isLoading = isLoading;
-      eventHandler.obtainMessage(MSG_LOADING_CHANGED, isLoading ? 1 : 0, 0).sendToTarget();
+      // Toggles are coalesced while a message is pending. The message delivers the latest value.
+      if (pendingIsLoading.getAndSet(isLoading ? PENDING_LOADING : PENDING_NOT_LOADING)
+          == PENDING_NONE) {
+        eventHandler.sendEmptyMessage(MSG_LOADING_CHANGED);
+      }
     }
   }
 
@@ -540,7 +573,9 @@ import java.io.IOException;
       }
     }
 
-    if ((playWhenReady && state == ExoPlayer.STATE_READY) || state == ExoPlayer.STATE_BUFFERING) {
+    if (playWhenReady && state == ExoPlayer.STATE_READY) {
+      scheduleNextWork(operationStartTimeMs, getRenderingIntervalMs());
+    } else if (state == ExoPlayer.STATE_BUFFERING) {
       scheduleNextWork(operationStartTimeMs, RENDERING_INTERVAL_MS);
     } else if (enabledRenderers.length != 0) {
       scheduleNextWork(operationStartTimeMs, IDLE_INTERVAL_MS);
@@ -551,6 +586,38 @@ import java.io.IOException;
     TraceUtil.endSection();
   }
 
+  /**
+   * Returns the interval at which to render while playing. With audio only scheduling, when only
+   * audio and metadata renderers are enabled, the audio renderers are rendered again when half of
+   * the audio they have buffered in the output has been played, within
+   * {@link #MAX_AUDIO_ONLY_RENDERING_INTERVAL_MS}. Metadata is not time critical at that scale.
+   */
+  private long getRenderingIntervalMs() {
+    if (!audioOnlyScheduling) {
+      return RENDERING_INTERVAL_MS;
+    }
+    long minRenderDelayUs = C.TIME_UNSET;
+    for (Renderer renderer : enabledRenderers) {
+      int trackType = renderer.getTrackType();
+      if (trackType == C.TRACK_TYPE_METADATA) {
+        continue;
+      } else if (trackType != C.TRACK_TYPE_AUDIO) {
+        return RENDERING_INTERVAL_MS;
+      }
+      long renderDelayUs = renderer.getMaxRenderDelayUs();
+      if (renderDelayUs == C.TIME_UNSET) {
+        return RENDERING_INTERVAL_MS;
+      }
+      minRenderDelayUs = minRenderDelayUs == C.TIME_UNSET ? renderDelayUs
+          : Math.min(minRenderDelayUs, renderDelayUs);
+    }
+    if (minRenderDelayUs == C.TIME_UNSET) {
+      return RENDERING_INTERVAL_MS;
+    }
+    return Util.constrainValue(minRenderDelayUs / 2000, RENDERING_INTERVAL_MS,
+        MAX_AUDIO_ONLY_RENDERING_INTERVAL_MS);
+  }
+
   private void scheduleNextWork(long thisOperationStartTimeMs, long intervalMs) {
     handler.removeMessages(MSG_DO_SOME_WORK);
     long nextOperationStartTimeMs = thisOperationStartTimeMs + intervalMs;
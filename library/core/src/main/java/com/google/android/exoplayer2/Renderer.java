@@ -237,6 +237,18 @@ public interface Renderer extends ExoPlayerComponent {
    */
   boolean isEnded();
 
+  /**
+   * Returns how long the renderer can go without a call to {@link #render(long, long)} before
+   * playback is affected, in microseconds, or {@link C#TIME_UNSET} if it should be rendered at the
+   * player's regular interval. Only used by players that are set to audio only scheduling.
+   * <p>
+   * This method may be called when the renderer is in the following states:
+   * {@link #STATE_STARTED}.
+   *
+   * @return The maximum delay before the renderer is rendered again, or {@link C#TIME_UNSET}.
+   */
+  long getMaxRenderDelayUs();
+
   /**
    * Stops the renderer, transitioning it to the {@link #STATE_ENABLED} state.
    * <p>
@@ -38,6 +38,7 @@ import com.google.android.exoplayer2.text.Cue;
 import com.google.android.exoplayer2.text.TextRenderer;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.trackselection.TrackSelector;
+import com.google.android.exoplayer2.util.StartupTracer;
 import com.google.android.exoplayer2.video.VideoRendererEventListener;
 
 import java.util.List;
@@ -87,6 +88,7 @@ public class SimpleExoPlayer implements ExoPlayer {
 
   private final ExoPlayer player;
   private final ComponentListener componentListener;
+  private final StartupTracer startupTracer;
   private final int videoRendererCount;
   private final int audioRendererCount;
 
@@ -143,6 +145,18 @@ public class SimpleExoPlayer implements ExoPlayer {
 
     // Build the player and associated objects.
     player = new ExoPlayerImpl(renderers, trackSelector, loadControl);
+
+    // Let the audio renderers mark start-up stages.
+    startupTracer = new StartupTracer(eventHandler);
+    ExoPlayerMessage[] messages = new ExoPlayerMessage[audioRendererCount];
+    int count = 0;
+    for (Renderer renderer : renderers) {
+      if (renderer.getTrackType() == C.TRACK_TYPE_AUDIO) {
+        messages[count++] = new ExoPlayerMessage(renderer, C.MSG_SET_STARTUP_TRACER,
+            startupTracer);
+      }
+    }
+    player.sendMessages(messages);
   }
 
   /**
@@ -323,6 +337,28 @@ public class SimpleExoPlayer implements ExoPlayer {
     return audioStreamType;
   }
 
+  /**
+   * Sets whether the audio processors of the audio renderers run on a dedicated thread instead of
+   * the playback thread. This keeps expensive audio processing from delaying the playback thread,
+   * at the cost of a short additional queue of audio.
+   * <p>
+   * Note that when the setting changes, the AudioTrack must be reinitialized, which can introduce a
+   * brief gap in audio output.
+   *
+   * @param audioProcessingPipelined Whether the audio processors run on a dedicated thread.
+   */
+  public void setAudioProcessingPipelined(boolean audioProcessingPipelined) {
+    ExoPlayerMessage[] messages = new ExoPlayerMessage[audioRendererCount];
+    int count = 0;
+    for (Renderer renderer : renderers) {
+      if (renderer.getTrackType() == C.TRACK_TYPE_AUDIO) {
+        messages[count++] = new ExoPlayerMessage(renderer, C.MSG_SET_AUDIO_PROCESSING_PIPELINED,
+            audioProcessingPipelined);
+      }
+    }
+    player.sendMessages(messages);
+  }
+
   /**
    * Sets the audio volume, with 0 being silence and 1 being unity gain.
    *
@@ -461,6 +497,39 @@ public class SimpleExoPlayer implements ExoPlayer {
     }
   }
 
+  /**
+   * Returns the tracer on which start-up stages are marked. Pass it to media sources that support
+   * start-up tracing, such as
+   * {@link com.google.android.exoplayer2.source.ExtractorMediaSource}, to include their stages.
+   * <p>
+   * A trace is started by {@link #prepare(MediaSource)} unless one is in progress already, so
+   * applications can call {@link StartupTracer#start()} earlier to include work that precedes
+   * preparation.
+   */
+  public StartupTracer getStartupTracer() {
+    return startupTracer;
+  }
+
+  /**
+   * Sets a listener to receive start-up traces.
+   *
+   * @param listener The listener.
+   */
+  public void setStartupListener(StartupTracer.Listener listener) {
+    startupTracer.setListener(listener);
+  }
+
+  /**
+   * Clears the listener receiving start-up traces if it matches the one passed. Else does nothing.
+   *
+   * @param listener The listener to clear.
+   */
+  public void clearStartupListener(StartupTracer.Listener listener) {
+    if (startupTracer.getListener() == listener) {
+      startupTracer.setListener(null);
+    }
+  }
+
   /**
    * Sets a listener to receive debug events from the video renderer.
    *
@@ -486,6 +555,11 @@ public class SimpleExoPlayer implements ExoPlayer {
     player.addListener(listener);
   }
 
+  @Override
+  public void addListener(EventListener listener, @Event int events) {
+    player.addListener(listener, events);
+  }
+
   @Override
   public void removeListener(EventListener listener) {
     player.removeListener(listener);
@@ -498,11 +572,17 @@ public class SimpleExoPlayer implements ExoPlayer {
 
   @Override
   public void prepare(MediaSource mediaSource) {
+    if (!startupTracer.isTracing()) {
+      startupTracer.start();
+    }
     player.prepare(mediaSource);
   }
 
   @Override
   public void prepare(MediaSource mediaSource, boolean resetPosition, boolean resetState) {
+    if (!startupTracer.isTracing()) {
+      startupTracer.start();
+    }
     player.prepare(mediaSource, resetPosition, resetState);
   }
 
@@ -546,6 +626,11 @@ public class SimpleExoPlayer implements ExoPlayer {
     player.setPlaybackParameters(playbackParameters);
   }
 
+  @Override
+  public void setAudioOnlyScheduling(boolean audioOnlyScheduling) {
+    player.setAudioOnlyScheduling(audioOnlyScheduling);
+  }
+
   @Override
   public PlaybackParameters getPlaybackParameters() {
     return player.getPlaybackParameters();
@@ -553,11 +638,13 @@ public class SimpleExoPlayer implements ExoPlayer {
 
   @Override
   public void stop() {
+    startupTracer.cancel();
     player.stop();
   }
 
   @Override
   public void release() {
+    startupTracer.cancel();
     player.release();
     removeSurfaceCallbacks();
     if (surface != null) {
@@ -47,8 +47,9 @@ public interface AudioProcessor {
    * method, {@link #isActive()} returns whether the processor needs to handle buffers; if not, the
    * processor will not accept any buffers until it is reconfigured. Returns {@code true} if the
    * processor must be flushed, or if the value returned by {@link #isActive()} has changed as a
-   * result of the call. If it's active, {@link #getOutputChannelCount()} and
-   * {@link #getOutputEncoding()} return the processor's output format.
+   * result of the call. If it's active, {@link #getOutputChannelCount()},
+   * {@link #getOutputSampleRateHz()} and {@link #getOutputEncoding()} return the processor's output
+   * format.
    *
    * @param sampleRateHz The sample rate of input audio in Hz.
    * @param channelCount The number of interleaved channels in input audio.
@@ -70,6 +71,11 @@ public interface AudioProcessor {
    */
   int getOutputChannelCount();
 
+  /**
+   * Returns the sample rate of the data output by the processor, in Hz.
+   */
+  int getOutputSampleRateHz();
+
   /**
    * Returns the audio encoding used in the data output by the processor.
    */
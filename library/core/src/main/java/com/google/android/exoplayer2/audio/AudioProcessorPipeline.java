@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.audio;
+
+import android.os.Process;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a chain of {@link AudioProcessor}s on a dedicated worker thread.
+ * <p>
+ * Input is copied into a ring of direct buffers by the playback thread and processed output is
+ * read back from a second ring. Each ring has a single producer and a single consumer, so slots are
+ * handed over by publishing volatile indices without locks. The worker parks when it can make no
+ * progress and is unparked when the playback thread queues input or frees an output slot.
+ * <p>
+ * The worker owns the audio processors while it runs. {@link #pause()} stops it at a safe point
+ * so that the audio processors can be configured or flushed on the calling thread; it is started
+ * again when the next input is queued or output is requested.
+ */
+/* package */ final class AudioProcessorPipeline implements Runnable {
+
+  /**
+   * The number of slots in each ring.
+   */
+  private static final int SLOT_COUNT = 8;
+  /**
+   * The target size of each slot in bytes. Slots hold a whole number of input and output frames,
+   * so they are rounded down to a multiple of both frame sizes. Together with {@link #SLOT_COUNT}
+   * this bounds the depth of the pipeline to about 190 ms of 16-bit stereo audio at 44.1 kHz on
+   * each side.
+   */
+  private static final int TARGET_SLOT_SIZE = 4096;
+  /**
+   * The longest time the worker parks before checking for work again, in nanoseconds.
+   */
+  private static final long MAX_PARK_TIME_NS = 10000000;
+
+  private final boolean[] inputEndOfStream;
+  private final boolean[] outputEndOfStream;
+
+  // Written by the playback thread, read by the worker.
+  private volatile long inputWriteIndex;
+  private volatile long outputReadIndex;
+  private volatile boolean stopRequested;
+
+  // Written by the worker, read by the playback thread.
+  private volatile long inputReadIndex;
+  private volatile long outputWriteIndex;
+  private volatile long producedOutputBytes;
+  private volatile RuntimeException error;
+
+  // Written by the playback thread while the worker is paused.
+  private int slotSize;
+  private ByteBuffer[] inputSlots;
+  private ByteBuffer[] outputSlots;
+
+  // Accessed by the playback thread only.
+  private Thread thread;
+  private ByteBuffer outputSlot;
+  private long consumedOutputBytes;
+  private boolean ended;
+
+  // Accessed by the worker while it runs, and by the playback thread while it is paused.
+  private AudioProcessor[] audioProcessors;
+  private ByteBuffer[] outputBuffers;
+  private ByteBuffer inputSlot;
+  private int drainingAudioProcessorIndex;
+  private boolean audioProcessorNeedsEndOfStream;
+
+  public AudioProcessorPipeline() {
+    slotSize = TARGET_SLOT_SIZE;
+    inputSlots = createSlots(slotSize);
+    inputEndOfStream = new boolean[SLOT_COUNT];
+    outputSlots = createSlots(slotSize);
+    outputEndOfStream = new boolean[SLOT_COUNT];
+    audioProcessors = new AudioProcessor[0];
+    outputBuffers = new ByteBuffer[0];
+    drainingAudioProcessorIndex = -1;
+  }
+
+  /**
+   * Sets the audio processors to run. The pipeline must be empty and paused, which is the case
+   * after {@link #flush()}. The audio processors must have been flushed.
+   *
+   * @param audioProcessors The active audio processors, in order.
+   */
+  public void setAudioProcessors(AudioProcessor[] audioProcessors) {
+    this.audioProcessors = audioProcessors;
+    outputBuffers = new ByteBuffer[audioProcessors.length];
+    for (int i = 0; i < audioProcessors.length; i++) {
+      outputBuffers[i] = audioProcessors[i].getOutput();
+    }
+  }
+
+  /**
+   * Sets the sizes of the frames that are queued as input and produced as output, so that no slot
+   * splits a frame. If the slots have to be resized, all queued input and processed output is
+   * discarded as in {@link #flush()}.
+   *
+   * @param inputFrameSize The size of each input frame in bytes.
+   * @param outputFrameSize The size of each output frame in bytes.
+   */
+  public void setFrameSizes(int inputFrameSize, int outputFrameSize) {
+    int frameSizeMultiple = inputFrameSize / gcd(inputFrameSize, outputFrameSize) * outputFrameSize;
+    int slotSize = Math.max(1, TARGET_SLOT_SIZE / frameSizeMultiple) * frameSizeMultiple;
+    if (slotSize == this.slotSize) {
+      return;
+    }
+    flush();
+    this.slotSize = slotSize;
+    inputSlots = createSlots(slotSize);
+    outputSlots = createSlots(slotSize);
+  }
+
+  /**
+   * Copies as much of the buffer into the pipeline as fits, advancing its position.
+   *
+   * @param buffer The PCM audio to process.
+   * @return Whether the buffer was queued in full.
+   */
+  public boolean queueInput(ByteBuffer buffer) {
+    maybeThrowError();
+    boolean queued = false;
+    while (buffer.hasRemaining() && inputWriteIndex - inputReadIndex < SLOT_COUNT) {
+      int slotIndex = (int) (inputWriteIndex % SLOT_COUNT);
+      copy(buffer, inputSlots[slotIndex]);
+      inputEndOfStream[slotIndex] = false;
+      inputWriteIndex++;
+      queued = true;
+    }
+    if (queued) {
+      startOrUnpark();
+    }
+    return !buffer.hasRemaining();
+  }
+
+  /**
+   * Queues the end of the stream after the input queued so far. The audio processors are drained
+   * on the worker and {@link #isEnded()} returns {@code true} once all of their output has been
+   * read.
+   *
+   * @return Whether the end of the stream was queued. If not, the call must be repeated.
+   */
+  public boolean queueEndOfStream() {
+    maybeThrowError();
+    if (inputWriteIndex - inputReadIndex == SLOT_COUNT) {
+      return false;
+    }
+    int slotIndex = (int) (inputWriteIndex % SLOT_COUNT);
+    ByteBuffer slot = inputSlots[slotIndex];
+    slot.clear();
+    slot.flip();
+    inputEndOfStream[slotIndex] = true;
+    inputWriteIndex++;
+    startOrUnpark();
+    return true;
+  }
+
+  /**
+   * Returns the next buffer of processed output, or {@link AudioProcessor#EMPTY_BUFFER} if none is
+   * available. The buffer remains valid until the next call, which must only be made once it has
+   * been read in full.
+   */
+  public ByteBuffer getOutput() {
+    maybeThrowError();
+    if (outputSlot != null) {
+      if (outputSlot.hasRemaining()) {
+        return outputSlot;
+      }
+      consumedOutputBytes += outputSlot.limit();
+      outputSlot = null;
+      releaseOutputSlot();
+    }
+    if (thread == null && !ended) {
+      startOrUnpark();
+    }
+    if (outputReadIndex == outputWriteIndex) {
+      return AudioProcessor.EMPTY_BUFFER;
+    }
+    int slotIndex = (int) (outputReadIndex % SLOT_COUNT);
+    if (outputEndOfStream[slotIndex]) {
+      ended = true;
+      releaseOutputSlot();
+      return AudioProcessor.EMPTY_BUFFER;
+    }
+    outputSlot = outputSlots[slotIndex];
+    return outputSlot;
+  }
+
+  /**
+   * Returns whether the end of the stream has been queued and all output has been read.
+   */
+  public boolean isEnded() {
+    return ended;
+  }
+
+  /**
+   * Returns the number of output bytes that have been processed but not yet read.
+   */
+  public long getPendingOutputBytes() {
+    return producedOutputBytes - consumedOutputBytes
+        - (outputSlot != null ? outputSlot.position() : 0);
+  }
+
+  /**
+   * Stops the worker at a safe point, keeping any queued input and processed output. The audio
+   * processors may be accessed on the calling thread until the worker is started again.
+   */
+  public void pause() {
+    if (thread == null) {
+      return;
+    }
+    stopRequested = true;
+    LockSupport.unpark(thread);
+    boolean interrupted = false;
+    while (true) {
+      try {
+        thread.join();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    thread = null;
+    stopRequested = false;
+  }
+
+  /**
+   * Stops the worker and discards all queued input and processed output. The caller is responsible
+   * for flushing the audio processors.
+   */
+  public void flush() {
+    pause();
+    inputWriteIndex = 0;
+    inputReadIndex = 0;
+    outputWriteIndex = 0;
+    outputReadIndex = 0;
+    producedOutputBytes = 0;
+    consumedOutputBytes = 0;
+    outputSlot = null;
+    inputSlot = null;
+    ended = false;
+    error = null;
+    drainingAudioProcessorIndex = -1;
+    for (int i = 0; i < outputBuffers.length; i++) {
+      outputBuffers[i] = AudioProcessor.EMPTY_BUFFER;
+    }
+  }
+
+  @Override
+  public void run() {
+    Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+    try {
+      while (!stopRequested) {
+        long progress = getProgress();
+        if (drainingAudioProcessorIndex == -1) {
+          processBuffers();
+        }
+        if (drainingAudioProcessorIndex != -1) {
+          drainToEndOfStream();
+        }
+        if (getProgress() == progress && !stopRequested) {
+          LockSupport.parkNanos(this, MAX_PARK_TIME_NS);
+        }
+      }
+    } catch (RuntimeException e) {
+      error = e;
+    }
+  }
+
+  private void startOrUnpark() {
+    if (thread == null) {
+      thread = new Thread(this, "AudioProcessorPipeline");
+      thread.start();
+    } else {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  private void releaseOutputSlot() {
+    outputReadIndex++;
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  private void maybeThrowError() {
+    if (error != null) {
+      throw new IllegalStateException(error);
+    }
+  }
+
+  // Methods called on the worker.
+
+  /**
+   * Passes input through the audio processors into the output ring, as far as the rings allow.
+   * This mirrors the synchronous processing loop of {@link AudioTrack}.
+   */
+  private void processBuffers() {
+    int count = audioProcessors.length;
+    int index = count;
+    while (index >= 0) {
+      ByteBuffer input = index > 0 ? outputBuffers[index - 1] : getInput();
+      if (index == count) {
+        writeOutput(input);
+      } else {
+        AudioProcessor audioProcessor = audioProcessors[index];
+        audioProcessor.queueInput(input);
+        ByteBuffer output = audioProcessor.getOutput();
+        outputBuffers[index] = output;
+        if (output.hasRemaining()) {
+          // Handle the output as input to the next audio processor or the output ring.
+          index++;
+          continue;
+        }
+      }
+
+      if (input.hasRemaining()) {
+        // The input wasn't consumed and no output was produced, so give up for now.
+        return;
+      }
+
+      // Get more input from upstream.
+      index--;
+    }
+  }
+
+  /**
+   * Drains the audio processors one after the other, then marks the end of the stream in the
+   * output ring.
+   */
+  private void drainToEndOfStream() {
+    int count = audioProcessors.length;
+    while (drainingAudioProcessorIndex < count) {
+      AudioProcessor audioProcessor = audioProcessors[drainingAudioProcessorIndex];
+      if (audioProcessorNeedsEndOfStream) {
+        audioProcessor.queueEndOfStream();
+        audioProcessorNeedsEndOfStream = false;
+      }
+      processBuffers();
+      if (!audioProcessor.isEnded()) {
+        return;
+      }
+      audioProcessorNeedsEndOfStream = true;
+      drainingAudioProcessorIndex++;
+    }
+    // Finish writing the output of the last audio processor.
+    if (count > 0 && outputBuffers[count - 1].hasRemaining()) {
+      writeOutput(outputBuffers[count - 1]);
+      if (outputBuffers[count - 1].hasRemaining()) {
+        return;
+      }
+    }
+    if (outputWriteIndex - outputReadIndex == SLOT_COUNT) {
+      return;
+    }
+    int slotIndex = (int) (outputWriteIndex % SLOT_COUNT);
+    ByteBuffer slot = outputSlots[slotIndex];
+    slot.clear();
+    slot.flip();
+    outputEndOfStream[slotIndex] = true;
+    outputWriteIndex++;
+    // Release the end of stream slot of the input ring.
+    inputSlot = null;
+    inputReadIndex++;
+    drainingAudioProcessorIndex = -1;
+  }
+
+  /**
+   * Returns the slot at the head of the input ring, releasing the previous one if it has been
+   * consumed. Starts draining when the head is the end of the stream.
+   */
+  private ByteBuffer getInput() {
+    if (drainingAudioProcessorIndex != -1) {
+      return AudioProcessor.EMPTY_BUFFER;
+    }
+    if (inputSlot != null) {
+      if (inputSlot.hasRemaining()) {
+        return inputSlot;
+      }
+      inputSlot = null;
+      inputReadIndex++;
+    }
+    if (inputReadIndex == inputWriteIndex) {
+      return AudioProcessor.EMPTY_BUFFER;
+    }
+    int slotIndex = (int) (inputReadIndex % SLOT_COUNT);
+    if (inputEndOfStream[slotIndex]) {
+      drainingAudioProcessorIndex = 0;
+      audioProcessorNeedsEndOfStream = true;
+      return AudioProcessor.EMPTY_BUFFER;
+    }
+    inputSlot = inputSlots[slotIndex];
+    return inputSlot;
+  }
+
+  /**
+   * Copies as much of the buffer into the output ring as fits, advancing its position.
+   */
+  private void writeOutput(ByteBuffer buffer) {
+    while (buffer.hasRemaining() && outputWriteIndex - outputReadIndex < SLOT_COUNT) {
+      int slotIndex = (int) (outputWriteIndex % SLOT_COUNT);
+      int length = copy(buffer, outputSlots[slotIndex]);
+      outputEndOfStream[slotIndex] = false;
+      producedOutputBytes += length;
+      outputWriteIndex++;
+    }
+  }
+
+  /**
+   * Returns a value that changes whenever the worker moves data.
+   */
+  private long getProgress() {
+    return inputReadIndex + outputWriteIndex + drainingAudioProcessorIndex
+        + (inputSlot != null ? inputSlot.position() : 0);
+  }
+
+  // Static methods.
+
+  private static ByteBuffer[] createSlots(int slotSize) {
+    ByteBuffer[] slots = new ByteBuffer[SLOT_COUNT];
+    for (int i = 0; i < SLOT_COUNT; i++) {
+      slots[i] = ByteBuffer.allocateDirect(slotSize).order(ByteOrder.nativeOrder());
+    }
+    return slots;
+  }
+
+  private static int gcd(int a, int b) {
+    while (b != 0) {
+      int remainder = a % b;
+      a = b;
+      b = remainder;
+    }
+    return a;
+  }
+
+  /**
+   * Copies as much of the source as fits into the cleared slot and flips the slot. As the slot
+   * holds a whole number of frames and the source only contains whole frames, so does the copy.
+   *
+   * @return The number of bytes copied.
+   */
+  private static int copy(ByteBuffer source, ByteBuffer slot) {
+    slot.clear();
+    int length = Math.min(slot.capacity(), source.remaining());
+    int limit = source.limit();
+    source.limit(source.position() + length);
+    slot.put(source);
+    source.limit(limit);
+    slot.flip();
+    return length;
+  }
+
+}
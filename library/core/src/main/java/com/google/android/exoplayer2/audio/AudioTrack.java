@@ -28,6 +28,7 @@ import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.StartupTracer;
 import com.google.android.exoplayer2.util.Util;
 
 import java.lang.reflect.Method;
@@ -295,6 +296,8 @@ public final class AudioTrack {
   private android.media.AudioTrack keepSessionIdAudioTrack;
 
   private android.media.AudioTrack audioTrack;
+  private StartupTracer startupTracer;
+  private int inputSampleRate;
   private int sampleRate;
   private int channelConfig;
   @C.Encoding
@@ -338,6 +341,7 @@ public final class AudioTrack {
 
   private AudioProcessor[] audioProcessors;
   private ByteBuffer[] outputBuffers;
+  private AudioProcessorPipeline audioProcessorPipeline;
   private ByteBuffer inputBuffer;
   private ByteBuffer outputBuffer;
   private byte[] preV21OutputBuffer;
@@ -493,8 +497,13 @@ public final class AudioTrack {
       throws ConfigurationException {
     boolean passthrough = !MimeTypes.AUDIO_RAW.equals(mimeType);
     @C.Encoding int encoding = passthrough ? getEncodingForMimeType(mimeType) : pcmEncoding;
+    int inputSampleRate = sampleRate;
     boolean flush = false;
     if (!passthrough) {
+      if (audioProcessorPipeline != null) {
+        // The audio processors are reconfigured on this thread.
+        audioProcessorPipeline.pause();
+      }
       pcmFrameSize = Util.getPcmFrameSize(pcmEncoding, channelCount);
       channelMappingAudioProcessor.setChannelMap(outputChannels);
       for (AudioProcessor audioProcessor : availableAudioProcessors) {
@@ -506,6 +515,7 @@ public final class AudioTrack {
         if (audioProcessor.isActive()) {
           channelCount = audioProcessor.getOutputChannelCount();
           encoding = audioProcessor.getOutputEncoding();
+          sampleRate = audioProcessor.getOutputSampleRateHz();
         }
       }
       if (flush) {
@@ -574,10 +584,14 @@ public final class AudioTrack {
 
     this.encoding = encoding;
     this.passthrough = passthrough;
+    this.inputSampleRate = inputSampleRate;
     this.sampleRate = sampleRate;
     this.channelConfig = channelConfig;
     outputEncoding = passthrough ? encoding : C.ENCODING_PCM_16BIT;
     outputPcmFrameSize = Util.getPcmFrameSize(C.ENCODING_PCM_16BIT, channelCount);
+    if (!passthrough && audioProcessorPipeline != null) {
+      audioProcessorPipeline.setFrameSizes(pcmFrameSize, outputPcmFrameSize);
+    }
 
     if (specifiedBufferSize != 0) {
       bufferSize = specifiedBufferSize;
@@ -610,6 +624,9 @@ public final class AudioTrack {
   }
 
   private void resetAudioProcessors() {
+    if (audioProcessorPipeline != null) {
+      audioProcessorPipeline.flush();
+    }
     ArrayList<AudioProcessor> newAudioProcessors = new ArrayList<>();
     for (AudioProcessor audioProcessor : availableAudioProcessors) {
       if (audioProcessor.isActive()) {
@@ -626,6 +643,9 @@ public final class AudioTrack {
       audioProcessor.flush();
       outputBuffers[i] = audioProcessor.getOutput();
     }
+    if (audioProcessorPipeline != null) {
+      audioProcessorPipeline.setAudioProcessors(audioProcessors);
+    }
   }
 
   private void initialize() throws InitializationException {
@@ -746,7 +766,7 @@ public final class AudioTrack {
     }
 
     boolean hadData = hasData;
-    hasData = hasPendingData();
+    hasData = hasPendingTrackData();
     if (hadData && !hasData && audioTrack.getPlayState() != PLAYSTATE_STOPPED) {
       long elapsedSinceLastFeedMs = SystemClock.elapsedRealtime() - lastFeedElapsedRealtimeMs;
       listener.onUnderrun(bufferSize, C.usToMs(bufferSizeUs), elapsedSinceLastFeedMs);
@@ -785,7 +805,7 @@ public final class AudioTrack {
       } else {
         // Sanity check that presentationTimeUs is consistent with the expected value.
         long expectedPresentationTimeUs = startMediaTimeUs
-            + framesToDurationUs(getSubmittedFrames());
+            + inputFramesToDurationUs(getSubmittedFrames());
         if (startMediaTimeState == START_IN_SYNC
             && Math.abs(expectedPresentationTimeUs - presentationTimeUs) > 200000) {
           Log.e(TAG, "Discontinuity detected [expected " + expectedPresentationTimeUs + ", got "
@@ -813,6 +833,9 @@ public final class AudioTrack {
     if (passthrough) {
       // Passthrough buffers are not processed.
       writeBuffer(inputBuffer, presentationTimeUs);
+    } else if (isAudioProcessingPipelined()) {
+      audioProcessorPipeline.queueInput(inputBuffer);
+      writePipelineOutput();
     } else {
       processBuffers(presentationTimeUs);
     }
@@ -854,6 +877,33 @@ public final class AudioTrack {
     }
   }
 
+  /**
+   * Writes audio that the {@link AudioProcessorPipeline} has processed since the last call to the
+   * platform audio track. Output becomes available on the pipeline's thread whether or not new
+   * input is handled, so this must be called on every render. Does nothing if processing is not
+   * pipelined.
+   *
+   * @throws WriteException If an error occurs writing the audio data.
+   */
+  public void writePendingOutput() throws WriteException {
+    if (isInitialized() && isAudioProcessingPipelined()) {
+      writePipelineOutput();
+    }
+  }
+
+  /**
+   * Writes processed output of the {@link AudioProcessorPipeline} to the track until the track is
+   * full or the pipeline has no more output.
+   */
+  private void writePipelineOutput() throws WriteException {
+    while (true) {
+      ByteBuffer buffer = outputBuffer != null ? outputBuffer : audioProcessorPipeline.getOutput();
+      if (!buffer.hasRemaining() || !writeBuffer(buffer, C.TIME_UNSET)) {
+        return;
+      }
+    }
+  }
+
   @SuppressWarnings("ReferenceEquality")
   private boolean writeBuffer(ByteBuffer buffer, long avSyncPresentationTimeUs)
       throws WriteException {
@@ -907,6 +957,9 @@ public final class AudioTrack {
     if (!passthrough) {
       writtenPcmBytes += bytesWritten;
     }
+    if (startupTracer != null && bytesWritten > 0) {
+      startupTracer.mark(StartupTracer.STAGE_FIRST_AUDIO_WRITTEN);
+    }
     if (bytesWritten == bytesRemaining) {
       if (passthrough) {
         writtenEncodedFrames += framesPerEncodedSample;
@@ -936,6 +989,9 @@ public final class AudioTrack {
   }
 
   private boolean drainAudioProcessorsToEndOfStream() throws WriteException {
+    if (isAudioProcessingPipelined()) {
+      return drainAudioProcessorPipelineToEndOfStream();
+    }
     boolean audioProcessorNeedsEndOfStream = false;
     if (drainingAudioProcessorIndex == C.INDEX_UNSET) {
       drainingAudioProcessorIndex = passthrough ? audioProcessors.length : 0;
@@ -965,6 +1021,23 @@ public final class AudioTrack {
     return true;
   }
 
+  private boolean drainAudioProcessorPipelineToEndOfStream() throws WriteException {
+    if (drainingAudioProcessorIndex == C.INDEX_UNSET) {
+      if (!audioProcessorPipeline.queueEndOfStream()) {
+        writePipelineOutput();
+        return false;
+      }
+      // The audio processors are drained one after the other on the pipeline's thread.
+      drainingAudioProcessorIndex = audioProcessors.length;
+    }
+    writePipelineOutput();
+    if (!audioProcessorPipeline.isEnded() || outputBuffer != null) {
+      return false;
+    }
+    drainingAudioProcessorIndex = C.INDEX_UNSET;
+    return true;
+  }
+
   /**
    * Returns whether all buffers passed to {@link #handleBuffer(ByteBuffer, long)} have been
    * completely processed and played.
@@ -974,9 +1047,37 @@ public final class AudioTrack {
   }
 
   /**
-   * Returns whether the audio track has more data pending that will be played back.
+   * Returns the duration of the audio that has been written to the platform audio track but not yet
+   * played, in microseconds, or {@link C#TIME_UNSET} in passthrough mode. Audio that is still
+   * queued in the {@link AudioProcessorPipeline} is not included. It reaches the platform audio
+   * track on the next call to {@link #writePendingOutput()} or
+   * {@link #handleBuffer(ByteBuffer, long)}, which the renderers make on every render.
+   */
+  public long getBufferedDurationUs() {
+    if (!isInitialized()) {
+      return 0;
+    } else if (passthrough) {
+      return C.TIME_UNSET;
+    }
+    return framesToDurationUs(
+        Math.max(0, getWrittenFrames() - audioTrackUtil.getPlaybackHeadPosition()));
+  }
+
+  /**
+   * Returns whether the audio track has more data pending that will be played back. Processed
+   * output of the {@link AudioProcessorPipeline} counts, as it is written to the platform audio
+   * track by {@link #writePendingOutput()}. Input that the audio processors have not consumed yet
+   * does not, as an audio processor may hold it back indefinitely.
    */
   public boolean hasPendingData() {
+    return hasPendingTrackData() || (isInitialized() && isAudioProcessingPipelined()
+        && audioProcessorPipeline.getPendingOutputBytes() > 0);
+  }
+
+  /**
+   * Returns whether the platform audio track has more data pending that will be played back.
+   */
+  private boolean hasPendingTrackData() {
     return isInitialized()
         && (getWrittenFrames() > audioTrackUtil.getPlaybackHeadPosition()
         || overrideHasPendingData());
@@ -1089,6 +1190,44 @@ public final class AudioTrack {
     }
   }
 
+  /**
+   * Sets whether the audio processors run on a dedicated thread. If enabled, input is handed to
+   * the thread through a lock-free ring of buffers and processed output is written to the platform
+   * audio track from a second ring, so that expensive audio processors don't delay the playback
+   * thread. The playback position is unaffected, as it is derived from the frames played by the
+   * platform audio track, and processed audio queued in the pipeline counts as pending data.
+   * <p>
+   * Processing is never pipelined while tunneling, as tunneled output needs the timestamp of each
+   * buffer. If the setting changes then the audio track is reset.
+   *
+   * @param audioProcessingPipelined Whether the audio processors run on a dedicated thread.
+   */
+  public void setAudioProcessingPipelined(boolean audioProcessingPipelined) {
+    if ((audioProcessorPipeline != null) == audioProcessingPipelined) {
+      return;
+    }
+    reset();
+    if (audioProcessingPipelined) {
+      audioProcessorPipeline = new AudioProcessorPipeline();
+      audioProcessorPipeline.setAudioProcessors(audioProcessors);
+      if (pcmFrameSize != 0 && outputPcmFrameSize != 0) {
+        audioProcessorPipeline.setFrameSizes(pcmFrameSize, outputPcmFrameSize);
+      }
+    } else {
+      audioProcessorPipeline.flush();
+      audioProcessorPipeline = null;
+    }
+  }
+
+  /**
+   * Sets the tracer on which the first write of audio data is marked.
+   *
+   * @param startupTracer The tracer, or null.
+   */
+  public void setStartupTracer(StartupTracer startupTracer) {
+    this.startupTracer = startupTracer;
+  }
+
   /**
    * Sets the playback volume.
    *
@@ -1147,6 +1286,9 @@ public final class AudioTrack {
       playbackParametersPositionUs = 0;
       inputBuffer = null;
       outputBuffer = null;
+      if (audioProcessorPipeline != null) {
+        audioProcessorPipeline.flush();
+      }
       for (int i = 0; i < audioProcessors.length; i++) {
         AudioProcessor audioProcessor = audioProcessors[i];
         audioProcessor.flush();
@@ -1188,6 +1330,9 @@ public final class AudioTrack {
   public void release() {
     reset();
     releaseKeepSessionIdAudioTrack();
+    if (audioProcessorPipeline != null) {
+      audioProcessorPipeline.flush();
+    }
     for (AudioProcessor audioProcessor : availableAudioProcessors) {
       audioProcessor.reset();
     }
@@ -1360,10 +1505,18 @@ public final class AudioTrack {
     throw new InitializationException(state, sampleRate, channelConfig, bufferSize);
   }
 
+  private boolean isAudioProcessingPipelined() {
+    return audioProcessorPipeline != null && !passthrough && !tunneling;
+  }
+
   private boolean isInitialized() {
     return audioTrack != null;
   }
 
+  private long inputFramesToDurationUs(long frameCount) {
+    return (frameCount * C.MICROS_PER_SECOND) / inputSampleRate;
+  }
+
   private long framesToDurationUs(long frameCount) {
     return (frameCount * C.MICROS_PER_SECOND) / sampleRate;
   }
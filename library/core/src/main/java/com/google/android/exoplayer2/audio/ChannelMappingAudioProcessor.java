@@ -99,6 +99,11 @@ import java.util.Arrays;
     return outputChannels == null ? channelCount : outputChannels.length;
   }
 
+  @Override
+  public int getOutputSampleRateHz() {
+    return sampleRateHz;
+  }
+
   @Override
   public int getOutputEncoding() {
     return C.ENCODING_PCM_16BIT;
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.audio;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.C.Encoding;
+import com.google.android.exoplayer2.Format;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An {@link AudioProcessor} that cross-fades from the audio of another processor into its own
+ * input, so that switching between two players does not leave a gap.
+ * <p>
+ * Once {@link #startCrossFade(CrossFadeAudioProcessor, int)} is called, the outgoing processor
+ * stops producing output and buffers its input for the incoming processor instead. The incoming
+ * processor mixes the buffered audio into its own output, fading the outgoing audio out and its
+ * own audio in. If the outgoing audio runs out, the cross-fade ends early and the incoming audio
+ * continues at full volume. The outgoing audio is converted to the sample rate and channel count
+ * of the incoming audio by linear interpolation. The two processors may be used by different
+ * playback threads.
+ * <p>
+ * Audio that the outgoing player has already written to its audio track is not part of the mix,
+ * so that player should be muted when the cross-fade starts, and stopped once
+ * {@link #isFadeOutEnded()} returns true.
+ * <p>
+ * A player that is prepared in the background should {@link #setOutputHeld(boolean) hold} its
+ * output, so that its audio track is not filled with audio that would play before the cross-fade.
+ */
+public final class CrossFadeAudioProcessor implements AudioProcessor {
+
+  /**
+   * The default duration of a cross-fade in milliseconds.
+   */
+  public static final int DEFAULT_CROSS_FADE_DURATION_MS = 2000;
+
+  /**
+   * The duration of outgoing audio that is buffered ahead of the mix, in milliseconds.
+   */
+  private static final int FADE_OUT_BUFFER_DURATION_MS = 1000;
+
+  private int sampleRateHz;
+  private int channelCount;
+  private ByteBuffer buffer;
+  private ByteBuffer outputBuffer;
+  private boolean inputEnded;
+  private volatile boolean outputHeld;
+
+  // Outgoing side. The fade-out buffer and the format are read by the incoming processor's thread,
+  // so they are guarded by this processor's lock.
+  private short[] fadeOutSamples;
+  private int fadeOutFrameCapacity;
+  private int fadeOutReadFrame;
+  private int fadeOutFrameCount;
+  private volatile boolean fadingOut;
+  private volatile boolean fadeOutEnded;
+
+  // Incoming side.
+  private volatile CrossFadeAudioProcessor pendingOutgoingProcessor;
+  private volatile int pendingCrossFadeDurationMs;
+  private CrossFadeAudioProcessor outgoingProcessor;
+  private int crossFadeFrameCount;
+  private int crossFadeFramePosition;
+  private float outgoingFrameOffset;
+
+  /**
+   * Creates a new cross-fade audio processor.
+   */
+  public CrossFadeAudioProcessor() {
+    buffer = EMPTY_BUFFER;
+    outputBuffer = EMPTY_BUFFER;
+    sampleRateHz = Format.NO_VALUE;
+    channelCount = Format.NO_VALUE;
+  }
+
+  /**
+   * Starts a cross-fade from the audio of {@code outgoingProcessor} to the audio of this processor.
+   * From now on {@code outgoingProcessor} produces no output of its own. May be called from any
+   * thread.
+   *
+   * @param outgoingProcessor The processor of the player that is faded out.
+   * @param durationMs The duration of the cross-fade in milliseconds.
+   */
+  public void startCrossFade(CrossFadeAudioProcessor outgoingProcessor, int durationMs) {
+    outgoingProcessor.startFadeOut();
+    pendingCrossFadeDurationMs = durationMs;
+    pendingOutgoingProcessor = outgoingProcessor;
+  }
+
+  /**
+   * Sets whether the processor holds back its output. While the output is held, no input is
+   * consumed. May be called from any thread.
+   *
+   * @param outputHeld Whether to hold back the output.
+   */
+  public void setOutputHeld(boolean outputHeld) {
+    this.outputHeld = outputHeld;
+  }
+
+  /**
+   * Returns whether this processor has been faded out by another processor. A faded out processor
+   * produces no output until it is reset.
+   */
+  public boolean isFadingOut() {
+    return fadingOut;
+  }
+
+  /**
+   * Returns whether the cross-fade that fades out this processor has ended, after which its input
+   * is discarded. May be called from any thread.
+   */
+  public boolean isFadeOutEnded() {
+    return fadingOut && fadeOutEnded;
+  }
+
+  @Override
+  public boolean configure(int sampleRateHz, int channelCount, @Encoding int encoding)
+      throws UnhandledFormatException {
+    if (encoding != C.ENCODING_PCM_16BIT) {
+      throw new UnhandledFormatException(sampleRateHz, channelCount, encoding);
+    }
+    if (this.sampleRateHz == sampleRateHz && this.channelCount == channelCount) {
+      return false;
+    }
+    synchronized (this) {
+      this.sampleRateHz = sampleRateHz;
+      this.channelCount = channelCount;
+      fadeOutFrameCapacity = (int) ((long) sampleRateHz * FADE_OUT_BUFFER_DURATION_MS / 1000);
+      fadeOutSamples = new short[fadeOutFrameCapacity * channelCount];
+      fadeOutReadFrame = 0;
+      fadeOutFrameCount = 0;
+    }
+    return true;
+  }
+
+  @Override
+  public boolean isActive() {
+    return sampleRateHz != Format.NO_VALUE;
+  }
+
+  @Override
+  public int getOutputChannelCount() {
+    return channelCount;
+  }
+
+  @Override
+  public int getOutputSampleRateHz() {
+    return sampleRateHz;
+  }
+
+  @Override
+  public int getOutputEncoding() {
+    return C.ENCODING_PCM_16BIT;
+  }
+
+  @Override
+  public void queueInput(ByteBuffer inputBuffer) {
+    if (outputHeld) {
+      return;
+    }
+    if (fadingOut) {
+      queueFadeOutInput(inputBuffer);
+      return;
+    }
+    CrossFadeAudioProcessor pendingOutgoingProcessor = this.pendingOutgoingProcessor;
+    if (pendingOutgoingProcessor != null) {
+      this.pendingOutgoingProcessor = null;
+      endCrossFade();
+      outgoingProcessor = pendingOutgoingProcessor;
+      crossFadeFrameCount =
+          Math.max(1, (int) ((long) pendingCrossFadeDurationMs * sampleRateHz / 1000));
+      crossFadeFramePosition = 0;
+      outgoingFrameOffset = 0;
+    }
+
+    int frameCount = inputBuffer.remaining() / (2 * channelCount);
+    int outputSize = inputBuffer.remaining();
+    if (buffer.capacity() < outputSize) {
+      buffer = ByteBuffer.allocateDirect(outputSize).order(ByteOrder.nativeOrder());
+    } else {
+      buffer.clear();
+    }
+    if (outgoingProcessor == null) {
+      buffer.put(inputBuffer);
+    } else {
+      mixInput(inputBuffer, frameCount);
+    }
+    buffer.flip();
+    outputBuffer = buffer;
+  }
+
+  @Override
+  public void queueEndOfStream() {
+    inputEnded = true;
+  }
+
+  @Override
+  public ByteBuffer getOutput() {
+    ByteBuffer outputBuffer = this.outputBuffer;
+    this.outputBuffer = EMPTY_BUFFER;
+    return outputBuffer;
+  }
+
+  @SuppressWarnings("ReferenceEquality")
+  @Override
+  public boolean isEnded() {
+    return inputEnded && outputBuffer == EMPTY_BUFFER;
+  }
+
+  @Override
+  public void flush() {
+    outputBuffer = EMPTY_BUFFER;
+    inputEnded = false;
+    endCrossFade();
+    synchronized (this) {
+      fadeOutReadFrame = 0;
+      fadeOutFrameCount = 0;
+    }
+  }
+
+  @Override
+  public void reset() {
+    flush();
+    buffer = EMPTY_BUFFER;
+    pendingOutgoingProcessor = null;
+    synchronized (this) {
+      sampleRateHz = Format.NO_VALUE;
+      channelCount = Format.NO_VALUE;
+      fadeOutSamples = null;
+      fadeOutFrameCapacity = 0;
+      fadingOut = false;
+      fadeOutEnded = false;
+    }
+  }
+
+  private synchronized void startFadeOut() {
+    fadeOutReadFrame = 0;
+    fadeOutFrameCount = 0;
+    fadeOutEnded = false;
+    fadingOut = true;
+  }
+
+  private void endCrossFade() {
+    if (outgoingProcessor != null) {
+      outgoingProcessor.fadeOutEnded = true;
+      outgoingProcessor = null;
+    }
+  }
+
+  /**
+   * Copies as much input as fits into the fade-out buffer. The input is discarded once the
+   * cross-fade has ended.
+   */
+  private void queueFadeOutInput(ByteBuffer inputBuffer) {
+    if (fadeOutEnded) {
+      inputBuffer.position(inputBuffer.limit());
+      return;
+    }
+    synchronized (this) {
+      int position = inputBuffer.position();
+      int frameCount = Math.min(inputBuffer.remaining() / (2 * channelCount),
+          fadeOutFrameCapacity - fadeOutFrameCount);
+      int writeFrame = fadeOutReadFrame + fadeOutFrameCount;
+      if (writeFrame >= fadeOutFrameCapacity) {
+        writeFrame -= fadeOutFrameCapacity;
+      }
+      for (int i = 0; i < frameCount; i++) {
+        int sampleIndex = writeFrame * channelCount;
+        for (int channel = 0; channel < channelCount; channel++) {
+          fadeOutSamples[sampleIndex + channel] = inputBuffer.getShort(position);
+          position += 2;
+        }
+        if (++writeFrame == fadeOutFrameCapacity) {
+          writeFrame = 0;
+        }
+      }
+      fadeOutFrameCount += frameCount;
+      inputBuffer.position(position);
+    }
+  }
+
+  /**
+   * Mixes the input with the buffered audio of the outgoing processor into {@link #buffer}.
+   */
+  private void mixInput(ByteBuffer inputBuffer, int frameCount) {
+    CrossFadeAudioProcessor outgoing = outgoingProcessor;
+    int position = inputBuffer.position();
+    synchronized (outgoing) {
+      int outgoingChannelCount = outgoing.channelCount;
+      float frameStep = (float) outgoing.sampleRateHz / sampleRateHz;
+      short[] outgoingSamples = outgoing.fadeOutSamples;
+      int capacity = outgoing.fadeOutFrameCapacity;
+      for (int i = 0; i < frameCount; i++) {
+        // Interpolation needs the frame after the current one. Fading in without outgoing audio to
+        // mix with would only make the input quieter, so the cross-fade ends once none is left.
+        boolean mixing = crossFadeFramePosition < crossFadeFrameCount
+            && outgoing.fadeOutFrameCount >= 2;
+        if (!mixing) {
+          crossFadeFramePosition = crossFadeFrameCount;
+        }
+        float fadeInGain = mixing ? (float) crossFadeFramePosition / crossFadeFrameCount : 1f;
+        int frame = outgoing.fadeOutReadFrame;
+        int nextFrame = frame + 1 == capacity ? 0 : frame + 1;
+        for (int channel = 0; channel < channelCount; channel++) {
+          float sample = inputBuffer.getShort(position) * fadeInGain;
+          position += 2;
+          if (mixing) {
+            // Channels missing from the outgoing audio repeat its last channel.
+            int outgoingChannel = Math.min(channel, outgoingChannelCount - 1);
+            float sample0 = outgoingSamples[frame * outgoingChannelCount + outgoingChannel];
+            float sample1 = outgoingSamples[nextFrame * outgoingChannelCount + outgoingChannel];
+            sample += (sample0 + (sample1 - sample0) * outgoingFrameOffset) * (1f - fadeInGain);
+          }
+          buffer.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample)));
+        }
+        if (mixing) {
+          outgoingFrameOffset += frameStep;
+          int framesToSkip = Math.min((int) outgoingFrameOffset, outgoing.fadeOutFrameCount);
+          outgoingFrameOffset -= (int) outgoingFrameOffset;
+          outgoing.fadeOutReadFrame = (frame + framesToSkip) % capacity;
+          outgoing.fadeOutFrameCount -= framesToSkip;
+          crossFadeFramePosition++;
+        }
+      }
+    }
+    inputBuffer.position(position);
+    if (crossFadeFramePosition >= crossFadeFrameCount) {
+      endCrossFade();
+    }
+  }
+
+}
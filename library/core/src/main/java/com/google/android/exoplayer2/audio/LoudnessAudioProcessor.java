@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.audio;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.C.Encoding;
+import com.google.android.exoplayer2.Format;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * An {@link AudioProcessor} that normalizes the loudness of 16-bit PCM audio.
+ * <p>
+ * The short-term loudness is measured incrementally as in EBU R128: the audio is K-weighted, and
+ * the mean square of the last three seconds is tracked in blocks of 100 ms. The gain moves slowly
+ * towards the difference between the target loudness and the measured loudness. A look-ahead
+ * limiter keeps the amplified peaks below the ceiling without clipping, at the cost of
+ * {@link #LIMITER_LOOK_AHEAD_MS} of latency.
+ * <p>
+ * The converged gain of a stream can be read with {@link #getGainDb()} and passed to
+ * {@link #setInitialGainDb(float)} the next time the same stream is played, so that the stream
+ * starts at the right level.
+ */
+public final class LoudnessAudioProcessor implements AudioProcessor {
+
+  /**
+   * The default target loudness, in LUFS.
+   */
+  public static final float DEFAULT_TARGET_LOUDNESS_LUFS = -16f;
+  /**
+   * The maximum gain in either direction, in dB.
+   */
+  public static final float MAX_GAIN_DB = 12f;
+  /**
+   * The look-ahead of the limiter, in milliseconds.
+   */
+  public static final int LIMITER_LOOK_AHEAD_MS = 5;
+
+  private static final int BLOCK_DURATION_MS = 100;
+  private static final int SHORT_TERM_BLOCK_COUNT = 30;
+  private static final float ABSOLUTE_GATE_LUFS = -70f;
+  private static final float GAIN_TIME_CONSTANT_MS = 3000f;
+  private static final float LIMITER_RELEASE_TIME_CONSTANT_MS = 50f;
+  private static final float LIMITER_CEILING = 0.89125f * Short.MAX_VALUE; // -1 dBFS.
+  private static final float FULL_SCALE_SQUARED = 32768f * 32768f;
+
+  private final float targetLoudnessLufs;
+
+  private int sampleRateHz;
+  private int channelCount;
+
+  // K-weighting filter: a high shelf followed by a high pass, with state per channel.
+  private float shelfB0;
+  private float shelfB1;
+  private float shelfB2;
+  private float shelfA1;
+  private float shelfA2;
+  private float highPassA1;
+  private float highPassA2;
+  private float[] shelfState1;
+  private float[] shelfState2;
+  private float[] highPassState1;
+  private float[] highPassState2;
+
+  // Loudness measurement.
+  private int blockFrameCount;
+  private int blockFramePosition;
+  private double blockEnergy;
+  private final double[] blockMeanSquares;
+  private int blockIndex;
+  private int measuredBlockCount;
+  private double shortTermMeanSquare;
+
+  // Normalization gain, ramped linearly within a block.
+  private volatile float pendingInitialGainDb;
+  private volatile float gainDb;
+  private volatile boolean converged;
+  private float gainSmoothingFactor;
+  private float gain;
+  private float gainStep;
+
+  // Look-ahead limiter.
+  private int lookAheadFrameCount;
+  private float[] delayLine;
+  private int delayPosition;
+  private float[] minimumValues;
+  private long[] minimumFrames;
+  private int minimumHead;
+  private int minimumSize;
+  private float[] averageValues;
+  private double averageSum;
+  private long frameIndex;
+  private float limiterGain;
+  private float limiterReleaseFactor;
+  private int pendingPaddingFrameCount;
+
+  private ByteBuffer buffer;
+  private ByteBuffer outputBuffer;
+  private boolean inputEnded;
+
+  /**
+   * Creates a new processor that normalizes to {@link #DEFAULT_TARGET_LOUDNESS_LUFS}.
+   */
+  public LoudnessAudioProcessor() {
+    this(DEFAULT_TARGET_LOUDNESS_LUFS);
+  }
+
+  /**
+   * Creates a new processor that normalizes to the given loudness.
+   *
+   * @param targetLoudnessLufs The target loudness, in LUFS.
+   */
+  public LoudnessAudioProcessor(float targetLoudnessLufs) {
+    this.targetLoudnessLufs = targetLoudnessLufs;
+    blockMeanSquares = new double[SHORT_TERM_BLOCK_COUNT];
+    sampleRateHz = Format.NO_VALUE;
+    channelCount = Format.NO_VALUE;
+    buffer = EMPTY_BUFFER;
+    outputBuffer = EMPTY_BUFFER;
+  }
+
+  /**
+   * Sets the gain that the next stream starts with, e.g. the converged gain of its last playback.
+   * Takes effect on the next call to {@link #flush()}. May be called from any thread.
+   *
+   * @param gainDb The initial gain in dB.
+   */
+  public void setInitialGainDb(float gainDb) {
+    pendingInitialGainDb = Math.max(-MAX_GAIN_DB, Math.min(MAX_GAIN_DB, gainDb));
+  }
+
+  /**
+   * Returns the current normalization gain in dB. May be called from any thread.
+   */
+  public float getGainDb() {
+    return gainDb;
+  }
+
+  /**
+   * Returns whether a full short-term window of audible input has been measured since the last
+   * flush, so that {@link #getGainDb()} reflects the stream rather than the initial gain. May be
+   * called from any thread.
+   */
+  public boolean hasConverged() {
+    return converged;
+  }
+
+  @Override
+  public boolean configure(int sampleRateHz, int channelCount, @Encoding int encoding)
+      throws UnhandledFormatException {
+    if (encoding != C.ENCODING_PCM_16BIT) {
+      throw new UnhandledFormatException(sampleRateHz, channelCount, encoding);
+    }
+    if (this.sampleRateHz == sampleRateHz && this.channelCount == channelCount) {
+      return false;
+    }
+    this.sampleRateHz = sampleRateHz;
+    this.channelCount = channelCount;
+
+    // K-weighting filter coefficients for this sample rate, as defined by ITU-R BS.1770.
+    double k = Math.tan(Math.PI * 1681.974450955533 / sampleRateHz);
+    double q = 0.7071752369554196;
+    double vh = Math.pow(10, 3.999843853973347 / 20);
+    double vb = Math.pow(vh, 0.4996667741545416);
+    double a0 = 1 + k / q + k * k;
+    shelfB0 = (float) ((vh + vb * k / q + k * k) / a0);
+    shelfB1 = (float) (2 * (k * k - vh) / a0);
+    shelfB2 = (float) ((vh - vb * k / q + k * k) / a0);
+    shelfA1 = (float) (2 * (k * k - 1) / a0);
+    shelfA2 = (float) ((1 - k / q + k * k) / a0);
+    k = Math.tan(Math.PI * 38.13547087602444 / sampleRateHz);
+    q = 0.5003270373238773;
+    a0 = 1 + k / q + k * k;
+    highPassA1 = (float) (2 * (k * k - 1) / a0);
+    highPassA2 = (float) ((1 - k / q + k * k) / a0);
+    shelfState1 = new float[channelCount];
+    shelfState2 = new float[channelCount];
+    highPassState1 = new float[channelCount];
+    highPassState2 = new float[channelCount];
+
+    blockFrameCount = sampleRateHz * BLOCK_DURATION_MS / 1000;
+    gainSmoothingFactor =
+        (float) (1 - Math.exp(-BLOCK_DURATION_MS / (double) GAIN_TIME_CONSTANT_MS));
+    lookAheadFrameCount = Math.max(1, sampleRateHz * LIMITER_LOOK_AHEAD_MS / 1000);
+    delayLine = new float[lookAheadFrameCount * channelCount];
+    minimumValues = new float[lookAheadFrameCount];
+    minimumFrames = new long[lookAheadFrameCount];
+    averageValues = new float[lookAheadFrameCount];
+    limiterReleaseFactor = (float) (1
+        - Math.exp(-1000 / (LIMITER_RELEASE_TIME_CONSTANT_MS * (double) sampleRateHz)));
+    return true;
+  }
+
+  @Override
+  public boolean isActive() {
+    return sampleRateHz != Format.NO_VALUE;
+  }
+
+  @Override
+  public int getOutputChannelCount() {
+    return channelCount;
+  }
+
+  @Override
+  public int getOutputSampleRateHz() {
+    return sampleRateHz;
+  }
+
+  @Override
+  public int getOutputEncoding() {
+    return C.ENCODING_PCM_16BIT;
+  }
+
+  @Override
+  public void queueInput(ByteBuffer inputBuffer) {
+    int frameCount = inputBuffer.remaining() / (2 * channelCount);
+    int outputSize = (frameCount + pendingPaddingFrameCount) * channelCount * 2;
+    if (buffer.capacity() < outputSize) {
+      buffer = ByteBuffer.allocateDirect(outputSize).order(ByteOrder.nativeOrder());
+    } else {
+      buffer.clear();
+    }
+
+    int position = inputBuffer.position();
+    for (int i = 0; i < frameCount; i++) {
+      processFrame(inputBuffer, position);
+      position += channelCount * 2;
+    }
+    inputBuffer.position(position);
+    // Flush the delay line of the limiter at the end of the stream.
+    for (; pendingPaddingFrameCount > 0; pendingPaddingFrameCount--) {
+      processFrame(null, 0);
+    }
+
+    buffer.flip();
+    outputBuffer = buffer.hasRemaining() ? buffer : EMPTY_BUFFER;
+  }
+
+  @Override
+  public void queueEndOfStream() {
+    pendingPaddingFrameCount = lookAheadFrameCount - 1;
+    inputEnded = true;
+  }
+
+  @Override
+  public ByteBuffer getOutput() {
+    ByteBuffer outputBuffer = this.outputBuffer;
+    this.outputBuffer = EMPTY_BUFFER;
+    return outputBuffer;
+  }
+
+  @SuppressWarnings("ReferenceEquality")
+  @Override
+  public boolean isEnded() {
+    return inputEnded && outputBuffer == EMPTY_BUFFER && pendingPaddingFrameCount == 0;
+  }
+
+  @Override
+  public void flush() {
+    outputBuffer = EMPTY_BUFFER;
+    inputEnded = false;
+    pendingPaddingFrameCount = 0;
+    if (sampleRateHz == Format.NO_VALUE) {
+      return;
+    }
+    Arrays.fill(shelfState1, 0);
+    Arrays.fill(shelfState2, 0);
+    Arrays.fill(highPassState1, 0);
+    Arrays.fill(highPassState2, 0);
+    blockFramePosition = 0;
+    blockEnergy = 0;
+    blockIndex = 0;
+    measuredBlockCount = 0;
+    shortTermMeanSquare = 0;
+    Arrays.fill(blockMeanSquares, 0);
+
+    gainDb = pendingInitialGainDb;
+    converged = false;
+    gain = dbToLinear(gainDb);
+    gainStep = 0;
+
+    Arrays.fill(delayLine, 0);
+    delayPosition = 0;
+    minimumHead = 0;
+    minimumSize = 0;
+    Arrays.fill(averageValues, 1f);
+    averageSum = lookAheadFrameCount;
+    frameIndex = 0;
+    limiterGain = 1f;
+  }
+
+  @Override
+  public void reset() {
+    flush();
+    buffer = EMPTY_BUFFER;
+    sampleRateHz = Format.NO_VALUE;
+    channelCount = Format.NO_VALUE;
+    delayLine = null;
+  }
+
+  /**
+   * Measures, normalizes and limits one frame, and writes the frame that leaves the delay line to
+   * {@link #buffer}. A {@code null} input buffer stands for a frame of silence.
+   */
+  private void processFrame(ByteBuffer inputBuffer, int position) {
+    int delayOffset = delayPosition * channelCount;
+    float peak = 0;
+    for (int channel = 0; channel < channelCount; channel++) {
+      float sample = inputBuffer == null ? 0 : inputBuffer.getShort(position + channel * 2);
+      // K-weighting, in transposed direct form II.
+      float shelfOutput = shelfB0 * sample + shelfState1[channel];
+      shelfState1[channel] = shelfB1 * sample - shelfA1 * shelfOutput + shelfState2[channel];
+      shelfState2[channel] = shelfB2 * sample - shelfA2 * shelfOutput;
+      float weighted = shelfOutput + highPassState1[channel];
+      highPassState1[channel] = -2 * shelfOutput - highPassA1 * weighted + highPassState2[channel];
+      highPassState2[channel] = shelfOutput - highPassA2 * weighted;
+      blockEnergy += weighted * weighted;
+
+      float normalized = sample * gain;
+      delayLine[delayOffset + channel] = normalized;
+      peak = Math.max(peak, Math.abs(normalized));
+    }
+    gain += gainStep;
+    if (++blockFramePosition == blockFrameCount) {
+      endBlock();
+    }
+
+    // The gain that keeps this frame below the ceiling, reduced to the minimum over the look-ahead
+    // window and then averaged over the window. The average applied to the frame leaving the
+    // delay line includes only minima that cover that frame, so it never exceeds its requirement.
+    float requiredGain = peak > LIMITER_CEILING ? LIMITER_CEILING / peak : 1f;
+    float minimumGain = updateMinimum(requiredGain);
+    int averageIndex = (int) (frameIndex % lookAheadFrameCount);
+    averageSum += minimumGain - averageValues[averageIndex];
+    averageValues[averageIndex] = minimumGain;
+    float averageGain = (float) (averageSum / lookAheadFrameCount);
+    frameIndex++;
+    if (averageGain < limiterGain) {
+      limiterGain = averageGain;
+    } else {
+      limiterGain += (averageGain - limiterGain) * limiterReleaseFactor;
+    }
+
+    // Write the oldest frame of the delay line.
+    delayPosition = delayPosition + 1 == lookAheadFrameCount ? 0 : delayPosition + 1;
+    int outputOffset = delayPosition * channelCount;
+    for (int channel = 0; channel < channelCount; channel++) {
+      float sample = delayLine[outputOffset + channel] * limiterGain;
+      buffer.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample)));
+    }
+  }
+
+  /**
+   * Adds the required gain of the newest frame to the monotonic queue of the look-ahead window and
+   * returns the minimum over the window.
+   */
+  private float updateMinimum(float requiredGain) {
+    int capacity = lookAheadFrameCount;
+    // Drop entries that left the window, then entries that can no longer be the minimum.
+    if (minimumSize > 0 && minimumFrames[minimumHead] <= frameIndex - capacity) {
+      minimumHead = minimumHead + 1 == capacity ? 0 : minimumHead + 1;
+      minimumSize--;
+    }
+    while (minimumSize > 0) {
+      int tail = (minimumHead + minimumSize - 1) % capacity;
+      if (minimumValues[tail] < requiredGain) {
+        break;
+      }
+      minimumSize--;
+    }
+    int tail = (minimumHead + minimumSize) % capacity;
+    minimumValues[tail] = requiredGain;
+    minimumFrames[tail] = frameIndex;
+    minimumSize++;
+    return minimumValues[minimumHead];
+  }
+
+  /**
+   * Adds a completed block to the short-term window and moves the gain towards the target.
+   */
+  private void endBlock() {
+    double meanSquare = blockEnergy / blockFrameCount / FULL_SCALE_SQUARED;
+    shortTermMeanSquare += meanSquare - blockMeanSquares[blockIndex];
+    blockMeanSquares[blockIndex] = meanSquare;
+    blockIndex = (blockIndex + 1) % SHORT_TERM_BLOCK_COUNT;
+    blockFramePosition = 0;
+    blockEnergy = 0;
+
+    int windowBlockCount = Math.min(measuredBlockCount + 1, SHORT_TERM_BLOCK_COUNT);
+    double loudnessLufs =
+        -0.691 + 10 * Math.log10(Math.max(shortTermMeanSquare, 0) / windowBlockCount + 1e-20);
+    if (loudnessLufs < ABSOLUTE_GATE_LUFS) {
+      // Keep the gain through silence.
+      gainStep = 0;
+      return;
+    }
+    if (++measuredBlockCount >= SHORT_TERM_BLOCK_COUNT) {
+      converged = true;
+    }
+    float targetGainDb = (float) Math.max(-MAX_GAIN_DB,
+        Math.min(MAX_GAIN_DB, targetLoudnessLufs - loudnessLufs));
+    gainDb += (targetGainDb - gainDb) * gainSmoothingFactor;
+    gainStep = (dbToLinear(gainDb) - gain) / blockFrameCount;
+  }
+
+  private static float dbToLinear(float gainDb) {
+    return (float) Math.pow(10, gainDb / 20);
+  }
+
+}
@@ -35,6 +35,7 @@ import com.google.android.exoplayer2.mediacodec.MediaCodecSelector;
 import com.google.android.exoplayer2.mediacodec.MediaCodecUtil.DecoderQueryException;
 import com.google.android.exoplayer2.util.MediaClock;
 import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.StartupTracer;
 import com.google.android.exoplayer2.util.Util;
 
 import java.nio.ByteBuffer;
@@ -48,6 +49,7 @@ public class MediaCodecAudioRenderer extends MediaCodecRenderer implements Media
   private final EventDispatcher eventDispatcher;
   private final AudioTrack audioTrack;
 
+  private StartupTracer startupTracer;
   private boolean passthroughEnabled;
   private boolean codecNeedsDiscardChannelsWorkaround;
   private android.media.MediaFormat passthroughMediaFormat;
@@ -213,6 +215,9 @@ public class MediaCodecAudioRenderer extends MediaCodecRenderer implements Media
   @Override
   protected void onCodecInitialized(String name, long initializedTimestampMs,
       long initializationDurationMs) {
+    if (startupTracer != null) {
+      startupTracer.mark(StartupTracer.STAGE_DECODER_INITIALIZED);
+    }
     eventDispatcher.decoderInitialized(name, initializedTimestampMs, initializationDurationMs);
   }
 
@@ -336,6 +341,12 @@ public class MediaCodecAudioRenderer extends MediaCodecRenderer implements Media
     return audioTrack.hasPendingData() || super.isReady();
   }
 
+  @Override
+  public long getMaxRenderDelayUs() {
+    // Rendering feeds the audio track, which must not run dry.
+    return audioTrack.getBufferedDurationUs();
+  }
+
   @Override
   public long getPositionUs() {
     long newCurrentPositionUs = audioTrack.getCurrentPositionUs(isEnded());
@@ -357,6 +368,16 @@ public class MediaCodecAudioRenderer extends MediaCodecRenderer implements Media
     return audioTrack.getPlaybackParameters();
   }
 
+  @Override
+  public void render(long positionUs, long elapsedRealtimeUs) throws ExoPlaybackException {
+    try {
+      audioTrack.writePendingOutput();
+    } catch (AudioTrack.WriteException e) {
+      throw ExoPlaybackException.createForRenderer(e, getIndex());
+    }
+    super.render(positionUs, elapsedRealtimeUs);
+  }
+
   @Override
   protected boolean processOutputBuffer(long positionUs, long elapsedRealtimeUs, MediaCodec codec,
       ByteBuffer buffer, int bufferIndex, int bufferFlags, long bufferPresentationTimeUs,
@@ -405,6 +426,13 @@ public class MediaCodecAudioRenderer extends MediaCodecRenderer implements Media
         @C.StreamType int streamType = (Integer) message;
         audioTrack.setStreamType(streamType);
         break;
+      case C.MSG_SET_STARTUP_TRACER:
+        startupTracer = (StartupTracer) message;
+        audioTrack.setStartupTracer(startupTracer);
+        break;
+      case C.MSG_SET_AUDIO_PROCESSING_PIPELINED:
+        audioTrack.setAudioProcessingPipelined((Boolean) message);
+        break;
       default:
         super.handleMessage(messageType, message);
         break;
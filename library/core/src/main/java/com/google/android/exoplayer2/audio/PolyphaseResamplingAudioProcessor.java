@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.audio;
+
+import android.support.annotation.IntDef;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.C.Encoding;
+import com.google.android.exoplayer2.Format;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * An {@link AudioProcessor} that converts the sample rate of 16-bit PCM audio with a polyphase FIR
+ * filter. The filter is a Kaiser windowed sinc. The coefficients of every phase are precomputed
+ * when the processor is configured, so processing a buffer only evaluates dot products.
+ * <p>
+ * The conversion ratio is handled exactly as a ratio of integers. If the ratio needs more than
+ * {@link #MAX_PHASE_COUNT} filter phases the processor stays inactive, and the platform converts
+ * the sample rate instead.
+ */
+public final class PolyphaseResamplingAudioProcessor implements AudioProcessor {
+
+  /**
+   * Filter quality presets. One of {@link #QUALITY_FAST}, {@link #QUALITY_STANDARD} or
+   * {@link #QUALITY_HIGH}.
+   */
+  @Retention(RetentionPolicy.SOURCE)
+  @IntDef({QUALITY_FAST, QUALITY_STANDARD, QUALITY_HIGH})
+  public @interface Quality {}
+  /**
+   * 16 taps per output sample. Suitable for speech and low bitrate streams.
+   */
+  public static final int QUALITY_FAST = 0;
+  /**
+   * 32 taps per output sample.
+   */
+  public static final int QUALITY_STANDARD = 1;
+  /**
+   * 64 taps per output sample, with the widest pass band.
+   */
+  public static final int QUALITY_HIGH = 2;
+
+  /**
+   * The maximum number of filter phases.
+   */
+  public static final int MAX_PHASE_COUNT = 1024;
+
+  private static final int[] TAP_COUNTS = new int[] {16, 32, 64};
+  /**
+   * The cutoff frequency of each preset, as a fraction of the lower of the two Nyquist frequencies.
+   */
+  private static final double[] CUTOFFS = new double[] {0.85, 0.90, 0.94};
+  private static final double[] KAISER_BETAS = new double[] {6.0, 8.0, 10.0};
+
+  private final int tapCount;
+  private final double cutoff;
+  private final double kaiserBeta;
+
+  private int pendingOutputSampleRateHz;
+  private int outputSampleRateHz;
+  private int sampleRateHz;
+  private int channelCount;
+  private boolean active;
+
+  private int upFactor;
+  private int downFactor;
+  private float[] coefficients;
+  private float[][] history;
+  private int historyFrameCount;
+  private int framePosition;
+  private int phase;
+
+  private ByteBuffer buffer;
+  private ByteBuffer outputBuffer;
+  private boolean inputEnded;
+
+  /**
+   * Creates a new processor that converts audio to {@code outputSampleRateHz} with
+   * {@link #QUALITY_STANDARD}.
+   *
+   * @param outputSampleRateHz The sample rate of output audio, or {@link Format#NO_VALUE} to leave
+   *     the sample rate unchanged.
+   */
+  public PolyphaseResamplingAudioProcessor(int outputSampleRateHz) {
+    this(outputSampleRateHz, QUALITY_STANDARD);
+  }
+
+  /**
+   * Creates a new processor that converts audio to {@code outputSampleRateHz}.
+   *
+   * @param outputSampleRateHz The sample rate of output audio, or {@link Format#NO_VALUE} to leave
+   *     the sample rate unchanged.
+   * @param quality The filter quality preset.
+   */
+  public PolyphaseResamplingAudioProcessor(int outputSampleRateHz, @Quality int quality) {
+    pendingOutputSampleRateHz = outputSampleRateHz;
+    tapCount = TAP_COUNTS[quality];
+    cutoff = CUTOFFS[quality];
+    kaiserBeta = KAISER_BETAS[quality];
+    this.outputSampleRateHz = Format.NO_VALUE;
+    sampleRateHz = Format.NO_VALUE;
+    channelCount = Format.NO_VALUE;
+    buffer = EMPTY_BUFFER;
+    outputBuffer = EMPTY_BUFFER;
+  }
+
+  /**
+   * Sets the sample rate of output audio. After calling this method, call
+   * {@link #configure(int, int, int)} to start using the new sample rate.
+   *
+   * @param outputSampleRateHz The sample rate of output audio, or {@link Format#NO_VALUE} to leave
+   *     the sample rate unchanged.
+   */
+  public void setOutputSampleRateHz(int outputSampleRateHz) {
+    pendingOutputSampleRateHz = outputSampleRateHz;
+  }
+
+  @Override
+  public boolean configure(int sampleRateHz, int channelCount, @Encoding int encoding)
+      throws UnhandledFormatException {
+    if (encoding != C.ENCODING_PCM_16BIT) {
+      throw new UnhandledFormatException(sampleRateHz, channelCount, encoding);
+    }
+    if (this.sampleRateHz == sampleRateHz && this.channelCount == channelCount
+        && outputSampleRateHz == pendingOutputSampleRateHz) {
+      return false;
+    }
+    this.sampleRateHz = sampleRateHz;
+    this.channelCount = channelCount;
+    outputSampleRateHz = pendingOutputSampleRateHz;
+
+    active = false;
+    if (outputSampleRateHz != Format.NO_VALUE && outputSampleRateHz != sampleRateHz) {
+      int divisor = greatestCommonDivisor(sampleRateHz, outputSampleRateHz);
+      upFactor = outputSampleRateHz / divisor;
+      downFactor = sampleRateHz / divisor;
+      if (upFactor <= MAX_PHASE_COUNT) {
+        active = true;
+        coefficients = createCoefficients(upFactor, downFactor, tapCount, cutoff, kaiserBeta);
+        history = new float[channelCount][tapCount + sampleRateHz / 10];
+      }
+    }
+    if (!active) {
+      coefficients = null;
+      history = null;
+    }
+    return true;
+  }
+
+  @Override
+  public boolean isActive() {
+    return active;
+  }
+
+  @Override
+  public int getOutputChannelCount() {
+    return channelCount;
+  }
+
+  @Override
+  public int getOutputSampleRateHz() {
+    return active ? outputSampleRateHz : sampleRateHz;
+  }
+
+  @Override
+  public int getOutputEncoding() {
+    return C.ENCODING_PCM_16BIT;
+  }
+
+  @Override
+  public void queueInput(ByteBuffer inputBuffer) {
+    // Append the input to the history, one plane per channel.
+    int position = inputBuffer.position();
+    int frameCount = inputBuffer.remaining() / (2 * channelCount);
+    ensureHistoryCapacity(historyFrameCount + frameCount);
+    for (int channel = 0; channel < channelCount; channel++) {
+      float[] samples = history[channel];
+      int inputIndex = position + channel * 2;
+      for (int i = historyFrameCount; i < historyFrameCount + frameCount; i++) {
+        samples[i] = inputBuffer.getShort(inputIndex);
+        inputIndex += channelCount * 2;
+      }
+    }
+    historyFrameCount += frameCount;
+    inputBuffer.position(position + frameCount * channelCount * 2);
+
+    resample();
+  }
+
+  @Override
+  public void queueEndOfStream() {
+    // Pad with silence so that the filter reaches past the last input frame. The remaining output
+    // is produced by the next call to queueInput.
+    int paddingFrameCount = tapCount / 2;
+    ensureHistoryCapacity(historyFrameCount + paddingFrameCount);
+    for (float[] samples : history) {
+      Arrays.fill(samples, historyFrameCount, historyFrameCount + paddingFrameCount, 0);
+    }
+    historyFrameCount += paddingFrameCount;
+    inputEnded = true;
+  }
+
+  @Override
+  public ByteBuffer getOutput() {
+    ByteBuffer outputBuffer = this.outputBuffer;
+    this.outputBuffer = EMPTY_BUFFER;
+    return outputBuffer;
+  }
+
+  @SuppressWarnings("ReferenceEquality")
+  @Override
+  public boolean isEnded() {
+    return inputEnded && outputBuffer == EMPTY_BUFFER
+        && framePosition + tapCount > historyFrameCount;
+  }
+
+  @Override
+  public void flush() {
+    outputBuffer = EMPTY_BUFFER;
+    inputEnded = false;
+    phase = 0;
+    framePosition = 0;
+    historyFrameCount = 0;
+    if (history != null) {
+      // The first output frame is centered on the first input frame.
+      historyFrameCount = tapCount / 2 - 1;
+      for (float[] samples : history) {
+        Arrays.fill(samples, 0, historyFrameCount, 0);
+      }
+    }
+  }
+
+  @Override
+  public void reset() {
+    flush();
+    buffer = EMPTY_BUFFER;
+    coefficients = null;
+    history = null;
+    historyFrameCount = 0;
+    outputSampleRateHz = Format.NO_VALUE;
+    sampleRateHz = Format.NO_VALUE;
+    channelCount = Format.NO_VALUE;
+    active = false;
+  }
+
+  /**
+   * Produces all output frames whose filter taps are in the history, then discards the history
+   * frames that no later output frame needs.
+   */
+  private void resample() {
+    int maxOutputFrameCount = (int) ((long) Math.max(0, historyFrameCount - framePosition)
+        * upFactor / downFactor) + 1;
+    int outputSize = maxOutputFrameCount * channelCount * 2;
+    if (buffer.capacity() < outputSize) {
+      buffer = ByteBuffer.allocateDirect(outputSize).order(ByteOrder.nativeOrder());
+    } else {
+      buffer.clear();
+    }
+
+    float[] coefficients = this.coefficients;
+    int tapCount = this.tapCount;
+    while (framePosition + tapCount <= historyFrameCount) {
+      int coefficientOffset = phase * tapCount;
+      for (int channel = 0; channel < channelCount; channel++) {
+        float[] samples = history[channel];
+        float sum = 0;
+        for (int i = 0; i < tapCount; i++) {
+          sum += samples[framePosition + i] * coefficients[coefficientOffset + i];
+        }
+        int sample = (int) (sum >= 0 ? sum + 0.5f : sum - 0.5f);
+        buffer.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample)));
+      }
+      phase += downFactor;
+      framePosition += phase / upFactor;
+      phase %= upFactor;
+    }
+
+    int discardFrameCount = Math.min(framePosition, historyFrameCount);
+    if (discardFrameCount > 0) {
+      int remainingFrameCount = historyFrameCount - discardFrameCount;
+      for (float[] samples : history) {
+        System.arraycopy(samples, discardFrameCount, samples, 0, remainingFrameCount);
+      }
+      historyFrameCount = remainingFrameCount;
+      framePosition -= discardFrameCount;
+    }
+
+    buffer.flip();
+    outputBuffer = buffer.hasRemaining() ? buffer : EMPTY_BUFFER;
+  }
+
+  private void ensureHistoryCapacity(int frameCount) {
+    if (history[0].length < frameCount) {
+      for (int channel = 0; channel < channelCount; channel++) {
+        history[channel] = Arrays.copyOf(history[channel], frameCount + frameCount / 2);
+      }
+    }
+  }
+
+  /**
+   * Returns the coefficients of all filter phases. Phase {@code p} starts at index
+   * {@code p * tapCount} and produces the output at {@code p / upFactor} input frames after the
+   * center tap. Each phase is normalized to unity gain at DC.
+   */
+  private static float[] createCoefficients(int upFactor, int downFactor, int tapCount,
+      double cutoff, double kaiserBeta) {
+    // Relative to the input Nyquist frequency. When downsampling, the output Nyquist is lower.
+    double relativeCutoff = cutoff * Math.min(1.0, (double) upFactor / downFactor);
+    double halfTapCount = tapCount / 2;
+    double windowScale = 1.0 / besselI0(kaiserBeta);
+    float[] coefficients = new float[upFactor * tapCount];
+    for (int phase = 0; phase < upFactor; phase++) {
+      double sum = 0;
+      for (int i = 0; i < tapCount; i++) {
+        double distance = (double) phase / upFactor + halfTapCount - 1 - i;
+        double windowPosition = distance / halfTapCount;
+        double window = Math.abs(windowPosition) >= 1 ? 0
+            : besselI0(kaiserBeta * Math.sqrt(1 - windowPosition * windowPosition)) * windowScale;
+        double value = relativeCutoff * sinc(relativeCutoff * distance) * window;
+        coefficients[phase * tapCount + i] = (float) value;
+        sum += value;
+      }
+      for (int i = 0; i < tapCount; i++) {
+        coefficients[phase * tapCount + i] /= sum;
+      }
+    }
+    return coefficients;
+  }
+
+  private static double sinc(double x) {
+    return x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+  }
+
+  /**
+   * Returns the zeroth order modified Bessel function of the first kind.
+   */
+  private static double besselI0(double x) {
+    double sum = 1;
+    double term = 1;
+    double halfX = x / 2;
+    for (int k = 1; term > sum * 1e-12; k++) {
+      term *= (halfX / k) * (halfX / k);
+      sum += term;
+    }
+    return sum;
+  }
+
+  private static int greatestCommonDivisor(int a, int b) {
+    while (b != 0) {
+      int remainder = a % b;
+      a = b;
+      b = remainder;
+    }
+    return a;
+  }
+
+}
@@ -75,6 +75,11 @@ import java.nio.ByteOrder;
     return channelCount;
   }
 
+  @Override
+  public int getOutputSampleRateHz() {
+    return sampleRateHz;
+  }
+
   @Override
   public int getOutputEncoding() {
     return C.ENCODING_PCM_16BIT;
@@ -38,6 +38,7 @@ import com.google.android.exoplayer2.drm.ExoMediaCrypto;
 import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.MediaClock;
 import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.StartupTracer;
 import com.google.android.exoplayer2.util.TraceUtil;
 import com.google.android.exoplayer2.util.Util;
 
@@ -77,6 +78,7 @@ public abstract class SimpleDecoderAudioRenderer extends BaseRenderer implements
   private final FormatHolder formatHolder;
   private final DecoderInputBuffer flagsOnlyBuffer;
 
+  private StartupTracer startupTracer;
   private DecoderCounters decoderCounters;
   private Format inputFormat;
   private SimpleDecoder<DecoderInputBuffer, ? extends SimpleOutputBuffer,
@@ -179,6 +181,12 @@ public abstract class SimpleDecoderAudioRenderer extends BaseRenderer implements
 
   @Override
   public void render(long positionUs, long elapsedRealtimeUs) throws ExoPlaybackException {
+    try {
+      audioTrack.writePendingOutput();
+    } catch (AudioTrack.WriteException e) {
+      throw ExoPlaybackException.createForRenderer(e, getIndex());
+    }
+
     if (outputStreamEnded) {
       try {
         audioTrack.playToEndOfStream();
@@ -425,6 +433,12 @@ public abstract class SimpleDecoderAudioRenderer extends BaseRenderer implements
         || (inputFormat != null && !waitingForKeys && (isSourceReady() || outputBuffer != null));
   }
 
+  @Override
+  public long getMaxRenderDelayUs() {
+    // Rendering feeds the audio track, which must not run dry.
+    return audioTrack.getBufferedDurationUs();
+  }
+
   @Override
   public long getPositionUs() {
     long newCurrentPositionUs = audioTrack.getCurrentPositionUs(isEnded());
@@ -534,6 +548,9 @@ public abstract class SimpleDecoderAudioRenderer extends BaseRenderer implements
       decoder = createDecoder(inputFormat, mediaCrypto);
       TraceUtil.endSection();
       long codecInitializedTimestamp = SystemClock.elapsedRealtime();
+      if (startupTracer != null) {
+        startupTracer.mark(StartupTracer.STAGE_DECODER_INITIALIZED);
+      }
       eventDispatcher.decoderInitialized(decoder.getName(), codecInitializedTimestamp,
           codecInitializedTimestamp - codecInitializingTimestamp);
       decoderCounters.decoderInitCount++;
@@ -601,6 +618,13 @@ public abstract class SimpleDecoderAudioRenderer extends BaseRenderer implements
         @C.StreamType int streamType = (Integer) message;
         audioTrack.setStreamType(streamType);
         break;
+      case C.MSG_SET_STARTUP_TRACER:
+        startupTracer = (StartupTracer) message;
+        audioTrack.setStartupTracer(startupTracer);
+        break;
+      case C.MSG_SET_AUDIO_PROCESSING_PIPELINED:
+        audioTrack.setAudioProcessingPipelined((Boolean) message);
+        break;
       default:
         super.handleMessage(messageType, message);
         break;
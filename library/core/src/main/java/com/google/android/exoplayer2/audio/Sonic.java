@@ -24,7 +24,11 @@ import java.util.Arrays;
 /**
  * Sonic audio stream processor for time/pitch stretching.
  * <p>
- * Based on https://github.com/waywardgeek/sonic.
+ * Based on https://github.com/waywardgeek/sonic. The pitch period search runs on a decimated,
+ * channel-mixed copy of the input, and the inner loops of the search and of the overlap-add walk
+ * flat arrays with unit stride and no division, so that they can be vectorized by the compiler.
+ * Output may differ from the original library by one least significant bit due to the floating
+ * point overlap-add.
  */
 /* package */ final class Sonic {
 
@@ -38,7 +42,7 @@ import java.util.Arrays;
   private final int minPeriod;
   private final int maxPeriod;
   private final int maxRequired;
-  private final short[] downSampleBuffer;
+  private final int[] downSampleBuffer;
 
   private int inputBufferSize;
   private short[] inputBuffer;
@@ -58,6 +62,8 @@ import java.util.Arrays;
   private int prevMinDiff;
   private int minDiff;
   private int maxDiff;
+  private float[] rampBuffer;
+  private int rampLength;
 
   /**
    * Creates a new Sonic audio stream processor.
@@ -71,18 +77,47 @@ import java.util.Arrays;
     minPeriod = sampleRate / MAXIMUM_PITCH;
     maxPeriod = sampleRate / MINIMUM_PITCH;
     maxRequired = 2 * maxPeriod;
-    downSampleBuffer = new short[maxRequired];
+    downSampleBuffer = new int[maxRequired];
     inputBufferSize = maxRequired;
     inputBuffer = new short[maxRequired * numChannels];
     outputBufferSize = maxRequired;
     outputBuffer = new short[maxRequired * numChannels];
     pitchBufferSize = maxRequired;
     pitchBuffer = new short[maxRequired * numChannels];
+    rampBuffer = new float[maxRequired * numChannels];
+    speed = 1.0f;
+    pitch = 1.0f;
+    flush();
+  }
+
+  /**
+   * Discards all queued input and output, keeping the allocated buffers and the speed and pitch.
+   */
+  public void flush() {
+    numInputSamples = 0;
+    numOutputSamples = 0;
+    numPitchSamples = 0;
+    remainingInputToCopy = 0;
     oldRatePosition = 0;
     newRatePosition = 0;
     prevPeriod = 0;
-    speed = 1.0f;
-    pitch = 1.0f;
+    prevMinDiff = 0;
+    minDiff = 0;
+    maxDiff = 0;
+  }
+
+  /**
+   * Returns the sample rate of input audio.
+   */
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  /**
+   * Returns the number of channels in the input audio.
+   */
+  public int getNumChannels() {
+    return numChannels;
   }
 
   /**
@@ -219,30 +254,33 @@ import java.util.Arrays;
     int numSamples = maxRequired / skip;
     int samplesPerValue = numChannels * skip;
     position *= numChannels;
+    if (samplesPerValue == 1) {
+      for (int i = 0; i < numSamples; i++) {
+        downSampleBuffer[i] = samples[position + i];
+      }
+      return;
+    }
     for (int i = 0; i < numSamples; i++) {
       int value = 0;
       for (int j = 0; j < samplesPerValue; j++) {
         value += samples[position + i * samplesPerValue + j];
       }
-      value /= samplesPerValue;
-      downSampleBuffer[i] = (short) value;
+      downSampleBuffer[i] = value / samplesPerValue;
     }
   }
 
-  private int findPitchPeriodInRange(short[] samples, int position, int minPeriod, int maxPeriod) {
-    // Find the best frequency match in the range, and given a sample skip multiple. For now, just
-    // find the pitch of the first channel.
+  private int findPitchPeriodInRange(int minPeriod, int maxPeriod) {
+    // Find the best frequency match in the range of the down-sampled input, using the average
+    // magnitude difference function.
+    int[] samples = downSampleBuffer;
     int bestPeriod = 0;
     int worstPeriod = 255;
     int minDiff = 1;
     int maxDiff = 0;
-    position *= numChannels;
     for (int period = minPeriod; period <= maxPeriod; period++) {
       int diff = 0;
       for (int i = 0; i < period; i++) {
-        short sVal = samples[position + i];
-        short pVal = samples[position + period + i];
-        diff += sVal >= pVal ? sVal - pVal : pVal - sVal;
+        diff += Math.abs(samples[i] - samples[period + i]);
       }
       // Note that the highest number of samples we add into diff will be less than 256, since we
       // skip samples. Thus, diff is a 24 bit number, and we can safely multiply by numSamples
@@ -294,28 +332,20 @@ import java.util.Arrays;
     int period;
     int retPeriod;
     int skip = sampleRate > AMDF_FREQUENCY ? sampleRate / AMDF_FREQUENCY : 1;
-    if (numChannels == 1 && skip == 1) {
-      period = findPitchPeriodInRange(samples, position, minPeriod, maxPeriod);
-    } else {
-      downSampleInput(samples, position, skip);
-      period = findPitchPeriodInRange(downSampleBuffer, 0, minPeriod / skip, maxPeriod / skip);
-      if (skip != 1) {
-        period *= skip;
-        int minP = period - (skip * 4);
-        int maxP = period + (skip * 4);
-        if (minP < minPeriod) {
-          minP = minPeriod;
-        }
-        if (maxP > maxPeriod) {
-          maxP = maxPeriod;
-        }
-        if (numChannels == 1) {
-          period = findPitchPeriodInRange(samples, position, minP, maxP);
-        } else {
-          downSampleInput(samples, position, 1);
-          period = findPitchPeriodInRange(downSampleBuffer, 0, minP, maxP);
-        }
+    downSampleInput(samples, position, skip);
+    period = findPitchPeriodInRange(minPeriod / skip, maxPeriod / skip);
+    if (skip != 1) {
+      period *= skip;
+      int minP = period - (skip * 4);
+      int maxP = period + (skip * 4);
+      if (minP < minPeriod) {
+        minP = minPeriod;
+      }
+      if (maxP > maxPeriod) {
+        maxP = maxPeriod;
       }
+      downSampleInput(samples, position, 1);
+      period = findPitchPeriodInRange(minP, maxP);
     }
     if (previousPeriodBetter(minDiff, maxDiff, preferNewPeriod)) {
       retPeriod = prevPeriod;
@@ -361,8 +391,8 @@ import java.util.Arrays;
       int newPeriod = (int) (period / pitch);
       enlargeOutputBufferIfNeeded(newPeriod);
       if (pitch >= 1.0f) {
-        overlapAdd(newPeriod, numChannels, outputBuffer, numOutputSamples, pitchBuffer, position,
-            pitchBuffer, position + period - newPeriod);
+        overlapAdd(newPeriod, outputBuffer, numOutputSamples, pitchBuffer, position, pitchBuffer,
+            position + period - newPeriod);
       } else {
         int separation = newPeriod - period;
         overlapAddWithSeparation(period, numChannels, separation, outputBuffer, numOutputSamples,
@@ -428,7 +458,7 @@ import java.util.Arrays;
       remainingInputToCopy = (int) (period * (2.0f - speed) / (speed - 1.0f));
     }
     enlargeOutputBufferIfNeeded(newSamples);
-    overlapAdd(newSamples, numChannels, outputBuffer, numOutputSamples, samples, position, samples,
+    overlapAdd(newSamples, outputBuffer, numOutputSamples, samples, position, samples,
         position + period);
     numOutputSamples += newSamples;
     return newSamples;
@@ -446,8 +476,8 @@ import java.util.Arrays;
     enlargeOutputBufferIfNeeded(period + newSamples);
     System.arraycopy(samples, position * numChannels, outputBuffer, numOutputSamples * numChannels,
         period * numChannels);
-    overlapAdd(newSamples, numChannels, outputBuffer, numOutputSamples + period, samples,
-        position + period, samples, position);
+    overlapAdd(newSamples, outputBuffer, numOutputSamples + period, samples, position + period,
+        samples, position);
     numOutputSamples += period + newSamples;
     return newSamples;
   }
@@ -492,19 +522,40 @@ import java.util.Arrays;
     }
   }
 
-  private static void overlapAdd(int numSamples, int numChannels, short[] out, int outPos,
-      short[] rampDown, int rampDownPos, short[] rampUp, int rampUpPos) {
-    for (int i = 0; i < numChannels; i++) {
-      int o = outPos * numChannels + i;
-      int u = rampUpPos * numChannels + i;
-      int d = rampDownPos * numChannels + i;
-      for (int t = 0; t < numSamples; t++) {
-        out[o] = (short) ((rampDown[d] * (numSamples - t) + rampUp[u] * t) / numSamples);
-        o += numChannels;
-        d += numChannels;
-        u += numChannels;
+  private void overlapAdd(int numSamples, short[] out, int outPos, short[] rampDown,
+      int rampDownPos, short[] rampUp, int rampUpPos) {
+    float[] ramp = getRamp(numSamples);
+    int length = numSamples * numChannels;
+    int o = outPos * numChannels;
+    int d = rampDownPos * numChannels;
+    int u = rampUpPos * numChannels;
+    for (int i = 0; i < length; i++) {
+      float down = rampDown[d + i];
+      out[o + i] = (short) (down + (rampUp[u + i] - down) * ramp[i]);
+    }
+  }
+
+  /**
+   * Returns the interleaved weights of the ramp up over {@code numSamples} samples.
+   */
+  private float[] getRamp(int numSamples) {
+    if (numSamples == rampLength) {
+      return rampBuffer;
+    }
+    int length = numSamples * numChannels;
+    if (rampBuffer.length < length) {
+      rampBuffer = new float[length];
+    }
+    float step = 1.0f / numSamples;
+    int i = 0;
+    for (int t = 0; t < numSamples; t++) {
+      float weight = t * step;
+      for (int channel = 0; channel < numChannels; channel++) {
+        rampBuffer[i++] = weight;
       }
     }
+    rampLength = numSamples;
+    return rampBuffer;
   }
 
   private static void overlapAddWithSeparation(int numSamples, int numChannels, int separation,
@@ -138,6 +138,11 @@ public final class SonicAudioProcessor implements AudioProcessor {
     return channelCount;
   }
 
+  @Override
+  public int getOutputSampleRateHz() {
+    return sampleRateHz;
+  }
+
   @Override
   public int getOutputEncoding() {
     return C.ENCODING_PCM_16BIT;
@@ -188,7 +193,13 @@ public final class SonicAudioProcessor implements AudioProcessor {
 
   @Override
   public void flush() {
-    sonic = new Sonic(sampleRateHz, channelCount);
+    if (sonic == null || sonic.getSampleRate() != sampleRateHz
+        || sonic.getNumChannels() != channelCount) {
+      sonic = new Sonic(sampleRateHz, channelCount);
+    } else {
+      // Reuse the buffers of the previous stream.
+      sonic.flush();
+    }
     sonic.setSpeed(speed);
     sonic.setPitch(pitch);
     outputBuffer = EMPTY_BUFFER;
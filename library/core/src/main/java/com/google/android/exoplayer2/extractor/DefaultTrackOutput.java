@@ -30,6 +30,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A {@link TrackOutput} that buffers extracted samples in a queue and allows for consumption from
@@ -52,6 +53,7 @@ public final class DefaultTrackOutput implements TrackOutput {
   }
 
   private static final int INITIAL_SCRATCH_SIZE = 32;
+  private static final int DIRECT_WRITE_SCRATCH_SIZE = 16 * 1024;
 
   private static final int STATE_ENABLED = 0;
   private static final int STATE_ENABLED_WRITING = 1;
@@ -65,10 +67,16 @@ public final class DefaultTrackOutput implements TrackOutput {
   private final BufferExtrasHolder extrasHolder;
   private final ParsableByteArray scratch;
   private final AtomicInteger state;
+  private final DirectView directReadView;
+  private final DirectView directWriteView;
 
   // Accessed only by the consuming thread.
   private long totalBytesDropped;
   private Format downstreamFormat;
+  private TimeShiftBuffer timeShiftBuffer;
+  private FormatHolder timeShiftFormatHolder;
+  private DecoderInputBuffer timeShiftRecordBuffer;
+  private int timeShiftReadIndex;
 
   // Accessed only by the loading thread (or the consuming thread when there is no loading thread).
   private boolean pendingFormatAdjustment;
@@ -79,19 +87,55 @@ public final class DefaultTrackOutput implements TrackOutput {
   private int lastAllocationOffset;
   private boolean pendingSplice;
   private UpstreamFormatChangedListener upstreamFormatChangeListener;
+  private byte[] directWriteScratch;
 
   /**
    * @param allocator An {@link Allocator} from which allocations for sample data can be obtained.
    */
   public DefaultTrackOutput(Allocator allocator) {
+    this(allocator, false);
+  }
+
+  /**
+   * @param allocator An {@link Allocator} from which allocations for sample data can be obtained.
+   * @param lockFreeSampleQueue Whether sample information should be queued in a lock-free ring
+   *     rather than under a monitor. The ring relies on samples being written by a single loading
+   *     thread and read by a single consuming thread.
+   */
+  public DefaultTrackOutput(Allocator allocator, boolean lockFreeSampleQueue) {
+    this(allocator, lockFreeSampleQueue, 0);
+  }
+
+  /**
+   * @param allocator An {@link Allocator} from which allocations for sample data can be obtained.
+   * @param lockFreeSampleQueue Whether sample information should be queued in a lock-free ring
+   *     rather than under a monitor. The ring relies on samples being written by a single loading
+   *     thread and read by a single consuming thread.
+   * @param timeShiftBufferSize The number of bytes of sample data that should be kept after the
+   *     samples have been read, so that {@link #rewindToKeyframeBefore(long)} can seek back into
+   *     them. Zero if read samples should be discarded. Samples of tracks with DRM init data and
+   *     encrypted samples are never kept, and the kept samples are discarded when the downstream
+   *     format changes.
+   */
+  public DefaultTrackOutput(Allocator allocator, boolean lockFreeSampleQueue,
+      int timeShiftBufferSize) {
     this.allocator = allocator;
     allocationLength = allocator.getIndividualAllocationLength();
-    infoQueue = new InfoQueue();
+    infoQueue = lockFreeSampleQueue ? new LockFreeInfoQueue() : new SynchronizedInfoQueue();
     dataQueue = new LinkedBlockingDeque<>();
     extrasHolder = new BufferExtrasHolder();
     scratch = new ParsableByteArray(INITIAL_SCRATCH_SIZE);
     state = new AtomicInteger();
+    directReadView = new DirectView();
+    directWriteView = new DirectView();
     lastAllocationOffset = allocationLength;
+    if (timeShiftBufferSize > 0) {
+      timeShiftBuffer = new TimeShiftBuffer(timeShiftBufferSize);
+      timeShiftFormatHolder = new FormatHolder();
+      timeShiftRecordBuffer = new DecoderInputBuffer(
+          DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_DIRECT);
+    }
+    timeShiftReadIndex = C.INDEX_UNSET;
   }
 
   // Called by the consuming thread, but only when there is no loading thread.
@@ -104,6 +148,7 @@ public final class DefaultTrackOutput implements TrackOutput {
   public void reset(boolean enable) {
     int previousState = state.getAndSet(enable ? STATE_ENABLED : STATE_DISABLED);
     clearSampleData();
+    clearTimeShiftBuffer();
     infoQueue.resetLargestParsedTimestamps();
     if (previousState == STATE_DISABLED) {
       downstreamFormat = null;
@@ -179,13 +224,17 @@ public final class DefaultTrackOutput implements TrackOutput {
     if (state.getAndSet(STATE_DISABLED) == STATE_ENABLED) {
       clearSampleData();
     }
+    if (timeShiftBuffer != null) {
+      timeShiftBuffer.release();
+      timeShiftReadIndex = C.INDEX_UNSET;
+    }
   }
 
   /**
    * Returns whether the buffer is empty.
    */
   public boolean isEmpty() {
-    return infoQueue.isEmpty();
+    return timeShiftReadIndex == C.INDEX_UNSET && infoQueue.isEmpty();
   }
 
   /**
@@ -226,10 +275,31 @@ public final class DefaultTrackOutput implements TrackOutput {
     return infoQueue.getLargestQueuedTimestampUs();
   }
 
+  /**
+   * Returns how far reading lags behind the newest sample kept for time-shifting, or zero if
+   * samples are being read as they are queued.
+   */
+  public long getTimeShiftUs() {
+    if (timeShiftReadIndex == C.INDEX_UNSET
+        || timeShiftReadIndex == timeShiftBuffer.getWriteIndex()) {
+      return 0;
+    }
+    return timeShiftBuffer.getLastTimeUs() - timeShiftBuffer.getTimeUs(timeShiftReadIndex);
+  }
+
+  /**
+   * Returns the earliest time to which {@link #rewindToKeyframeBefore(long)} can seek back into
+   * samples that have already been read, or {@link C#TIME_UNSET} if no samples are kept.
+   */
+  public long getTimeShiftWindowStartUs() {
+    return timeShiftBuffer == null ? C.TIME_UNSET : timeShiftBuffer.getFirstKeyframeTimeUs();
+  }
+
   /**
    * Skips all samples currently in the buffer.
    */
   public void skipAll() {
+    timeShiftReadIndex = C.INDEX_UNSET;
     long nextOffset = infoQueue.skipAll();
     if (nextOffset != C.POSITION_UNSET) {
       dropDownstreamTo(nextOffset);
@@ -241,6 +311,10 @@ public final class DefaultTrackOutput implements TrackOutput {
    * contains a keyframe with a timestamp of {@code timeUs} or earlier. If
    * {@code allowTimeBeyondBuffer} is {@code false} then it is also required that {@code timeUs}
    * falls within the buffer.
+   * <p>
+   * The skip never moves reading back. While kept samples are being read again, a time no later
+   * than the newest kept sample is looked up among those ahead of the read position. Use
+   * {@link #rewindToKeyframeBefore(long)} to seek back into samples that have been read.
    *
    * @param timeUs The seek time.
    * @param allowTimeBeyondBuffer Whether the skip can succeed if {@code timeUs} is beyond the end
@@ -248,14 +322,51 @@ public final class DefaultTrackOutput implements TrackOutput {
    * @return Whether the skip was successful.
    */
   public boolean skipToKeyframeBefore(long timeUs, boolean allowTimeBeyondBuffer) {
+    if (timeShiftReadIndex != C.INDEX_UNSET && timeUs <= timeShiftBuffer.getLastTimeUs()) {
+      int keyframeIndex = timeShiftBuffer.getKeyframeIndexBefore(timeUs);
+      if (keyframeIndex == C.INDEX_UNSET || keyframeIndex < timeShiftReadIndex) {
+        return false;
+      }
+      timeShiftReadIndex = keyframeIndex;
+      return true;
+    }
     long nextOffset = infoQueue.skipToKeyframeBefore(timeUs, allowTimeBeyondBuffer);
     if (nextOffset == C.POSITION_UNSET) {
       return false;
     }
+    timeShiftReadIndex = C.INDEX_UNSET;
     dropDownstreamTo(nextOffset);
     return true;
   }
 
+  /**
+   * Attempts to move reading back to the keyframe before or at the specified time, so that the
+   * samples kept for time-shifting are read again from there. Succeeds only if {@code timeUs} is
+   * behind the current read position and a kept keyframe with a timestamp of {@code timeUs} or
+   * earlier exists.
+   *
+   * @param timeUs The seek time.
+   * @return Whether reading was moved back.
+   */
+  public boolean rewindToKeyframeBefore(long timeUs) {
+    if (timeShiftBuffer == null || timeShiftBuffer.isEmpty()) {
+      return false;
+    }
+    int readIndex = timeShiftReadIndex == C.INDEX_UNSET ? timeShiftBuffer.getWriteIndex()
+        : Math.max(timeShiftReadIndex, timeShiftBuffer.getFirstIndex());
+    boolean behindReadPosition = readIndex == timeShiftBuffer.getWriteIndex()
+        ? timeUs <= timeShiftBuffer.getLastTimeUs() : timeUs < timeShiftBuffer.getTimeUs(readIndex);
+    if (!behindReadPosition) {
+      return false;
+    }
+    int keyframeIndex = timeShiftBuffer.getKeyframeIndexBefore(timeUs);
+    if (keyframeIndex == C.INDEX_UNSET) {
+      return false;
+    }
+    timeShiftReadIndex = keyframeIndex;
+    return true;
+  }
+
   /**
    * Attempts to read from the queue.
    *
@@ -274,10 +385,19 @@ public final class DefaultTrackOutput implements TrackOutput {
    */
   public int readData(FormatHolder formatHolder, DecoderInputBuffer buffer, boolean formatRequired,
       boolean loadingFinished, long decodeOnlyUntilUs) {
+    if (timeShiftReadIndex != C.INDEX_UNSET) {
+      int result = readTimeShiftedData(formatHolder, buffer, formatRequired, decodeOnlyUntilUs);
+      if (result != C.RESULT_NOTHING_READ) {
+        return result;
+      }
+    }
     int result = infoQueue.readData(formatHolder, buffer, formatRequired, loadingFinished,
         downstreamFormat, extrasHolder);
     switch (result) {
       case C.RESULT_FORMAT_READ:
+        if (formatHolder.format != downstreamFormat) {
+          clearTimeShiftBuffer();
+        }
         downstreamFormat = formatHolder.format;
         return C.RESULT_FORMAT_READ;
       case C.RESULT_BUFFER_READ:
@@ -285,15 +405,7 @@ public final class DefaultTrackOutput implements TrackOutput {
           if (buffer.timeUs < decodeOnlyUntilUs) {
             buffer.addFlag(C.BUFFER_FLAG_DECODE_ONLY);
           }
-          // Read encryption data if the sample is encrypted.
-          if (buffer.isEncrypted()) {
-            readEncryptionData(buffer, extrasHolder);
-          }
-          // Write the sample data into the holder.
-          buffer.ensureSpaceForWrite(extrasHolder.size);
-          readData(extrasHolder.offset, buffer.data, extrasHolder.size);
-          // Advance the read head.
-          dropDownstreamTo(extrasHolder.nextOffset);
+          readSampleData(buffer);
         }
         return C.RESULT_BUFFER_READ;
       case C.RESULT_NOTHING_READ:
@@ -303,6 +415,95 @@ public final class DefaultTrackOutput implements TrackOutput {
     }
   }
 
+  /**
+   * Reads the data of the sample whose information has just been read from the queue, and keeps
+   * the sample for time-shifting if enabled.
+   *
+   * @param buffer The buffer into which the sample has been read.
+   */
+  private void readSampleData(DecoderInputBuffer buffer) {
+    // Read encryption data if the sample is encrypted.
+    if (buffer.isEncrypted()) {
+      readEncryptionData(buffer, extrasHolder);
+    }
+    // Write the sample data into the holder.
+    buffer.ensureSpaceForWrite(extrasHolder.size);
+    readData(extrasHolder.offset, buffer.data, extrasHolder.size);
+    // Advance the read head.
+    dropDownstreamTo(extrasHolder.nextOffset);
+    if (timeShiftBuffer != null) {
+      // Nothing is kept for tracks that may be encrypted. As the kept samples are then empty,
+      // reading never lags behind, and readTimeShiftedData never consumes an encrypted sample that
+      // it could not keep.
+      if (buffer.isEncrypted() || downstreamFormat.drmInitData != null) {
+        clearTimeShiftBuffer();
+      } else {
+        timeShiftBuffer.appendSample(buffer.timeUs, buffer.isKeyFrame(), buffer.data,
+            extrasHolder.size);
+      }
+    }
+  }
+
+  /**
+   * Attempts to read a sample that is kept for time-shifting. Queued samples are first moved into
+   * the time-shift buffer so that loading can continue while reading lags behind. Reading returns
+   * to the queue once it has caught up with the newest kept sample.
+   *
+   * @param formatHolder A {@link FormatHolder} to populate in the case of reading a format.
+   * @param buffer A {@link DecoderInputBuffer} to populate in the case of reading a sample.
+   * @param formatRequired Whether the caller requires that the format of the stream be read.
+   * @param decodeOnlyUntilUs If a buffer is read, the {@link C#BUFFER_FLAG_DECODE_ONLY} flag will
+   *     be set if the buffer's timestamp is less than this value.
+   * @return The result, which can be {@link C#RESULT_NOTHING_READ}, {@link C#RESULT_FORMAT_READ} or
+   *     {@link C#RESULT_BUFFER_READ}. Nothing is read if reading has returned to the queue.
+   */
+  private int readTimeShiftedData(FormatHolder formatHolder, DecoderInputBuffer buffer,
+      boolean formatRequired, long decodeOnlyUntilUs) {
+    // Samples of a different format are left in the queue, and are read once reading has caught up.
+    while (timeShiftReadIndex != C.INDEX_UNSET) {
+      timeShiftRecordBuffer.clear();
+      int result = infoQueue.readData(timeShiftFormatHolder, timeShiftRecordBuffer, false, false,
+          downstreamFormat, extrasHolder);
+      if (result != C.RESULT_BUFFER_READ) {
+        break;
+      }
+      readSampleData(timeShiftRecordBuffer);
+    }
+    if (timeShiftReadIndex == C.INDEX_UNSET) {
+      // The kept samples were discarded.
+      return C.RESULT_NOTHING_READ;
+    }
+    if (timeShiftReadIndex < timeShiftBuffer.getFirstIndex()) {
+      // Reading fell behind the oldest kept sample. Continue from the oldest kept keyframe.
+      timeShiftReadIndex = timeShiftBuffer.getKeyframeIndexBefore(
+          timeShiftBuffer.getFirstKeyframeTimeUs());
+      if (timeShiftReadIndex == C.INDEX_UNSET) {
+        return C.RESULT_NOTHING_READ;
+      }
+    }
+    if (timeShiftReadIndex == timeShiftBuffer.getWriteIndex()) {
+      timeShiftReadIndex = C.INDEX_UNSET;
+      return C.RESULT_NOTHING_READ;
+    }
+
+    if (formatRequired) {
+      formatHolder.format = downstreamFormat;
+      return C.RESULT_FORMAT_READ;
+    }
+    if (buffer.isFlagsOnly()) {
+      return C.RESULT_NOTHING_READ;
+    }
+    buffer.timeUs = timeShiftBuffer.getTimeUs(timeShiftReadIndex);
+    buffer.setFlags(timeShiftBuffer.isKeyFrame(timeShiftReadIndex) ? C.BUFFER_FLAG_KEY_FRAME : 0);
+    if (buffer.timeUs < decodeOnlyUntilUs) {
+      buffer.addFlag(C.BUFFER_FLAG_DECODE_ONLY);
+    }
+    buffer.ensureSpaceForWrite(timeShiftBuffer.getSize(timeShiftReadIndex));
+    timeShiftBuffer.readSample(timeShiftReadIndex, buffer.data);
+    timeShiftReadIndex++;
+    return C.RESULT_BUFFER_READ;
+  }
+
   /**
    * Reads encryption data for the current sample.
    * <p>
@@ -390,7 +591,12 @@ public final class DefaultTrackOutput implements TrackOutput {
       int positionInAllocation = (int) (absolutePosition - totalBytesDropped);
       int toCopy = Math.min(remaining, allocationLength - positionInAllocation);
       Allocation allocation = dataQueue.peek();
-      target.put(allocation.data, allocation.translateOffset(positionInAllocation), toCopy);
+      if (allocation.data != null) {
+        target.put(allocation.data, allocation.translateOffset(positionInAllocation), toCopy);
+      } else {
+        // Copy direct-to-direct, without going through the heap.
+        target.put(getDirectReadView(allocation, positionInAllocation, toCopy));
+      }
       absolutePosition += toCopy;
       remaining -= toCopy;
     }
@@ -410,8 +616,12 @@ public final class DefaultTrackOutput implements TrackOutput {
       int positionInAllocation = (int) (absolutePosition - totalBytesDropped);
       int toCopy = Math.min(length - bytesRead, allocationLength - positionInAllocation);
       Allocation allocation = dataQueue.peek();
-      System.arraycopy(allocation.data, allocation.translateOffset(positionInAllocation), target,
-          bytesRead, toCopy);
+      if (allocation.data != null) {
+        System.arraycopy(allocation.data, allocation.translateOffset(positionInAllocation), target,
+            bytesRead, toCopy);
+      } else {
+        getDirectReadView(allocation, positionInAllocation, toCopy).get(target, bytesRead, toCopy);
+      }
       absolutePosition += toCopy;
       bytesRead += toCopy;
     }
@@ -432,6 +642,30 @@ public final class DefaultTrackOutput implements TrackOutput {
     }
   }
 
+  /**
+   * Returns a view of a region of a direct allocation, for use by the consuming thread. The view's
+   * position and limit are set to the start and end of the region.
+   *
+   * @param allocation The allocation, which must be backed by {@link Allocation#directData}.
+   * @param positionInAllocation The position of the region within the allocation.
+   * @param length The length of the region.
+   * @return The view.
+   */
+  private ByteBuffer getDirectReadView(Allocation allocation, int positionInAllocation,
+      int length) {
+    return directReadView.select(allocation, positionInAllocation, length);
+  }
+
+  /**
+   * Discards the samples kept for time-shifting, returning reading to the queue.
+   */
+  private void clearTimeShiftBuffer() {
+    if (timeShiftBuffer != null) {
+      timeShiftBuffer.clear();
+      timeShiftReadIndex = C.INDEX_UNSET;
+    }
+  }
+
   // Called by the loading thread.
 
   /**
@@ -482,8 +716,21 @@ public final class DefaultTrackOutput implements TrackOutput {
     }
     try {
       length = prepareForAppend(length);
-      int bytesAppended = input.read(lastAllocation.data,
-          lastAllocation.translateOffset(lastAllocationOffset), length);
+      int bytesAppended;
+      if (lastAllocation.data != null) {
+        bytesAppended = input.read(lastAllocation.data,
+            lastAllocation.translateOffset(lastAllocationOffset), length);
+      } else {
+        // ExtractorInput only reads into arrays, so stage the data through a small heap scratch.
+        if (directWriteScratch == null) {
+          directWriteScratch = new byte[DIRECT_WRITE_SCRATCH_SIZE];
+        }
+        bytesAppended = input.read(directWriteScratch, 0,
+            Math.min(length, DIRECT_WRITE_SCRATCH_SIZE));
+        if (bytesAppended != C.RESULT_END_OF_INPUT) {
+          getDirectWriteView(bytesAppended).put(directWriteScratch, 0, bytesAppended);
+        }
+      }
       if (bytesAppended == C.RESULT_END_OF_INPUT) {
         if (allowEndOfInput) {
           return C.RESULT_END_OF_INPUT;
@@ -506,8 +753,12 @@ public final class DefaultTrackOutput implements TrackOutput {
     }
     while (length > 0) {
       int thisAppendLength = prepareForAppend(length);
-      buffer.readBytes(lastAllocation.data, lastAllocation.translateOffset(lastAllocationOffset),
-          thisAppendLength);
+      if (lastAllocation.data != null) {
+        buffer.readBytes(lastAllocation.data, lastAllocation.translateOffset(lastAllocationOffset),
+            thisAppendLength);
+      } else {
+        buffer.readBytes(getDirectWriteView(thisAppendLength), thisAppendLength);
+      }
       lastAllocationOffset += thisAppendLength;
       totalBytesWritten += thisAppendLength;
       length -= thisAppendLength;
@@ -576,6 +827,18 @@ public final class DefaultTrackOutput implements TrackOutput {
     return Math.min(length, allocationLength - lastAllocationOffset);
   }
 
+  /**
+   * Returns a view of the end of {@link #lastAllocation}, which must be backed by
+   * {@link Allocation#directData}, for use by the loading thread. The view's position and limit are
+   * set so that {@code length} bytes can be appended at {@link #lastAllocationOffset}.
+   *
+   * @param length The number of bytes that will be appended.
+   * @return The view.
+   */
+  private ByteBuffer getDirectWriteView(int length) {
+    return directWriteView.select(lastAllocation, lastAllocationOffset, length);
+  }
+
   /**
    * Adjusts a {@link Format} to incorporate a sample offset into {@link Format#subsampleOffsetUs}.
    *
@@ -596,7 +859,56 @@ public final class DefaultTrackOutput implements TrackOutput {
   /**
    * Holds information about the samples in the rolling buffer.
    */
-  private static final class InfoQueue {
+  private interface InfoQueue {
+
+    void clearSampleData();
+
+    // Called by the consuming thread, but only when there is no loading thread.
+
+    void resetLargestParsedTimestamps();
+
+    int getWriteIndex();
+
+    long discardUpstreamSamples(int discardFromIndex);
+
+    void sourceId(int sourceId);
+
+    // Called by the consuming thread.
+
+    int getReadIndex();
+
+    int peekSourceId();
+
+    boolean isEmpty();
+
+    Format getUpstreamFormat();
+
+    long getLargestQueuedTimestampUs();
+
+    int readData(FormatHolder formatHolder, DecoderInputBuffer buffer, boolean formatRequired,
+        boolean loadingFinished, Format downstreamFormat, BufferExtrasHolder extrasHolder);
+
+    long skipAll();
+
+    long skipToKeyframeBefore(long timeUs, boolean allowTimeBeyondBuffer);
+
+    // Called by the loading thread.
+
+    boolean format(Format format);
+
+    void commitSample(long timeUs, @C.BufferFlags int sampleFlags, long offset, int size,
+        byte[] encryptionKey);
+
+    void commitSampleTimestamp(long timeUs);
+
+    boolean attemptSplice(long timeUs);
+
+  }
+
+  /**
+   * An {@link InfoQueue} that guards its state with the queue's monitor.
+   */
+  private static final class SynchronizedInfoQueue implements InfoQueue {
 
     private static final int SAMPLE_CAPACITY_INCREMENT = 1000;
 
@@ -622,7 +934,7 @@ public final class DefaultTrackOutput implements TrackOutput {
     private Format upstreamFormat;
     private int upstreamSourceId;
 
-    public InfoQueue() {
+    public SynchronizedInfoQueue() {
       capacity = SAMPLE_CAPACITY_INCREMENT;
       sourceIds = new int[capacity];
       offsets = new long[capacity];
@@ -637,6 +949,7 @@ public final class DefaultTrackOutput implements TrackOutput {
       upstreamKeyframeRequired = true;
     }
 
+    @Override
     public void clearSampleData() {
       absoluteReadIndex = 0;
       relativeReadIndex = 0;
@@ -647,6 +960,7 @@ public final class DefaultTrackOutput implements TrackOutput {
 
     // Called by the consuming thread, but only when there is no loading thread.
 
+    @Override
     public void resetLargestParsedTimestamps() {
       largestDequeuedTimestampUs = Long.MIN_VALUE;
       largestQueuedTimestampUs = Long.MIN_VALUE;
@@ -655,6 +969,7 @@ public final class DefaultTrackOutput implements TrackOutput {
     /**
      * Returns the current absolute write index.
      */
+    @Override
     public int getWriteIndex() {
       return absoluteReadIndex + queueSize;
     }
@@ -665,6 +980,7 @@ public final class DefaultTrackOutput implements TrackOutput {
      * @param discardFromIndex The absolute index of the first sample to be discarded.
      * @return The reduced total number of bytes written, after the samples have been discarded.
      */
+    @Override
     public long discardUpstreamSamples(int discardFromIndex) {
       int discardCount = getWriteIndex() - discardFromIndex;
       Assertions.checkArgument(0 <= discardCount && discardCount <= queueSize);
@@ -693,6 +1009,7 @@ public final class DefaultTrackOutput implements TrackOutput {
       return offsets[relativeWriteIndex];
     }
 
+    @Override
     public void sourceId(int sourceId) {
       upstreamSourceId = sourceId;
     }
@@ -702,6 +1019,7 @@ public final class DefaultTrackOutput implements TrackOutput {
     /**
      * Returns the current absolute read index.
      */
+    @Override
     public int getReadIndex() {
       return absoluteReadIndex;
     }
@@ -710,6 +1028,7 @@ public final class DefaultTrackOutput implements TrackOutput {
      * Peeks the source id of the next sample, or the current upstream source id if the queue is
      * empty.
      */
+    @Override
     public int peekSourceId() {
       return queueSize == 0 ? upstreamSourceId : sourceIds[relativeReadIndex];
     }
@@ -717,6 +1036,7 @@ public final class DefaultTrackOutput implements TrackOutput {
     /**
      * Returns whether the queue is empty.
      */
+    @Override
     public synchronized boolean isEmpty() {
       return queueSize == 0;
     }
@@ -724,6 +1044,7 @@ public final class DefaultTrackOutput implements TrackOutput {
     /**
      * Returns the upstream {@link Format} in which samples are being queued.
      */
+    @Override
     public synchronized Format getUpstreamFormat() {
       return upstreamFormatRequired ? null : upstreamFormat;
     }
@@ -738,6 +1059,7 @@ public final class DefaultTrackOutput implements TrackOutput {
      * @return The largest sample timestamp that has been queued, or {@link Long#MIN_VALUE} if no
      *     samples have been queued.
      */
+    @Override
     public synchronized long getLargestQueuedTimestampUs() {
       return Math.max(largestDequeuedTimestampUs, largestQueuedTimestampUs);
     }
@@ -764,6 +1086,7 @@ public final class DefaultTrackOutput implements TrackOutput {
      *     or {@link C#RESULT_BUFFER_READ}.
      */
     @SuppressWarnings("ReferenceEquality")
+    @Override
     public synchronized int readData(FormatHolder formatHolder, DecoderInputBuffer buffer,
         boolean formatRequired, boolean loadingFinished, Format downstreamFormat,
         BufferExtrasHolder extrasHolder) {
@@ -815,6 +1138,7 @@ public final class DefaultTrackOutput implements TrackOutput {
      * @return The offset up to which data should be dropped, or {@link C#POSITION_UNSET} if no
      *     dropping of data is required.
      */
+    @Override
     public synchronized long skipAll() {
       if (queueSize == 0) {
         return C.POSITION_UNSET;
@@ -838,6 +1162,7 @@ public final class DefaultTrackOutput implements TrackOutput {
      * @return The offset of the keyframe's data if the keyframe was present.
      *     {@link C#POSITION_UNSET} otherwise.
      */
+    @Override
     public synchronized long skipToKeyframeBefore(long timeUs, boolean allowTimeBeyondBuffer) {
       if (queueSize == 0 || timeUs < timesUs[relativeReadIndex]) {
         return C.POSITION_UNSET;
@@ -877,6 +1202,7 @@ public final class DefaultTrackOutput implements TrackOutput {
 
     // Called by the loading thread.
 
+    @Override
     public synchronized boolean format(Format format) {
       if (format == null) {
         upstreamFormatRequired = true;
@@ -892,6 +1218,7 @@ public final class DefaultTrackOutput implements TrackOutput {
       }
     }
 
+    @Override
     public synchronized void commitSample(long timeUs, @C.BufferFlags int sampleFlags, long offset,
         int size, byte[] encryptionKey) {
       if (upstreamKeyframeRequired) {
@@ -957,6 +1284,7 @@ public final class DefaultTrackOutput implements TrackOutput {
       }
     }
 
+    @Override
     public synchronized void commitSampleTimestamp(long timeUs) {
       largestQueuedTimestampUs = Math.max(largestQueuedTimestampUs, timeUs);
     }
@@ -968,6 +1296,7 @@ public final class DefaultTrackOutput implements TrackOutput {
      * @param timeUs The timestamp at which the splice occurs.
      * @return Whether the splice was successful.
      */
+    @Override
     public synchronized boolean attemptSplice(long timeUs) {
       if (largestDequeuedTimestampUs >= timeUs) {
         return false;
@@ -983,6 +1312,458 @@ public final class DefaultTrackOutput implements TrackOutput {
 
   }
 
+  /**
+   * An {@link InfoQueue} for a single loading thread and a single consuming thread that does not
+   * take a monitor on any path.
+   * <p>
+   * Sample information is held in the primitive arrays of a power-of-two sized {@link Ring} and
+   * addressed by absolute sample index. The absolute read and write indices are packed into a
+   * single {@link AtomicLong}, so a sample is published by incrementing the write index after its
+   * slot has been written, and claimed by a compare-and-set of the read index. The consumer reads
+   * all information of a sample into locals before the claim, because once the read index has
+   * advanced the loading thread may write the next sample into the released slot. Because samples
+   * are retracted by a compare-and-set of the same value, a splice can never discard a sample that
+   * the consumer has claimed. When the ring is full the loading thread publishes a larger copy of
+   * it; the consumer may keep reading the old copy.
+   * <p>
+   * A slot that is neither released nor retracted is never modified. A splice that retracts
+   * samples while the consumer is between reading a slot and claiming it would allow the slot to be
+   * rewritten and republished at the same indices, so that the claim succeeds on stale information.
+   * The consumer therefore flags each claim in progress, and a splice that observes the flag after
+   * retracting publishes the untouched samples again and is refused.
+   */
+  private static final class LockFreeInfoQueue implements InfoQueue {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final AtomicLong indices;
+
+    private volatile Ring ring;
+    private volatile long largestDequeuedTimestampUs;
+    private volatile long largestQueuedTimestampUs;
+    private volatile boolean claimInProgress;
+    private volatile boolean upstreamKeyframeRequired;
+    private volatile boolean upstreamFormatRequired;
+    private volatile Format upstreamFormat;
+    private volatile int upstreamSourceId;
+
+    public LockFreeInfoQueue() {
+      indices = new AtomicLong();
+      ring = new Ring(INITIAL_CAPACITY);
+      largestDequeuedTimestampUs = Long.MIN_VALUE;
+      largestQueuedTimestampUs = Long.MIN_VALUE;
+      upstreamFormatRequired = true;
+      upstreamKeyframeRequired = true;
+    }
+
+    @Override
+    public void clearSampleData() {
+      indices.set(0);
+      upstreamKeyframeRequired = true;
+    }
+
+    // Called by the consuming thread, but only when there is no loading thread.
+
+    @Override
+    public void resetLargestParsedTimestamps() {
+      largestDequeuedTimestampUs = Long.MIN_VALUE;
+      largestQueuedTimestampUs = Long.MIN_VALUE;
+    }
+
+    @Override
+    public int getWriteIndex() {
+      return writeIndex(indices.get());
+    }
+
+    @Override
+    public long discardUpstreamSamples(int discardFromIndex) {
+      long currentIndices = indices.get();
+      int readIndex = readIndex(currentIndices);
+      int writeIndex = writeIndex(currentIndices);
+      int discardCount = writeIndex - discardFromIndex;
+      Assertions.checkArgument(0 <= discardCount && discardCount <= writeIndex - readIndex);
+
+      Ring ring = this.ring;
+      if (discardCount == 0) {
+        if (writeIndex == 0) {
+          // Nothing has been written to the queue.
+          return 0;
+        }
+        int lastWriteSlot = (writeIndex - 1) & ring.mask;
+        return ring.offsets[lastWriteSlot] + ring.sizes[lastWriteSlot];
+      }
+
+      indices.set(packIndices(readIndex, discardFromIndex));
+      updateLargestQueuedTimestampUs(ring, readIndex, discardFromIndex);
+      return ring.offsets[discardFromIndex & ring.mask];
+    }
+
+    @Override
+    public void sourceId(int sourceId) {
+      upstreamSourceId = sourceId;
+    }
+
+    // Called by the consuming thread.
+
+    @Override
+    public int getReadIndex() {
+      return readIndex(indices.get());
+    }
+
+    @Override
+    public int peekSourceId() {
+      long currentIndices = indices.get();
+      int readIndex = readIndex(currentIndices);
+      if (readIndex == writeIndex(currentIndices)) {
+        return upstreamSourceId;
+      }
+      Ring ring = this.ring;
+      return ring.sourceIds[readIndex & ring.mask];
+    }
+
+    @Override
+    public boolean isEmpty() {
+      long currentIndices = indices.get();
+      return readIndex(currentIndices) == writeIndex(currentIndices);
+    }
+
+    @Override
+    public Format getUpstreamFormat() {
+      return upstreamFormatRequired ? null : upstreamFormat;
+    }
+
+    @Override
+    public long getLargestQueuedTimestampUs() {
+      return Math.max(largestDequeuedTimestampUs, largestQueuedTimestampUs);
+    }
+
+    @Override
+    public int readData(FormatHolder formatHolder, DecoderInputBuffer buffer,
+        boolean formatRequired, boolean loadingFinished, Format downstreamFormat,
+        BufferExtrasHolder extrasHolder) {
+      claimInProgress = true;
+      try {
+        return claimSample(formatHolder, buffer, formatRequired, loadingFinished,
+            downstreamFormat, extrasHolder);
+      } finally {
+        claimInProgress = false;
+      }
+    }
+
+    @SuppressWarnings("ReferenceEquality")
+    private int claimSample(FormatHolder formatHolder, DecoderInputBuffer buffer,
+        boolean formatRequired, boolean loadingFinished, Format downstreamFormat,
+        BufferExtrasHolder extrasHolder) {
+      while (true) {
+        long currentIndices = indices.get();
+        int readIndex = readIndex(currentIndices);
+        int writeIndex = writeIndex(currentIndices);
+        if (readIndex == writeIndex) {
+          Format upstreamFormat = this.upstreamFormat;
+          if (loadingFinished) {
+            buffer.setFlags(C.BUFFER_FLAG_END_OF_STREAM);
+            return C.RESULT_BUFFER_READ;
+          } else if (upstreamFormat != null
+              && (formatRequired || upstreamFormat != downstreamFormat)) {
+            formatHolder.format = upstreamFormat;
+            return C.RESULT_FORMAT_READ;
+          } else {
+            return C.RESULT_NOTHING_READ;
+          }
+        }
+
+        // The ring must be read after the indices, so that it holds every published sample.
+        Ring ring = this.ring;
+        int slot = readIndex & ring.mask;
+        if (formatRequired || ring.formats[slot] != downstreamFormat) {
+          formatHolder.format = ring.formats[slot];
+          return C.RESULT_FORMAT_READ;
+        }
+
+        if (buffer.isFlagsOnly()) {
+          return C.RESULT_NOTHING_READ;
+        }
+
+        // Read the sample before claiming it, since a released slot may be rewritten.
+        long timeUs = ring.timesUs[slot];
+        int flags = ring.flags[slot];
+        int size = ring.sizes[slot];
+        long offset = ring.offsets[slot];
+        byte[] encryptionKeyId = ring.encryptionKeys[slot];
+        long nextOffset = readIndex + 1 < writeIndex
+            ? ring.offsets[(readIndex + 1) & ring.mask] : offset + size;
+        if (!indices.compareAndSet(currentIndices, packIndices(readIndex + 1, writeIndex))) {
+          // The loading thread published or retracted samples. Try again.
+          continue;
+        }
+
+        if (timeUs > largestDequeuedTimestampUs) {
+          largestDequeuedTimestampUs = timeUs;
+        }
+        buffer.timeUs = timeUs;
+        buffer.setFlags(flags);
+        extrasHolder.size = size;
+        extrasHolder.offset = offset;
+        extrasHolder.encryptionKeyId = encryptionKeyId;
+        extrasHolder.nextOffset = nextOffset;
+        return C.RESULT_BUFFER_READ;
+      }
+    }
+
+    @Override
+    public long skipAll() {
+      claimInProgress = true;
+      try {
+        return claimAll();
+      } finally {
+        claimInProgress = false;
+      }
+    }
+
+    private long claimAll() {
+      while (true) {
+        long currentIndices = indices.get();
+        int readIndex = readIndex(currentIndices);
+        int writeIndex = writeIndex(currentIndices);
+        if (readIndex == writeIndex) {
+          return C.POSITION_UNSET;
+        }
+        Ring ring = this.ring;
+        int lastSampleSlot = (writeIndex - 1) & ring.mask;
+        long nextOffset = ring.offsets[lastSampleSlot] + ring.sizes[lastSampleSlot];
+        if (indices.compareAndSet(currentIndices, packIndices(writeIndex, writeIndex))) {
+          return nextOffset;
+        }
+      }
+    }
+
+    @Override
+    public long skipToKeyframeBefore(long timeUs, boolean allowTimeBeyondBuffer) {
+      claimInProgress = true;
+      try {
+        return claimToKeyframeBefore(timeUs, allowTimeBeyondBuffer);
+      } finally {
+        claimInProgress = false;
+      }
+    }
+
+    private long claimToKeyframeBefore(long timeUs, boolean allowTimeBeyondBuffer) {
+      while (true) {
+        long currentIndices = indices.get();
+        int readIndex = readIndex(currentIndices);
+        int writeIndex = writeIndex(currentIndices);
+        Ring ring = this.ring;
+        if (readIndex == writeIndex || timeUs < ring.timesUs[readIndex & ring.mask]) {
+          return C.POSITION_UNSET;
+        }
+
+        if (timeUs > largestQueuedTimestampUs && !allowTimeBeyondBuffer) {
+          return C.POSITION_UNSET;
+        }
+
+        int keyframeIndex = -1;
+        for (int i = readIndex; i < writeIndex; i++) {
+          int slot = i & ring.mask;
+          if (ring.timesUs[slot] > timeUs) {
+            // We've gone too far.
+            break;
+          } else if ((ring.flags[slot] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+            // We've found a keyframe, and we're still before the seek position.
+            keyframeIndex = i;
+          }
+        }
+
+        if (keyframeIndex == -1) {
+          return C.POSITION_UNSET;
+        }
+
+        long keyframeOffset = ring.offsets[keyframeIndex & ring.mask];
+        if (indices.compareAndSet(currentIndices, packIndices(keyframeIndex, writeIndex))) {
+          return keyframeOffset;
+        }
+      }
+    }
+
+    // Called by the loading thread.
+
+    @Override
+    public boolean format(Format format) {
+      if (format == null) {
+        upstreamFormatRequired = true;
+        return false;
+      }
+      upstreamFormatRequired = false;
+      if (Util.areEqual(format, upstreamFormat)) {
+        // Suppress changes between equal formats so we can use referential equality in readData.
+        return false;
+      } else {
+        upstreamFormat = format;
+        return true;
+      }
+    }
+
+    @Override
+    public void commitSample(long timeUs, @C.BufferFlags int sampleFlags, long offset, int size,
+        byte[] encryptionKey) {
+      if (upstreamKeyframeRequired) {
+        if ((sampleFlags & C.BUFFER_FLAG_KEY_FRAME) == 0) {
+          return;
+        }
+        upstreamKeyframeRequired = false;
+      }
+      Assertions.checkState(!upstreamFormatRequired);
+      commitSampleTimestamp(timeUs);
+
+      long currentIndices = indices.get();
+      int readIndex = readIndex(currentIndices);
+      int writeIndex = writeIndex(currentIndices);
+      Ring ring = this.ring;
+      if (writeIndex - readIndex == ring.mask + 1) {
+        ring = growRing(ring, readIndex, writeIndex);
+      }
+      int slot = writeIndex & ring.mask;
+      ring.timesUs[slot] = timeUs;
+      ring.offsets[slot] = offset;
+      ring.sizes[slot] = size;
+      ring.flags[slot] = sampleFlags;
+      ring.encryptionKeys[slot] = encryptionKey;
+      ring.formats[slot] = upstreamFormat;
+      ring.sourceIds[slot] = upstreamSourceId;
+      // Publish the sample. The write index occupies the low bits, so this cannot carry into the
+      // read index.
+      indices.getAndIncrement();
+    }
+
+    @Override
+    public void commitSampleTimestamp(long timeUs) {
+      if (timeUs > largestQueuedTimestampUs) {
+        largestQueuedTimestampUs = timeUs;
+      }
+    }
+
+    @Override
+    public boolean attemptSplice(long timeUs) {
+      while (true) {
+        long currentIndices = indices.get();
+        if (largestDequeuedTimestampUs >= timeUs) {
+          return false;
+        }
+        int readIndex = readIndex(currentIndices);
+        int writeIndex = writeIndex(currentIndices);
+        Ring ring = this.ring;
+        int retainIndex = writeIndex;
+        while (retainIndex > readIndex && ring.timesUs[(retainIndex - 1) & ring.mask] >= timeUs) {
+          retainIndex--;
+        }
+        if (retainIndex == writeIndex) {
+          return true;
+        }
+        if (indices.compareAndSet(currentIndices, packIndices(readIndex, retainIndex))) {
+          if (claimInProgress) {
+            // The consumer may have read a retracted slot. The retracted slots have not been
+            // modified, so publish them again and refuse the splice.
+            restoreWriteIndex(writeIndex);
+            return false;
+          }
+          updateLargestQueuedTimestampUs(ring, readIndex, retainIndex);
+          return true;
+        }
+      }
+    }
+
+    // Internal methods.
+
+    /**
+     * Publishes samples that were retracted but whose slots have not been modified since.
+     */
+    private void restoreWriteIndex(int writeIndex) {
+      while (true) {
+        long currentIndices = indices.get();
+        if (indices.compareAndSet(currentIndices,
+            packIndices(readIndex(currentIndices), writeIndex))) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * Recomputes the largest queued timestamp after samples have been discarded from the tail,
+     * assuming that the timestamps prior to a keyframe are always less than the timestamp of the
+     * keyframe itself, and of subsequent frames.
+     */
+    private void updateLargestQueuedTimestampUs(Ring ring, int readIndex, int writeIndex) {
+      long largestTimestampUs = Long.MIN_VALUE;
+      for (int i = writeIndex - 1; i >= readIndex; i--) {
+        int slot = i & ring.mask;
+        largestTimestampUs = Math.max(largestTimestampUs, ring.timesUs[slot]);
+        if ((ring.flags[slot] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+          break;
+        }
+      }
+      largestQueuedTimestampUs = largestTimestampUs;
+    }
+
+    /**
+     * Copies the queued samples into a ring of twice the capacity and publishes it.
+     */
+    private Ring growRing(Ring ring, int readIndex, int writeIndex) {
+      Ring newRing = new Ring((ring.mask + 1) * 2);
+      for (int i = readIndex; i < writeIndex; i++) {
+        int slot = i & ring.mask;
+        int newSlot = i & newRing.mask;
+        newRing.timesUs[newSlot] = ring.timesUs[slot];
+        newRing.offsets[newSlot] = ring.offsets[slot];
+        newRing.sizes[newSlot] = ring.sizes[slot];
+        newRing.flags[newSlot] = ring.flags[slot];
+        newRing.encryptionKeys[newSlot] = ring.encryptionKeys[slot];
+        newRing.formats[newSlot] = ring.formats[slot];
+        newRing.sourceIds[newSlot] = ring.sourceIds[slot];
+      }
+      this.ring = newRing;
+      return newRing;
+    }
+
+    private static int readIndex(long indices) {
+      return (int) (indices >>> 32);
+    }
+
+    private static int writeIndex(long indices) {
+      return (int) indices;
+    }
+
+    private static long packIndices(int readIndex, int writeIndex) {
+      return ((long) readIndex << 32) | (writeIndex & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Sample information addressed by absolute sample index modulo a power-of-two capacity.
+     */
+    private static final class Ring {
+
+      public final int mask;
+      public final int[] sourceIds;
+      public final long[] offsets;
+      public final int[] sizes;
+      public final int[] flags;
+      public final long[] timesUs;
+      public final byte[][] encryptionKeys;
+      public final Format[] formats;
+
+      public Ring(int capacity) {
+        mask = capacity - 1;
+        sourceIds = new int[capacity];
+        offsets = new long[capacity];
+        sizes = new int[capacity];
+        flags = new int[capacity];
+        timesUs = new long[capacity];
+        encryptionKeys = new byte[capacity][];
+        formats = new Format[capacity];
+      }
+
+    }
+
+  }
+
   /**
    * Holds additional buffer information not held by {@link DecoderInputBuffer}.
    */
@@ -995,4 +1776,36 @@ public final class DefaultTrackOutput implements TrackOutput {
 
   }
 
+  /**
+   * A reusable view of the {@link Allocation#directData} of direct allocations. Allocations carved
+   * from the same arena share a buffer, so a new view is normally only created when moving between
+   * arena and non-arena allocations.
+   */
+  private static final class DirectView {
+
+    private ByteBuffer source;
+    private ByteBuffer view;
+
+    /**
+     * Returns a view of a region of a direct allocation.
+     *
+     * @param allocation The allocation, which must be backed by {@link Allocation#directData}.
+     * @param positionInAllocation The position of the region within the allocation.
+     * @param length The length of the region.
+     * @return A view whose position and limit are set to the start and end of the region.
+     */
+    public ByteBuffer select(Allocation allocation, int positionInAllocation, int length) {
+      if (source != allocation.directData) {
+        source = allocation.directData;
+        view = source.duplicate();
+      }
+      int position = allocation.translateOffset(positionInAllocation);
+      view.clear();
+      view.position(position);
+      view.limit(position + length);
+      return view;
+    }
+
+  }
+
 }
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.extractor;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.util.LongArray;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded store of the most recently read samples of a track, which allows a
+ * {@link DefaultTrackOutput} to serve seeks backwards into samples that have already been consumed.
+ * <p>
+ * Sample data is appended to a circular off-heap buffer of fixed capacity. The buffer starts small
+ * and grows as samples are appended, so a store that is only filled a little does not hold the
+ * full capacity. When an append would overwrite the oldest samples, they are evicted from the
+ * front of the store. Samples are
+ * addressed by absolute index, which increases by one for each appended sample and is not reset by
+ * eviction. The timestamps and data offsets of the stored samples are held in primitive
+ * {@link LongArray}s, so that appending and evicting are amortized O(1) and looking up a
+ * timestamp is O(log n). The keyframe flag is folded into the sign of the stored offset.
+ * <p>
+ * Sample timestamps are assumed to increase in the order in which samples are appended, as they do
+ * for audio. This class is accessed only by the consuming thread.
+ */
+/* package */ final class TimeShiftBuffer {
+
+  private static final int INITIAL_DATA_SIZE = 64 * 1024;
+
+  private final int capacity;
+  private final LongArray timesUs;
+  private final LongArray offsets;
+
+  private ByteBuffer data;
+  private ByteBuffer view;
+  private int firstIndex;
+  private long writePosition;
+
+  /**
+   * @param capacity The maximum number of bytes of sample data to store. The data buffer is
+   *     allocated when the first sample is appended, and grows up to this size.
+   */
+  public TimeShiftBuffer(int capacity) {
+    this.capacity = capacity;
+    timesUs = new LongArray();
+    offsets = new LongArray();
+  }
+
+  /**
+   * Returns whether the store holds no samples.
+   */
+  public boolean isEmpty() {
+    return timesUs.size() == 0;
+  }
+
+  /**
+   * Returns the absolute index of the oldest stored sample.
+   */
+  public int getFirstIndex() {
+    return firstIndex;
+  }
+
+  /**
+   * Returns the absolute index that the next appended sample will have.
+   */
+  public int getWriteIndex() {
+    return firstIndex + timesUs.size();
+  }
+
+  /**
+   * Returns the timestamp of the newest stored sample. Must not be called if the store is empty.
+   */
+  public long getLastTimeUs() {
+    return timesUs.get(timesUs.size() - 1);
+  }
+
+  /**
+   * Returns the timestamp of the oldest stored keyframe, or {@link C#TIME_UNSET} if the store
+   * holds no keyframe.
+   */
+  public long getFirstKeyframeTimeUs() {
+    for (int i = 0; i < offsets.size(); i++) {
+      if (offsets.get(i) >= 0) {
+        return timesUs.get(i);
+      }
+    }
+    return C.TIME_UNSET;
+  }
+
+  /**
+   * Returns the timestamp of a stored sample.
+   *
+   * @param index The absolute index of the sample.
+   */
+  public long getTimeUs(int index) {
+    return timesUs.get(index - firstIndex);
+  }
+
+  /**
+   * Returns whether a stored sample is a keyframe.
+   *
+   * @param index The absolute index of the sample.
+   */
+  public boolean isKeyFrame(int index) {
+    return offsets.get(index - firstIndex) >= 0;
+  }
+
+  /**
+   * Returns the size in bytes of a stored sample.
+   *
+   * @param index The absolute index of the sample.
+   */
+  public int getSize(int index) {
+    int relativeIndex = index - firstIndex;
+    long nextPosition = relativeIndex + 1 < offsets.size()
+        ? getPosition(relativeIndex + 1) : writePosition;
+    return (int) (nextPosition - getPosition(relativeIndex));
+  }
+
+  /**
+   * Returns the absolute index of the last stored keyframe whose timestamp is less than or equal
+   * to the specified time.
+   *
+   * @param timeUs The time.
+   * @return The absolute index of the keyframe, or {@link C#INDEX_UNSET} if there is none.
+   */
+  public int getKeyframeIndexBefore(long timeUs) {
+    for (int i = timesUs.binarySearchFloor(timeUs); i >= 0; i--) {
+      if (offsets.get(i) >= 0) {
+        return firstIndex + i;
+      }
+    }
+    return C.INDEX_UNSET;
+  }
+
+  /**
+   * Appends a sample, evicting the oldest samples as necessary to make room for it. A sample that
+   * is larger than the capacity of the store cannot be held, in which case the store is cleared.
+   *
+   * @param timeUs The timestamp of the sample.
+   * @param keyframe Whether the sample is a keyframe.
+   * @param source A buffer whose {@code size} bytes preceding its position are the sample data.
+   *     The position and limit of the buffer are left unchanged.
+   * @param size The size of the sample in bytes.
+   */
+  public void appendSample(long timeUs, boolean keyframe, ByteBuffer source, int size) {
+    if (size > capacity) {
+      clear();
+      return;
+    }
+    if (data == null || (writePosition + size > data.capacity() && data.capacity() < capacity)) {
+      growData((int) writePosition + size);
+    }
+
+    int evictCount = 0;
+    while (evictCount < offsets.size()
+        && writePosition + size - getPosition(evictCount) > capacity) {
+      evictCount++;
+    }
+    if (evictCount > 0) {
+      timesUs.removeFirst(evictCount);
+      offsets.removeFirst(evictCount);
+      firstIndex += evictCount;
+    }
+
+    timesUs.add(timeUs);
+    offsets.add(keyframe ? writePosition : ~writePosition);
+    int sourceLimit = source.limit();
+    source.position(source.position() - size);
+    int remaining = size;
+    while (remaining > 0) {
+      int toCopy = selectRegion(writePosition, remaining);
+      source.limit(source.position() + toCopy);
+      view.put(source);
+      writePosition += toCopy;
+      remaining -= toCopy;
+    }
+    source.limit(sourceLimit);
+  }
+
+  /**
+   * Copies the data of a stored sample into a buffer.
+   *
+   * @param index The absolute index of the sample.
+   * @param target The buffer into which the data should be written. Must have at least
+   *     {@link #getSize(int)} bytes remaining.
+   */
+  public void readSample(int index, ByteBuffer target) {
+    long position = getPosition(index - firstIndex);
+    int remaining = getSize(index);
+    while (remaining > 0) {
+      int toCopy = selectRegion(position, remaining);
+      target.put(view);
+      position += toCopy;
+      remaining -= toCopy;
+    }
+  }
+
+  /**
+   * Discards all stored samples. The data buffer is retained for reuse.
+   */
+  public void clear() {
+    timesUs.clear();
+    offsets.clear();
+    firstIndex = 0;
+    writePosition = 0;
+  }
+
+  /**
+   * Discards all stored samples and the data buffer.
+   */
+  public void release() {
+    clear();
+    data = null;
+    view = null;
+  }
+
+  /**
+   * Replaces the data buffer with a larger one, keeping the stored data. Only called before the
+   * data has wrapped around, so the stored data occupies the start of the buffer.
+   *
+   * @param minSize The minimum size of the new buffer.
+   */
+  private void growData(int minSize) {
+    int size = data == null ? INITIAL_DATA_SIZE : data.capacity() * 2;
+    ByteBuffer newData = ByteBuffer.allocateDirect(Math.min(capacity, Math.max(size, minSize)));
+    if (data != null) {
+      data.clear();
+      data.limit((int) writePosition);
+      newData.put(data);
+    }
+    data = newData;
+    view = data.duplicate();
+  }
+
+  private long getPosition(int relativeIndex) {
+    long offset = offsets.get(relativeIndex);
+    return offset >= 0 ? offset : ~offset;
+  }
+
+  /**
+   * Sets the position and limit of {@link #view} to the largest region that starts at an absolute
+   * position and does not wrap around the end of the data buffer.
+   *
+   * @param position The absolute position at which the region starts.
+   * @param length The maximum length of the region.
+   * @return The length of the region.
+   */
+  private int selectRegion(long position, int length) {
+    int positionInBuffer = (int) (position % capacity);
+    int regionLength = Math.min(length, capacity - positionInBuffer);
+    view.clear();
+    view.position(positionInBuffer);
+    view.limit(positionInBuffer + regionLength);
+    return regionLength;
+  }
+
+}
@@ -41,6 +41,7 @@ import com.google.android.exoplayer2.upstream.Loader.Loadable;
 import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.ConditionVariable;
 import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.StartupTracer;
 import com.google.android.exoplayer2.util.Util;
 
 import java.io.EOFException;
@@ -58,6 +59,13 @@ import java.io.IOException;
    */
   private static final long DEFAULT_LAST_SAMPLE_DURATION_US = 10000;
 
+  /**
+   * The minimum change of the time-shift window, in microseconds, for which the timeline is
+   * refreshed between seeks. Both ends of the window move with the stream, so a short interval
+   * would refresh the timeline continuously.
+   */
+  private static final long TIME_SHIFT_WINDOW_REFRESH_INTERVAL_US = 10000000;
+
   private final Uri uri;
   private final DataSource dataSource;
   private final int minLoadableRetryCount;
@@ -66,6 +74,9 @@ import java.io.IOException;
   private final MediaSource.Listener sourceListener;
   private final Allocator allocator;
   private final String customCacheKey;
+  private final boolean lockFreeSampleQueues;
+  private final StartupTracer startupTracer;
+  private final int timeShiftBufferSize;
   private final Loader loader;
   private final ExtractorHolder extractorHolder;
   private final ConditionVariable loadCondition;
@@ -91,6 +102,9 @@ import java.io.IOException;
 
   private long lastSeekPositionUs;
   private long pendingResetPositionUs;
+  private long timeShiftWindowStartUs;
+  private long timeShiftWindowEndUs;
+  private boolean timeShiftWindowRefreshPending;
 
   private int extractedSamplesCountAtStartOfLoad;
   private boolean loadingFinished;
@@ -107,11 +121,18 @@ import java.io.IOException;
    * @param allocator An {@link Allocator} from which to obtain media buffer allocations.
    * @param customCacheKey A custom key that uniquely identifies the original stream. Used for cache
    *     indexing. May be null.
+   * @param lockFreeSampleQueues Whether the sample queues should use lock-free sample information
+   *     queues.
+   * @param startupTracer A tracer on which start-up stages are marked. May be null.
+   * @param timeShiftBufferSize The number of bytes of read sample data that each sample queue
+   *     should keep, so that seeks back into the stream can be served without reloading. Zero if
+   *     read samples should be discarded.
    */
   public ExtractorMediaPeriod(Uri uri, DataSource dataSource, Extractor[] extractors,
       int minLoadableRetryCount, Handler eventHandler,
       ExtractorMediaSource.EventListener eventListener, MediaSource.Listener sourceListener,
-      Allocator allocator, String customCacheKey) {
+      Allocator allocator, String customCacheKey, boolean lockFreeSampleQueues,
+      StartupTracer startupTracer, int timeShiftBufferSize) {
     this.uri = uri;
     this.dataSource = dataSource;
     this.minLoadableRetryCount = minLoadableRetryCount;
@@ -120,6 +141,9 @@ import java.io.IOException;
     this.sourceListener = sourceListener;
     this.allocator = allocator;
     this.customCacheKey = customCacheKey;
+    this.lockFreeSampleQueues = lockFreeSampleQueues;
+    this.startupTracer = startupTracer;
+    this.timeShiftBufferSize = timeShiftBufferSize;
     loader = new Loader("Loader:ExtractorMediaPeriod");
     extractorHolder = new ExtractorHolder(extractors, this);
     loadCondition = new ConditionVariable();
@@ -238,7 +262,9 @@ import java.io.IOException;
 
   @Override
   public void discardBuffer(long positionUs) {
-    // Do nothing.
+    if (timeShiftBufferSize != 0) {
+      maybeRefreshTimeShiftWindow();
+    }
   }
 
   @Override
@@ -283,11 +309,16 @@ import java.io.IOException;
       for (int i = 0; i < trackCount; i++) {
         if (trackIsAudioVideoFlags[i]) {
           largestQueuedTimestampUs = Math.min(largestQueuedTimestampUs,
-              sampleQueues.valueAt(i).getLargestQueuedTimestampUs());
+              getLargestBufferedTimestampUs(sampleQueues.valueAt(i)));
         }
       }
     } else {
-      largestQueuedTimestampUs = getLargestQueuedTimestampUs();
+      largestQueuedTimestampUs = Long.MIN_VALUE;
+      int trackCount = sampleQueues.size();
+      for (int i = 0; i < trackCount; i++) {
+        largestQueuedTimestampUs = Math.max(largestQueuedTimestampUs,
+            getLargestBufferedTimestampUs(sampleQueues.valueAt(i)));
+      }
     }
     return largestQueuedTimestampUs == Long.MIN_VALUE ? lastSeekPositionUs
         : largestQueuedTimestampUs;
@@ -295,19 +326,33 @@ import java.io.IOException;
 
   @Override
   public long seekToUs(long positionUs) {
-    // Treat all seeks into non-seekable media as being to t=0.
-    positionUs = seekMap.isSeekable() ? positionUs : 0;
-    lastSeekPositionUs = positionUs;
+    // Treat all seeks into non-seekable media as being to t=0, unless the sample queues keep read
+    // samples that the seek can be served from.
+    if (!seekMap.isSeekable()) {
+      if (timeShiftBufferSize == 0) {
+        positionUs = 0;
+      } else {
+        // The published window may be stale, so clamp to the samples that are still kept.
+        long windowStartUs = getTimeShiftWindowStartUs();
+        if (windowStartUs != C.TIME_UNSET) {
+          positionUs = Math.max(positionUs, windowStartUs);
+        }
+        timeShiftWindowRefreshPending = true;
+      }
+    }
     int trackCount = sampleQueues.size();
     // If we're not pending a reset, see if we can seek within the sample queues.
     boolean seekInsideBuffer = !isPendingReset();
     for (int i = 0; seekInsideBuffer && i < trackCount; i++) {
       if (trackEnabledStates[i]) {
-        seekInsideBuffer = sampleQueues.valueAt(i).skipToKeyframeBefore(positionUs, false);
+        DefaultTrackOutput sampleQueue = sampleQueues.valueAt(i);
+        seekInsideBuffer = sampleQueue.rewindToKeyframeBefore(positionUs)
+            || sampleQueue.skipToKeyframeBefore(positionUs, false);
       }
     }
     // If we failed to seek within the sample queues, we need to restart.
     if (!seekInsideBuffer) {
+      positionUs = seekMap.isSeekable() ? positionUs : 0;
       pendingResetPositionUs = positionUs;
       loadingFinished = false;
       if (loader.isLoading()) {
@@ -318,6 +363,7 @@ import java.io.IOException;
         }
       }
     }
+    lastSeekPositionUs = positionUs;
     notifyReset = false;
     return positionUs;
   }
@@ -402,7 +448,7 @@ import java.io.IOException;
   public TrackOutput track(int id, int type) {
     DefaultTrackOutput trackOutput = sampleQueues.get(id);
     if (trackOutput == null) {
-      trackOutput = new DefaultTrackOutput(allocator);
+      trackOutput = new DefaultTrackOutput(allocator, lockFreeSampleQueues, timeShiftBufferSize);
       trackOutput.setUpstreamFormatChangeListener(this);
       sampleQueues.put(id, trackOutput);
     }
@@ -455,6 +501,9 @@ import java.io.IOException;
     }
     tracks = new TrackGroupArray(trackArray);
     prepared = true;
+    if (startupTracer != null) {
+      startupTracer.mark(StartupTracer.STAGE_PREPARED);
+    }
     sourceListener.onSourceInfoRefreshed(
         new SinglePeriodTimeline(durationUs, seekMap.isSeekable()), null);
     callback.onPrepared(this);
@@ -532,6 +581,71 @@ import java.io.IOException;
     return largestQueuedTimestampUs;
   }
 
+  /**
+   * Returns the largest queued timestamp of a sample queue, less the time by which reading lags
+   * behind the newest sample that the queue keeps for time-shifting.
+   */
+  private static long getLargestBufferedTimestampUs(DefaultTrackOutput sampleQueue) {
+    long largestQueuedTimestampUs = sampleQueue.getLargestQueuedTimestampUs();
+    return largestQueuedTimestampUs == Long.MIN_VALUE ? Long.MIN_VALUE
+        : largestQueuedTimestampUs - sampleQueue.getTimeShiftUs();
+  }
+
+  /**
+   * Publishes a dynamic timeline whose seekable window spans the samples kept for time-shifting,
+   * if a seek has happened since the last refresh or the window has moved by at least
+   * {@link #TIME_SHIFT_WINDOW_REFRESH_INTERVAL_US}. Media whose seek map is seekable keep the
+   * timeline derived from the seek map.
+   */
+  private void maybeRefreshTimeShiftWindow() {
+    if (!prepared || seekMap.isSeekable() || isPendingReset() || enabledTrackCount == 0) {
+      return;
+    }
+    long windowStartUs = getTimeShiftWindowStartUs();
+    if (windowStartUs == C.TIME_UNSET) {
+      return;
+    }
+    long windowEndUs = Long.MAX_VALUE;
+    int trackCount = sampleQueues.size();
+    for (int i = 0; i < trackCount; i++) {
+      if (trackEnabledStates[i]) {
+        windowEndUs = Math.min(windowEndUs, sampleQueues.valueAt(i).getLargestQueuedTimestampUs());
+      }
+    }
+    if (windowEndUs <= windowStartUs
+        || (!timeShiftWindowRefreshPending
+        && Math.abs(windowStartUs - timeShiftWindowStartUs) < TIME_SHIFT_WINDOW_REFRESH_INTERVAL_US
+        && Math.abs(windowEndUs - timeShiftWindowEndUs) < TIME_SHIFT_WINDOW_REFRESH_INTERVAL_US)) {
+      return;
+    }
+    timeShiftWindowRefreshPending = false;
+    timeShiftWindowStartUs = windowStartUs;
+    timeShiftWindowEndUs = windowEndUs;
+    long windowDurationUs = windowEndUs - windowStartUs;
+    sourceListener.onSourceInfoRefreshed(new SinglePeriodTimeline(C.TIME_UNSET, windowDurationUs,
+        windowStartUs, windowDurationUs, true, true), null);
+  }
+
+  /**
+   * Returns the earliest time to which all enabled tracks can seek back into the samples kept for
+   * time-shifting, or {@link C#TIME_UNSET} if an enabled track keeps no samples.
+   */
+  private long getTimeShiftWindowStartUs() {
+    long windowStartUs = C.TIME_UNSET;
+    int trackCount = sampleQueues.size();
+    for (int i = 0; i < trackCount; i++) {
+      if (trackEnabledStates[i]) {
+        long trackWindowStartUs = sampleQueues.valueAt(i).getTimeShiftWindowStartUs();
+        if (trackWindowStartUs == C.TIME_UNSET) {
+          return C.TIME_UNSET;
+        }
+        windowStartUs = windowStartUs == C.TIME_UNSET ? trackWindowStartUs
+            : Math.max(windowStartUs, trackWindowStartUs);
+      }
+    }
+    return windowStartUs;
+  }
+
   private boolean isPendingReset() {
     return pendingResetPositionUs != C.TIME_UNSET;
   }
@@ -639,12 +753,21 @@ import java.io.IOException;
         ExtractorInput input = null;
         try {
           long position = positionHolder.position;
+          if (startupTracer != null) {
+            startupTracer.mark(StartupTracer.STAGE_OPEN_STARTED);
+          }
           length = dataSource.open(new DataSpec(uri, position, C.LENGTH_UNSET, customCacheKey));
+          if (startupTracer != null) {
+            startupTracer.mark(StartupTracer.STAGE_OPENED);
+          }
           if (length != C.LENGTH_UNSET) {
             length += position;
           }
           input = new DefaultExtractorInput(dataSource, position, length);
           Extractor extractor = extractorHolder.selectExtractor(input, dataSource.getUri());
+          if (startupTracer != null) {
+            startupTracer.mark(StartupTracer.STAGE_EXTRACTOR_SELECTED);
+          }
           if (pendingExtractorSeek) {
             extractor.seek(position, seekTimeUs);
             pendingExtractorSeek = false;
@@ -22,11 +22,13 @@ import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.Timeline;
 import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
+import com.google.android.exoplayer2.extractor.DefaultTrackOutput;
 import com.google.android.exoplayer2.extractor.Extractor;
 import com.google.android.exoplayer2.extractor.ExtractorsFactory;
 import com.google.android.exoplayer2.upstream.Allocator;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.StartupTracer;
 
 import java.io.IOException;
 
@@ -82,6 +84,9 @@ public final class ExtractorMediaSource implements MediaSource, MediaSource.List
   private final EventListener eventListener;
   private final Timeline.Period period;
   private final String customCacheKey;
+  private final boolean lockFreeSampleQueues;
+  private final StartupTracer startupTracer;
+  private final int timeShiftBufferSize;
 
   private MediaSource.Listener sourceListener;
   private Timeline timeline;
@@ -135,6 +140,85 @@ public final class ExtractorMediaSource implements MediaSource, MediaSource.List
   public ExtractorMediaSource(Uri uri, DataSource.Factory dataSourceFactory,
       ExtractorsFactory extractorsFactory, int minLoadableRetryCount, Handler eventHandler,
       EventListener eventListener, String customCacheKey) {
+    this(uri, dataSourceFactory, extractorsFactory, minLoadableRetryCount, eventHandler,
+        eventListener, customCacheKey, false);
+  }
+
+  /**
+   * @param uri The {@link Uri} of the media stream.
+   * @param dataSourceFactory A factory for {@link DataSource}s to read the media.
+   * @param extractorsFactory A factory for {@link Extractor}s to process the media stream. If the
+   *     possible formats are known, pass a factory that instantiates extractors for those formats.
+   *     Otherwise, pass a {@link DefaultExtractorsFactory} to use default extractors.
+   * @param minLoadableRetryCount The minimum number of times to retry if a loading error occurs.
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   * @param customCacheKey A custom key that uniquely identifies the original stream. Used for cache
+   *     indexing. May be null.
+   * @param lockFreeSampleQueues Whether the sample queues should hand samples from the loading
+   *     thread to the playback thread without locking. See
+   *     {@link DefaultTrackOutput#DefaultTrackOutput(Allocator, boolean)}.
+   */
+  public ExtractorMediaSource(Uri uri, DataSource.Factory dataSourceFactory,
+      ExtractorsFactory extractorsFactory, int minLoadableRetryCount, Handler eventHandler,
+      EventListener eventListener, String customCacheKey, boolean lockFreeSampleQueues) {
+    this(uri, dataSourceFactory, extractorsFactory, minLoadableRetryCount, eventHandler,
+        eventListener, customCacheKey, lockFreeSampleQueues, null);
+  }
+
+  /**
+   * @param uri The {@link Uri} of the media stream.
+   * @param dataSourceFactory A factory for {@link DataSource}s to read the media.
+   * @param extractorsFactory A factory for {@link Extractor}s to process the media stream. If the
+   *     possible formats are known, pass a factory that instantiates extractors for those formats.
+   *     Otherwise, pass a {@link DefaultExtractorsFactory} to use default extractors.
+   * @param minLoadableRetryCount The minimum number of times to retry if a loading error occurs.
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   * @param customCacheKey A custom key that uniquely identifies the original stream. Used for cache
+   *     indexing. May be null.
+   * @param lockFreeSampleQueues Whether the sample queues should hand samples from the loading
+   *     thread to the playback thread without locking. See
+   *     {@link DefaultTrackOutput#DefaultTrackOutput(Allocator, boolean)}.
+   * @param startupTracer A tracer on which opening, extractor selection and preparation are
+   *     marked, typically {@link com.google.android.exoplayer2.SimpleExoPlayer#getStartupTracer()}.
+   *     May be null.
+   */
+  public ExtractorMediaSource(Uri uri, DataSource.Factory dataSourceFactory,
+      ExtractorsFactory extractorsFactory, int minLoadableRetryCount, Handler eventHandler,
+      EventListener eventListener, String customCacheKey, boolean lockFreeSampleQueues,
+      StartupTracer startupTracer) {
+    this(uri, dataSourceFactory, extractorsFactory, minLoadableRetryCount, eventHandler,
+        eventListener, customCacheKey, lockFreeSampleQueues, startupTracer, 0);
+  }
+
+  /**
+   * @param uri The {@link Uri} of the media stream.
+   * @param dataSourceFactory A factory for {@link DataSource}s to read the media.
+   * @param extractorsFactory A factory for {@link Extractor}s to process the media stream. If the
+   *     possible formats are known, pass a factory that instantiates extractors for those formats.
+   *     Otherwise, pass a {@link DefaultExtractorsFactory} to use default extractors.
+   * @param minLoadableRetryCount The minimum number of times to retry if a loading error occurs.
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   * @param customCacheKey A custom key that uniquely identifies the original stream. Used for cache
+   *     indexing. May be null.
+   * @param lockFreeSampleQueues Whether the sample queues should hand samples from the loading
+   *     thread to the playback thread without locking. See
+   *     {@link DefaultTrackOutput#DefaultTrackOutput(Allocator, boolean)}.
+   * @param startupTracer A tracer on which opening, extractor selection and preparation are
+   *     marked, typically {@link com.google.android.exoplayer2.SimpleExoPlayer#getStartupTracer()}.
+   *     May be null.
+   * @param timeShiftBufferSize The number of bytes of played sample data to keep for each track, so
+   *     that seeks back into a live stream are served without reconnecting. The timeline of a
+   *     stream that cannot otherwise be seeked then becomes dynamic, with a seekable window that
+   *     spans the kept samples. Zero if played samples should be discarded. See
+   *     {@link DefaultTrackOutput#DefaultTrackOutput(Allocator, boolean, int)}.
+   */
+  public ExtractorMediaSource(Uri uri, DataSource.Factory dataSourceFactory,
+      ExtractorsFactory extractorsFactory, int minLoadableRetryCount, Handler eventHandler,
+      EventListener eventListener, String customCacheKey, boolean lockFreeSampleQueues,
+      StartupTracer startupTracer, int timeShiftBufferSize) {
     this.uri = uri;
     this.dataSourceFactory = dataSourceFactory;
     this.extractorsFactory = extractorsFactory;
@@ -142,6 +226,9 @@ public final class ExtractorMediaSource implements MediaSource, MediaSource.List
     this.eventHandler = eventHandler;
     this.eventListener = eventListener;
     this.customCacheKey = customCacheKey;
+    this.lockFreeSampleQueues = lockFreeSampleQueues;
+    this.startupTracer = startupTracer;
+    this.timeShiftBufferSize = timeShiftBufferSize;
     period = new Timeline.Period();
   }
 
@@ -162,7 +249,7 @@ public final class ExtractorMediaSource implements MediaSource, MediaSource.List
     Assertions.checkArgument(index == 0);
     return new ExtractorMediaPeriod(uri, dataSourceFactory.createDataSource(),
         extractorsFactory.createExtractors(), minLoadableRetryCount, eventHandler, eventListener,
-        this, allocator, customCacheKey);
+        this, allocator, customCacheKey, lockFreeSampleQueues, startupTracer, timeShiftBufferSize);
   }
 
   @Override
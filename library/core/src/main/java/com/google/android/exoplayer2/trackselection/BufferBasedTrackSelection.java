@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.trackselection;
+
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+
+/**
+ * A buffer based adaptive {@link TrackSelection} in the style of BOLA, whose selected track is
+ * chosen mainly from the duration of buffered media and only limited by the bandwidth estimate.
+ * <p>
+ * Each track is given a utility, the logarithm of its bitrate relative to the lowest bitrate. With
+ * a full buffer the selection maximizes utility, with an empty buffer it minimizes the bitrate, and
+ * in between the buffer level decides. As long as less than the minimum buffer is available, the
+ * bandwidth estimate decides instead, so that playback starts at a sensible quality. Switching up
+ * is limited to the higher of the current track and the track the bandwidth estimate allows, which
+ * prevents the selection from oscillating between neighbouring tracks.
+ *
+ * @see <a href="https://arxiv.org/abs/1601.06748">BOLA: Near-Optimal Bitrate Adaptation for Online
+ *     Videos</a>
+ */
+public class BufferBasedTrackSelection extends BaseTrackSelection {
+
+  /**
+   * Factory for {@link BufferBasedTrackSelection} instances.
+   */
+  public static final class Factory implements TrackSelection.Factory {
+
+    private final BandwidthMeter bandwidthMeter;
+    private final int maxInitialBitrate;
+    private final int minBufferMs;
+    private final int stableBufferMs;
+    private final float bandwidthFraction;
+
+    /**
+     * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+     */
+    public Factory(BandwidthMeter bandwidthMeter) {
+      this(bandwidthMeter, DEFAULT_MAX_INITIAL_BITRATE, DEFAULT_MIN_BUFFER_MS,
+          DEFAULT_STABLE_BUFFER_MS, DEFAULT_BANDWIDTH_FRACTION);
+    }
+
+    /**
+     * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+     * @param maxInitialBitrate The maximum bitrate in bits per second that should be assumed
+     *     when a bandwidth estimate is unavailable.
+     * @param minBufferMs The duration of buffered media below which the selection follows the
+     *     bandwidth estimate, and at which the buffer based selection picks the lowest bitrate.
+     * @param stableBufferMs The duration of buffered media at which the buffer based selection
+     *     picks the highest bitrate. Must be greater than {@code minBufferMs} and should not be
+     *     greater than the amount of media the {@link com.google.android.exoplayer2.LoadControl}
+     *     buffers.
+     * @param bandwidthFraction The fraction of the available bandwidth that the selection should
+     *     consider available for use.
+     */
+    public Factory(BandwidthMeter bandwidthMeter, int maxInitialBitrate, int minBufferMs,
+        int stableBufferMs, float bandwidthFraction) {
+      this.bandwidthMeter = bandwidthMeter;
+      this.maxInitialBitrate = maxInitialBitrate;
+      this.minBufferMs = minBufferMs;
+      this.stableBufferMs = stableBufferMs;
+      this.bandwidthFraction = bandwidthFraction;
+    }
+
+    @Override
+    public BufferBasedTrackSelection createTrackSelection(TrackGroup group, int... tracks) {
+      return new BufferBasedTrackSelection(group, tracks, bandwidthMeter, maxInitialBitrate,
+          minBufferMs, stableBufferMs, bandwidthFraction);
+    }
+
+  }
+
+  public static final int DEFAULT_MAX_INITIAL_BITRATE = 800000;
+  public static final int DEFAULT_MIN_BUFFER_MS = 5000;
+  public static final int DEFAULT_STABLE_BUFFER_MS = 25000;
+  public static final float DEFAULT_BANDWIDTH_FRACTION = 0.75f;
+
+  private final BandwidthMeter bandwidthMeter;
+  private final int maxInitialBitrate;
+  private final long minBufferUs;
+  private final float bandwidthFraction;
+  private final double[] utilities;
+  private final double gp;
+  private final double vp;
+
+  private int selectedIndex;
+  private int reason;
+
+  /**
+   * @param group The {@link TrackGroup}.
+   * @param tracks The indices of the selected tracks within the {@link TrackGroup}. Must not be
+   *     empty. May be in any order.
+   * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+   */
+  public BufferBasedTrackSelection(TrackGroup group, int[] tracks,
+      BandwidthMeter bandwidthMeter) {
+    this(group, tracks, bandwidthMeter, DEFAULT_MAX_INITIAL_BITRATE, DEFAULT_MIN_BUFFER_MS,
+        DEFAULT_STABLE_BUFFER_MS, DEFAULT_BANDWIDTH_FRACTION);
+  }
+
+  /**
+   * @param group The {@link TrackGroup}.
+   * @param tracks The indices of the selected tracks within the {@link TrackGroup}. Must not be
+   *     empty. May be in any order.
+   * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+   * @param maxInitialBitrate The maximum bitrate in bits per second that should be assumed when a
+   *     bandwidth estimate is unavailable.
+   * @param minBufferMs The duration of buffered media below which the selection follows the
+   *     bandwidth estimate, and at which the buffer based selection picks the lowest bitrate.
+   * @param stableBufferMs The duration of buffered media at which the buffer based selection picks
+   *     the highest bitrate. Must be greater than {@code minBufferMs}.
+   * @param bandwidthFraction The fraction of the available bandwidth that the selection should
+   *     consider available for use.
+   */
+  public BufferBasedTrackSelection(TrackGroup group, int[] tracks, BandwidthMeter bandwidthMeter,
+      int maxInitialBitrate, int minBufferMs, int stableBufferMs, float bandwidthFraction) {
+    super(group, tracks);
+    this.bandwidthMeter = bandwidthMeter;
+    this.maxInitialBitrate = maxInitialBitrate;
+    this.minBufferUs = minBufferMs * 1000L;
+    this.bandwidthFraction = bandwidthFraction;
+    // Formats are sorted by decreasing bitrate, so the last one has the lowest.
+    utilities = new double[length];
+    double lowestBitrate = getBitrate(length - 1);
+    for (int i = 0; i < length; i++) {
+      utilities[i] = Math.log(getBitrate(i) / lowestBitrate) + 1;
+    }
+    // Choose the control parameters so that the lowest bitrate is picked at the minimum buffer and
+    // the highest at the stable buffer.
+    double minBufferSeconds = minBufferMs / 1000d;
+    double stableBufferSeconds = Math.max(stableBufferMs, minBufferMs + 1) / 1000d;
+    gp = (utilities[0] - 1) / (stableBufferSeconds / minBufferSeconds - 1);
+    vp = minBufferSeconds / gp;
+    selectedIndex = determineThroughputSelectedIndex(Long.MIN_VALUE);
+    reason = C.SELECTION_REASON_INITIAL;
+  }
+
+  @Override
+  public void updateSelectedTrack(long bufferedDurationUs) {
+    long nowMs = SystemClock.elapsedRealtime();
+    int currentSelectedIndex = selectedIndex;
+    int throughputSelectedIndex = determineThroughputSelectedIndex(nowMs);
+    if (bufferedDurationUs < minBufferUs || length == 1 || gp <= 0) {
+      // Not enough buffer for the buffer level to be meaningful.
+      selectedIndex = throughputSelectedIndex;
+    } else {
+      int bufferSelectedIndex = determineBufferSelectedIndex(bufferedDurationUs, nowMs);
+      selectedIndex = bufferSelectedIndex;
+      if (bufferSelectedIndex < currentSelectedIndex
+          && !isBlacklisted(currentSelectedIndex, nowMs)) {
+        // Switching up. Go no higher than the current track or the track the bandwidth allows,
+        // whichever is higher.
+        selectedIndex = Math.max(bufferSelectedIndex,
+            Math.min(currentSelectedIndex, throughputSelectedIndex));
+      }
+    }
+    if (selectedIndex != currentSelectedIndex) {
+      reason = C.SELECTION_REASON_ADAPTIVE;
+    }
+  }
+
+  @Override
+  public int getSelectedIndex() {
+    return selectedIndex;
+  }
+
+  @Override
+  public int getSelectionReason() {
+    return reason;
+  }
+
+  @Override
+  public Object getSelectionData() {
+    return null;
+  }
+
+  /**
+   * Returns the index that maximizes the BOLA objective for the given buffer level.
+   *
+   * @param bufferedDurationUs The duration of buffered media, in microseconds.
+   * @param nowMs The current time in the timebase of {@link SystemClock#elapsedRealtime()}.
+   */
+  private int determineBufferSelectedIndex(long bufferedDurationUs, long nowMs) {
+    double bufferedSeconds = bufferedDurationUs / (double) C.MICROS_PER_SECOND;
+    int bestIndex = C.INDEX_UNSET;
+    double bestScore = 0;
+    for (int i = 0; i < length; i++) {
+      if (!isBlacklisted(i, nowMs)) {
+        double score = (vp * (utilities[i] + gp) - bufferedSeconds) / getBitrate(i);
+        if (bestIndex == C.INDEX_UNSET || score >= bestScore) {
+          // Ties go to the lower bitrate, which comes later.
+          bestIndex = i;
+          bestScore = score;
+        }
+      }
+    }
+    return bestIndex == C.INDEX_UNSET ? length - 1 : bestIndex;
+  }
+
+  /**
+   * Returns the index of the highest bitrate that fits the bandwidth estimate.
+   *
+   * @param nowMs The current time in the timebase of {@link SystemClock#elapsedRealtime()}, or
+   *     {@link Long#MIN_VALUE} to ignore blacklisting.
+   */
+  private int determineThroughputSelectedIndex(long nowMs) {
+    long bitrateEstimate = bandwidthMeter.getBitrateEstimate();
+    long effectiveBitrate = bitrateEstimate == BandwidthMeter.NO_ESTIMATE
+        ? maxInitialBitrate : (long) (bitrateEstimate * bandwidthFraction);
+    int lowestBitrateNonBlacklistedIndex = 0;
+    for (int i = 0; i < length; i++) {
+      if (nowMs == Long.MIN_VALUE || !isBlacklisted(i, nowMs)) {
+        if (getFormat(i).bitrate <= effectiveBitrate) {
+          return i;
+        } else {
+          lowestBitrateNonBlacklistedIndex = i;
+        }
+      }
+    }
+    return lowestBitrateNonBlacklistedIndex;
+  }
+
+  private double getBitrate(int index) {
+    // Bitrates are mandatory in HLS master playlists, but guard against missing values.
+    return Math.max(getFormat(index).bitrate, 1);
+  }
+
+}
@@ -15,8 +15,12 @@
  */
 package com.google.android.exoplayer2.upstream;
 
+import java.nio.ByteBuffer;
+
 /**
- * An allocation within a byte array.
+ * An allocation within a byte array or a direct {@link ByteBuffer}.
+ * <p>
+ * Exactly one of {@link #data} and {@link #directData} is non-null.
  * <p>
  * The allocation's length is obtained by calling {@link Allocator#getIndividualAllocationLength()}
  * on the {@link Allocator} from which it was obtained.
@@ -25,10 +29,20 @@ public final class Allocation {
 
   /**
    * The array containing the allocated space. The allocated space might not be at the start of the
-   * array, and so {@link #translateOffset(int)} method must be used when indexing into it.
+   * array, and so {@link #translateOffset(int)} method must be used when indexing into it. Null if
+   * the allocation is backed by {@link #directData}.
    */
   public final byte[] data;
 
+  /**
+   * The direct buffer containing the allocated space, or null if the allocation is backed by
+   * {@link #data}. The allocated space might not be at the start of the buffer, and so
+   * {@link #translateOffset(int)} must be used when indexing into it. The buffer's position and
+   * limit are not used, and callers should read and write through a
+   * {@link ByteBuffer#duplicate()}.
+   */
+  public final ByteBuffer directData;
+
   private final int offset;
 
   /**
@@ -37,14 +51,26 @@ public final class Allocation {
    */
   public Allocation(byte[] data, int offset) {
     this.data = data;
+    this.directData = null;
+    this.offset = offset;
+  }
+
+  /**
+   * @param directData The direct buffer containing the allocated space.
+   * @param offset The offset of the allocated space within the buffer.
+   */
+  public Allocation(ByteBuffer directData, int offset) {
+    this.data = null;
+    this.directData = directData;
     this.offset = offset;
   }
 
   /**
-   * Translates a zero-based offset into the allocation to the corresponding {@link #data} offset.
+   * Translates a zero-based offset into the allocation to the corresponding offset in
+   * {@link #data} or {@link #directData}.
    *
    * @param offset The zero-based offset to translate.
-   * @return The corresponding offset in {@link #data}.
+   * @return The corresponding offset in {@link #data} or {@link #directData}.
    */
   public int translateOffset(int offset) {
     return this.offset + offset;
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+/**
+ * Derives a bitrate estimate from samples of transferred bytes. Used by
+ * {@link DefaultBandwidthMeter}.
+ * <p>
+ * Calls to an estimator are serialized by the meter that owns it, so implementations need not be
+ * thread safe.
+ */
+public interface BandwidthEstimator {
+
+  /**
+   * Adds a sample.
+   *
+   * @param bytes The number of bytes transferred.
+   * @param elapsedMs The time taken to transfer the bytes, in milliseconds. Always greater than 0.
+   */
+  void addSample(long bytes, long elapsedMs);
+
+  /**
+   * Returns the estimated bandwidth in bits/sec, or {@link BandwidthMeter#NO_ESTIMATE} if the
+   * samples added so far are not sufficient for an estimate.
+   */
+  long getBitrateEstimate();
+
+}
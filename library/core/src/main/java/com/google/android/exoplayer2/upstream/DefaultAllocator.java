@@ -23,7 +23,7 @@ import java.util.Arrays;
 /**
  * Default implementation of {@link Allocator}.
  */
-public final class DefaultAllocator implements Allocator {
+public final class DefaultAllocator implements TrimmableAllocator {
 
   private static final int AVAILABLE_EXTRA_CAPACITY = 100;
 
@@ -78,12 +78,14 @@ public final class DefaultAllocator implements Allocator {
     singleAllocationReleaseHolder = new Allocation[1];
   }
 
+  @Override
   public synchronized void reset() {
     if (trimOnReset) {
       setTargetBufferSize(0);
     }
   }
 
+  @Override
   public synchronized void setTargetBufferSize(int targetBufferSize) {
     boolean targetBufferSizeReduced = targetBufferSize < this.targetBufferSize;
     this.targetBufferSize = targetBufferSize;
@@ -118,9 +120,10 @@ public final class DefaultAllocator implements Allocator {
           Math.max(availableAllocations.length * 2, availableCount + allocations.length));
     }
     for (Allocation allocation : allocations) {
-      // Weak sanity check that the allocation probably originated from this pool.
-      Assertions.checkArgument(allocation.data == initialAllocationBlock
-          || allocation.data.length == individualAllocationSize);
+      // Weak sanity check that the allocation probably originated from this pool. Direct
+      // allocations have no array and belong to a DirectAllocator.
+      Assertions.checkArgument(allocation.data != null && (allocation.data == initialAllocationBlock
+          || allocation.data.length == individualAllocationSize));
       availableAllocations[availableCount++] = allocation;
     }
     allocatedCount -= allocations.length;
@@ -19,32 +19,43 @@ import android.os.Handler;
 import android.os.SystemClock;
 
 import com.google.android.exoplayer2.util.Assertions;
-import com.google.android.exoplayer2.util.SlidingPercentile;
 
 /**
- * Estimates bandwidth by listening to data transfers. The bandwidth estimate is calculated using
- * a {@link SlidingPercentile} and is updated each time a transfer ends.
+ * Estimates bandwidth by listening to data transfers. Samples are passed to a
+ * {@link BandwidthEstimator}, which by default is a {@link SlidingPercentileBandwidthEstimator}.
+ * <p>
+ * A sample is taken each time a transfer ends and, if a slice duration is set, each time a
+ * transfer has been running for that duration. Slicing is needed for transfers that may never end,
+ * like live streams.
  */
 public final class DefaultBandwidthMeter implements BandwidthMeter, TransferListener<Object> {
 
   /**
    * The default maximum weight for the sliding window.
    */
-  public static final int DEFAULT_MAX_WEIGHT = 2000;
+  public static final int DEFAULT_MAX_WEIGHT =
+      SlidingPercentileBandwidthEstimator.DEFAULT_MAX_WEIGHT;
 
-  private static final int ELAPSED_MILLIS_FOR_ESTIMATE = 2000;
-  private static final int BYTES_TRANSFERRED_FOR_ESTIMATE = 512 * 1024;
+  /**
+   * Slice duration that disables slicing. Samples are only taken when transfers end.
+   */
+  public static final int SLICE_DURATION_TRANSFER_END = 0;
+
+  /**
+   * The default slice duration for meters that slice transfers, in milliseconds.
+   */
+  public static final int DEFAULT_SLICE_DURATION_MS = 1000;
 
   private final Handler eventHandler;
   private final EventListener eventListener;
-  private final SlidingPercentile slidingPercentile;
+  private final BandwidthEstimator bandwidthEstimator;
+  private final int sliceDurationMs;
+  private final long initialBitrateEstimate;
 
   private int streamCount;
   private long sampleStartTimeMs;
   private long sampleBytesTransferred;
 
-  private long totalElapsedTimeMs;
-  private long totalBytesTransferred;
   private long bitrateEstimate;
 
   public DefaultBandwidthMeter() {
@@ -56,10 +67,29 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
   }
 
   public DefaultBandwidthMeter(Handler eventHandler, EventListener eventListener, int maxWeight) {
+    this(eventHandler, eventListener, new SlidingPercentileBandwidthEstimator(maxWeight),
+        SLICE_DURATION_TRANSFER_END, NO_ESTIMATE);
+  }
+
+  /**
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   * @param bandwidthEstimator The estimator that samples are passed to.
+   * @param sliceDurationMs The duration after which a running transfer is sampled, in
+   *     milliseconds, or {@link #SLICE_DURATION_TRANSFER_END} to only sample transfers when they
+   *     end.
+   * @param initialBitrateEstimate The estimate to return until the estimator has one, for example
+   *     the last estimate of a previous session on the same type of network, or
+   *     {@link #NO_ESTIMATE}.
+   */
+  public DefaultBandwidthMeter(Handler eventHandler, EventListener eventListener,
+      BandwidthEstimator bandwidthEstimator, int sliceDurationMs, long initialBitrateEstimate) {
     this.eventHandler = eventHandler;
     this.eventListener = eventListener;
-    this.slidingPercentile = new SlidingPercentile(maxWeight);
-    bitrateEstimate = NO_ESTIMATE;
+    this.bandwidthEstimator = bandwidthEstimator;
+    this.sliceDurationMs = sliceDurationMs;
+    this.initialBitrateEstimate = initialBitrateEstimate;
+    bitrateEstimate = initialBitrateEstimate;
   }
 
   @Override
@@ -78,29 +108,33 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
   @Override
   public synchronized void onBytesTransferred(Object source, int bytes) {
     sampleBytesTransferred += bytes;
+    if (sliceDurationMs != SLICE_DURATION_TRANSFER_END) {
+      long nowMs = SystemClock.elapsedRealtime();
+      if (nowMs - sampleStartTimeMs >= sliceDurationMs) {
+        addSample(nowMs);
+        sampleStartTimeMs = nowMs;
+      }
+    }
   }
 
   @Override
   public synchronized void onTransferEnd(Object source) {
     Assertions.checkState(streamCount > 0);
     long nowMs = SystemClock.elapsedRealtime();
+    addSample(nowMs);
+    if (--streamCount > 0) {
+      sampleStartTimeMs = nowMs;
+    }
+  }
+
+  private void addSample(long nowMs) {
     int sampleElapsedTimeMs = (int) (nowMs - sampleStartTimeMs);
-    totalElapsedTimeMs += sampleElapsedTimeMs;
-    totalBytesTransferred += sampleBytesTransferred;
     if (sampleElapsedTimeMs > 0) {
-      float bitsPerSecond = (sampleBytesTransferred * 8000) / sampleElapsedTimeMs;
-      slidingPercentile.addSample((int) Math.sqrt(sampleBytesTransferred), bitsPerSecond);
-      if (totalElapsedTimeMs >= ELAPSED_MILLIS_FOR_ESTIMATE
-          || totalBytesTransferred >= BYTES_TRANSFERRED_FOR_ESTIMATE) {
-        float bitrateEstimateFloat = slidingPercentile.getPercentile(0.5f);
-        bitrateEstimate = Float.isNaN(bitrateEstimateFloat) ? NO_ESTIMATE
-            : (long) bitrateEstimateFloat;
-      }
+      bandwidthEstimator.addSample(sampleBytesTransferred, sampleElapsedTimeMs);
+      long estimate = bandwidthEstimator.getBitrateEstimate();
+      bitrateEstimate = estimate == NO_ESTIMATE ? initialBitrateEstimate : estimate;
     }
     notifyBandwidthSample(sampleElapsedTimeMs, sampleBytesTransferred, bitrateEstimate);
-    if (--streamCount > 0) {
-      sampleStartTimeMs = nowMs;
-    }
     sampleBytesTransferred = 0;
   }
 
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A {@link TrimmableAllocator} whose {@link Allocation}s are backed by direct {@link ByteBuffer}s
+ * rather than by {@code byte[]}s.
+ * <p>
+ * Buffered media lives outside of the Java heap, so holding a large buffer for a long time does not
+ * add to the work done by the garbage collector. Allocations are carved out of a single direct
+ * arena that is created up front and retained for the lifetime of the allocator. If more
+ * allocations are required than fit into the arena, each additional allocation is backed by its own
+ * direct buffer, which is discarded by {@link #trim()} like the allocations of
+ * {@link DefaultAllocator}.
+ * <p>
+ * Allocations obtained from this allocator have a null {@link Allocation#data} and a non-null
+ * {@link Allocation#directData}.
+ */
+public final class DirectAllocator implements TrimmableAllocator {
+
+  private static final int AVAILABLE_EXTRA_CAPACITY = 100;
+
+  private final boolean trimOnReset;
+  private final int individualAllocationSize;
+  private final ByteBuffer arena;
+  private final Allocation[] singleAllocationReleaseHolder;
+
+  private int targetBufferSize;
+  private int allocatedCount;
+  private int availableCount;
+  private Allocation[] availableAllocations;
+
+  /**
+   * @param trimOnReset Whether memory is freed when the allocator is reset. Should be true unless
+   *     the allocator will be re-used by multiple player instances. Memory in the arena is never
+   *     freed.
+   * @param individualAllocationSize The length of each individual {@link Allocation}.
+   * @param arenaAllocationCount The number of allocations that fit into the arena, which is created
+   *     up front. May be zero, in which case every allocation is backed by its own direct buffer.
+   */
+  public DirectAllocator(boolean trimOnReset, int individualAllocationSize,
+      int arenaAllocationCount) {
+    Assertions.checkArgument(individualAllocationSize > 0);
+    Assertions.checkArgument(arenaAllocationCount >= 0);
+    this.trimOnReset = trimOnReset;
+    this.individualAllocationSize = individualAllocationSize;
+    this.availableCount = arenaAllocationCount;
+    this.availableAllocations = new Allocation[arenaAllocationCount + AVAILABLE_EXTRA_CAPACITY];
+    if (arenaAllocationCount > 0) {
+      arena = ByteBuffer.allocateDirect(arenaAllocationCount * individualAllocationSize);
+      // Hand out the lowest offsets first.
+      for (int i = 0; i < arenaAllocationCount; i++) {
+        int allocationOffset = (arenaAllocationCount - 1 - i) * individualAllocationSize;
+        availableAllocations[i] = new Allocation(arena, allocationOffset);
+      }
+    } else {
+      arena = null;
+    }
+    singleAllocationReleaseHolder = new Allocation[1];
+  }
+
+  @Override
+  public synchronized void reset() {
+    if (trimOnReset) {
+      setTargetBufferSize(0);
+    }
+  }
+
+  @Override
+  public synchronized void setTargetBufferSize(int targetBufferSize) {
+    boolean targetBufferSizeReduced = targetBufferSize < this.targetBufferSize;
+    this.targetBufferSize = targetBufferSize;
+    if (targetBufferSizeReduced) {
+      trim();
+    }
+  }
+
+  @Override
+  public synchronized Allocation allocate() {
+    allocatedCount++;
+    Allocation allocation;
+    if (availableCount > 0) {
+      allocation = availableAllocations[--availableCount];
+      availableAllocations[availableCount] = null;
+    } else {
+      allocation = new Allocation(ByteBuffer.allocateDirect(individualAllocationSize), 0);
+    }
+    return allocation;
+  }
+
+  @Override
+  public synchronized void release(Allocation allocation) {
+    singleAllocationReleaseHolder[0] = allocation;
+    release(singleAllocationReleaseHolder);
+  }
+
+  @Override
+  public synchronized void release(Allocation[] allocations) {
+    if (availableCount + allocations.length >= availableAllocations.length) {
+      availableAllocations = Arrays.copyOf(availableAllocations,
+          Math.max(availableAllocations.length * 2, availableCount + allocations.length));
+    }
+    for (Allocation allocation : allocations) {
+      // Weak sanity check that the allocation probably originated from this pool.
+      Assertions.checkArgument(allocation.directData == arena
+          || (allocation.directData != null
+          && allocation.directData.capacity() == individualAllocationSize));
+      availableAllocations[availableCount++] = allocation;
+    }
+    allocatedCount -= allocations.length;
+    // Wake up threads waiting for the allocated size to drop.
+    notifyAll();
+  }
+
+  @Override
+  public synchronized void trim() {
+    int targetAllocationCount = Util.ceilDivide(targetBufferSize, individualAllocationSize);
+    int targetAvailableCount = Math.max(0, targetAllocationCount - allocatedCount);
+    if (targetAvailableCount >= availableCount) {
+      // We're already at or below the target.
+      return;
+    }
+
+    if (arena != null) {
+      // Move the allocations backed by the arena to the front, since they must be retained.
+      int lowIndex = 0;
+      int highIndex = availableCount - 1;
+      while (lowIndex <= highIndex) {
+        Allocation lowAllocation = availableAllocations[lowIndex];
+        if (lowAllocation.directData == arena) {
+          lowIndex++;
+        } else {
+          Allocation highAllocation = availableAllocations[highIndex];
+          if (highAllocation.directData != arena) {
+            highIndex--;
+          } else {
+            availableAllocations[lowIndex++] = highAllocation;
+            availableAllocations[highIndex--] = lowAllocation;
+          }
+        }
+      }
+      // lowIndex is the index of the first allocation not backed by the arena.
+      targetAvailableCount = Math.max(targetAvailableCount, lowIndex);
+      if (targetAvailableCount >= availableCount) {
+        // We're already at or below the target.
+        return;
+      }
+    }
+
+    // Discard allocations beyond the target. Their direct memory is freed once they're collected.
+    Arrays.fill(availableAllocations, targetAvailableCount, availableCount, null);
+    availableCount = targetAvailableCount;
+  }
+
+  @Override
+  public synchronized int getTotalBytesAllocated() {
+    return allocatedCount * individualAllocationSize;
+  }
+
+  @Override
+  public int getIndividualAllocationLength() {
+    return individualAllocationSize;
+  }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+/**
+ * A {@link BandwidthEstimator} that returns an exponentially weighted moving average of the
+ * sampled bitrates. Each sample is weighted by its duration, so the result does not depend on how
+ * a transfer is split into samples. Follows step changes quickly, at the cost of reacting to
+ * outliers.
+ */
+public final class EwmaBandwidthEstimator implements BandwidthEstimator {
+
+  /**
+   * The default half-life, in milliseconds.
+   */
+  public static final int DEFAULT_HALF_LIFE_MS = 3000;
+
+  private final double halfLifeMs;
+
+  private double weightedBitrate;
+  private double totalWeight;
+
+  public EwmaBandwidthEstimator() {
+    this(DEFAULT_HALF_LIFE_MS);
+  }
+
+  /**
+   * @param halfLifeMs The time after which the weight of a sample has halved, in milliseconds.
+   */
+  public EwmaBandwidthEstimator(int halfLifeMs) {
+    this.halfLifeMs = halfLifeMs;
+  }
+
+  @Override
+  public void addSample(long bytes, long elapsedMs) {
+    double alpha = Math.pow(0.5, elapsedMs / halfLifeMs);
+    double bitsPerSecond = (bytes * 8000d) / elapsedMs;
+    weightedBitrate = alpha * weightedBitrate + (1 - alpha) * bitsPerSecond;
+    // The average starts at zero. Dividing by the total weight removes that bias.
+    totalWeight = alpha * totalWeight + (1 - alpha);
+  }
+
+  @Override
+  public long getBitrateEstimate() {
+    return totalWeight == 0 ? BandwidthMeter.NO_ESTIMATE : (long) (weightedBitrate / totalWeight);
+  }
+
+}
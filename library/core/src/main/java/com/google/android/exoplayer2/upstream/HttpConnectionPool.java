@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.util.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Keeps idle HTTP/1.1 connections open so that subsequent requests to the same host can skip the
+ * TCP and TLS handshakes. Used by {@link PooledHttpDataSource}.
+ * <p>
+ * A pool is typically shared by all data sources that load from the same servers, for example all
+ * data sources created by one {@link PooledHttpDataSourceFactory}. Its methods may be called from
+ * any thread.
+ * <p>
+ * Connections are always made directly. Use {@link #isDirect(URL)} to check whether the system
+ * proxy settings allow that for a url.
+ */
+public final class HttpConnectionPool {
+
+  /**
+   * The default maximum number of idle connections kept per host.
+   */
+  public static final int DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST = 4;
+  /**
+   * The default duration for which an idle connection is kept, in milliseconds.
+   */
+  public static final long DEFAULT_KEEP_ALIVE_DURATION_MS = 60 * 1000;
+
+  private static final String TAG = "HttpConnectionPool";
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  private final int maxIdleConnectionsPerHost;
+  private final long keepAliveDurationMs;
+  private final HashMap<String, ArrayDeque<Connection>> idleConnections;
+
+  private ExecutorService preconnectExecutor;
+  private boolean released;
+  private int requestCount;
+  private int reuseCount;
+  private int connectCount;
+  private int idleConnectionCount;
+
+  public HttpConnectionPool() {
+    this(DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST, DEFAULT_KEEP_ALIVE_DURATION_MS);
+  }
+
+  /**
+   * @param maxIdleConnectionsPerHost The maximum number of idle connections kept per host.
+   * @param keepAliveDurationMs The duration for which an idle connection is kept, in milliseconds.
+   */
+  public HttpConnectionPool(int maxIdleConnectionsPerHost, long keepAliveDurationMs) {
+    this.maxIdleConnectionsPerHost = maxIdleConnectionsPerHost;
+    this.keepAliveDurationMs = keepAliveDurationMs;
+    idleConnections = new HashMap<>();
+  }
+
+  /**
+   * Returns whether the system proxy settings connect to {@code url} directly, so that connections
+   * from the pool may be used for it.
+   *
+   * @param url The url.
+   */
+  public static boolean isDirect(URL url) {
+    ProxySelector proxySelector = ProxySelector.getDefault();
+    if (proxySelector == null) {
+      return true;
+    }
+    List<Proxy> proxies;
+    try {
+      proxies = proxySelector.select(url.toURI());
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      return false;
+    }
+    return proxies == null || proxies.isEmpty() || proxies.get(0).type() == Proxy.Type.DIRECT;
+  }
+
+  /**
+   * Opens a connection to the host of {@code url} in the background and adds it to the pool, unless
+   * an idle connection to the host already exists or the host is reached through a proxy. Calling this while the body of one response is
+   * being read lets the handshake for the next request to the host overlap with the transfer.
+   *
+   * @param url The url whose host should be connected to.
+   * @param connectTimeoutMillis The connection timeout, in milliseconds.
+   */
+  public void preconnect(final URL url, final int connectTimeoutMillis) {
+    if (!isDirect(url)) {
+      return;
+    }
+    synchronized (this) {
+      if (released) {
+        return;
+      }
+      ArrayDeque<Connection> connections = idleConnections.get(getKey(url));
+      if (connections != null && !connections.isEmpty()) {
+        return;
+      }
+      if (preconnectExecutor == null) {
+        preconnectExecutor = Util.newSingleThreadExecutor("HttpConnectionPool:Preconnect");
+      }
+      preconnectExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            release(connect(url, connectTimeoutMillis, connectTimeoutMillis));
+          } catch (IOException e) {
+            Log.w(TAG, "Preconnect to " + url.getHost() + " failed", e);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Returns the number of connections that have been handed out for requests.
+   */
+  public synchronized int getRequestCount() {
+    return requestCount;
+  }
+
+  /**
+   * Returns the number of requests that were served by a previously used or preconnected
+   * connection, rather than a newly opened one.
+   */
+  public synchronized int getReuseCount() {
+    return reuseCount;
+  }
+
+  /**
+   * Returns the number of connections that have been opened, including preconnects.
+   */
+  public synchronized int getConnectCount() {
+    return connectCount;
+  }
+
+  /**
+   * Returns the number of connections that are currently idle in the pool.
+   */
+  public synchronized int getIdleConnectionCount() {
+    return idleConnectionCount;
+  }
+
+  /**
+   * Closes all idle connections.
+   */
+  public synchronized void evictAll() {
+    for (ArrayDeque<Connection> connections : idleConnections.values()) {
+      for (Connection connection : connections) {
+        connection.closeQuietly();
+      }
+    }
+    idleConnections.clear();
+    idleConnectionCount = 0;
+  }
+
+  /**
+   * Closes all idle connections and stops pooling. Connections released afterwards are closed.
+   */
+  public synchronized void release() {
+    released = true;
+    evictAll();
+    if (preconnectExecutor != null) {
+      preconnectExecutor.shutdown();
+      preconnectExecutor = null;
+    }
+  }
+
+  /**
+   * Returns an idle connection to the host of {@code url}, or opens a new one.
+   *
+   * @param url The url to connect to.
+   * @param connectTimeoutMillis The connection timeout, in milliseconds.
+   * @param readTimeoutMillis The read timeout, in milliseconds.
+   * @return The connection.
+   * @throws IOException If opening a new connection failed.
+   */
+  /* package */ Connection acquire(URL url, int connectTimeoutMillis, int readTimeoutMillis)
+      throws IOException {
+    String key = getKey(url);
+    synchronized (this) {
+      requestCount++;
+      evictExpiredConnections(SystemClock.elapsedRealtime());
+      ArrayDeque<Connection> connections = idleConnections.get(key);
+      while (connections != null && !connections.isEmpty()) {
+        Connection connection = connections.pollLast();
+        idleConnectionCount--;
+        if (connection.isUsable()) {
+          reuseCount++;
+          connection.reused = true;
+          connection.socket.setSoTimeout(readTimeoutMillis);
+          return connection;
+        }
+        connection.closeQuietly();
+      }
+    }
+    return connect(url, connectTimeoutMillis, readTimeoutMillis);
+  }
+
+  /**
+   * Returns a connection whose last response has been read completely to the pool.
+   *
+   * @param connection The connection.
+   */
+  /* package */ synchronized void release(Connection connection) {
+    if (released) {
+      connection.closeQuietly();
+      return;
+    }
+    long nowMs = SystemClock.elapsedRealtime();
+    evictExpiredConnections(nowMs);
+    ArrayDeque<Connection> connections = idleConnections.get(connection.key);
+    if (connections == null) {
+      connections = new ArrayDeque<>();
+      idleConnections.put(connection.key, connections);
+    }
+    connection.idleSinceMs = nowMs;
+    connections.addLast(connection);
+    idleConnectionCount++;
+    if (connections.size() > maxIdleConnectionsPerHost) {
+      connections.pollFirst().closeQuietly();
+      idleConnectionCount--;
+    }
+  }
+
+  private Connection connect(URL url, int connectTimeoutMillis, int readTimeoutMillis)
+      throws IOException {
+    String host = url.getHost();
+    int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    Socket socket = new Socket();
+    try {
+      socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+      socket.setSoTimeout(readTimeoutMillis);
+      socket.setTcpNoDelay(true);
+      if ("https".equals(url.getProtocol())) {
+        SSLSocket sslSocket = (SSLSocket) HttpsURLConnection.getDefaultSSLSocketFactory()
+            .createSocket(socket, host, port, true);
+        socket = sslSocket;
+        sslSocket.startHandshake();
+        if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(host, sslSocket.getSession())) {
+          throw new SSLPeerUnverifiedException("Hostname " + host + " not verified");
+        }
+      }
+    } catch (IOException e) {
+      closeQuietly(socket);
+      throw e;
+    }
+    synchronized (this) {
+      connectCount++;
+    }
+    return new Connection(getKey(url), socket);
+  }
+
+  private void evictExpiredConnections(long nowMs) {
+    Iterator<ArrayDeque<Connection>> iterator = idleConnections.values().iterator();
+    while (iterator.hasNext()) {
+      ArrayDeque<Connection> connections = iterator.next();
+      // Connections are appended as they become idle, so the oldest ones are at the front.
+      while (!connections.isEmpty()
+          && nowMs - connections.peekFirst().idleSinceMs > keepAliveDurationMs) {
+        connections.pollFirst().closeQuietly();
+        idleConnectionCount--;
+      }
+      if (connections.isEmpty()) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private static String getKey(URL url) {
+    int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    return url.getProtocol() + "://" + Util.toLowerInvariant(url.getHost()) + ":" + port;
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Ignore.
+    }
+  }
+
+  /**
+   * A connection to a host, with buffered streams that outlive individual requests.
+   */
+  /* package */ static final class Connection {
+
+    public final String key;
+    public final Socket socket;
+    public final InputStream inputStream;
+    public final OutputStream outputStream;
+
+    /**
+     * Whether the connection was taken from the pool rather than newly opened.
+     */
+    public boolean reused;
+
+    private long idleSinceMs;
+
+    private Connection(String key, Socket socket) throws IOException {
+      this.key = key;
+      this.socket = socket;
+      inputStream = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+      outputStream = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+    }
+
+    /**
+     * Closes the connection, ignoring any errors.
+     */
+    public void closeQuietly() {
+      HttpConnectionPool.closeQuietly(socket);
+    }
+
+    private boolean isUsable() {
+      if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+        return false;
+      }
+      try {
+        // An idle connection should have nothing to read. Anything else is unexpected data from
+        // the server, after which the connection can't be trusted.
+        return inputStream.available() == 0;
+      } catch (IOException e) {
+        return false;
+      }
+    }
+
+  }
+
+}
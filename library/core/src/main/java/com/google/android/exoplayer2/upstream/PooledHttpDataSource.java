@@ -0,0 +1,921 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Predicate;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.NoRouteToHostException;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An {@link HttpDataSource} that speaks HTTP/1.1 over sockets taken from an
+ * {@link HttpConnectionPool}.
+ * <p>
+ * Unlike {@link DefaultHttpDataSource}, which disconnects after every request, this implementation
+ * returns the connection to the pool once a response has been read completely. Requests for
+ * consecutive media segments from the same server can therefore reuse one connection rather than
+ * paying for a new TCP and TLS handshake each time. Responses with an unknown length, such as
+ * Shoutcast streams, are read until the server closes the connection, and the connection is not
+ * reused.
+ * <p>
+ * The pool only makes direct connections. Urls that the system proxy settings route through a
+ * proxy are loaded by a {@link DefaultHttpDataSource} instead, which uses the proxy.
+ */
+public class PooledHttpDataSource implements HttpDataSource {
+
+  private static final String TAG = "PooledHttpDataSource";
+  private static final int MAX_REDIRECTS = 20; // Same limit as okhttp.
+  private static final long MAX_BYTES_TO_DRAIN = 2048;
+  private static final int MAX_LINE_LENGTH = 8 * 1024;
+  private static final Pattern CONTENT_RANGE_HEADER =
+      Pattern.compile("^bytes (\\d+)-(\\d+)/(\\d+)$");
+  private static final Charset HEADER_CHARSET = Charset.forName("ISO-8859-1");
+
+  private final HttpConnectionPool connectionPool;
+  private final boolean allowCrossProtocolRedirects;
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+  private final String userAgent;
+  private final Predicate<String> contentTypePredicate;
+  private final RequestProperties defaultRequestProperties;
+  private final RequestProperties requestProperties;
+  private final TransferListener<? super PooledHttpDataSource> listener;
+
+  private DataSpec dataSpec;
+  private URL url;
+  private HttpConnectionPool.Connection connection;
+  private Map<String, List<String>> responseHeaders;
+  private boolean keepAlive;
+  private ResponseBodyInputStream responseBody;
+  private InputStream inputStream;
+  private boolean opened;
+  private DefaultHttpDataSource proxyDataSource;
+  private boolean proxied;
+
+  private long bytesToSkip;
+  private long bytesToRead;
+
+  private long bytesSkipped;
+  private long bytesRead;
+
+  /**
+   * @param connectionPool The pool from which connections are taken.
+   * @param userAgent The User-Agent string that should be used.
+   * @param contentTypePredicate An optional {@link Predicate}. If a content type is rejected by the
+   *     predicate then a {@link HttpDataSource.InvalidContentTypeException} is thrown from
+   *     {@link #open(DataSpec)}.
+   */
+  public PooledHttpDataSource(HttpConnectionPool connectionPool, String userAgent,
+      Predicate<String> contentTypePredicate) {
+    this(connectionPool, userAgent, contentTypePredicate, null);
+  }
+
+  /**
+   * @param connectionPool The pool from which connections are taken.
+   * @param userAgent The User-Agent string that should be used.
+   * @param contentTypePredicate An optional {@link Predicate}. If a content type is rejected by the
+   *     predicate then a {@link HttpDataSource.InvalidContentTypeException} is thrown from
+   *     {@link #open(DataSpec)}.
+   * @param listener An optional listener.
+   */
+  public PooledHttpDataSource(HttpConnectionPool connectionPool, String userAgent,
+      Predicate<String> contentTypePredicate,
+      TransferListener<? super PooledHttpDataSource> listener) {
+    this(connectionPool, userAgent, contentTypePredicate, listener,
+        DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+        DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS, false, null);
+  }
+
+  /**
+   * @param connectionPool The pool from which connections are taken.
+   * @param userAgent The User-Agent string that should be used.
+   * @param contentTypePredicate An optional {@link Predicate}. If a content type is rejected by the
+   *     predicate then a {@link HttpDataSource.InvalidContentTypeException} is thrown from
+   *     {@link #open(DataSpec)}.
+   * @param listener An optional listener.
+   * @param connectTimeoutMillis The connection timeout, in milliseconds. A timeout of zero is
+   *     interpreted as an infinite timeout.
+   * @param readTimeoutMillis The read timeout, in milliseconds. A timeout of zero is interpreted
+   *     as an infinite timeout.
+   * @param allowCrossProtocolRedirects Whether cross-protocol redirects (i.e. redirects from HTTP
+   *     to HTTPS and vice versa) are enabled.
+   * @param defaultRequestProperties The default request properties to be sent to the server as
+   *     HTTP headers or {@code null} if not required.
+   */
+  public PooledHttpDataSource(HttpConnectionPool connectionPool, String userAgent,
+      Predicate<String> contentTypePredicate,
+      TransferListener<? super PooledHttpDataSource> listener, int connectTimeoutMillis,
+      int readTimeoutMillis, boolean allowCrossProtocolRedirects,
+      RequestProperties defaultRequestProperties) {
+    this.connectionPool = Assertions.checkNotNull(connectionPool);
+    this.userAgent = Assertions.checkNotEmpty(userAgent);
+    this.contentTypePredicate = contentTypePredicate;
+    this.listener = listener;
+    this.requestProperties = new RequestProperties();
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.allowCrossProtocolRedirects = allowCrossProtocolRedirects;
+    this.defaultRequestProperties = defaultRequestProperties;
+  }
+
+  @Override
+  public Uri getUri() {
+    if (proxied) {
+      return proxyDataSource.getUri();
+    }
+    return connection == null ? null : Uri.parse(url.toString());
+  }
+
+  @Override
+  public Map<String, List<String>> getResponseHeaders() {
+    if (proxied) {
+      return proxyDataSource.getResponseHeaders();
+    }
+    return connection == null ? null : responseHeaders;
+  }
+
+  @Override
+  public void setRequestProperty(String name, String value) {
+    Assertions.checkNotNull(name);
+    Assertions.checkNotNull(value);
+    requestProperties.set(name, value);
+  }
+
+  @Override
+  public void clearRequestProperty(String name) {
+    Assertions.checkNotNull(name);
+    requestProperties.remove(name);
+  }
+
+  @Override
+  public void clearAllRequestProperties() {
+    requestProperties.clear();
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws HttpDataSourceException {
+    this.dataSpec = dataSpec;
+    this.bytesRead = 0;
+    this.bytesSkipped = 0;
+    if (isProxied(dataSpec)) {
+      return openProxied(dataSpec);
+    }
+    int responseCode;
+    try {
+      responseCode = makeRequest(dataSpec);
+    } catch (IOException e) {
+      closeConnectionQuietly();
+      throw new HttpDataSourceException("Unable to connect to " + dataSpec.uri.toString(), e,
+          dataSpec, HttpDataSourceException.TYPE_OPEN);
+    }
+
+    // Check for a valid response code.
+    if (responseCode < 200 || responseCode > 299) {
+      Map<String, List<String>> headers = responseHeaders;
+      closeConnectionQuietly();
+      InvalidResponseCodeException exception =
+          new InvalidResponseCodeException(responseCode, headers, dataSpec);
+      if (responseCode == 416) {
+        exception.initCause(new DataSourceException(DataSourceException.POSITION_OUT_OF_RANGE));
+      }
+      throw exception;
+    }
+
+    // Check for a valid content type.
+    String contentType = getResponseHeader("Content-Type");
+    if (contentTypePredicate != null && !contentTypePredicate.evaluate(contentType)) {
+      closeConnectionQuietly();
+      throw new InvalidContentTypeException(contentType, dataSpec);
+    }
+
+    // If we requested a range starting from a non-zero position and received a 200 rather than a
+    // 206, then the server does not support partial requests. We'll need to manually skip to the
+    // requested position.
+    bytesToSkip = responseCode == 200 && dataSpec.position != 0 ? dataSpec.position : 0;
+
+    // Determine the length of the data to be read, after skipping.
+    boolean gzip = "gzip".equalsIgnoreCase(getResponseHeader("Content-Encoding"));
+    if (!gzip) {
+      if (dataSpec.length != C.LENGTH_UNSET) {
+        bytesToRead = dataSpec.length;
+      } else {
+        long contentLength = getContentLength();
+        bytesToRead = contentLength != C.LENGTH_UNSET ? (contentLength - bytesToSkip)
+            : C.LENGTH_UNSET;
+      }
+    } else {
+      // The content length in the response is that of the compressed data. Use the dataSpec length
+      // instead.
+      bytesToRead = dataSpec.length;
+    }
+
+    try {
+      inputStream = gzip ? new GZIPInputStream(responseBody) : responseBody;
+    } catch (IOException e) {
+      closeConnectionQuietly();
+      throw new HttpDataSourceException(e, dataSpec, HttpDataSourceException.TYPE_OPEN);
+    }
+
+    opened = true;
+    if (listener != null) {
+      listener.onTransferStart(this, dataSpec);
+    }
+
+    return bytesToRead;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws HttpDataSourceException {
+    if (proxied) {
+      int read = proxyDataSource.read(buffer, offset, readLength);
+      if (read > 0) {
+        bytesRead += read;
+        if (listener != null) {
+          listener.onBytesTransferred(this, read);
+        }
+      }
+      return read;
+    }
+    try {
+      skipInternal();
+      return readInternal(buffer, offset, readLength);
+    } catch (IOException e) {
+      throw new HttpDataSourceException(e, dataSpec, HttpDataSourceException.TYPE_READ);
+    }
+  }
+
+  @Override
+  public void close() throws HttpDataSourceException {
+    try {
+      if (proxied) {
+        proxied = false;
+        proxyDataSource.close();
+      } else if (connection != null) {
+        releaseConnection();
+      }
+    } finally {
+      inputStream = null;
+      responseBody = null;
+      connection = null;
+      if (opened) {
+        opened = false;
+        if (listener != null) {
+          listener.onTransferEnd(this);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of bytes that have been skipped since the most recent call to
+   * {@link #open(DataSpec)}.
+   *
+   * @return The number of bytes skipped.
+   */
+  protected final long bytesSkipped() {
+    return bytesSkipped;
+  }
+
+  /**
+   * Returns the number of bytes that have been read since the most recent call to
+   * {@link #open(DataSpec)}.
+   *
+   * @return The number of bytes read.
+   */
+  protected final long bytesRead() {
+    return bytesRead;
+  }
+
+  /**
+   * Returns the number of bytes that are still to be read for the current {@link DataSpec}.
+   * <p>
+   * If the total length of the data being read is known, then this length minus {@code bytesRead()}
+   * is returned. If the total length is unknown, {@link C#LENGTH_UNSET} is returned.
+   *
+   * @return The remaining length, or {@link C#LENGTH_UNSET}.
+   */
+  protected final long bytesRemaining() {
+    return bytesToRead == C.LENGTH_UNSET ? bytesToRead : bytesToRead - bytesRead;
+  }
+
+  /**
+   * Returns whether the system proxy settings route {@code dataSpec} through a proxy.
+   */
+  private static boolean isProxied(DataSpec dataSpec) {
+    try {
+      return !HttpConnectionPool.isDirect(new URL(dataSpec.uri.toString()));
+    } catch (MalformedURLException e) {
+      // Fail when the request is made.
+      return false;
+    }
+  }
+
+  /**
+   * Opens {@code dataSpec} with a {@link DefaultHttpDataSource}, which goes through the proxy.
+   */
+  private long openProxied(DataSpec dataSpec) throws HttpDataSourceException {
+    if (proxyDataSource == null) {
+      proxyDataSource = new DefaultHttpDataSource(userAgent, contentTypePredicate, null,
+          connectTimeoutMillis, readTimeoutMillis, allowCrossProtocolRedirects,
+          defaultRequestProperties);
+    }
+    proxyDataSource.clearAllRequestProperties();
+    for (Map.Entry<String, String> property : requestProperties.getSnapshot().entrySet()) {
+      proxyDataSource.setRequestProperty(property.getKey(), property.getValue());
+    }
+    // Set before opening, so that close() also closes the proxy data source if opening fails.
+    proxied = true;
+    bytesToSkip = 0;
+    bytesToRead = proxyDataSource.open(dataSpec);
+    opened = true;
+    if (listener != null) {
+      listener.onTransferStart(this, dataSpec);
+    }
+    return bytesToRead;
+  }
+
+  /**
+   * Sends the request for {@code dataSpec}, following redirects where permitted, and reads the
+   * head of the final response.
+   *
+   * @return The response code of the final response.
+   */
+  private int makeRequest(DataSpec dataSpec) throws IOException {
+    URL url = new URL(dataSpec.uri.toString());
+    byte[] postBody = dataSpec.postBody;
+    boolean allowGzip = dataSpec.isFlagSet(DataSpec.FLAG_ALLOW_GZIP);
+    int redirectCount = 0;
+    while (redirectCount++ <= MAX_REDIRECTS) {
+      int responseCode = makeRequest(url, postBody, dataSpec.position, dataSpec.length, allowGzip);
+      if (responseCode == HttpURLConnection.HTTP_MULT_CHOICE
+          || responseCode == HttpURLConnection.HTTP_MOVED_PERM
+          || responseCode == HttpURLConnection.HTTP_MOVED_TEMP
+          || responseCode == HttpURLConnection.HTTP_SEE_OTHER
+          || (postBody == null
+              && (responseCode == 307 /* HTTP_TEMP_REDIRECT */
+                  || responseCode == 308 /* HTTP_PERM_REDIRECT */))) {
+        // For 300, 301, 302, and 303 POST requests follow the redirect and are transformed into
+        // GET requests. For 307 and 308 POST requests are not redirected.
+        postBody = null;
+        String location = getResponseHeader("Location");
+        releaseConnection();
+        url = handleRedirect(url, location);
+      } else {
+        return responseCode;
+      }
+    }
+
+    // If we get here we've been redirected more times than are permitted.
+    throw new NoRouteToHostException("Too many redirects: " + redirectCount);
+  }
+
+  /**
+   * Sends a single request and reads the head of its response.
+   * <p>
+   * A pooled connection may have been closed by the server while it was idle, which only shows
+   * once it is used. Failures on such connections are retried on another connection.
+   *
+   * @param url The url to request.
+   * @param postBody The body data for a POST request.
+   * @param position The byte offset of the requested data.
+   * @param length The length of the requested data, or {@link C#LENGTH_UNSET}.
+   * @param allowGzip Whether to allow the use of gzip.
+   * @return The response code.
+   */
+  private int makeRequest(URL url, byte[] postBody, long position, long length,
+      boolean allowGzip) throws IOException {
+    byte[] requestHead = buildRequestHead(url, postBody, position, length, allowGzip);
+    while (true) {
+      this.url = url;
+      connection = connectionPool.acquire(url, connectTimeoutMillis, readTimeoutMillis);
+      try {
+        OutputStream outputStream = connection.outputStream;
+        outputStream.write(requestHead);
+        if (postBody != null) {
+          outputStream.write(postBody);
+        }
+        outputStream.flush();
+        return readResponseHead(postBody);
+      } catch (IOException e) {
+        boolean reused = connection.reused;
+        closeConnectionQuietly();
+        if (!reused || e instanceof InterruptedIOException) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  private byte[] buildRequestHead(URL url, byte[] postBody, long position, long length,
+      boolean allowGzip) {
+    StringBuilder request = new StringBuilder();
+    String file = url.getFile();
+    request.append(postBody != null ? "POST " : "GET ")
+        .append(TextUtils.isEmpty(file) ? "/" : file)
+        .append(" HTTP/1.1\r\n");
+    request.append("Host: ").append(url.getHost());
+    if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+      request.append(':').append(url.getPort());
+    }
+    request.append("\r\n");
+    if (defaultRequestProperties != null) {
+      appendRequestProperties(request, defaultRequestProperties.getSnapshot());
+    }
+    appendRequestProperties(request, requestProperties.getSnapshot());
+    if (!(position == 0 && length == C.LENGTH_UNSET)) {
+      request.append("Range: bytes=").append(position).append('-');
+      if (length != C.LENGTH_UNSET) {
+        request.append(position + length - 1);
+      }
+      request.append("\r\n");
+    }
+    request.append("User-Agent: ").append(userAgent).append("\r\n");
+    request.append("Accept-Encoding: ").append(allowGzip ? "gzip" : "identity").append("\r\n");
+    if (postBody != null) {
+      request.append("Content-Length: ").append(postBody.length).append("\r\n");
+    }
+    request.append("\r\n");
+    return request.toString().getBytes(HEADER_CHARSET);
+  }
+
+  private static void appendRequestProperties(StringBuilder request,
+      Map<String, String> properties) {
+    for (Map.Entry<String, String> property : properties.entrySet()) {
+      request.append(property.getKey()).append(": ").append(property.getValue()).append("\r\n");
+    }
+  }
+
+  /**
+   * Reads the status line and headers of a response and sets up {@link #responseBody}.
+   *
+   * @param postBody The body data of the request, or null for a GET request.
+   * @return The response code.
+   */
+  private int readResponseHead(byte[] postBody) throws IOException {
+    InputStream input = connection.inputStream;
+    String statusLine;
+    int responseCode;
+    do {
+      statusLine = readLine(input);
+      if (statusLine == null) {
+        throw new EOFException("Connection closed before the response");
+      }
+      responseCode = parseResponseCode(statusLine);
+      responseHeaders = readHeaders(input);
+      // Skip interim responses such as 100 Continue.
+    } while (responseCode >= 100 && responseCode < 200);
+
+    String connectionHeader = getResponseHeader("Connection");
+    if (statusLine.startsWith("HTTP/1.1")) {
+      keepAlive = !"close".equalsIgnoreCase(connectionHeader);
+    } else {
+      // HTTP/1.0, or Shoutcast's "ICY 200 OK", only keep the connection if asked to.
+      keepAlive = "keep-alive".equalsIgnoreCase(connectionHeader);
+    }
+
+    String transferEncoding = getResponseHeader("Transfer-Encoding");
+    String contentLength = getResponseHeader("Content-Length");
+    if (responseCode == HttpURLConnection.HTTP_NO_CONTENT
+        || responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+      responseBody = new FixedLengthInputStream(input, 0);
+    } else if (transferEncoding != null && !"identity".equalsIgnoreCase(transferEncoding)) {
+      responseBody = new ChunkedInputStream(input);
+    } else if (!TextUtils.isEmpty(contentLength)) {
+      try {
+        responseBody = new FixedLengthInputStream(input, Long.parseLong(contentLength));
+      } catch (NumberFormatException e) {
+        throw new ProtocolException("Unexpected Content-Length [" + contentLength + "]");
+      }
+    } else {
+      // The body ends when the server closes the connection.
+      responseBody = new ResponseBodyInputStream(input);
+      keepAlive = false;
+    }
+    return responseCode;
+  }
+
+  private static int parseResponseCode(String statusLine) throws ProtocolException {
+    int codeStart = statusLine.indexOf(' ') + 1;
+    int codeEnd = codeStart + 3;
+    if (codeStart == 0 || statusLine.length() < codeEnd) {
+      throw new ProtocolException("Unexpected status line: " + statusLine);
+    }
+    try {
+      return Integer.parseInt(statusLine.substring(codeStart, codeEnd));
+    } catch (NumberFormatException e) {
+      throw new ProtocolException("Unexpected status line: " + statusLine);
+    }
+  }
+
+  private static Map<String, List<String>> readHeaders(InputStream input) throws IOException {
+    Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    String line;
+    while ((line = readLine(input)) != null && !line.isEmpty()) {
+      int separator = line.indexOf(':');
+      if (separator <= 0) {
+        continue;
+      }
+      String name = line.substring(0, separator).trim();
+      List<String> values = headers.get(name);
+      if (values == null) {
+        values = new ArrayList<>(1);
+        headers.put(name, values);
+      }
+      values.add(line.substring(separator + 1).trim());
+    }
+    if (line == null) {
+      throw new EOFException("Connection closed in the response headers");
+    }
+    for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+      header.setValue(Collections.unmodifiableList(header.getValue()));
+    }
+    return Collections.unmodifiableMap(headers);
+  }
+
+  /**
+   * Reads a line terminated by CRLF or LF, without the terminator.
+   *
+   * @return The line, or null if the end of the stream was reached before any byte was read.
+   */
+  private static String readLine(InputStream input) throws IOException {
+    StringBuilder line = new StringBuilder();
+    int b;
+    while ((b = input.read()) != '\n') {
+      if (b == -1) {
+        if (line.length() == 0) {
+          return null;
+        }
+        throw new EOFException();
+      }
+      if (line.length() == MAX_LINE_LENGTH) {
+        throw new ProtocolException("Line too long");
+      }
+      line.append((char) b);
+    }
+    int length = line.length();
+    if (length > 0 && line.charAt(length - 1) == '\r') {
+      line.setLength(length - 1);
+    }
+    return line.toString();
+  }
+
+  private String getResponseHeader(String name) {
+    List<String> values = responseHeaders.get(name);
+    return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+  }
+
+  /**
+   * Handles a redirect.
+   *
+   * @param originalUrl The original URL.
+   * @param location The Location header in the response.
+   * @return The next URL.
+   * @throws IOException If redirection isn't possible.
+   */
+  private URL handleRedirect(URL originalUrl, String location) throws IOException {
+    if (location == null) {
+      throw new ProtocolException("Null location redirect");
+    }
+    // Form the new url.
+    URL url = new URL(originalUrl, location);
+    // Check that the protocol of the new url is supported.
+    String protocol = url.getProtocol();
+    if (!"https".equals(protocol) && !"http".equals(protocol)) {
+      throw new ProtocolException("Unsupported protocol redirect: " + protocol);
+    }
+    if (!allowCrossProtocolRedirects && !protocol.equals(originalUrl.getProtocol())) {
+      throw new ProtocolException("Disallowed cross-protocol redirect ("
+          + originalUrl.getProtocol() + " to " + protocol + ")");
+    }
+    return url;
+  }
+
+  /**
+   * Attempts to extract the length of the content from the response headers.
+   *
+   * @return The extracted length, or {@link C#LENGTH_UNSET}.
+   */
+  private long getContentLength() {
+    long contentLength = C.LENGTH_UNSET;
+    String contentLengthHeader = getResponseHeader("Content-Length");
+    if (!TextUtils.isEmpty(contentLengthHeader)) {
+      try {
+        contentLength = Long.parseLong(contentLengthHeader);
+      } catch (NumberFormatException e) {
+        Log.e(TAG, "Unexpected Content-Length [" + contentLengthHeader + "]");
+      }
+    }
+    String contentRangeHeader = getResponseHeader("Content-Range");
+    if (!TextUtils.isEmpty(contentRangeHeader)) {
+      Matcher matcher = CONTENT_RANGE_HEADER.matcher(contentRangeHeader);
+      if (matcher.find()) {
+        try {
+          long contentLengthFromRange =
+              Long.parseLong(matcher.group(2)) - Long.parseLong(matcher.group(1)) + 1;
+          if (contentLength < 0) {
+            // Some proxy servers strip the Content-Length header. Fall back to the length
+            // calculated here in this case.
+            contentLength = contentLengthFromRange;
+          } else if (contentLength != contentLengthFromRange) {
+            // If there is a discrepancy between the Content-Length and Content-Range headers,
+            // assume the one with the larger value is correct.
+            Log.w(TAG, "Inconsistent headers [" + contentLengthHeader + "] [" + contentRangeHeader
+                + "]");
+            contentLength = Math.max(contentLength, contentLengthFromRange);
+          }
+        } catch (NumberFormatException e) {
+          Log.e(TAG, "Unexpected Content-Range [" + contentRangeHeader + "]");
+        }
+      }
+    }
+    return contentLength;
+  }
+
+  /**
+   * Skips any bytes that need skipping. Else does nothing.
+   *
+   * @throws InterruptedIOException If the thread is interrupted during the operation.
+   * @throws EOFException If the end of the input stream is reached before the bytes are skipped.
+   */
+  private void skipInternal() throws IOException {
+    while (bytesSkipped != bytesToSkip) {
+      long skipped = inputStream.skip(bytesToSkip - bytesSkipped);
+      if (Thread.interrupted()) {
+        throw new InterruptedIOException();
+      }
+      if (skipped <= 0) {
+        throw new EOFException();
+      }
+      bytesSkipped += skipped;
+      if (listener != null) {
+        listener.onBytesTransferred(this, (int) skipped);
+      }
+    }
+  }
+
+  /**
+   * Reads up to {@code length} bytes of data and stores them into {@code buffer}, starting at
+   * index {@code offset}.
+   *
+   * @param buffer The buffer into which the read data should be stored.
+   * @param offset The start offset into {@code buffer} at which data should be written.
+   * @param readLength The maximum number of bytes to read.
+   * @return The number of bytes read, or {@link C#RESULT_END_OF_INPUT} if the end of the opened
+   *     range is reached.
+   * @throws IOException If an error occurs reading from the source.
+   */
+  private int readInternal(byte[] buffer, int offset, int readLength) throws IOException {
+    if (readLength == 0) {
+      return 0;
+    }
+    if (bytesToRead != C.LENGTH_UNSET) {
+      long bytesRemaining = bytesToRead - bytesRead;
+      if (bytesRemaining == 0) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      readLength = (int) Math.min(readLength, bytesRemaining);
+    }
+
+    int read = inputStream.read(buffer, offset, readLength);
+    if (read == -1) {
+      if (bytesToRead != C.LENGTH_UNSET) {
+        // End of stream reached having not read sufficient data.
+        throw new EOFException();
+      }
+      return C.RESULT_END_OF_INPUT;
+    }
+
+    bytesRead += read;
+    if (listener != null) {
+      listener.onBytesTransferred(this, read);
+    }
+    return read;
+  }
+
+  /**
+   * Returns the current connection to the pool if its response can be read to the end cheaply, or
+   * closes it otherwise.
+   */
+  private void releaseConnection() {
+    HttpConnectionPool.Connection connection = this.connection;
+    this.connection = null;
+    if (keepAlive && responseBody != null) {
+      try {
+        // There isn't much data left. Drain it, so that the connection can be reused.
+        if (responseBody.drain(MAX_BYTES_TO_DRAIN)) {
+          connectionPool.release(connection);
+          return;
+        }
+      } catch (IOException e) {
+        // Fall through to close the connection.
+      }
+    }
+    connection.closeQuietly();
+  }
+
+  /**
+   * Closes the current connection quietly, if there is one.
+   */
+  private void closeConnectionQuietly() {
+    if (connection != null) {
+      connection.closeQuietly();
+      connection = null;
+    }
+  }
+
+  /**
+   * The body of a response, read until the connection is closed.
+   */
+  private static class ResponseBodyInputStream extends InputStream {
+
+    protected final InputStream input;
+
+    public ResponseBodyInputStream(InputStream input) {
+      this.input = input;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] buffer = new byte[1];
+      return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      return input.read(buffer, offset, length);
+    }
+
+    @Override
+    public void close() {
+      // The connection is closed or released by the data source.
+    }
+
+    /**
+     * Reads and discards up to {@code maxLength} bytes, if that reaches the end of the body.
+     *
+     * @param maxLength The maximum number of bytes to read.
+     * @return Whether the end of the body was reached.
+     */
+    public boolean drain(long maxLength) throws IOException {
+      return false;
+    }
+
+  }
+
+  /**
+   * The body of a response with a Content-Length header.
+   */
+  private static final class FixedLengthInputStream extends ResponseBodyInputStream {
+
+    private long bytesRemaining;
+
+    public FixedLengthInputStream(InputStream input, long length) {
+      super(input);
+      bytesRemaining = length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (bytesRemaining == 0) {
+        return -1;
+      }
+      int read = input.read(buffer, offset, (int) Math.min(length, bytesRemaining));
+      if (read == -1) {
+        throw new EOFException();
+      }
+      bytesRemaining -= read;
+      return read;
+    }
+
+    @Override
+    public long skip(long length) throws IOException {
+      long skipped = input.skip(Math.min(length, bytesRemaining));
+      bytesRemaining -= skipped;
+      return skipped;
+    }
+
+    @Override
+    public boolean drain(long maxLength) throws IOException {
+      if (bytesRemaining > maxLength) {
+        return false;
+      }
+      while (bytesRemaining > 0) {
+        if (skip(bytesRemaining) <= 0 && read() == -1) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+  }
+
+  /**
+   * The body of a response with chunked transfer encoding.
+   */
+  private static final class ChunkedInputStream extends ResponseBodyInputStream {
+
+    private long chunkBytesRemaining;
+    private boolean hasMoreChunks;
+
+    public ChunkedInputStream(InputStream input) {
+      super(input);
+      hasMoreChunks = true;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (chunkBytesRemaining == 0 && !readChunkHeader()) {
+        return -1;
+      }
+      int read = input.read(buffer, offset, (int) Math.min(length, chunkBytesRemaining));
+      if (read == -1) {
+        throw new EOFException();
+      }
+      chunkBytesRemaining -= read;
+      return read;
+    }
+
+    @Override
+    public boolean drain(long maxLength) throws IOException {
+      byte[] buffer = new byte[(int) maxLength];
+      long drained = 0;
+      int read;
+      while (drained < maxLength
+          && (read = read(buffer, 0, (int) (maxLength - drained))) != -1) {
+        drained += read;
+      }
+      return !hasMoreChunks;
+    }
+
+    /**
+     * Moves to the next chunk.
+     *
+     * @return Whether there is a next chunk, or false if the end of the body was reached.
+     */
+    private boolean readChunkHeader() throws IOException {
+      if (!hasMoreChunks) {
+        return false;
+      }
+      String line = readLine(input);
+      if (line != null && line.isEmpty()) {
+        // The CRLF that ends the previous chunk.
+        line = readLine(input);
+      }
+      if (line == null) {
+        throw new EOFException();
+      }
+      int extensionStart = line.indexOf(';');
+      String size = extensionStart == -1 ? line : line.substring(0, extensionStart);
+      try {
+        chunkBytesRemaining = Long.parseLong(size.trim(), 16);
+      } catch (NumberFormatException e) {
+        throw new ProtocolException("Unexpected chunk size [" + line + "]");
+      }
+      if (chunkBytesRemaining == 0) {
+        hasMoreChunks = false;
+        // Skip the trailers.
+        readHeaders(input);
+        return false;
+      }
+      return true;
+    }
+
+  }
+
+}
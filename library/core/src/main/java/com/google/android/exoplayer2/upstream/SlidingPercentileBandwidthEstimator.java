@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import com.google.android.exoplayer2.util.SlidingPercentile;
+
+/**
+ * A {@link BandwidthEstimator} that returns the median of the sampled bitrates, weighted by the
+ * square root of the bytes of each sample, over a {@link SlidingPercentile}. Robust to outliers,
+ * but slow to follow step changes.
+ */
+public final class SlidingPercentileBandwidthEstimator implements BandwidthEstimator {
+
+  /**
+   * The default maximum weight for the sliding window.
+   */
+  public static final int DEFAULT_MAX_WEIGHT = 2000;
+
+  private static final int ELAPSED_MILLIS_FOR_ESTIMATE = 2000;
+  private static final int BYTES_TRANSFERRED_FOR_ESTIMATE = 512 * 1024;
+
+  private final SlidingPercentile slidingPercentile;
+
+  private long totalElapsedTimeMs;
+  private long totalBytesTransferred;
+  private long bitrateEstimate;
+
+  public SlidingPercentileBandwidthEstimator() {
+    this(DEFAULT_MAX_WEIGHT);
+  }
+
+  /**
+   * @param maxWeight The maximum weight for the sliding window.
+   */
+  public SlidingPercentileBandwidthEstimator(int maxWeight) {
+    slidingPercentile = new SlidingPercentile(maxWeight);
+    bitrateEstimate = BandwidthMeter.NO_ESTIMATE;
+  }
+
+  @Override
+  public void addSample(long bytes, long elapsedMs) {
+    totalElapsedTimeMs += elapsedMs;
+    totalBytesTransferred += bytes;
+    float bitsPerSecond = (bytes * 8000) / elapsedMs;
+    slidingPercentile.addSample((int) Math.sqrt(bytes), bitsPerSecond);
+    if (totalElapsedTimeMs >= ELAPSED_MILLIS_FOR_ESTIMATE
+        || totalBytesTransferred >= BYTES_TRANSFERRED_FOR_ESTIMATE) {
+      float bitrateEstimateFloat = slidingPercentile.getPercentile(0.5f);
+      bitrateEstimate = Float.isNaN(bitrateEstimateFloat) ? BandwidthMeter.NO_ESTIMATE
+          : (long) bitrateEstimateFloat;
+    }
+  }
+
+  @Override
+  public long getBitrateEstimate() {
+    return bitrateEstimate;
+  }
+
+}
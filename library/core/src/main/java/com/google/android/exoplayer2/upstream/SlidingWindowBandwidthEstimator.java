@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+/**
+ * A {@link BandwidthEstimator} that returns the throughput over the most recent samples that
+ * together span a fixed time window, i.e. the bytes transferred in the window divided by its
+ * duration.
+ */
+public final class SlidingWindowBandwidthEstimator implements BandwidthEstimator {
+
+  /**
+   * The default window duration, in milliseconds.
+   */
+  public static final int DEFAULT_WINDOW_MS = 10000;
+
+  private static final int MAX_SAMPLE_COUNT = 64;
+
+  private final long windowMs;
+  private final long[] sampleBytes;
+  private final long[] sampleElapsedMs;
+
+  private int oldestSampleIndex;
+  private int sampleCount;
+  private long windowBytes;
+  private long windowElapsedMs;
+
+  public SlidingWindowBandwidthEstimator() {
+    this(DEFAULT_WINDOW_MS);
+  }
+
+  /**
+   * @param windowMs The duration of the window, in milliseconds.
+   */
+  public SlidingWindowBandwidthEstimator(int windowMs) {
+    this.windowMs = windowMs;
+    sampleBytes = new long[MAX_SAMPLE_COUNT];
+    sampleElapsedMs = new long[MAX_SAMPLE_COUNT];
+  }
+
+  @Override
+  public void addSample(long bytes, long elapsedMs) {
+    if (sampleCount == MAX_SAMPLE_COUNT) {
+      removeOldestSample();
+    }
+    int index = (oldestSampleIndex + sampleCount) % MAX_SAMPLE_COUNT;
+    sampleBytes[index] = bytes;
+    sampleElapsedMs[index] = elapsedMs;
+    sampleCount++;
+    windowBytes += bytes;
+    windowElapsedMs += elapsedMs;
+    // Drop old samples as long as the remaining ones still cover the window.
+    while (sampleCount > 1 && windowElapsedMs - sampleElapsedMs[oldestSampleIndex] >= windowMs) {
+      removeOldestSample();
+    }
+  }
+
+  @Override
+  public long getBitrateEstimate() {
+    return windowElapsedMs == 0 ? BandwidthMeter.NO_ESTIMATE
+        : (windowBytes * 8000) / windowElapsedMs;
+  }
+
+  private void removeOldestSample() {
+    windowBytes -= sampleBytes[oldestSampleIndex];
+    windowElapsedMs -= sampleElapsedMs[oldestSampleIndex];
+    oldestSampleIndex = (oldestSampleIndex + 1) % MAX_SAMPLE_COUNT;
+    sampleCount--;
+  }
+
+}
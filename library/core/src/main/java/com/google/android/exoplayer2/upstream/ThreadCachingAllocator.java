@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link TrimmableAllocator} that keeps a small magazine of released {@link Allocation}s per
+ * thread in front of a shared depot, so that loading threads allocating and releasing concurrently
+ * do not contend on a single monitor.
+ * <p>
+ * A thread allocates from and releases to its own magazine, which is only locked by other threads
+ * while the allocator is being trimmed. The shared depot is locked when a magazine runs empty or
+ * overflows, which moves a batch of allocations at a time. The number of allocated bytes is
+ * maintained atomically, and {@link #trim()} drains every magazine into the depot before discarding,
+ * so both remain exact.
+ */
+public final class ThreadCachingAllocator implements TrimmableAllocator {
+
+  private static final int MAGAZINE_CAPACITY = 32;
+  private static final int MAGAZINE_BATCH_SIZE = MAGAZINE_CAPACITY / 2;
+  private static final int AVAILABLE_EXTRA_CAPACITY = 100;
+
+  private final boolean trimOnReset;
+  private final int individualAllocationSize;
+  private final AtomicInteger allocatedCount;
+  private final ThreadLocal<Magazine> threadMagazine;
+
+  // Guarded by this.
+  private final ArrayList<Magazine> magazines;
+  private int targetBufferSize;
+  private int availableCount;
+  private Allocation[] availableAllocations;
+
+  /**
+   * @param trimOnReset Whether memory is freed when the allocator is reset. Should be true unless
+   *     the allocator will be re-used by multiple player instances.
+   * @param individualAllocationSize The length of each individual {@link Allocation}.
+   */
+  public ThreadCachingAllocator(boolean trimOnReset, int individualAllocationSize) {
+    Assertions.checkArgument(individualAllocationSize > 0);
+    this.trimOnReset = trimOnReset;
+    this.individualAllocationSize = individualAllocationSize;
+    allocatedCount = new AtomicInteger();
+    magazines = new ArrayList<>();
+    availableAllocations = new Allocation[AVAILABLE_EXTRA_CAPACITY];
+    threadMagazine = new ThreadLocal<Magazine>() {
+      @Override
+      protected Magazine initialValue() {
+        Magazine magazine = new Magazine(Thread.currentThread());
+        synchronized (ThreadCachingAllocator.this) {
+          magazines.add(magazine);
+        }
+        return magazine;
+      }
+    };
+  }
+
+  @Override
+  public synchronized void reset() {
+    if (trimOnReset) {
+      setTargetBufferSize(0);
+    }
+  }
+
+  @Override
+  public synchronized void setTargetBufferSize(int targetBufferSize) {
+    boolean targetBufferSizeReduced = targetBufferSize < this.targetBufferSize;
+    this.targetBufferSize = targetBufferSize;
+    if (targetBufferSizeReduced) {
+      trim();
+    }
+  }
+
+  @Override
+  public Allocation allocate() {
+    allocatedCount.incrementAndGet();
+    Magazine magazine = threadMagazine.get();
+    synchronized (magazine) {
+      if (magazine.size > 0) {
+        return magazine.pop();
+      }
+    }
+    synchronized (this) {
+      if (availableCount > 0) {
+        synchronized (magazine) {
+          // Refill the magazine with a batch from the depot, keeping one allocation to return.
+          int batchSize = Math.min(availableCount - 1, MAGAZINE_BATCH_SIZE);
+          for (int i = 0; i < batchSize; i++) {
+            magazine.push(availableAllocations[--availableCount]);
+            availableAllocations[availableCount] = null;
+          }
+        }
+        Allocation allocation = availableAllocations[--availableCount];
+        availableAllocations[availableCount] = null;
+        return allocation;
+      }
+    }
+    return new Allocation(new byte[individualAllocationSize], 0);
+  }
+
+  @Override
+  public void release(Allocation allocation) {
+    checkAllocation(allocation);
+    Magazine magazine = threadMagazine.get();
+    synchronized (magazine) {
+      if (magazine.size < MAGAZINE_CAPACITY) {
+        magazine.push(allocation);
+        allocatedCount.decrementAndGet();
+        return;
+      }
+    }
+    synchronized (this) {
+      synchronized (magazine) {
+        // The magazine may have been drained by a trim in the meantime.
+        if (magazine.size == MAGAZINE_CAPACITY) {
+          // Move a batch from the full magazine to the depot, making room for the allocation.
+          ensureAvailableCapacity(MAGAZINE_BATCH_SIZE);
+          for (int i = 0; i < MAGAZINE_BATCH_SIZE; i++) {
+            availableAllocations[availableCount++] = magazine.pop();
+          }
+        }
+        magazine.push(allocation);
+      }
+      allocatedCount.decrementAndGet();
+    }
+  }
+
+  @Override
+  public void release(Allocation[] allocations) {
+    for (Allocation allocation : allocations) {
+      checkAllocation(allocation);
+    }
+    Magazine magazine = threadMagazine.get();
+    int released = 0;
+    synchronized (magazine) {
+      while (released < allocations.length && magazine.size < MAGAZINE_CAPACITY) {
+        magazine.push(allocations[released++]);
+      }
+    }
+    if (released < allocations.length) {
+      synchronized (this) {
+        ensureAvailableCapacity(allocations.length - released);
+        while (released < allocations.length) {
+          availableAllocations[availableCount++] = allocations[released++];
+        }
+      }
+    }
+    allocatedCount.addAndGet(-allocations.length);
+  }
+
+  @Override
+  public synchronized void trim() {
+    int targetAllocationCount = Util.ceilDivide(targetBufferSize, individualAllocationSize);
+    int targetAvailableCount = Math.max(0, targetAllocationCount - allocatedCount.get());
+
+    // Drain the magazines into the depot, so that the available count is exact. Magazines of
+    // threads that have terminated are dropped.
+    for (int i = magazines.size() - 1; i >= 0; i--) {
+      Magazine magazine = magazines.get(i);
+      synchronized (magazine) {
+        ensureAvailableCapacity(magazine.size);
+        while (magazine.size > 0) {
+          availableAllocations[availableCount++] = magazine.pop();
+        }
+      }
+      if (magazine.owner.get() == null) {
+        magazines.remove(i);
+      }
+    }
+
+    if (targetAvailableCount >= availableCount) {
+      // We're already at or below the target.
+      return;
+    }
+
+    // Discard allocations beyond the target.
+    Arrays.fill(availableAllocations, targetAvailableCount, availableCount, null);
+    availableCount = targetAvailableCount;
+  }
+
+  @Override
+  public int getTotalBytesAllocated() {
+    return allocatedCount.get() * individualAllocationSize;
+  }
+
+  @Override
+  public int getIndividualAllocationLength() {
+    return individualAllocationSize;
+  }
+
+  /**
+   * Ensures that the depot can hold {@code count} more allocations. Must be called while holding
+   * the allocator's monitor.
+   */
+  private void ensureAvailableCapacity(int count) {
+    if (availableCount + count >= availableAllocations.length) {
+      availableAllocations = Arrays.copyOf(availableAllocations,
+          Math.max(availableAllocations.length * 2, availableCount + count));
+    }
+  }
+
+  /**
+   * Weak sanity check that an allocation probably originated from this pool. Direct allocations
+   * have no array and must be released to the {@link DirectAllocator} that created them.
+   */
+  private void checkAllocation(Allocation allocation) {
+    Assertions.checkArgument(allocation.data != null
+        && allocation.data.length == individualAllocationSize);
+  }
+
+  /**
+   * A stack of released allocations owned by a single thread.
+   */
+  private static final class Magazine {
+
+    public final WeakReference<Thread> owner;
+
+    private final Allocation[] allocations;
+    private int size;
+
+    public Magazine(Thread owner) {
+      this.owner = new WeakReference<>(owner);
+      allocations = new Allocation[MAGAZINE_CAPACITY];
+    }
+
+    public void push(Allocation allocation) {
+      allocations[size++] = allocation;
+    }
+
+    public Allocation pop() {
+      Allocation allocation = allocations[--size];
+      allocations[size] = null;
+      return allocation;
+    }
+
+  }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import com.google.android.exoplayer2.util.Assertions;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least recently used set of read-only memory mappings of committed cache files.
+ * <p>
+ * An instance is shared between a {@link SimpleCache}, which keeps the mappings in step with the
+ * files it holds, and any number of {@link MappedFileDataSource}s, which read through them. When a
+ * span is touched its file is renamed, and the mapping is moved to the new name. When a span is
+ * removed, for example by the {@link CacheEvictor}, its mapping is dropped.
+ * <p>
+ * A mapping that has been dropped remains readable by data sources that obtained it earlier. The
+ * underlying memory is unmapped once the mapping is garbage collected.
+ */
+public final class CacheFileMappings {
+
+  /**
+   * The default maximum number of mappings that are retained.
+   */
+  public static final int DEFAULT_MAX_MAPPINGS = 64;
+
+  private final int maxMappings;
+  private final LinkedHashMap<File, MappedByteBuffer> mappings;
+
+  public CacheFileMappings() {
+    this(DEFAULT_MAX_MAPPINGS);
+  }
+
+  /**
+   * @param maxMappings The maximum number of mappings that are retained. The least recently used
+   *     mapping is dropped when the limit is exceeded.
+   */
+  public CacheFileMappings(int maxMappings) {
+    Assertions.checkArgument(maxMappings > 0);
+    this.maxMappings = maxMappings;
+    mappings = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Returns a read-only view of the whole of a cache file, mapping the file if it's not mapped
+   * already. The caller owns the returned view, and may change its position and limit.
+   *
+   * @param file The cache file.
+   * @return The view.
+   * @throws IOException If the file could not be mapped.
+   */
+  public synchronized ByteBuffer get(File file) throws IOException {
+    MappedByteBuffer mapping = mappings.get(file);
+    if (mapping == null) {
+      mapping = map(file);
+      mappings.put(file, mapping);
+      if (mappings.size() > maxMappings) {
+        Iterator<MappedByteBuffer> iterator = mappings.values().iterator();
+        iterator.next();
+        iterator.remove();
+      }
+    }
+    return mapping.duplicate();
+  }
+
+  /**
+   * Returns the number of mappings that are currently retained.
+   */
+  public synchronized int size() {
+    return mappings.size();
+  }
+
+  /**
+   * Drops all retained mappings.
+   */
+  public synchronized void clear() {
+    mappings.clear();
+  }
+
+  // Called by SimpleCache.
+
+  /**
+   * Moves the mapping of a cache file that has been renamed, if there is one.
+   *
+   * @param oldFile The old name of the file.
+   * @param newFile The new name of the file.
+   */
+  /*package*/ synchronized void onFileRenamed(File oldFile, File newFile) {
+    MappedByteBuffer mapping = mappings.remove(oldFile);
+    if (mapping != null) {
+      mappings.put(newFile, mapping);
+    }
+  }
+
+  /**
+   * Drops the mapping of a cache file that has been removed from the cache, if there is one.
+   *
+   * @param file The file.
+   */
+  /*package*/ synchronized void onFileRemoved(File file) {
+    mappings.remove(file);
+  }
+
+  private static MappedByteBuffer map(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      long length = channel.size();
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException("Cache file too large to map: " + file);
+      }
+      // The mapping remains valid after the channel is closed.
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.PriorityDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheUtil.CachingCounters;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.PriorityTaskManager;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Downloads a list of {@link DataSpec}s into a {@link Cache} concurrently, using a bounded pool of
+ * worker threads. Each {@link DataSpec} is cached with
+ * {@link CacheUtil#cache(DataSpec, Cache, CacheDataSource, byte[], PriorityTaskManager, int,
+ * CachingCounters)}, so data that's already cached is skipped and an interrupted prefetch can be
+ * resumed by prefetching the same list again.
+ * <p>
+ * The number of concurrent connections to each host is limited. If a {@link PriorityTaskManager}
+ * is provided, the prefetcher registers with it at the given priority for the duration of each
+ * prefetch, and downloads are paused whilst a higher priority task, such as playback, is
+ * registered.
+ * <p>
+ * Only one writer can cache data for a key at a time, so a single {@link DataSpec} is always
+ * downloaded by a single worker.
+ */
+public final class CachePrefetcher {
+
+  /**
+   * Listener of prefetch progress.
+   */
+  public interface Listener {
+
+    /**
+     * Called on a worker thread when a {@link DataSpec} has been cached. Calls are serialized.
+     *
+     * @param prefetcher The source of the event.
+     * @param completedCount The number of {@link DataSpec}s that have been cached.
+     * @param totalCount The total number of {@link DataSpec}s being prefetched.
+     * @param counters The total number of bytes that were already cached and that have been
+     *     downloaded for the completed {@link DataSpec}s.
+     */
+    void onProgress(CachePrefetcher prefetcher, int completedCount, int totalCount,
+        CachingCounters counters);
+
+  }
+
+  /**
+   * The default number of worker threads.
+   */
+  public static final int DEFAULT_WORKER_COUNT = 4;
+  /**
+   * The default maximum number of concurrent connections to a single host.
+   */
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 2;
+
+  private static final int BUFFER_SIZE = 128 * 1024;
+
+  private final Cache cache;
+  private final DataSource.Factory upstreamFactory;
+  private final PriorityTaskManager priorityTaskManager;
+  private final int priority;
+  private final int workerCount;
+  private final int maxConnectionsPerHost;
+  private final ExecutorService executorService;
+
+  /**
+   * @param cache The cache into which data is downloaded.
+   * @param upstreamFactory A factory for the {@link DataSource}s from which data is downloaded.
+   */
+  public CachePrefetcher(Cache cache, DataSource.Factory upstreamFactory) {
+    this(cache, upstreamFactory, null, C.PRIORITY_DOWNLOAD, DEFAULT_WORKER_COUNT,
+        DEFAULT_MAX_CONNECTIONS_PER_HOST);
+  }
+
+  /**
+   * @param cache The cache into which data is downloaded.
+   * @param upstreamFactory A factory for the {@link DataSource}s from which data is downloaded.
+   * @param priorityTaskManager If not null, the manager with which the prefetcher registers, and
+   *     which is used to pause downloads whilst a higher priority task is registered.
+   * @param priority The priority of the prefetcher. Used with {@code priorityTaskManager}.
+   * @param workerCount The maximum number of {@link DataSpec}s that are downloaded concurrently.
+   * @param maxConnectionsPerHost The maximum number of {@link DataSpec}s from a single host that are
+   *     downloaded concurrently.
+   */
+  public CachePrefetcher(Cache cache, DataSource.Factory upstreamFactory,
+      PriorityTaskManager priorityTaskManager, int priority, int workerCount,
+      int maxConnectionsPerHost) {
+    Assertions.checkArgument(workerCount > 0);
+    Assertions.checkArgument(maxConnectionsPerHost > 0);
+    this.cache = cache;
+    this.upstreamFactory = upstreamFactory;
+    this.priorityTaskManager = priorityTaskManager;
+    this.priority = priority;
+    this.workerCount = workerCount;
+    this.maxConnectionsPerHost = maxConnectionsPerHost;
+    executorService = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+      @Override
+      public Thread newThread(@NonNull Runnable r) {
+        return new Thread(r, "CachePrefetcher");
+      }
+    });
+  }
+
+  /**
+   * Caches a single {@link DataSpec}, such as a byte range, blocking until it has been cached.
+   *
+   * @see #prefetch(List, Listener)
+   */
+  public CachingCounters prefetch(DataSpec dataSpec, Listener listener)
+      throws IOException, InterruptedException {
+    return prefetch(Collections.singletonList(dataSpec), listener);
+  }
+
+  /**
+   * Caches the given {@link DataSpec}s, blocking until all of them have been cached. Should not be
+   * called concurrently with itself.
+   *
+   * @param dataSpecs The {@link DataSpec}s to cache. They're started in list order.
+   * @param listener An optional listener of progress.
+   * @return The total number of bytes that were already cached and that were downloaded.
+   * @throws IOException If an error occurs caching one of the {@link DataSpec}s. The remaining
+   *     downloads are cancelled.
+   * @throws InterruptedException If the calling thread was interrupted. The remaining downloads
+   *     are cancelled.
+   */
+  public CachingCounters prefetch(List<DataSpec> dataSpecs, Listener listener)
+      throws IOException, InterruptedException {
+    Job job = new Job(dataSpecs, listener);
+    if (dataSpecs.isEmpty()) {
+      return job.counters;
+    }
+    if (priorityTaskManager != null) {
+      priorityTaskManager.add(priority);
+    }
+    List<Future<?>> workers = new ArrayList<>();
+    try {
+      for (int i = 0; i < Math.min(workerCount, dataSpecs.size()); i++) {
+        workers.add(executorService.submit(new Worker(job)));
+      }
+      job.await();
+      return job.counters;
+    } finally {
+      job.cancel();
+      for (int i = 0; i < workers.size(); i++) {
+        workers.get(i).cancel(true);
+      }
+      if (priorityTaskManager != null) {
+        priorityTaskManager.remove(priority);
+      }
+    }
+  }
+
+  /**
+   * Releases the worker threads. The prefetcher must not be used after calling this method.
+   */
+  public void release() {
+    executorService.shutdownNow();
+  }
+
+  private DataSource createUpstreamDataSource() {
+    DataSource upstream = upstreamFactory.createDataSource();
+    return priorityTaskManager != null
+        ? new PriorityDataSource(upstream, priorityTaskManager, priority) : upstream;
+  }
+
+  private static String getHost(DataSpec dataSpec) {
+    String host = dataSpec.uri.getHost();
+    return host != null ? host : "";
+  }
+
+  /**
+   * The state of a call to {@link #prefetch(List, Listener)}, shared with its workers.
+   */
+  private final class Job {
+
+    public final CachingCounters counters;
+
+    private final int totalCount;
+    private final Listener listener;
+    private final LinkedList<DataSpec> pendingDataSpecs;
+    private final HashMap<String, Integer> hostConnections;
+
+    private int completedCount;
+    private IOException error;
+    private boolean canceled;
+
+    public Job(List<DataSpec> dataSpecs, Listener listener) {
+      this.listener = listener;
+      counters = new CachingCounters();
+      totalCount = dataSpecs.size();
+      pendingDataSpecs = new LinkedList<>(dataSpecs);
+      hostConnections = new HashMap<>();
+    }
+
+    /**
+     * Returns the next {@link DataSpec} whose host has a free connection, blocking until there is
+     * one, or null if there's nothing left to cache.
+     */
+    public synchronized DataSpec takeNext() throws InterruptedException {
+      while (!canceled && error == null && !pendingDataSpecs.isEmpty()) {
+        Iterator<DataSpec> iterator = pendingDataSpecs.iterator();
+        while (iterator.hasNext()) {
+          DataSpec dataSpec = iterator.next();
+          String host = getHost(dataSpec);
+          Integer connections = hostConnections.get(host);
+          int connectionCount = connections == null ? 0 : connections;
+          if (connectionCount < maxConnectionsPerHost) {
+            iterator.remove();
+            hostConnections.put(host, connectionCount + 1);
+            return dataSpec;
+          }
+        }
+        wait();
+      }
+      return null;
+    }
+
+    /**
+     * Called by a worker when it has finished with a {@link DataSpec} returned by
+     * {@link #takeNext()}.
+     *
+     * @param dataSpec The {@link DataSpec}.
+     * @param taskCounters The counters of the {@link DataSpec}, if it was cached.
+     * @param taskError The error that occurred caching the {@link DataSpec}, if any.
+     */
+    public synchronized void onFinished(DataSpec dataSpec, CachingCounters taskCounters,
+        IOException taskError) {
+      String host = getHost(dataSpec);
+      hostConnections.put(host, hostConnections.get(host) - 1);
+      if (taskError != null) {
+        if (!canceled && error == null) {
+          error = taskError;
+        }
+      } else if (taskCounters != null) {
+        completedCount++;
+        counters.alreadyCachedBytes += taskCounters.alreadyCachedBytes;
+        counters.downloadedBytes += taskCounters.downloadedBytes;
+        if (listener != null) {
+          CachingCounters progress = new CachingCounters();
+          progress.alreadyCachedBytes = counters.alreadyCachedBytes;
+          progress.downloadedBytes = counters.downloadedBytes;
+          listener.onProgress(CachePrefetcher.this, completedCount, totalCount, progress);
+        }
+      }
+      notifyAll();
+    }
+
+    /**
+     * Blocks until every {@link DataSpec} has been cached, or until an error occurs.
+     */
+    public synchronized void await() throws IOException, InterruptedException {
+      while (completedCount < totalCount && error == null) {
+        wait();
+      }
+      if (error != null) {
+        throw error;
+      }
+    }
+
+    public synchronized void cancel() {
+      canceled = true;
+      pendingDataSpecs.clear();
+      notifyAll();
+    }
+
+  }
+
+  /**
+   * Caches {@link DataSpec}s taken from a {@link Job} until there are none left.
+   */
+  private final class Worker implements Runnable {
+
+    private final Job job;
+
+    public Worker(Job job) {
+      this.job = job;
+    }
+
+    @Override
+    public void run() {
+      CacheDataSource dataSource = new CacheDataSource(cache, createUpstreamDataSource(),
+          CacheDataSource.FLAG_BLOCK_ON_CACHE);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      CachingCounters taskCounters = new CachingCounters();
+      try {
+        DataSpec dataSpec;
+        while ((dataSpec = job.takeNext()) != null) {
+          try {
+            CacheUtil.cache(dataSpec, cache, dataSource, buffer, priorityTaskManager, priority,
+                taskCounters);
+            job.onFinished(dataSpec, taskCounters, null);
+          } catch (IOException e) {
+            job.onFinished(dataSpec, null, e);
+          } catch (RuntimeException e) {
+            // Still release the connection to the host, so that the job does not wait forever.
+            job.onFinished(dataSpec, null, new IOException(e));
+          } catch (InterruptedException e) {
+            // Ignored if the job was canceled.
+            job.onFinished(dataSpec, null, new InterruptedIOException());
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        // Canceled whilst waiting for a connection.
+      }
+    }
+
+  }
+
+}
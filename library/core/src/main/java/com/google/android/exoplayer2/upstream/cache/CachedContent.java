@@ -26,6 +26,9 @@ import java.util.TreeSet;
 
 /**
  * Defines the cached content for a single stream.
+ * <p>
+ * When the content is shared between threads, its spans and lock state must only be accessed
+ * whilst holding the instance's monitor.
  */
 /*package*/ final class CachedContent {
 
@@ -45,6 +48,14 @@ import java.util.TreeSet;
    * The length of the original stream, or {@link C#LENGTH_UNSET} if the length is unknown.
    */
   private long length;
+  /**
+   * The hole span whose holder may write data for this content, or null if it's not locked.
+   */
+  private SimpleCacheSpan lockedHoleSpan;
+  /**
+   * Whether the content has been removed from the index.
+   */
+  private boolean removed;
 
   /**
    * Reads an instance from a {@link DataInputStream}.
@@ -180,15 +191,59 @@ import java.util.TreeSet;
     return cachedSpans.isEmpty();
   }
 
-  /** Removes the given span from cache. */
+  /**
+   * Removes the given span from cache. The span isn't removed if it has since been replaced by a
+   * call to {@link #touch(SimpleCacheSpan)}.
+   */
   public boolean removeSpan(CacheSpan span) {
-    if (cachedSpans.remove(span)) {
+    SimpleCacheSpan cachedSpan =
+        cachedSpans.ceiling(SimpleCacheSpan.createLookup(key, span.position));
+    if (cachedSpan != null && cachedSpan.position == span.position
+        && cachedSpan.file.equals(span.file)) {
+      cachedSpans.remove(cachedSpan);
       span.file.delete();
       return true;
     }
     return false;
   }
 
+  /** Returns whether the content is locked for writing. */
+  public boolean isLocked() {
+    return lockedHoleSpan != null;
+  }
+
+  /**
+   * Locks the content for writing.
+   *
+   * @param holeSpan The hole span that serves as the lock.
+   * @throws IllegalStateException If the content is already locked.
+   */
+  public void lock(SimpleCacheSpan holeSpan) {
+    Assertions.checkState(lockedHoleSpan == null);
+    lockedHoleSpan = holeSpan;
+  }
+
+  /**
+   * Unlocks the content.
+   *
+   * @param holeSpan The hole span that was passed to {@link #lock(SimpleCacheSpan)}.
+   * @throws IllegalStateException If the content isn't locked by the given span.
+   */
+  public void unlock(CacheSpan holeSpan) {
+    Assertions.checkState(holeSpan == lockedHoleSpan);
+    lockedHoleSpan = null;
+  }
+
+  /** Returns whether the content has been removed from the index. */
+  public boolean isRemoved() {
+    return removed;
+  }
+
+  /** Marks the content as removed from the index. */
+  public void setRemoved() {
+    removed = true;
+  }
+
   /** Calculates a hash code for the header of this {@code CachedContent}. */
   public int headerHashCode() {
     int result = id;
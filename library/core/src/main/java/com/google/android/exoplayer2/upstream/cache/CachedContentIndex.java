@@ -22,25 +22,37 @@ import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.upstream.cache.Cache.CacheException;
 import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.AtomicFile;
-import com.google.android.exoplayer2.util.ReusableBufferedOutputStream;
 import com.google.android.exoplayer2.util.Util;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
@@ -51,24 +63,65 @@ import javax.crypto.spec.SecretKeySpec;
 
 /**
  * This class maintains the index of cached content.
+ * <p>
+ * The index is persisted as a snapshot file plus a journal of the changes made since the snapshot
+ * was written. {@link #store()} appends the pending changes to the journal rather than rewriting
+ * the whole index. Once the journal grows larger than the snapshot, the snapshot is rewritten on a
+ * background thread and a new journal is started. Journals are numbered by generation, and a
+ * snapshot of generation {@code n} includes every change recorded in journals older than
+ * {@code n}, so a crash at any point leaves a snapshot and a set of journals that can be replayed.
+ * <p>
+ * Each journal record is checksummed and, if a secret key is set, encrypted on its own. A torn
+ * record at the end of a journal, for example because the process died during an append, is
+ * discarded when the index is loaded. Snapshots written by earlier versions, which have no journal,
+ * are read and rewritten in the current format.
+ * <p>
+ * Apart from {@link #get(String)}, which may be called concurrently with any other method, calls
+ * must be serialized by the caller.
  */
 /*package*/ final class CachedContentIndex {
 
   public static final String FILE_NAME = "cached_content_index.exi";
 
-  private static final int VERSION = 1;
+  private static final Pattern JOURNAL_FILE_PATTERN =
+      Pattern.compile("^cached_content_index\\.(\\d+)\\.exj$");
+
+  private static final int VERSION_LEGACY = 1;
+  private static final int VERSION = 2;
+  private static final int JOURNAL_VERSION = 1;
 
   private static final int FLAG_ENCRYPTED_INDEX = 1;
 
+  private static final int RECORD_ADD = 0;
+  private static final int RECORD_REMOVE = 1;
+  private static final int RECORD_LENGTH = 2;
+
+  private static final int JOURNAL_HEADER_LENGTH = 8;
+  private static final int RECORD_HEADER_LENGTH = 8;
+  // Keys are written as modified UTF-8, which is at most 65535 bytes.
+  private static final int MAX_RECORD_PAYLOAD_LENGTH = 128 * 1024;
+  private static final long MIN_COMPACTION_JOURNAL_LENGTH = 64 * 1024;
+
   private static final String TAG = "CachedContentIndex";
 
-  private final HashMap<String, CachedContent> keyToContent;
+  private final ConcurrentHashMap<String, CachedContent> keyToContent;
   private final SparseArray<String> idToKey;
+  private final File cacheDir;
   private final AtomicFile atomicFile;
   private final Cipher cipher;
   private final SecretKeySpec secretKeySpec;
-  private boolean changed;
-  private ReusableBufferedOutputStream bufferedOutputStream;
+  private final ByteArrayOutputStream pendingRecords;
+  private final DataOutputStream pendingOutput;
+  private final ByteArrayOutputStream recordBody;
+  private final DataOutputStream recordOutput;
+  private final CRC32 crc;
+  private final Random random;
+  private final AtomicBoolean compacting;
+
+  private int generation;
+  private long journalLength;
+  private long snapshotLength;
+  private boolean compactionRequired;
 
   /**
    * Creates a CachedContentIndex which works on the index file in the given cacheDir.
@@ -99,28 +152,81 @@ import javax.crypto.spec.SecretKeySpec;
       cipher = null;
       secretKeySpec = null;
     }
-    keyToContent = new HashMap<>();
+    keyToContent = new ConcurrentHashMap<>();
     idToKey = new SparseArray<>();
+    this.cacheDir = cacheDir;
     atomicFile = new AtomicFile(new File(cacheDir, FILE_NAME));
+    pendingRecords = new ByteArrayOutputStream();
+    pendingOutput = new DataOutputStream(pendingRecords);
+    recordBody = new ByteArrayOutputStream();
+    recordOutput = new DataOutputStream(recordBody);
+    crc = new CRC32();
+    random = new Random();
+    compacting = new AtomicBoolean();
+  }
+
+  /**
+   * Returns whether the file with the given name is part of the index. Such files are kept in the
+   * cache directory alongside the cache files.
+   */
+  public static boolean isIndexFile(String fileName) {
+    return fileName.equals(FILE_NAME) || JOURNAL_FILE_PATTERN.matcher(fileName).matches();
   }
 
-  /** Loads the index file. */
+  /** Loads the index file and replays the journal. */
   public void load() {
-    Assertions.checkState(!changed);
-    if (!readFile()) {
+    Assertions.checkState(pendingRecords.size() == 0);
+    if (!readFile() || !readJournals()) {
       atomicFile.delete();
+      deleteJournals(Integer.MAX_VALUE);
       keyToContent.clear();
       idToKey.clear();
+      generation = 0;
+      journalLength = 0;
+      snapshotLength = 0;
+      compactionRequired = false;
     }
   }
 
-  /** Stores the index data to index file if there is a change. */
+  /**
+   * Appends pending changes to the journal, and compacts the journal into the index file if it has
+   * grown too large.
+   */
   public void store() throws CacheException {
-    if (!changed) {
-      return;
+    if (!compactionRequired) {
+      appendPendingRecords();
+    }
+    if (compactionRequired) {
+      // The journal can't be appended to, so the snapshot must be written before returning. A
+      // background compaction in progress wrote its snapshot before the pending changes, so wait
+      // for it to finish and write the snapshot again.
+      awaitCompaction();
+      try {
+        writeFile(startCompaction());
+        deleteJournals(generation);
+        compactionRequired = false;
+      } finally {
+        finishCompaction();
+      }
+    } else if (journalLength > Math.max(MIN_COMPACTION_JOURNAL_LENGTH, snapshotLength)
+        && compacting.compareAndSet(false, true)) {
+      final int compactedGeneration = generation + 1;
+      final byte[] snapshot = startCompaction();
+      new Thread("CachedContentIndex.compact()") {
+        @Override
+        public void run() {
+          try {
+            writeFile(snapshot);
+            deleteJournals(compactedGeneration);
+          } catch (CacheException e) {
+            // The previous snapshot and journals are still intact.
+            Log.e(TAG, "Error compacting cache content index.", e);
+          } finally {
+            finishCompaction();
+          }
+        }
+      }.start();
     }
-    writeFile();
-    changed = false;
   }
 
   /**
@@ -137,7 +243,10 @@ import javax.crypto.spec.SecretKeySpec;
     return cachedContent;
   }
 
-  /** Returns a CachedContent instance with the given key or null if there isn't one. */
+  /**
+   * Returns a CachedContent instance with the given key or null if there isn't one. May be called
+   * without synchronizing with the other methods.
+   */
   public CachedContent get(String key) {
     return keyToContent.get(key);
   }
@@ -173,7 +282,7 @@ import javax.crypto.spec.SecretKeySpec;
     if (cachedContent != null) {
       Assertions.checkState(cachedContent.isEmpty());
       idToKey.remove(cachedContent.id);
-      changed = true;
+      recordRemove(cachedContent.id);
     }
   }
 
@@ -209,7 +318,7 @@ import javax.crypto.spec.SecretKeySpec;
     if (cachedContent != null) {
       if (cachedContent.getLength() != length) {
         cachedContent.setLength(length);
-        changed = true;
+        recordLength(cachedContent.id, length);
       }
     } else {
       addNew(key, length);
@@ -231,12 +340,17 @@ import javax.crypto.spec.SecretKeySpec;
       InputStream inputStream = new BufferedInputStream(atomicFile.openRead());
       input = new DataInputStream(inputStream);
       int version = input.readInt();
-      if (version != VERSION) {
-        // Currently there is no other version
+      if (version != VERSION && version != VERSION_LEGACY) {
         return false;
       }
 
       int flags = input.readInt();
+      if (version == VERSION) {
+        generation = input.readInt();
+      } else {
+        generation = 0;
+        compactionRequired = true; // Force index to be rewritten in the current format.
+      }
       if ((flags & FLAG_ENCRYPTED_INDEX) != 0) {
         if (cipher == null) {
           return false;
@@ -252,7 +366,7 @@ import javax.crypto.spec.SecretKeySpec;
         input = new DataInputStream(new CipherInputStream(inputStream, cipher));
       } else {
         if (cipher != null) {
-          changed = true; // Force index to be rewritten encrypted after read.
+          compactionRequired = true; // Force index to be rewritten encrypted after read.
         }
       }
 
@@ -266,8 +380,12 @@ import javax.crypto.spec.SecretKeySpec;
       if (input.readInt() != hashCode) {
         return false;
       }
+      snapshotLength = new File(cacheDir, FILE_NAME).length();
     } catch (FileNotFoundException e) {
-      return false;
+      // There's no snapshot yet. Any journals apply to an empty index.
+      generation = 0;
+      snapshotLength = 0;
+      return true;
     } catch (IOException e) {
       Log.e(TAG, "Error reading cache content index file.", e);
       return false;
@@ -279,24 +397,320 @@ import javax.crypto.spec.SecretKeySpec;
     return true;
   }
 
-  private void writeFile() throws CacheException {
+  /**
+   * Replays the journals of the current and later generations, in order, and deletes journals of
+   * earlier generations. If a journal ends with a torn record, it's truncated to its last complete
+   * record and any later journals are deleted.
+   *
+   * @return Whether the journals were replayed. False if a journal couldn't be read at all.
+   */
+  private boolean readJournals() {
+    File[] files = cacheDir.listFiles();
+    ArrayList<Integer> generations = new ArrayList<>();
+    if (files != null) {
+      for (File file : files) {
+        Matcher matcher = JOURNAL_FILE_PATTERN.matcher(file.getName());
+        if (!matcher.matches()) {
+          continue;
+        }
+        int journalGeneration = Integer.parseInt(matcher.group(1));
+        if (journalGeneration < generation) {
+          // Left over from a compaction that wrote its snapshot but didn't clean up.
+          file.delete();
+        } else {
+          generations.add(journalGeneration);
+        }
+      }
+    }
+    Collections.sort(generations);
+
+    int lastGeneration = generation;
+    journalLength = 0;
+    boolean torn = false;
+    for (int i = 0; i < generations.size(); i++) {
+      File file = getJournalFile(generations.get(i));
+      if (torn) {
+        // Changes recorded after a torn record can't be applied consistently.
+        file.delete();
+        continue;
+      }
+      long validLength = readJournal(file);
+      if (validLength == C.LENGTH_UNSET) {
+        return false;
+      }
+      if (validLength < file.length()) {
+        Log.w(TAG, "Discarding torn tail of " + file);
+        torn = true;
+        if (!truncate(file, validLength)) {
+          compactionRequired = true;
+        }
+      }
+      lastGeneration = generations.get(i);
+      journalLength = validLength;
+    }
+    generation = lastGeneration;
+    if (compactionRequired) {
+      // Don't append to a journal that is unreadable or written with different encryption settings.
+      generation = lastGeneration + 1;
+      journalLength = 0;
+    }
+    return true;
+  }
+
+  /**
+   * Replays a single journal.
+   *
+   * @param file The journal file.
+   * @return The length of the prefix of the journal that was replayed, or {@link C#LENGTH_UNSET}
+   *     if the journal couldn't be read at all.
+   */
+  private long readJournal(File file) {
+    DataInputStream input = null;
+    long validLength = 0;
+    try {
+      input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      if (input.readInt() != JOURNAL_VERSION) {
+        return C.LENGTH_UNSET;
+      }
+      boolean encrypted = (input.readInt() & FLAG_ENCRYPTED_INDEX) != 0;
+      if (encrypted && cipher == null) {
+        return C.LENGTH_UNSET;
+      } else if (encrypted != (cipher != null)) {
+        compactionRequired = true; // Force index to be rewritten with the current settings.
+      }
+      validLength = JOURNAL_HEADER_LENGTH;
+      byte[] payload = new byte[0];
+      while (true) {
+        int payloadLength;
+        try {
+          payloadLength = input.readInt();
+        } catch (EOFException e) {
+          // Clean end of the journal.
+          break;
+        }
+        int checksum = input.readInt();
+        if (payloadLength < 0 || payloadLength > MAX_RECORD_PAYLOAD_LENGTH) {
+          break;
+        }
+        if (payload.length < payloadLength) {
+          payload = new byte[payloadLength];
+        }
+        input.readFully(payload, 0, payloadLength);
+        crc.reset();
+        crc.update(payload, 0, payloadLength);
+        if ((int) crc.getValue() != checksum
+            || !applyRecord(payload, payloadLength, encrypted)) {
+          break;
+        }
+        validLength += RECORD_HEADER_LENGTH + payloadLength;
+      }
+    } catch (FileNotFoundException e) {
+      return 0;
+    } catch (IOException e) {
+      // A torn record, or a torn header if validLength is still zero.
+    } finally {
+      Util.closeQuietly(input);
+    }
+    return validLength;
+  }
+
+  /**
+   * Applies a journal record to the in-memory index.
+   *
+   * @return Whether the record was valid.
+   */
+  private boolean applyRecord(byte[] payload, int payloadLength, boolean encrypted) {
+    byte[] body = payload;
+    int bodyLength = payloadLength;
+    if (encrypted) {
+      if (payloadLength < 16) {
+        return false;
+      }
+      try {
+        cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, new IvParameterSpec(payload, 0, 16));
+        body = cipher.doFinal(payload, 16, payloadLength - 16);
+      } catch (GeneralSecurityException e) {
+        return false;
+      }
+      bodyLength = body.length;
+    }
+    DataInputStream input =
+        new DataInputStream(new ByteArrayInputStream(body, 0, bodyLength));
+    try {
+      switch (input.readByte()) {
+        case RECORD_ADD:
+          CachedContent cachedContent = new CachedContent(input);
+          CachedContent existing = keyToContent.get(cachedContent.key);
+          if (existing != null) {
+            idToKey.remove(existing.id);
+          }
+          add(cachedContent);
+          return true;
+        case RECORD_REMOVE:
+          String key = idToKey.get(input.readInt());
+          if (key != null) {
+            idToKey.remove(keyToContent.remove(key).id);
+          }
+          return true;
+        case RECORD_LENGTH:
+          key = idToKey.get(input.readInt());
+          long length = input.readLong();
+          if (key != null) {
+            keyToContent.get(key).setLength(length);
+          }
+          return true;
+        default:
+          return false;
+      }
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private void recordAdd(CachedContent cachedContent) {
+    try {
+      recordOutput.writeByte(RECORD_ADD);
+      cachedContent.writeToStream(recordOutput);
+    } catch (IOException e) {
+      throw new IllegalStateException(e); // Should never happen.
+    }
+    writeRecord();
+  }
+
+  private void recordRemove(int id) {
+    try {
+      recordOutput.writeByte(RECORD_REMOVE);
+      recordOutput.writeInt(id);
+    } catch (IOException e) {
+      throw new IllegalStateException(e); // Should never happen.
+    }
+    writeRecord();
+  }
+
+  private void recordLength(int id, long length) {
+    try {
+      recordOutput.writeByte(RECORD_LENGTH);
+      recordOutput.writeInt(id);
+      recordOutput.writeLong(length);
+    } catch (IOException e) {
+      throw new IllegalStateException(e); // Should never happen.
+    }
+    writeRecord();
+  }
+
+  /**
+   * Frames the record held in {@link #recordBody} and adds it to the pending records.
+   */
+  private void writeRecord() {
+    byte[] payload = recordBody.toByteArray();
+    recordBody.reset();
+    if (cipher != null) {
+      byte[] initializationVector = new byte[16];
+      random.nextBytes(initializationVector);
+      byte[] encryptedBody;
+      try {
+        cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec,
+            new IvParameterSpec(initializationVector));
+        encryptedBody = cipher.doFinal(payload);
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(e); // Should never happen.
+      }
+      payload = new byte[16 + encryptedBody.length];
+      System.arraycopy(initializationVector, 0, payload, 0, 16);
+      System.arraycopy(encryptedBody, 0, payload, 16, encryptedBody.length);
+    }
+    crc.reset();
+    crc.update(payload, 0, payload.length);
+    try {
+      pendingOutput.writeInt(payload.length);
+      pendingOutput.writeInt((int) crc.getValue());
+      pendingOutput.write(payload);
+    } catch (IOException e) {
+      throw new IllegalStateException(e); // Should never happen.
+    }
+  }
+
+  private void appendPendingRecords() throws CacheException {
+    if (pendingRecords.size() == 0) {
+      return;
+    }
     DataOutputStream output = null;
     try {
-      OutputStream outputStream = atomicFile.startWrite();
-      if (bufferedOutputStream == null) {
-        bufferedOutputStream = new ReusableBufferedOutputStream(outputStream);
-      } else {
-        bufferedOutputStream.reset(outputStream);
+      output = new DataOutputStream(new FileOutputStream(getJournalFile(generation), true));
+      if (journalLength == 0) {
+        output.writeInt(JOURNAL_VERSION);
+        output.writeInt(cipher != null ? FLAG_ENCRYPTED_INDEX : 0);
+      }
+      pendingRecords.writeTo(output);
+      output.close();
+      output = null;
+      journalLength += (journalLength == 0 ? JOURNAL_HEADER_LENGTH : 0) + pendingRecords.size();
+      pendingRecords.reset();
+    } catch (IOException e) {
+      // The journal may now end with a partial record. Rewrite the index instead of appending.
+      compactionRequired = true;
+      throw new CacheException(e);
+    } finally {
+      Util.closeQuietly(output);
+    }
+  }
+
+  /**
+   * Blocks until no compaction is in progress, and marks a new compaction as being in progress.
+   */
+  private void awaitCompaction() {
+    boolean interrupted = false;
+    synchronized (compacting) {
+      while (!compacting.compareAndSet(false, true)) {
+        try {
+          compacting.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
       }
-      output = new DataOutputStream(bufferedOutputStream);
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Marks the compaction in progress as finished, and wakes up a thread waiting to compact.
+   */
+  private void finishCompaction() {
+    synchronized (compacting) {
+      compacting.set(false);
+      compacting.notifyAll();
+    }
+  }
+
+  /**
+   * Starts a new journal generation and returns a snapshot of the index at the start of it. Must
+   * be called with no pending records, unless the snapshot is written before returning from
+   * {@link #store()}.
+   */
+  private byte[] startCompaction() throws CacheException {
+    generation++;
+    journalLength = 0;
+    pendingRecords.reset();
+    byte[] snapshot = serialize();
+    snapshotLength = snapshot.length;
+    return snapshot;
+  }
+
+  private byte[] serialize() throws CacheException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    try {
       output.writeInt(VERSION);
 
       int flags = cipher != null ? FLAG_ENCRYPTED_INDEX : 0;
       output.writeInt(flags);
+      output.writeInt(generation);
 
       if (cipher != null) {
         byte[] initializationVector = new byte[16];
-        new Random().nextBytes(initializationVector);
+        random.nextBytes(initializationVector);
         output.write(initializationVector);
         IvParameterSpec ivParameterSpec = new IvParameterSpec(initializationVector);
         try {
@@ -305,7 +719,7 @@ import javax.crypto.spec.SecretKeySpec;
           throw new IllegalStateException(e); // Should never happen.
         }
         output.flush();
-        output = new DataOutputStream(new CipherOutputStream(bufferedOutputStream, cipher));
+        output = new DataOutputStream(new CipherOutputStream(bytes, cipher));
       }
 
       output.writeInt(keyToContent.size());
@@ -315,9 +729,19 @@ import javax.crypto.spec.SecretKeySpec;
         hashCode += cachedContent.headerHashCode();
       }
       output.writeInt(hashCode);
+      output.close();
+    } catch (IOException e) {
+      throw new CacheException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private void writeFile(byte[] snapshot) throws CacheException {
+    OutputStream output = null;
+    try {
+      output = atomicFile.startWrite();
+      output.write(snapshot);
       atomicFile.endWrite(output);
-      // Avoid calling close twice. Duplicate CipherOutputStream.close calls did
-      // not used to be no-ops: https://android-review.googlesource.com/#/c/272799/
       output = null;
     } catch (IOException e) {
       throw new CacheException(e);
@@ -326,6 +750,38 @@ import javax.crypto.spec.SecretKeySpec;
     }
   }
 
+  private File getJournalFile(int journalGeneration) {
+    return new File(cacheDir, "cached_content_index." + journalGeneration + ".exj");
+  }
+
+  /** Deletes the journals of generations earlier than the given one. */
+  private void deleteJournals(int beforeGeneration) {
+    File[] files = cacheDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      Matcher matcher = JOURNAL_FILE_PATTERN.matcher(file.getName());
+      if (matcher.matches() && Integer.parseInt(matcher.group(1)) < beforeGeneration) {
+        file.delete();
+      }
+    }
+  }
+
+  private static boolean truncate(File file, long length) {
+    RandomAccessFile randomAccessFile = null;
+    try {
+      randomAccessFile = new RandomAccessFile(file, "rw");
+      randomAccessFile.setLength(length);
+      return true;
+    } catch (IOException e) {
+      Log.e(TAG, "Error truncating " + file, e);
+      return false;
+    } finally {
+      Util.closeQuietly(randomAccessFile);
+    }
+  }
+
   private void add(CachedContent cachedContent) {
     keyToContent.put(cachedContent.key, cachedContent);
     idToKey.put(cachedContent.id, cachedContent.key);
@@ -334,7 +790,7 @@ import javax.crypto.spec.SecretKeySpec;
   /** Adds the given CachedContent to the index. */
   /*package*/ void addNew(CachedContent cachedContent) {
     add(cachedContent);
-    changed = true;
+    recordAdd(cachedContent);
   }
 
   private CachedContent addNew(String key, long length) {
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import com.google.android.exoplayer2.util.Assertions;
+
+/**
+ * A count-min sketch of 4-bit access counters, used to estimate how often items have recently been
+ * accessed in a fixed amount of memory.
+ * <p>
+ * Each item is counted in four counters selected by independent hashes, and its estimated
+ * frequency is the smallest of them. Counters are packed sixteen to a {@code long}. Once a number
+ * of increments proportional to the number of counters has been made, all counters are halved so
+ * that old accesses age out of the estimate.
+ */
+/*package*/ final class FrequencySketch {
+
+  private static final long[] SEEDS = new long[] {
+      0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final int MAX_COUNT = 15;
+
+  private final long[] table;
+  private final int tableMask;
+  private final int sampleSize;
+
+  private int additions;
+
+  /**
+   * @param tableLength The number of {@code long}s in the table, each of which holds sixteen
+   *     counters. Must be a power of two.
+   */
+  public FrequencySketch(int tableLength) {
+    Assertions.checkArgument(tableLength > 0 && (tableLength & (tableLength - 1)) == 0);
+    table = new long[tableLength];
+    tableMask = tableLength - 1;
+    // Each item occupies four counters, so the table holds roughly four items per long.
+    sampleSize = 10 * 4 * tableLength;
+  }
+
+  /**
+   * Returns the estimated number of recent accesses to an item, between 0 and 15.
+   *
+   * @param hash The hash code of the item.
+   */
+  public int frequency(int hash) {
+    int frequency = MAX_COUNT;
+    for (int i = 0; i < SEEDS.length; i++) {
+      long indexHash = indexHash(hash, i);
+      int shift = counterShift(indexHash);
+      int count = (int) ((table[(int) indexHash & tableMask] >>> shift) & 0xF);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /**
+   * Records an access to an item.
+   *
+   * @param hash The hash code of the item.
+   */
+  public void increment(int hash) {
+    boolean incremented = false;
+    for (int i = 0; i < SEEDS.length; i++) {
+      long indexHash = indexHash(hash, i);
+      int index = (int) indexHash & tableMask;
+      int shift = counterShift(indexHash);
+      if (((table[index] >>> shift) & 0xF) < MAX_COUNT) {
+        table[index] += 1L << shift;
+        incremented = true;
+      }
+    }
+    if (incremented && ++additions == sampleSize) {
+      reset();
+    }
+  }
+
+  /** Halves every counter. */
+  private void reset() {
+    for (int i = 0; i < table.length; i++) {
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    additions /= 2;
+  }
+
+  private static long indexHash(int hash, int depth) {
+    long indexHash = (hash + SEEDS[depth]) * SEEDS[depth];
+    return indexHash ^ (indexHash >>> 32);
+  }
+
+  /** Returns the bit offset of one of the sixteen counters in a long, using the high hash bits. */
+  private static int counterShift(long indexHash) {
+    return (int) ((indexHash >>> 40) & 0xF) << 2;
+  }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.FileDataSource.FileDataSourceException;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link DataSource} for reading committed cache files through memory mappings obtained from a
+ * {@link CacheFileMappings}, for use as the cache read data source of a {@link CacheDataSource}.
+ * <p>
+ * Reads are copies out of the mapping rather than a {@code read} system call per chunk, which
+ * makes repeated and random-access reads of cached data cheap. The files must not be modified
+ * whilst they're being read, which is the case for files committed to a {@link SimpleCache}.
+ */
+public final class MappedFileDataSource implements DataSource {
+
+  private final CacheFileMappings mappings;
+  private final TransferListener<? super MappedFileDataSource> listener;
+
+  private ByteBuffer mapping;
+  private Uri uri;
+  private long bytesRemaining;
+  private boolean opened;
+
+  /**
+   * @param mappings The mappings through which files are read.
+   */
+  public MappedFileDataSource(CacheFileMappings mappings) {
+    this(mappings, null);
+  }
+
+  /**
+   * @param mappings The mappings through which files are read.
+   * @param listener An optional listener.
+   */
+  public MappedFileDataSource(CacheFileMappings mappings,
+      TransferListener<? super MappedFileDataSource> listener) {
+    this.mappings = mappings;
+    this.listener = listener;
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws FileDataSourceException {
+    try {
+      uri = dataSpec.uri;
+      mapping = mappings.get(new File(dataSpec.uri.getPath()));
+      if (dataSpec.position > mapping.capacity()) {
+        throw new EOFException();
+      }
+      mapping.position((int) dataSpec.position);
+      bytesRemaining = dataSpec.length == C.LENGTH_UNSET ? mapping.remaining() : dataSpec.length;
+      if (bytesRemaining < 0 || bytesRemaining > mapping.remaining()) {
+        throw new EOFException();
+      }
+    } catch (IOException e) {
+      throw new FileDataSourceException(e);
+    }
+
+    opened = true;
+    if (listener != null) {
+      listener.onTransferStart(this, dataSpec);
+    }
+
+    return bytesRemaining;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) {
+    if (readLength == 0) {
+      return 0;
+    } else if (bytesRemaining == 0) {
+      return C.RESULT_END_OF_INPUT;
+    } else {
+      int bytesRead = (int) Math.min(bytesRemaining, readLength);
+      mapping.get(buffer, offset, bytesRead);
+      bytesRemaining -= bytesRead;
+      if (listener != null) {
+        listener.onBytesTransferred(this, bytesRead);
+      }
+      return bytesRead;
+    }
+  }
+
+  @Override
+  public Uri getUri() {
+    return uri;
+  }
+
+  @Override
+  public void close() {
+    uri = null;
+    mapping = null;
+    if (opened) {
+      opened = false;
+      if (listener != null) {
+        listener.onTransferEnd(this);
+      }
+    }
+  }
+
+}
@@ -21,6 +21,7 @@ import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.util.Assertions;
 
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -28,19 +29,40 @@ import java.util.LinkedList;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A {@link Cache} implementation that maintains an in-memory representation.
+ * <p>
+ * Operations on different keys don't block each other. Each {@link CachedContent} is guarded by
+ * its own monitor, on which writers also wait whilst another writer holds the key. The cache's
+ * monitor only guards the index, the total cache space and a queue of span events, and is never
+ * held for long. Span events are delivered to the {@link CacheEvictor} and to listeners, in the
+ * order in which they occurred, by whichever thread finds the queue non-empty, so eviction doesn't
+ * stall operations on other keys.
+ * <p>
+ * Locks are always acquired in the order: event delivery lock, {@link CachedContent} monitor, cache
+ * monitor.
  */
 public final class SimpleCache implements Cache {
 
+  private static final int EVENT_SPAN_ADDED = 0;
+  private static final int EVENT_SPAN_REMOVED = 1;
+  private static final int EVENT_SPAN_TOUCHED = 2;
+
   private final File cacheDir;
   private final CacheEvictor evictor;
-  private final HashMap<String, CacheSpan> lockedSpans;
   private final CachedContentIndex index;
   private final HashMap<String, ArrayList<Listener>> listeners;
+  private final CacheFileMappings fileMappings;
+  private final ArrayDeque<SpanEvent> pendingEvents;
+  private final ReentrantLock eventLock;
+  private final ConditionVariable initializationCondition;
+  private final AtomicBoolean staleSpansDetected;
   private long totalSpace = 0;
   private CacheException initializationException;
+  private volatile boolean initialized;
 
   /**
    * Constructs the cache. The cache will delete any unrecognized files from the directory. Hence
@@ -63,188 +85,304 @@ public final class SimpleCache implements Cache {
    *     The key must be 16 bytes long.
    */
   public SimpleCache(File cacheDir, CacheEvictor evictor, byte[] secretKey) {
+    this(cacheDir, evictor, secretKey, null);
+  }
+
+  /**
+   * Constructs the cache. The cache will delete any unrecognized files from the directory. Hence
+   * the directory cannot be used to store other files.
+   *
+   * @param cacheDir A dedicated cache directory.
+   * @param evictor The evictor to be used.
+   * @param secretKey If not null, cache keys will be stored encrypted on filesystem using AES/CBC.
+   *     The key must be 16 bytes long.
+   * @param fileMappings If not null, memory mappings of cache files that are kept in step with the
+   *     cache as spans are touched and removed. Cached data can then be read through a
+   *     {@link MappedFileDataSource} that uses the same mappings.
+   */
+  public SimpleCache(File cacheDir, CacheEvictor evictor, byte[] secretKey,
+      CacheFileMappings fileMappings) {
     this.cacheDir = cacheDir;
     this.evictor = evictor;
-    this.lockedSpans = new HashMap<>();
     this.index = new CachedContentIndex(cacheDir, secretKey);
     this.listeners = new HashMap<>();
-    // Start cache initialization.
-    final ConditionVariable conditionVariable = new ConditionVariable();
+    this.fileMappings = fileMappings;
+    this.pendingEvents = new ArrayDeque<>();
+    this.eventLock = new ReentrantLock();
+    this.initializationCondition = new ConditionVariable();
+    this.staleSpansDetected = new AtomicBoolean();
+    // Start cache initialization. Other methods block until it has completed.
     new Thread("SimpleCache.initialize()") {
       @Override
       public void run() {
         synchronized (SimpleCache.this) {
-          conditionVariable.open();
           try {
             initialize();
           } catch (CacheException e) {
             initializationException = e;
           }
+        }
+        eventLock.lock();
+        try {
+          // The evictor may remove spans as the initial events are delivered, so other methods
+          // must be unblocked first.
+          initialized = true;
+          initializationCondition.open();
+          deliverPendingEvents();
           SimpleCache.this.evictor.onCacheInitialized();
+        } finally {
+          eventLock.unlock();
         }
+        dispatchEvents();
       }
     }.start();
-    conditionVariable.block();
   }
 
   @Override
-  public synchronized NavigableSet<CacheSpan> addListener(String key, Listener listener) {
-    ArrayList<Listener> listenersForKey = listeners.get(key);
-    if (listenersForKey == null) {
-      listenersForKey = new ArrayList<>();
-      listeners.put(key, listenersForKey);
+  public NavigableSet<CacheSpan> addListener(String key, Listener listener) {
+    awaitInitialization();
+    synchronized (this) {
+      ArrayList<Listener> listenersForKey = listeners.get(key);
+      if (listenersForKey == null) {
+        listenersForKey = new ArrayList<>();
+        listeners.put(key, listenersForKey);
+      }
+      listenersForKey.add(listener);
     }
-    listenersForKey.add(listener);
     return getCachedSpans(key);
   }
 
   @Override
-  public synchronized void removeListener(String key, Listener listener) {
-    ArrayList<Listener> listenersForKey = listeners.get(key);
-    if (listenersForKey != null) {
-      listenersForKey.remove(listener);
-      if (listenersForKey.isEmpty()) {
-        listeners.remove(key);
+  public void removeListener(String key, Listener listener) {
+    awaitInitialization();
+    synchronized (this) {
+      ArrayList<Listener> listenersForKey = listeners.get(key);
+      if (listenersForKey != null) {
+        listenersForKey.remove(listener);
+        if (listenersForKey.isEmpty()) {
+          listeners.remove(key);
+        }
       }
     }
   }
 
   @Override
-  public synchronized NavigableSet<CacheSpan> getCachedSpans(String key) {
+  public NavigableSet<CacheSpan> getCachedSpans(String key) {
+    awaitInitialization();
     CachedContent cachedContent = index.get(key);
-    return cachedContent == null ? null : new TreeSet<CacheSpan>(cachedContent.getSpans());
+    if (cachedContent == null) {
+      return null;
+    }
+    synchronized (cachedContent) {
+      return new TreeSet<CacheSpan>(cachedContent.getSpans());
+    }
   }
 
   @Override
-  public synchronized Set<String> getKeys() {
+  public Set<String> getKeys() {
+    awaitInitialization();
     return new HashSet<>(index.getKeys());
   }
 
   @Override
-  public synchronized long getCacheSpace() {
-    return totalSpace;
+  public long getCacheSpace() {
+    awaitInitialization();
+    synchronized (this) {
+      return totalSpace;
+    }
   }
 
   @Override
-  public synchronized SimpleCacheSpan startReadWrite(String key, long position)
+  public SimpleCacheSpan startReadWrite(String key, long position)
       throws InterruptedException, CacheException {
+    awaitInitialization();
+    if (initializationException != null) {
+      throw initializationException;
+    }
     while (true) {
-      SimpleCacheSpan span = startReadWriteNonBlocking(key, position);
-      if (span != null) {
-        return span;
-      } else {
-        // Write case, lock not available. We'll be woken up when a locked span is released (if the
-        // released lock is for the requested key then we'll be able to make progress) or when a
-        // span is added to the cache (if the span is for the requested key and covers the requested
-        // position, then we'll become a read and be able to make progress).
-        wait();
+      CachedContent cachedContent = getOrAddContent(key);
+      SimpleCacheSpan span;
+      synchronized (cachedContent) {
+        if (cachedContent.isRemoved()) {
+          continue;
+        }
+        span = startReadWrite(cachedContent, position);
+        if (span == null) {
+          // Write case, lock not available. We'll be woken up when the lock is released (then
+          // we'll be able to make progress) or when a span is added for the key (if the span covers
+          // the requested position, then we'll become a read and be able to make progress).
+          cachedContent.wait();
+          continue;
+        }
       }
+      onReadWriteStarted();
+      return span;
     }
   }
 
   @Override
-  public synchronized SimpleCacheSpan startReadWriteNonBlocking(String key, long position)
+  public SimpleCacheSpan startReadWriteNonBlocking(String key, long position)
       throws CacheException {
+    awaitInitialization();
     if (initializationException != null) {
       throw initializationException;
     }
-
-    SimpleCacheSpan cacheSpan = getSpan(key, position);
-
-    // Read case.
-    if (cacheSpan.isCached) {
-      // Obtain a new span with updated last access timestamp.
-      SimpleCacheSpan newCacheSpan = index.get(key).touch(cacheSpan);
-      notifySpanTouched(cacheSpan, newCacheSpan);
-      return newCacheSpan;
-    }
-
-    // Write case, lock available.
-    if (!lockedSpans.containsKey(key)) {
-      lockedSpans.put(key, cacheSpan);
-      return cacheSpan;
+    while (true) {
+      CachedContent cachedContent = getOrAddContent(key);
+      SimpleCacheSpan span;
+      synchronized (cachedContent) {
+        if (cachedContent.isRemoved()) {
+          continue;
+        }
+        span = startReadWrite(cachedContent, position);
+      }
+      onReadWriteStarted();
+      return span;
     }
-
-    // Write case, lock not available.
-    return null;
   }
 
   @Override
-  public synchronized File startFile(String key, long position, long maxLength)
-      throws CacheException {
-    Assertions.checkState(lockedSpans.containsKey(key));
+  public File startFile(String key, long position, long maxLength) throws CacheException {
+    awaitInitialization();
+    CachedContent cachedContent = index.get(key);
+    Assertions.checkState(cachedContent != null);
+    synchronized (cachedContent) {
+      Assertions.checkState(cachedContent.isLocked());
+    }
     if (!cacheDir.exists()) {
       // For some reason the cache directory doesn't exist. Make a best effort to create it.
       removeStaleSpansAndCachedContents();
       cacheDir.mkdirs();
     }
-    evictor.onStartFile(this, key, position, maxLength);
-    return SimpleCacheSpan.getCacheFile(cacheDir, index.assignIdForKey(key), position,
+    // Unlike other events, space must have been made by the time this method returns.
+    eventLock.lock();
+    try {
+      deliverPendingEvents();
+      evictor.onStartFile(this, key, position, maxLength);
+    } finally {
+      eventLock.unlock();
+    }
+    dispatchEvents();
+    // The content is locked, so it can't have been removed from the index.
+    return SimpleCacheSpan.getCacheFile(cacheDir, cachedContent.id, position,
         System.currentTimeMillis());
   }
 
   @Override
-  public synchronized void commitFile(File file) throws CacheException {
-    SimpleCacheSpan span = SimpleCacheSpan.createCacheEntry(file, index);
+  public void commitFile(File file) throws CacheException {
+    awaitInitialization();
+    SimpleCacheSpan span;
+    synchronized (this) {
+      span = SimpleCacheSpan.createCacheEntry(file, index);
+    }
     Assertions.checkState(span != null);
-    Assertions.checkState(lockedSpans.containsKey(span.key));
-    // If the file doesn't exist, don't add it to the in-memory representation.
-    if (!file.exists()) {
-      return;
+    CachedContent cachedContent = index.get(span.key);
+    Assertions.checkState(cachedContent != null);
+    synchronized (cachedContent) {
+      Assertions.checkState(cachedContent.isLocked());
+      // If the file doesn't exist, don't add it to the in-memory representation.
+      if (!file.exists()) {
+        return;
+      }
+      // If the file has length 0, delete it and don't add it to the in-memory representation.
+      if (file.length() == 0) {
+        file.delete();
+        return;
+      }
+      // Check if the span conflicts with the set content length
+      long length = getContentLength(span.key);
+      if (length != C.LENGTH_UNSET) {
+        Assertions.checkState((span.position + span.length) <= length);
+      }
+      addSpan(cachedContent, span);
+      synchronized (this) {
+        index.store();
+      }
+      // Wake up writers waiting for the key, which may now be able to read.
+      cachedContent.notifyAll();
     }
-    // If the file has length 0, delete it and don't add it to the in-memory representation.
-    if (file.length() == 0) {
-      file.delete();
-      return;
+    dispatchEvents();
+  }
+
+  @Override
+  public void releaseHoleSpan(CacheSpan holeSpan) {
+    awaitInitialization();
+    CachedContent cachedContent = index.get(holeSpan.key);
+    Assertions.checkState(cachedContent != null);
+    synchronized (cachedContent) {
+      cachedContent.unlock(holeSpan);
+      // Nothing may have been written. The removal is persisted by the next store.
+      removeEmptyCachedContent(cachedContent);
+      cachedContent.notifyAll();
     }
-    // Check if the span conflicts with the set content length
-    Long length = getContentLength(span.key);
-    if (length != C.LENGTH_UNSET) {
-      Assertions.checkState((span.position + span.length) <= length);
+  }
+
+  @Override
+  public void removeSpan(CacheSpan span) throws CacheException {
+    awaitInitialization();
+    CachedContent cachedContent = index.get(span.key);
+    if (cachedContent != null) {
+      synchronized (cachedContent) {
+        if (removeSpan(cachedContent, span) && removeEmptyCachedContent(cachedContent)) {
+          synchronized (this) {
+            index.store();
+          }
+        }
+      }
     }
-    addSpan(span);
-    index.store();
-    notifyAll();
+    dispatchEvents();
   }
 
   @Override
-  public synchronized void releaseHoleSpan(CacheSpan holeSpan) {
-    Assertions.checkState(holeSpan == lockedSpans.remove(holeSpan.key));
-    notifyAll();
+  public boolean isCached(String key, long position, long length) {
+    awaitInitialization();
+    CachedContent cachedContent = index.get(key);
+    if (cachedContent == null) {
+      return false;
+    }
+    synchronized (cachedContent) {
+      return cachedContent.getCachedBytes(position, length) >= length;
+    }
   }
 
-  /**
-   * Returns the cache {@link SimpleCacheSpan} corresponding to the provided lookup {@link
-   * SimpleCacheSpan}.
-   *
-   * <p>If the lookup position is contained by an existing entry in the cache, then the returned
-   * {@link SimpleCacheSpan} defines the file in which the data is stored. If the lookup position is
-   * not contained by an existing entry, then the returned {@link SimpleCacheSpan} defines the
-   * maximum extents of the hole in the cache.
-   *
-   * @param key The key of the span being requested.
-   * @param position The position of the span being requested.
-   * @return The corresponding cache {@link SimpleCacheSpan}.
-   */
-  private SimpleCacheSpan getSpan(String key, long position) throws CacheException {
+  @Override
+  public long getCachedBytes(String key, long position, long length) {
+    awaitInitialization();
     CachedContent cachedContent = index.get(key);
     if (cachedContent == null) {
-      return SimpleCacheSpan.createOpenHole(key, position);
+      return -length;
     }
-    while (true) {
-      SimpleCacheSpan span = cachedContent.getSpan(position);
-      if (span.isCached && !span.file.exists()) {
-        // The file has been deleted from under us. It's likely that other files will have been
-        // deleted too, so scan the whole in-memory representation.
-        removeStaleSpansAndCachedContents();
-        continue;
-      }
-      return span;
+    synchronized (cachedContent) {
+      return cachedContent.getCachedBytes(position, length);
+    }
+  }
+
+  @Override
+  public void setContentLength(String key, long length) throws CacheException {
+    awaitInitialization();
+    synchronized (this) {
+      index.setContentLength(key, length);
+      index.store();
+    }
+  }
+
+  @Override
+  public long getContentLength(String key) {
+    awaitInitialization();
+    synchronized (this) {
+      return index.getContentLength(key);
+    }
+  }
+
+  private void awaitInitialization() {
+    if (!initialized) {
+      initializationCondition.block();
     }
   }
 
   /**
-   * Ensures that the cache's in-memory representation has been initialized.
+   * Ensures that the cache's in-memory representation has been initialized. Must be called with the
+   * cache's monitor held. No other thread accesses the index until initialization has completed.
    */
   private void initialize() throws CacheException {
     if (!cacheDir.exists()) {
@@ -259,13 +397,13 @@ public final class SimpleCache implements Cache {
       return;
     }
     for (File file : files) {
-      if (file.getName().equals(CachedContentIndex.FILE_NAME)) {
+      if (CachedContentIndex.isIndexFile(file.getName())) {
         continue;
       }
       SimpleCacheSpan span = file.length() > 0
           ? SimpleCacheSpan.createCacheEntry(file, index) : null;
       if (span != null) {
-        addSpan(span);
+        addSpan(index.add(span.key), span);
       } else {
         file.delete();
       }
@@ -276,32 +414,152 @@ public final class SimpleCache implements Cache {
   }
 
   /**
-   * Adds a cached span to the in-memory representation.
+   * Returns the {@link CachedContent} for the given key, adding one to the index if there isn't
+   * one. The returned content may be removed from the index by another thread before its monitor
+   * is acquired, which callers must check with {@link CachedContent#isRemoved()}.
+   */
+  private CachedContent getOrAddContent(String key) {
+    CachedContent cachedContent = index.get(key);
+    if (cachedContent == null) {
+      synchronized (this) {
+        cachedContent = index.add(key);
+      }
+    }
+    return cachedContent;
+  }
+
+  /**
+   * Returns a cached span for reading or a locked hole span for writing, or null if the hole is
+   * locked by another writer. Must be called with the content's monitor held.
+   */
+  private SimpleCacheSpan startReadWrite(CachedContent cachedContent, long position)
+      throws CacheException {
+    SimpleCacheSpan cacheSpan = getSpan(cachedContent, position);
+
+    // Read case.
+    if (cacheSpan.isCached) {
+      // Obtain a new span with updated last access timestamp.
+      SimpleCacheSpan newCacheSpan = cachedContent.touch(cacheSpan);
+      synchronized (this) {
+        enqueueEvent(EVENT_SPAN_TOUCHED, cacheSpan, newCacheSpan);
+      }
+      return newCacheSpan;
+    }
+
+    // Write case, lock available.
+    if (!cachedContent.isLocked()) {
+      cachedContent.lock(cacheSpan);
+      return cacheSpan;
+    }
+
+    // Write case, lock not available.
+    return null;
+  }
+
+  /**
+   * Completes a call to {@link #startReadWrite(String, long)} or
+   * {@link #startReadWriteNonBlocking(String, long)}, once the content's monitor has been
+   * released.
+   */
+  private void onReadWriteStarted() throws CacheException {
+    if (staleSpansDetected.getAndSet(false)) {
+      // It's likely that other files will have been deleted too, so scan the whole in-memory
+      // representation.
+      removeStaleSpansAndCachedContents();
+    }
+    dispatchEvents();
+  }
+
+  /**
+   * Returns the cache {@link SimpleCacheSpan} corresponding to the provided lookup {@link
+   * SimpleCacheSpan}. Must be called with the content's monitor held.
    *
+   * <p>If the lookup position is contained by an existing entry in the cache, then the returned
+   * {@link SimpleCacheSpan} defines the file in which the data is stored. If the lookup position is
+   * not contained by an existing entry, then the returned {@link SimpleCacheSpan} defines the
+   * maximum extents of the hole in the cache.
+   *
+   * @param cachedContent The content of the span being requested.
+   * @param position The position of the span being requested.
+   * @return The corresponding cache {@link SimpleCacheSpan}.
+   */
+  private SimpleCacheSpan getSpan(CachedContent cachedContent, long position) {
+    while (true) {
+      SimpleCacheSpan span = cachedContent.getSpan(position);
+      if (span.isCached && !span.file.exists()) {
+        // The file has been deleted from under us. Remove the content's stale spans now, and the
+        // rest once the content's monitor has been released.
+        removeStaleSpans(cachedContent);
+        staleSpansDetected.set(true);
+        continue;
+      }
+      return span;
+    }
+  }
+
+  /**
+   * Adds a cached span to the in-memory representation. Must be called with the content's monitor
+   * held, unless the cache is being initialized.
+   *
+   * @param cachedContent The content to which the span belongs.
    * @param span The span to be added.
    */
-  private void addSpan(SimpleCacheSpan span) {
-    index.add(span.key).addSpan(span);
-    totalSpace += span.length;
-    notifySpanAdded(span);
+  private void addSpan(CachedContent cachedContent, SimpleCacheSpan span) {
+    cachedContent.addSpan(span);
+    synchronized (this) {
+      totalSpace += span.length;
+      enqueueEvent(EVENT_SPAN_ADDED, span, null);
+    }
   }
 
-  private void removeSpan(CacheSpan span, boolean removeEmptyCachedContent) throws CacheException {
-    CachedContent cachedContent = index.get(span.key);
-    if (cachedContent == null || !cachedContent.removeSpan(span)) {
-      return;
+  /**
+   * Removes a cached span from the in-memory representation and deletes its file. Must be called
+   * with the content's monitor held.
+   *
+   * @return Whether the span was removed.
+   */
+  private boolean removeSpan(CachedContent cachedContent, CacheSpan span) {
+    if (!cachedContent.removeSpan(span)) {
+      return false;
+    }
+    synchronized (this) {
+      totalSpace -= span.length;
+      enqueueEvent(EVENT_SPAN_REMOVED, span, null);
     }
-    totalSpace -= span.length;
-    if (removeEmptyCachedContent && cachedContent.isEmpty()) {
+    return true;
+  }
+
+  /**
+   * Removes the content from the index if it has no spans and isn't locked. The change isn't
+   * stored. Must be called with the content's monitor held.
+   *
+   * @return Whether the content was removed.
+   */
+  private boolean removeEmptyCachedContent(CachedContent cachedContent) {
+    if (cachedContent.isRemoved() || cachedContent.isLocked() || !cachedContent.isEmpty()) {
+      return false;
+    }
+    cachedContent.setRemoved();
+    synchronized (this) {
       index.removeEmpty(cachedContent.key);
-      index.store();
     }
-    notifySpanRemoved(span);
+    return true;
   }
 
-  @Override
-  public synchronized void removeSpan(CacheSpan span) throws CacheException {
-    removeSpan(span, true);
+  /**
+   * Removes the content's cached spans for which files no longer exist. Must be called with the
+   * content's monitor held.
+   */
+  private void removeStaleSpans(CachedContent cachedContent) {
+    LinkedList<CacheSpan> spansToBeRemoved = new LinkedList<>();
+    for (CacheSpan span : cachedContent.getSpans()) {
+      if (!span.file.exists()) {
+        spansToBeRemoved.add(span);
+      }
+    }
+    for (CacheSpan span : spansToBeRemoved) {
+      removeSpan(cachedContent, span);
+    }
   }
 
   /**
@@ -309,24 +567,89 @@ public final class SimpleCache implements Cache {
    * no longer exist.
    */
   private void removeStaleSpansAndCachedContents() throws CacheException {
-    LinkedList<CacheSpan> spansToBeRemoved = new LinkedList<>();
-    for (CachedContent cachedContent : index.getAll()) {
-      for (CacheSpan span : cachedContent.getSpans()) {
-        if (!span.file.exists()) {
-          spansToBeRemoved.add(span);
+    ArrayList<CachedContent> cachedContents = new ArrayList<>(index.getAll());
+    for (CachedContent cachedContent : cachedContents) {
+      synchronized (cachedContent) {
+        removeStaleSpans(cachedContent);
+        // Remove CachedContent but don't store, to prevent multiple index.store() calls.
+        removeEmptyCachedContent(cachedContent);
+      }
+    }
+    synchronized (this) {
+      index.store();
+    }
+    dispatchEvents();
+  }
+
+  /**
+   * Queues an event for delivery. Must be called with the cache's monitor held.
+   */
+  private void enqueueEvent(int type, CacheSpan span, CacheSpan newSpan) {
+    if (fileMappings != null) {
+      if (type == EVENT_SPAN_REMOVED) {
+        fileMappings.onFileRemoved(span.file);
+      } else if (type == EVENT_SPAN_TOUCHED) {
+        fileMappings.onFileRenamed(span.file, newSpan.file);
+      }
+    }
+    pendingEvents.add(new SpanEvent(type, span, newSpan));
+  }
+
+  /**
+   * Delivers queued events, unless another thread is already doing so. Must be called without
+   * holding any monitor, except that it may be called from within an event callback.
+   */
+  private void dispatchEvents() {
+    while (true) {
+      if (!eventLock.tryLock()) {
+        // The thread that holds the lock will deliver the events after the ones it's delivering.
+        return;
+      }
+      try {
+        deliverPendingEvents();
+      } finally {
+        eventLock.unlock();
+      }
+      // An event may have been queued after the queue was drained, by a thread that failed to
+      // acquire the lock.
+      synchronized (this) {
+        if (pendingEvents.isEmpty()) {
+          return;
         }
       }
     }
-    for (CacheSpan span : spansToBeRemoved) {
-      // Remove span but not CachedContent to prevent multiple index.store() calls.
-      removeSpan(span, false);
+  }
+
+  /**
+   * Delivers queued events in order. Must be called with {@link #eventLock} held.
+   */
+  private void deliverPendingEvents() {
+    while (true) {
+      SpanEvent event;
+      ArrayList<Listener> keyListeners;
+      synchronized (this) {
+        event = pendingEvents.poll();
+        if (event == null) {
+          return;
+        }
+        ArrayList<Listener> listenersForKey = listeners.get(event.span.key);
+        keyListeners = listenersForKey != null ? new ArrayList<>(listenersForKey) : null;
+      }
+      switch (event.type) {
+        case EVENT_SPAN_ADDED:
+          notifySpanAdded(event.span, keyListeners);
+          break;
+        case EVENT_SPAN_REMOVED:
+          notifySpanRemoved(event.span, keyListeners);
+          break;
+        default:
+          notifySpanTouched(event.span, event.newSpan, keyListeners);
+          break;
+      }
     }
-    index.removeEmpty();
-    index.store();
   }
 
-  private void notifySpanRemoved(CacheSpan span) {
-    ArrayList<Listener> keyListeners = listeners.get(span.key);
+  private void notifySpanRemoved(CacheSpan span, ArrayList<Listener> keyListeners) {
     if (keyListeners != null) {
       for (int i = keyListeners.size() - 1; i >= 0; i--) {
         keyListeners.get(i).onSpanRemoved(this, span);
@@ -335,8 +658,7 @@ public final class SimpleCache implements Cache {
     evictor.onSpanRemoved(this, span);
   }
 
-  private void notifySpanAdded(SimpleCacheSpan span) {
-    ArrayList<Listener> keyListeners = listeners.get(span.key);
+  private void notifySpanAdded(CacheSpan span, ArrayList<Listener> keyListeners) {
     if (keyListeners != null) {
       for (int i = keyListeners.size() - 1; i >= 0; i--) {
         keyListeners.get(i).onSpanAdded(this, span);
@@ -345,8 +667,8 @@ public final class SimpleCache implements Cache {
     evictor.onSpanAdded(this, span);
   }
 
-  private void notifySpanTouched(SimpleCacheSpan oldSpan, CacheSpan newSpan) {
-    ArrayList<Listener> keyListeners = listeners.get(oldSpan.key);
+  private void notifySpanTouched(CacheSpan oldSpan, CacheSpan newSpan,
+      ArrayList<Listener> keyListeners) {
     if (keyListeners != null) {
       for (int i = keyListeners.size() - 1; i >= 0; i--) {
         keyListeners.get(i).onSpanTouched(this, oldSpan, newSpan);
@@ -355,27 +677,21 @@ public final class SimpleCache implements Cache {
     evictor.onSpanTouched(this, oldSpan, newSpan);
   }
 
-  @Override
-  public synchronized boolean isCached(String key, long position, long length) {
-    CachedContent cachedContent = index.get(key);
-    return cachedContent != null && cachedContent.getCachedBytes(position, length) >= length;
-  }
+  /**
+   * A change to the cached spans, queued for delivery to the evictor and listeners.
+   */
+  private static final class SpanEvent {
 
-  @Override
-  public synchronized long getCachedBytes(String key, long position, long length) {
-    CachedContent cachedContent = index.get(key);
-    return cachedContent != null ? cachedContent.getCachedBytes(position, length) : -length;
-  }
+    public final int type;
+    public final CacheSpan span;
+    public final CacheSpan newSpan;
 
-  @Override
-  public synchronized void setContentLength(String key, long length) throws CacheException {
-    index.setContentLength(key, length);
-    index.store();
-  }
+    public SpanEvent(int type, CacheSpan span, CacheSpan newSpan) {
+      this.type = type;
+      this.span = span;
+      this.newSpan = newSpan;
+    }
 
-  @Override
-  public synchronized long getContentLength(String key) {
-    return index.getContentLength(key);
   }
 
 }
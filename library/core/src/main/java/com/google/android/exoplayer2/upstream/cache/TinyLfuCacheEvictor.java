@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import com.google.android.exoplayer2.upstream.cache.Cache.CacheException;
+import com.google.android.exoplayer2.util.Assertions;
+
+import java.util.HashMap;
+
+/**
+ * Evicts cache files using a segmented LRU policy with a frequency-based admission filter
+ * (W-TinyLFU), taking the size of each span into account.
+ * <p>
+ * Newly added spans enter a small admission window. Spans pushed out of the window become
+ * candidates for the main space, which is split into a probation and a protected segment. When
+ * space is needed, a candidate is compared with the least recently used span on probation, and
+ * whichever has been accessed less often according to a {@link FrequencySketch} is evicted. Spans
+ * accessed whilst on probation are promoted to the protected segment. A long scan of rarely
+ * accessed data therefore evicts other scan data, rather than frequently accessed spans such as
+ * initialization segments and playlists.
+ * <p>
+ * All operations take constant time.
+ */
+public final class TinyLfuCacheEvictor implements CacheEvictor {
+
+  private static final int WINDOW_PERCENT = 1;
+  private static final int PROTECTED_PERCENT = 80;
+  private static final int DEFAULT_SKETCH_LENGTH = 1024;
+
+  private static final int QUEUE_NONE = -1;
+  private static final int QUEUE_WINDOW = 0;
+  private static final int QUEUE_PROBATION = 1;
+  private static final int QUEUE_PROTECTED = 2;
+
+  private final long maxBytes;
+  private final long maxWindowBytes;
+  private final long maxProtectedBytes;
+  private final FrequencySketch sketch;
+  private final HashMap<CacheSpan, Node> nodes;
+  private final Queue window;
+  private final Queue probation;
+  private final Queue protectedQueue;
+
+  private long currentSize;
+
+  /**
+   * @param maxBytes The maximum number of bytes to keep in the cache.
+   */
+  public TinyLfuCacheEvictor(long maxBytes) {
+    this(maxBytes, DEFAULT_SKETCH_LENGTH);
+  }
+
+  /**
+   * @param maxBytes The maximum number of bytes to keep in the cache.
+   * @param sketchLength The number of {@code long}s used to count accesses, each of which holds
+   *     counters for roughly four spans. Must be a power of two, and should be at least a quarter
+   *     of the number of spans that fit into the cache.
+   */
+  public TinyLfuCacheEvictor(long maxBytes, int sketchLength) {
+    Assertions.checkArgument(maxBytes > 0);
+    this.maxBytes = maxBytes;
+    maxWindowBytes = Math.max(1, maxBytes * WINDOW_PERCENT / 100);
+    maxProtectedBytes = (maxBytes - maxWindowBytes) * PROTECTED_PERCENT / 100;
+    sketch = new FrequencySketch(sketchLength);
+    nodes = new HashMap<>();
+    window = new Queue(QUEUE_WINDOW);
+    probation = new Queue(QUEUE_PROBATION);
+    protectedQueue = new Queue(QUEUE_PROTECTED);
+  }
+
+  @Override
+  public void onCacheInitialized() {
+    // Do nothing.
+  }
+
+  @Override
+  public void onStartFile(Cache cache, String key, long position, long maxLength) {
+    evictCache(cache, maxLength);
+  }
+
+  @Override
+  public void onSpanAdded(Cache cache, CacheSpan span) {
+    sketch.increment(hash(span));
+    Node node = new Node(span);
+    nodes.put(span, node);
+    window.addLast(node);
+    currentSize += span.length;
+    // Spans pushed out of the window become candidates for the main space.
+    while (window.bytes > maxWindowBytes && window.head != node) {
+      Node candidate = window.head;
+      window.remove(candidate);
+      probation.addLast(candidate);
+      candidate.isCandidate = true;
+    }
+    evictCache(cache, 0);
+  }
+
+  @Override
+  public void onSpanRemoved(Cache cache, CacheSpan span) {
+    Node node = nodes.remove(span);
+    if (node != null) {
+      getQueue(node).remove(node);
+      currentSize -= span.length;
+    }
+  }
+
+  @Override
+  public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+    Node node = nodes.remove(oldSpan);
+    if (node == null) {
+      onSpanAdded(cache, newSpan);
+      return;
+    }
+    node.span = newSpan;
+    nodes.put(newSpan, node);
+    sketch.increment(hash(newSpan));
+    Queue queue = getQueue(node);
+    queue.remove(node);
+    if (queue == probation) {
+      // Promote, demoting the least recently used protected spans if the segment is full.
+      protectedQueue.addLast(node);
+      while (protectedQueue.bytes > maxProtectedBytes && protectedQueue.head != node) {
+        Node demoted = protectedQueue.head;
+        protectedQueue.remove(demoted);
+        probation.addLast(demoted);
+      }
+    } else {
+      queue.addLast(node);
+    }
+  }
+
+  private void evictCache(Cache cache, long requiredSpace) {
+    while (currentSize + requiredSpace > maxBytes) {
+      Node victim = selectVictim();
+      if (victim == null) {
+        break;
+      }
+      try {
+        cache.removeSpan(victim.span);
+      } catch (CacheException e) {
+        // do nothing.
+      }
+      if (victim.queue != QUEUE_NONE) {
+        // The cache didn't report the removal. Stop tracking the span so that we make progress.
+        onSpanRemoved(cache, victim.span);
+      }
+    }
+    // Candidates that survived are admitted to the main space.
+    for (Node node = probation.tail; node != null && node.isCandidate; node = node.previous) {
+      node.isCandidate = false;
+    }
+  }
+
+  private Node selectVictim() {
+    Node victim = probation.head;
+    if (victim == null) {
+      victim = protectedQueue.head != null ? protectedQueue.head : window.head;
+      return victim;
+    }
+    Node candidate = probation.tail;
+    if (candidate == victim || !candidate.isCandidate || victim.isCandidate) {
+      return victim;
+    }
+    // Keep whichever of the candidate and the victim is accessed more often, preferring the
+    // victim on a tie so that a scan doesn't displace established spans.
+    return sketch.frequency(hash(candidate.span)) > sketch.frequency(hash(victim.span))
+        ? victim : candidate;
+  }
+
+  private Queue getQueue(Node node) {
+    switch (node.queue) {
+      case QUEUE_WINDOW:
+        return window;
+      case QUEUE_PROBATION:
+        return probation;
+      default:
+        return protectedQueue;
+    }
+  }
+
+  private static int hash(CacheSpan span) {
+    int hash = span.key.hashCode();
+    return 31 * hash + (int) (span.position ^ (span.position >>> 32));
+  }
+
+  /**
+   * A tracked span, linked into one of the queues.
+   */
+  private static final class Node {
+
+    public CacheSpan span;
+    public Node previous;
+    public Node next;
+    public int queue;
+    public boolean isCandidate;
+
+    public Node(CacheSpan span) {
+      this.span = span;
+      queue = QUEUE_NONE;
+    }
+
+  }
+
+  /**
+   * An intrusive doubly linked list of {@link Node}s, from least to most recently used, that keeps
+   * track of the total length of its spans.
+   */
+  private static final class Queue {
+
+    private final int id;
+
+    public Node head;
+    public Node tail;
+    public long bytes;
+
+    public Queue(int id) {
+      this.id = id;
+    }
+
+    public void addLast(Node node) {
+      node.queue = id;
+      node.previous = tail;
+      node.next = null;
+      if (tail == null) {
+        head = node;
+      } else {
+        tail.next = node;
+      }
+      tail = node;
+      bytes += node.span.length;
+    }
+
+    public void remove(Node node) {
+      if (node.previous == null) {
+        head = node.next;
+      } else {
+        node.previous.next = node.next;
+      }
+      if (node.next == null) {
+        tail = node.previous;
+      } else {
+        node.next.previous = node.previous;
+      }
+      node.previous = null;
+      node.next = null;
+      node.queue = QUEUE_NONE;
+      // A span is only a candidate whilst it's waiting for admission to probation. Moving or
+      // removing it ends that.
+      node.isCandidate = false;
+      bytes -= node.span.length;
+    }
+
+  }
+
+}
@@ -18,12 +18,16 @@ package com.google.android.exoplayer2.util;
 import java.util.Arrays;
 
 /**
- * An append-only, auto-growing {@code long[]}.
+ * An auto-growing {@code long[]} that is appended to at the end and may be trimmed at the front.
+ * <p>
+ * Values removed from the front are reclaimed lazily, when an append would otherwise have to grow
+ * the backing array, so that both appending and removing are amortized O(1).
  */
 public final class LongArray {
 
   private static final int DEFAULT_INITIAL_CAPACITY = 32;
 
+  private int start;
   private int size;
   private long[] values;
 
@@ -44,10 +48,40 @@ public final class LongArray {
    * @param value The value to append.
    */
   public void add(long value) {
-    if (size == values.length) {
-      values = Arrays.copyOf(values, size * 2);
+    if (start + size == values.length) {
+      if (start >= values.length / 2) {
+        // At least half of the array has been removed from the front. Compact rather than grow.
+        System.arraycopy(values, start, values, 0, size);
+      } else {
+        values = Arrays.copyOfRange(values, start, start + size * 2);
+      }
+      start = 0;
     }
-    values[size++] = value;
+    values[start + size++] = value;
+  }
+
+  /**
+   * Removes values from the front of the array. The indices of the remaining values are reduced by
+   * {@code count}.
+   *
+   * @param count The number of values to remove.
+   * @throws IndexOutOfBoundsException If {@code count} is less than zero, or greater than
+   *     {@link #size()}.
+   */
+  public void removeFirst(int count) {
+    if (count < 0 || count > size) {
+      throw new IndexOutOfBoundsException("Invalid count " + count + ", size is " + size);
+    }
+    size -= count;
+    start = size == 0 ? 0 : start + count;
+  }
+
+  /**
+   * Removes all values.
+   */
+  public void clear() {
+    start = 0;
+    size = 0;
   }
 
   /**
@@ -62,7 +96,27 @@ public final class LongArray {
     if (index < 0 || index >= size) {
       throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + size);
     }
-    return values[index];
+    return values[start + index];
+  }
+
+  /**
+   * Returns the index of the last value that is less than or equal to a specified value. The
+   * values must be sorted in non-descending order.
+   *
+   * @param value The value to search for.
+   * @return The index of the last value less than or equal to {@code value}, or -1 if all values
+   *     are greater than {@code value}.
+   */
+  public int binarySearchFloor(long value) {
+    int index = Arrays.binarySearch(values, start, start + size, value);
+    if (index < 0) {
+      // The insertion point is the index of the first value greater than the one searched for.
+      return -(index + 1) - start - 1;
+    }
+    while (index + 1 < start + size && values[index + 1] == value) {
+      index++;
+    }
+    return index - start;
   }
 
   /**
@@ -78,7 +132,7 @@ public final class LongArray {
    * @return The primitive array containing the copied values.
    */
   public long[] toArray() {
-    return Arrays.copyOf(values, size);
+    return Arrays.copyOfRange(values, start, start + size);
   }
 
 }
@@ -15,9 +15,7 @@
  */
 package com.google.android.exoplayer2.util;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 
 /**
  * Calculate any percentile over a sliding window of weighted values. A maximum weight is
@@ -28,51 +26,55 @@ import java.util.Comparator;
  * This class can be used for bandwidth estimation based on a sliding window of past transfer rate
  * observations. This is an alternative to sliding mean and exponential averaging which suffer from
  * susceptibility to outliers and slow adaptation to step functions.
+ * <p>
+ * Samples are held in parallel primitive arrays. They are kept in arrival order by a ring buffer
+ * and in value order by a treap whose nodes carry the weight of their subtree, so adding, expiring
+ * and querying take O(log n) and no allocations are made once the arrays have grown to the size of
+ * the window.
  *
  * @see <a href="http://en.wikipedia.org/wiki/Moving_average">Wiki: Moving average</a>
- * @see <a href="http://en.wikipedia.org/wiki/Selection_algorithm">Wiki: Selection algorithm</a>
+ * @see <a href="http://en.wikipedia.org/wiki/Treap">Wiki: Treap</a>
  */
 public class SlidingPercentile {
 
-  // Orderings.
-  private static final Comparator<Sample> INDEX_COMPARATOR = new Comparator<Sample>() {
-    @Override
-    public int compare(Sample a, Sample b) {
-      return a.index - b.index;
-    }
-  };
+  private static final int INITIAL_CAPACITY = 16;
 
-  private static final Comparator<Sample> VALUE_COMPARATOR = new Comparator<Sample>() {
-    @Override
-    public int compare(Sample a, Sample b) {
-      return a.value < b.value ? -1 : b.value < a.value ? 1 : 0;
-    }
-  };
+  /**
+   * Node index used for missing children. Node 0 is a sentinel whose subtree weight is always 0.
+   */
+  private static final int NIL = 0;
 
-  private static final int SORT_ORDER_NONE = -1;
-  private static final int SORT_ORDER_BY_VALUE = 0;
-  private static final int SORT_ORDER_BY_INDEX = 1;
+  private final int maxWeight;
 
-  private static final int MAX_RECYCLED_SAMPLES = 5;
+  // Treap nodes, indexed from 1.
+  private float[] values;
+  private int[] weights;
+  private int[] subtreeWeights;
+  private int[] priorities;
+  private int[] leftChildren;
+  private int[] rightChildren;
 
-  private final int maxWeight;
-  private final ArrayList<Sample> samples;
+  // Unused node indices.
+  private int[] freeNodes;
+  private int freeNodeCount;
 
-  private final Sample[] recycledSamples;
+  // Node indices in arrival order.
+  private int[] arrivalQueue;
+  private int arrivalQueueHead;
+  private int sampleCount;
 
-  private int currentSortOrder;
-  private int nextSampleIndex;
+  private int root;
   private int totalWeight;
-  private int recycledSampleCount;
+  private int randomState;
 
   /**
    * @param maxWeight The maximum weight.
    */
   public SlidingPercentile(int maxWeight) {
     this.maxWeight = maxWeight;
-    recycledSamples = new Sample[MAX_RECYCLED_SAMPLES];
-    samples = new ArrayList<>();
-    currentSortOrder = SORT_ORDER_NONE;
+    root = NIL;
+    randomState = 0x2545F491;
+    allocateNodes(INITIAL_CAPACITY);
   }
 
   /**
@@ -82,27 +84,32 @@ public class SlidingPercentile {
    * @param value The value of the new observation.
    */
   public void addSample(int weight, float value) {
-    ensureSortedByIndex();
-
-    Sample newSample = recycledSampleCount > 0 ? recycledSamples[--recycledSampleCount]
-        : new Sample();
-    newSample.index = nextSampleIndex++;
-    newSample.weight = weight;
-    newSample.value = value;
-    samples.add(newSample);
+    if (freeNodeCount == 0) {
+      allocateNodes(arrivalQueue.length * 2);
+    }
+    int node = freeNodes[--freeNodeCount];
+    values[node] = value;
+    weights[node] = weight;
+    subtreeWeights[node] = weight;
+    priorities[node] = nextPriority();
+    leftChildren[node] = NIL;
+    rightChildren[node] = NIL;
+    root = insert(root, node);
+    arrivalQueue[(arrivalQueueHead + sampleCount) % arrivalQueue.length] = node;
+    sampleCount++;
     totalWeight += weight;
 
     while (totalWeight > maxWeight) {
       int excessWeight = totalWeight - maxWeight;
-      Sample oldestSample = samples.get(0);
-      if (oldestSample.weight <= excessWeight) {
-        totalWeight -= oldestSample.weight;
-        samples.remove(0);
-        if (recycledSampleCount < MAX_RECYCLED_SAMPLES) {
-          recycledSamples[recycledSampleCount++] = oldestSample;
-        }
+      int oldestNode = arrivalQueue[arrivalQueueHead];
+      if (weights[oldestNode] <= excessWeight) {
+        totalWeight -= weights[oldestNode];
+        root = remove(root, oldestNode);
+        arrivalQueueHead = (arrivalQueueHead + 1) % arrivalQueue.length;
+        sampleCount--;
+        freeNodes[freeNodeCount++] = oldestNode;
       } else {
-        oldestSample.weight -= excessWeight;
+        reduceWeight(oldestNode, excessWeight);
         totalWeight -= excessWeight;
       }
     }
@@ -115,46 +122,162 @@ public class SlidingPercentile {
    * @return The requested percentile value or {@link Float#NaN} if no samples have been added.
    */
   public float getPercentile(float percentile) {
-    ensureSortedByValue();
+    if (root == NIL) {
+      return Float.NaN;
+    }
     float desiredWeight = percentile * totalWeight;
+    // Find the first node in value order at which the accumulated weight reaches the desired
+    // weight. The comparisons are the same as when summing the samples one by one.
     int accumulatedWeight = 0;
-    for (int i = 0; i < samples.size(); i++) {
-      Sample currentSample = samples.get(i);
-      accumulatedWeight += currentSample.weight;
-      if (accumulatedWeight >= desiredWeight) {
-        return currentSample.value;
+    int node = root;
+    int lastNode = root;
+    while (node != NIL) {
+      lastNode = node;
+      int left = leftChildren[node];
+      if (left != NIL && accumulatedWeight + subtreeWeights[left] >= desiredWeight) {
+        node = left;
+        continue;
+      }
+      accumulatedWeight += subtreeWeights[left];
+      if (accumulatedWeight + weights[node] >= desiredWeight) {
+        return values[node];
       }
+      accumulatedWeight += weights[node];
+      node = rightChildren[node];
     }
-    // Clamp to maximum value or NaN if no values.
-    return samples.isEmpty() ? Float.NaN : samples.get(samples.size() - 1).value;
+    // Clamp to maximum value. The search ends on the last node in value order in this case.
+    return values[lastNode];
   }
 
-  /**
-   * Sorts the samples by index.
-   */
-  private void ensureSortedByIndex() {
-    if (currentSortOrder != SORT_ORDER_BY_INDEX) {
-      Collections.sort(samples, INDEX_COMPARATOR);
-      currentSortOrder = SORT_ORDER_BY_INDEX;
+  private int insert(int subtree, int node) {
+    if (subtree == NIL) {
+      return node;
+    }
+    if (isBefore(node, subtree)) {
+      leftChildren[subtree] = insert(leftChildren[subtree], node);
+      if (priorities[leftChildren[subtree]] > priorities[subtree]) {
+        subtree = rotateRight(subtree);
+      }
+    } else {
+      rightChildren[subtree] = insert(rightChildren[subtree], node);
+      if (priorities[rightChildren[subtree]] > priorities[subtree]) {
+        subtree = rotateLeft(subtree);
+      }
     }
+    updateSubtreeWeight(subtree);
+    return subtree;
+  }
+
+  private int remove(int subtree, int node) {
+    if (subtree == node) {
+      return merge(leftChildren[node], rightChildren[node]);
+    }
+    if (isBefore(node, subtree)) {
+      leftChildren[subtree] = remove(leftChildren[subtree], node);
+    } else {
+      rightChildren[subtree] = remove(rightChildren[subtree], node);
+    }
+    updateSubtreeWeight(subtree);
+    return subtree;
+  }
+
+  private int merge(int left, int right) {
+    if (left == NIL) {
+      return right;
+    } else if (right == NIL) {
+      return left;
+    } else if (priorities[left] > priorities[right]) {
+      rightChildren[left] = merge(rightChildren[left], right);
+      updateSubtreeWeight(left);
+      return left;
+    } else {
+      leftChildren[right] = merge(left, leftChildren[right]);
+      updateSubtreeWeight(right);
+      return right;
+    }
+  }
+
+  private void reduceWeight(int node, int weightReduction) {
+    weights[node] -= weightReduction;
+    int current = root;
+    while (current != node) {
+      subtreeWeights[current] -= weightReduction;
+      current = isBefore(node, current) ? leftChildren[current] : rightChildren[current];
+    }
+    subtreeWeights[node] -= weightReduction;
+  }
+
+  private int rotateRight(int node) {
+    int left = leftChildren[node];
+    leftChildren[node] = rightChildren[left];
+    rightChildren[left] = node;
+    updateSubtreeWeight(node);
+    updateSubtreeWeight(left);
+    return left;
+  }
+
+  private int rotateLeft(int node) {
+    int right = rightChildren[node];
+    rightChildren[node] = leftChildren[right];
+    leftChildren[right] = node;
+    updateSubtreeWeight(node);
+    updateSubtreeWeight(right);
+    return right;
+  }
+
+  private void updateSubtreeWeight(int node) {
+    subtreeWeights[node] = weights[node] + subtreeWeights[leftChildren[node]]
+        + subtreeWeights[rightChildren[node]];
   }
 
   /**
-   * Sorts the samples by value.
+   * Orders nodes by value. Equal values are ordered by node index, which stays fixed for as long as
+   * a sample is in the window.
    */
-  private void ensureSortedByValue() {
-    if (currentSortOrder != SORT_ORDER_BY_VALUE) {
-      Collections.sort(samples, VALUE_COMPARATOR);
-      currentSortOrder = SORT_ORDER_BY_VALUE;
-    }
+  private boolean isBefore(int a, int b) {
+    int result = Float.compare(values[a], values[b]);
+    return result < 0 || (result == 0 && a < b);
   }
 
-  private static class Sample {
+  private int nextPriority() {
+    // Xorshift. Priorities only need to be well spread, not unpredictable.
+    randomState ^= randomState << 13;
+    randomState ^= randomState >>> 17;
+    randomState ^= randomState << 5;
+    return randomState;
+  }
 
-    public int index;
-    public int weight;
-    public float value;
+  /**
+   * Grows the node arrays to hold {@code capacity} samples.
+   */
+  private void allocateNodes(int capacity) {
+    int oldCapacity = arrivalQueue == null ? 0 : arrivalQueue.length;
+    values = values == null ? new float[capacity + 1] : Arrays.copyOf(values, capacity + 1);
+    weights = weights == null ? new int[capacity + 1] : Arrays.copyOf(weights, capacity + 1);
+    subtreeWeights = subtreeWeights == null ? new int[capacity + 1]
+        : Arrays.copyOf(subtreeWeights, capacity + 1);
+    priorities = priorities == null ? new int[capacity + 1]
+        : Arrays.copyOf(priorities, capacity + 1);
+    leftChildren = leftChildren == null ? new int[capacity + 1]
+        : Arrays.copyOf(leftChildren, capacity + 1);
+    rightChildren = rightChildren == null ? new int[capacity + 1]
+        : Arrays.copyOf(rightChildren, capacity + 1);
 
+    int[] newArrivalQueue = new int[capacity];
+    for (int i = 0; i < sampleCount; i++) {
+      newArrivalQueue[i] = arrivalQueue[(arrivalQueueHead + i) % oldCapacity];
+    }
+    arrivalQueue = newArrivalQueue;
+    arrivalQueueHead = 0;
+
+    int[] newFreeNodes = new int[capacity];
+    if (freeNodes != null) {
+      System.arraycopy(freeNodes, 0, newFreeNodes, 0, freeNodeCount);
+    }
+    freeNodes = newFreeNodes;
+    for (int node = capacity; node > oldCapacity; node--) {
+      freeNodes[freeNodeCount++] = node;
+    }
   }
 
 }
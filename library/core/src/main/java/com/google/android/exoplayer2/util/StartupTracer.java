@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.util;
+
+import android.os.Handler;
+import android.support.annotation.IntDef;
+
+import com.google.android.exoplayer2.C;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records when playback start-up passes through its stages, from opening the media to the first
+ * write to the audio track.
+ * <p>
+ * Stages are marked from the loading and playback threads. Each stage keeps the first mark after
+ * {@link #start()}, as a {@link System#nanoTime()} timestamp. Marking allocates nothing, so tracing
+ * can stay enabled in release builds. Once {@link #STAGE_FIRST_AUDIO_WRITTEN} is marked, the
+ * {@link Listener} is notified on the thread of the handler passed to the constructor.
+ */
+public final class StartupTracer {
+
+  /**
+   * Listener of completed start-up traces.
+   */
+  public interface Listener {
+
+    /**
+     * Called when start-up has completed with the first write of audio data.
+     *
+     * @param tracer The tracer, whose {@link #getElapsedNs(int)} returns the stage timings.
+     */
+    void onStartupTraced(StartupTracer tracer);
+
+  }
+
+  /**
+   * Start-up stages.
+   */
+  @Retention(RetentionPolicy.SOURCE)
+  @IntDef({STAGE_OPEN_STARTED, STAGE_OPENED, STAGE_EXTRACTOR_SELECTED, STAGE_PREPARED,
+      STAGE_DECODER_INITIALIZED, STAGE_FIRST_AUDIO_WRITTEN})
+  public @interface Stage {}
+  /**
+   * Opening the media has started. This includes the DNS lookup and connection setup.
+   */
+  public static final int STAGE_OPEN_STARTED = 0;
+  /**
+   * The media has been opened, for HTTP once the response headers have been received.
+   */
+  public static final int STAGE_OPENED = 1;
+  /**
+   * An extractor has been selected by sniffing the media.
+   */
+  public static final int STAGE_EXTRACTOR_SELECTED = 2;
+  /**
+   * The media period has been prepared, making its tracks known.
+   */
+  public static final int STAGE_PREPARED = 3;
+  /**
+   * The audio decoder has been initialized.
+   */
+  public static final int STAGE_DECODER_INITIALIZED = 4;
+  /**
+   * The first audio data has been written to the audio track.
+   */
+  public static final int STAGE_FIRST_AUDIO_WRITTEN = 5;
+  /**
+   * The number of stages.
+   */
+  public static final int STAGE_COUNT = 6;
+
+  private static final long UNMARKED = 0;
+
+  private final Handler eventHandler;
+  private final AtomicLongArray markTimesNs;
+  private final Runnable dispatchRunnable;
+
+  private volatile Listener listener;
+  private volatile boolean tracing;
+  private volatile long startTimeNs;
+
+  /**
+   * @param eventHandler A handler for notifying the listener.
+   */
+  public StartupTracer(Handler eventHandler) {
+    this.eventHandler = eventHandler;
+    markTimesNs = new AtomicLongArray(STAGE_COUNT);
+    dispatchRunnable = new Runnable() {
+      @Override
+      public void run() {
+        Listener listener = StartupTracer.this.listener;
+        if (listener != null) {
+          listener.onStartupTraced(StartupTracer.this);
+        }
+      }
+    };
+  }
+
+  /**
+   * Sets the listener of completed traces.
+   *
+   * @param listener The listener, or null.
+   */
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Returns the listener of completed traces, or null.
+   */
+  public Listener getListener() {
+    return listener;
+  }
+
+  /**
+   * Clears the marks of the previous trace and starts a new one.
+   */
+  public void start() {
+    tracing = false;
+    for (int i = 0; i < STAGE_COUNT; i++) {
+      markTimesNs.set(i, UNMARKED);
+    }
+    startTimeNs = System.nanoTime();
+    tracing = true;
+  }
+
+  /**
+   * Abandons the current trace. Subsequent marks are ignored until {@link #start()} is called.
+   */
+  public void cancel() {
+    tracing = false;
+  }
+
+  /**
+   * Returns whether a trace has been started and neither completed nor cancelled.
+   */
+  public boolean isTracing() {
+    return tracing;
+  }
+
+  /**
+   * Marks that start-up has reached {@code stage}, unless it was marked already.
+   *
+   * @param stage The stage.
+   */
+  public void mark(@Stage int stage) {
+    if (!tracing || markTimesNs.get(stage) != UNMARKED) {
+      return;
+    }
+    if (markTimesNs.compareAndSet(stage, UNMARKED, System.nanoTime())
+        && stage == STAGE_FIRST_AUDIO_WRITTEN) {
+      tracing = false;
+      eventHandler.post(dispatchRunnable);
+    }
+  }
+
+  /**
+   * Returns the time at which the current or most recent trace was started, as a
+   * {@link System#nanoTime()} timestamp.
+   */
+  public long getStartTimeNs() {
+    return startTimeNs;
+  }
+
+  /**
+   * Returns the time from the start of the trace until {@code stage} was marked, in nanoseconds.
+   *
+   * @param stage The stage.
+   * @return The elapsed time, or {@link C#TIME_UNSET} if the stage was not marked.
+   */
+  public long getElapsedNs(@Stage int stage) {
+    long markTimeNs = markTimesNs.get(stage);
+    return markTimeNs == UNMARKED ? C.TIME_UNSET : markTimeNs - startTimeNs;
+  }
+
+  /**
+   * Returns a short name for {@code stage}, for logging.
+   *
+   * @param stage The stage.
+   * @return The name of the stage.
+   */
+  public static String getStageName(@Stage int stage) {
+    switch (stage) {
+      case STAGE_OPEN_STARTED:
+        return "openStarted";
+      case STAGE_OPENED:
+        return "opened";
+      case STAGE_EXTRACTOR_SELECTED:
+        return "extractorSelected";
+      case STAGE_PREPARED:
+        return "prepared";
+      case STAGE_DECODER_INITIALIZED:
+        return "decoderInitialized";
+      case STAGE_FIRST_AUDIO_WRITTEN:
+        return "firstAudioWritten";
+      default:
+        throw new IllegalArgumentException();
+    }
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist.Segment;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.cache.CachePrefetcher;
+import com.google.android.exoplayer2.util.UriUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HLS related caching utility methods.
+ */
+public final class HlsCacheUtil {
+
+  /**
+   * Returns {@link DataSpec}s for the initialization segment and the media segments of a media
+   * playlist, in playback order, for example to be cached by a {@link CachePrefetcher}. The
+   * {@link DataSpec}s match the ones requested during playback, so the cached data is used when
+   * the playlist is played.
+   *
+   * @param mediaPlaylist The media playlist.
+   * @return The {@link DataSpec}s.
+   */
+  public static List<DataSpec> getSegmentDataSpecs(HlsMediaPlaylist mediaPlaylist) {
+    List<DataSpec> dataSpecs = new ArrayList<>(mediaPlaylist.segments.size() + 1);
+    Segment initSegment = mediaPlaylist.initializationSegment;
+    if (initSegment != null) {
+      dataSpecs.add(getDataSpec(mediaPlaylist, initSegment));
+    }
+    for (int i = 0; i < mediaPlaylist.segments.size(); i++) {
+      dataSpecs.add(getDataSpec(mediaPlaylist, mediaPlaylist.segments.get(i)));
+    }
+    return dataSpecs;
+  }
+
+  private static DataSpec getDataSpec(HlsMediaPlaylist mediaPlaylist, Segment segment) {
+    Uri uri = UriUtil.resolveToUri(mediaPlaylist.baseUri, segment.url);
+    return new DataSpec(uri, segment.byterangeOffset, segment.byterangeLength, null);
+  }
+
+  private HlsCacheUtil() {}
+
+}
@@ -54,6 +54,7 @@ public final class HlsMediaPeriod implements MediaPeriod, HlsSampleStreamWrapper
   private final TimestampAdjusterProvider timestampAdjusterProvider;
   private final Handler continueLoadingHandler;
   private final long preparePositionUs;
+  private final boolean lockFreeSampleQueues;
 
   private Callback callback;
   private int pendingPrepareCount;
@@ -65,7 +66,7 @@ public final class HlsMediaPeriod implements MediaPeriod, HlsSampleStreamWrapper
 
   public HlsMediaPeriod(HlsPlaylistTracker playlistTracker, HlsDataSourceFactory dataSourceFactory,
       int minLoadableRetryCount, EventDispatcher eventDispatcher, Allocator allocator,
-      long positionUs) {
+      long positionUs, boolean lockFreeSampleQueues) {
     this.playlistTracker = playlistTracker;
     this.dataSourceFactory = dataSourceFactory;
     this.minLoadableRetryCount = minLoadableRetryCount;
@@ -75,6 +76,7 @@ public final class HlsMediaPeriod implements MediaPeriod, HlsSampleStreamWrapper
     timestampAdjusterProvider = new TimestampAdjusterProvider();
     continueLoadingHandler = new Handler();
     preparePositionUs = positionUs;
+    this.lockFreeSampleQueues = lockFreeSampleQueues;
   }
 
   public void release() {
@@ -354,7 +356,8 @@ public final class HlsMediaPeriod implements MediaPeriod, HlsSampleStreamWrapper
     HlsChunkSource defaultChunkSource = new HlsChunkSource(playlistTracker, variants,
         dataSourceFactory, timestampAdjusterProvider, muxedCaptionFormats);
     return new HlsSampleStreamWrapper(trackType, this, defaultChunkSource, allocator,
-        preparePositionUs, muxedAudioFormat, minLoadableRetryCount, eventDispatcher);
+        preparePositionUs, muxedAudioFormat, minLoadableRetryCount, eventDispatcher,
+        lockFreeSampleQueues);
   }
 
   private void continuePreparingOrLoading() {
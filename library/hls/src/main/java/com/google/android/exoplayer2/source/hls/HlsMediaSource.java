@@ -20,6 +20,7 @@ import android.os.Handler;
 
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.extractor.DefaultTrackOutput;
 import com.google.android.exoplayer2.source.AdaptiveMediaSourceEventListener;
 import com.google.android.exoplayer2.source.AdaptiveMediaSourceEventListener.EventDispatcher;
 import com.google.android.exoplayer2.source.MediaPeriod;
@@ -49,6 +50,7 @@ public final class HlsMediaSource implements MediaSource,
   private final HlsDataSourceFactory dataSourceFactory;
   private final int minLoadableRetryCount;
   private final EventDispatcher eventDispatcher;
+  private final boolean lockFreeSampleQueues;
 
   private HlsPlaylistTracker playlistTracker;
   private Listener sourceListener;
@@ -69,9 +71,29 @@ public final class HlsMediaSource implements MediaSource,
   public HlsMediaSource(Uri manifestUri, HlsDataSourceFactory dataSourceFactory,
       int minLoadableRetryCount, Handler eventHandler,
       AdaptiveMediaSourceEventListener eventListener) {
+    this(manifestUri, dataSourceFactory, minLoadableRetryCount, eventHandler, eventListener, false);
+  }
+
+  /**
+   * @param manifestUri The {@link Uri} of the HLS manifest.
+   * @param dataSourceFactory An {@link HlsDataSourceFactory} for {@link DataSource}s for manifests,
+   *     segments and keys.
+   * @param minLoadableRetryCount The minimum number of times loads must be retried before errors
+   *     are propagated.
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener An {@link AdaptiveMediaSourceEventListener}. May be null if delivery of
+   *     events is not required.
+   * @param lockFreeSampleQueues Whether the sample queues should hand samples from the loading
+   *     threads to the playback thread without locking. See
+   *     {@link DefaultTrackOutput#DefaultTrackOutput(Allocator, boolean)}.
+   */
+  public HlsMediaSource(Uri manifestUri, HlsDataSourceFactory dataSourceFactory,
+      int minLoadableRetryCount, Handler eventHandler,
+      AdaptiveMediaSourceEventListener eventListener, boolean lockFreeSampleQueues) {
     this.manifestUri = manifestUri;
     this.dataSourceFactory = dataSourceFactory;
     this.minLoadableRetryCount = minLoadableRetryCount;
+    this.lockFreeSampleQueues = lockFreeSampleQueues;
     eventDispatcher = new EventDispatcher(eventHandler, eventListener);
   }
 
@@ -93,7 +115,7 @@ public final class HlsMediaSource implements MediaSource,
   public MediaPeriod createPeriod(int index, Allocator allocator, long positionUs) {
     Assertions.checkArgument(index == 0);
     return new HlsMediaPeriod(playlistTracker, dataSourceFactory, minLoadableRetryCount,
-        eventDispatcher, allocator, positionUs);
+        eventDispatcher, allocator, positionUs, lockFreeSampleQueues);
   }
 
   @Override
@@ -80,6 +80,7 @@ import java.util.LinkedList;
   private final Allocator allocator;
   private final Format muxedAudioFormat;
   private final int minLoadableRetryCount;
+  private final boolean lockFreeSampleQueues;
   private final Loader loader;
   private final EventDispatcher eventDispatcher;
   private final HlsChunkSource.HlsChunkHolder nextChunkHolder;
@@ -117,10 +118,12 @@ import java.util.LinkedList;
    * @param minLoadableRetryCount The minimum number of times that the source should retry a load
    *     before propagating an error.
    * @param eventDispatcher A dispatcher to notify of events.
+   * @param lockFreeSampleQueues Whether the sample queues should use lock-free sample information
+   *     queues.
    */
   public HlsSampleStreamWrapper(int trackType, Callback callback, HlsChunkSource chunkSource,
       Allocator allocator, long positionUs, Format muxedAudioFormat, int minLoadableRetryCount,
-      EventDispatcher eventDispatcher) {
+      EventDispatcher eventDispatcher, boolean lockFreeSampleQueues) {
     this.trackType = trackType;
     this.callback = callback;
     this.chunkSource = chunkSource;
@@ -128,6 +131,7 @@ import java.util.LinkedList;
     this.muxedAudioFormat = muxedAudioFormat;
     this.minLoadableRetryCount = minLoadableRetryCount;
     this.eventDispatcher = eventDispatcher;
+    this.lockFreeSampleQueues = lockFreeSampleQueues;
     loader = new Loader("Loader:HlsSampleStreamWrapper");
     nextChunkHolder = new HlsChunkSource.HlsChunkHolder();
     sampleQueues = new SparseArray<>();
@@ -474,7 +478,7 @@ import java.util.LinkedList;
     if (sampleQueues.indexOfKey(id) >= 0) {
       return sampleQueues.get(id);
     }
-    DefaultTrackOutput trackOutput = new DefaultTrackOutput(allocator);
+    DefaultTrackOutput trackOutput = new DefaultTrackOutput(allocator, lockFreeSampleQueues);
     trackOutput.setUpstreamFormatChangeListener(this);
     trackOutput.sourceId(upstreamChunkUid);
     sampleQueues.put(id, trackOutput);